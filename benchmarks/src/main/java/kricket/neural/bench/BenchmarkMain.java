@@ -0,0 +1,58 @@
+package kricket.neural.bench;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks with the gc profiler, then summarize each one as: operations per
+ * second, GFLOP/s (from the {@link Flops} counter) and allocation rate.
+ * <p>Usage: <code>java -jar benchmarks.jar [regexp...]</code> (default: everything). For
+ * any other JMH options, use <code>java -cp benchmarks.jar org.openjdk.jmh.Main</code>.
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws RunnerException {
+		ChainedOptionsBuilder opts = new OptionsBuilder().addProfiler(GCProfiler.class);
+		for(String include : args)
+			opts.include(include);
+		if(args.length == 0)
+			opts.include("kricket\\.neural\\.bench\\..*");
+
+		Collection<RunResult> results = new Runner(opts.build()).run();
+
+		System.out.println();
+		System.out.println(String.format("%-50s %-24s %14s %9s %11s %10s",
+				"Benchmark", "Params", "ops/s", "GFLOP/s", "alloc MB/s", "alloc B/op"));
+		for(RunResult r : results) {
+			Map<String, Result> secondary = r.getSecondaryResults();
+			String name = r.getParams().getBenchmark().replaceFirst("^kricket\\.neural\\.bench\\.", "");
+			System.out.println(String.format("%-50s %-24s %14.1f %9s %11s %10s",
+					name, params(r), r.getPrimaryResult().getScore(),
+					format(secondary.get("flops"), 1e-9, "%.3f"),
+					format(secondary.get("gc.alloc.rate"), 1, "%.1f"),
+					format(secondary.get("gc.alloc.rate.norm"), 1, "%.1f")));
+		}
+	}
+
+	private static String params(RunResult r) {
+		StringBuilder sb = new StringBuilder();
+		for(String key : r.getParams().getParamsKeys()) {
+			if(sb.length() > 0)
+				sb.append(',');
+			sb.append(key).append('=').append(r.getParams().getParam(key));
+		}
+		return sb.toString();
+	}
+
+	private static String format(Result result, double scale, String format) {
+		return (result == null ? "-" : String.format(format, result.getScore() * scale));
+	}
+}
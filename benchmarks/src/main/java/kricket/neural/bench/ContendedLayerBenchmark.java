@@ -0,0 +1,10 @@
+package kricket.neural.bench;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * {@link LayerBenchmark}, with one thread per processor, each training its own Layer.
+ */
+@Threads(Threads.MAX)
+public class ContendedLayerBenchmark extends LayerBenchmark {
+}
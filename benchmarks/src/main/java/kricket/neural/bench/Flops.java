@@ -0,0 +1,23 @@
+package kricket.neural.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the floating-point operations done by a benchmark. JMH reports the total as a
+ * rate (a secondary result called "flops", in operations per second), which
+ * {@link BenchmarkMain} converts to GFLOP/s.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Flops {
+	public long flops;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		flops = 0;
+	}
+}
@@ -0,0 +1,82 @@
+package kricket.neural.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import kricket.neural.util.IncompatibleLayerException;
+import kricket.neural.util.Tensor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The three steps of training a single Layer, measured separately: feedForward (the
+ * training pass, which keeps its state in the Layer), backprop and applyGradients.
+ * <p>Every thread gets its own Layer, so the multi-threaded variant
+ * ({@link ContendedLayerBenchmark}) measures contention for the caches and memory
+ * bandwidth. The dimensions can be changed with JMH's -p option, e.g.
+ * <code>-p input=56x56x3 -p conv=16x3x3</code>.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+@State(Scope.Thread)
+public class LayerBenchmark {
+	@Param({"conv", "fc", "maxpool", "sigma", "relu", "flatten"})
+	public String layer;
+	/**
+	 * "mnist" for an MNIST-shaped (and mostly zero) image, or RxCxS for synthetic dense input.
+	 */
+	@Param({"mnist", "24x24x6"})
+	public String input;
+	/**
+	 * For convolutional layers: the number of kernels x rows x columns.
+	 */
+	@Param({"6x5x5"})
+	public String conv;
+	/**
+	 * For fully-connected layers.
+	 */
+	@Param({"100"})
+	public int neurons;
+
+	private LayerFixture fixture;
+	private Tensor deltas;
+
+	@Setup
+	public void setup() throws IncompatibleLayerException {
+		fixture = new LayerFixture(layer, input, conv, neurons);
+		deltas = fixture.deltas.copy();
+	}
+
+	@Benchmark
+	public Tensor feedForward() {
+		return fixture.layer.feedForward(fixture.input);
+	}
+
+	@Benchmark
+	public Tensor backprop() {
+		// Some layers (e.g. ReLU) modify the deltas in place; that's fine, since they
+		// make the same changes every time
+		return fixture.layer.backprop(deltas);
+	}
+
+	@Benchmark
+	public void applyGradients() {
+		// With a scale of 1, the gradients just flip sign each time (applyGradients scales
+		// them in place), so the weights stay where they are
+		fixture.layer.applyGradients(1, 1);
+	}
+}
@@ -0,0 +1,79 @@
+package kricket.neural.bench;
+
+import kricket.neural.cnn.ConvolutionalLayer;
+import kricket.neural.cnn.FlatteningLayer;
+import kricket.neural.cnn.FullyConnectedLayer;
+import kricket.neural.cnn.Layer;
+import kricket.neural.cnn.MaxPoolingLayer;
+import kricket.neural.cnn.ReLULayer;
+import kricket.neural.cnn.SigmaLayer;
+import kricket.neural.util.Dimension;
+import kricket.neural.util.IncompatibleLayerException;
+import kricket.neural.util.Tensor;
+
+/**
+ * A prepared Layer, with an input and output gradient to run through it.
+ */
+final class LayerFixture {
+	/**
+	 * The fraction of non-zero pixels in an MNIST image.
+	 */
+	private static final double MNIST_DENSITY = 0.19;
+
+	final Layer layer;
+	final Tensor input, deltas;
+
+	/**
+	 * @param type conv, fc, maxpool, sigma, relu or flatten.
+	 * @param shape "mnist" for a 28x28x1 image that is mostly background, or "RxCxS" for
+	 * dense random input of that size. Fully-connected layers get it flattened.
+	 * @param conv For convolutional layers: "KxRxC", K kernels of R rows and C columns.
+	 * @param neurons For fully-connected layers.
+	 * @throws IncompatibleLayerException
+	 */
+	LayerFixture(String type, String shape, String conv, int neurons) throws IncompatibleLayerException {
+		Tensor x;
+		if(shape.equals("mnist")) {
+			x = new Tensor(28, 28, 1);
+			for(int i=0; i<x.data.length; i++)
+				x.data[i] = (Math.random() < MNIST_DENSITY ? Math.random() : 0);
+		} else {
+			Shape s = Shape.parse(shape);
+			x = Tensor.random(s.rows, s.cols, s.slices);
+		}
+
+		switch(type) {
+		case "conv":
+			Shape k = Shape.parse(conv);
+			layer = new ConvolutionalLayer(k.rows, k.slices, k.cols, 1, 1);
+			break;
+		case "fc":
+			layer = new FullyConnectedLayer(neurons);
+			x = new Tensor(x.data);
+			break;
+		case "maxpool":
+			layer = new MaxPoolingLayer();
+			break;
+		case "sigma":
+			layer = new SigmaLayer();
+			break;
+		case "relu":
+			layer = new ReLULayer();
+			break;
+		case "flatten":
+			layer = new FlatteningLayer();
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown layer type " + type);
+		}
+		input = x;
+
+		Dimension out = layer.prepare(x.getDimension());
+		deltas = Tensor.random(out.rows, out.columns, out.depth);
+
+		// Fill in the state that backprop and applyGradients need
+		layer.resetGradients();
+		layer.feedForward(input);
+		layer.backprop(deltas.copy());
+	}
+}
@@ -0,0 +1,53 @@
+package kricket.neural.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import kricket.neural.util.Matrix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matrix.times, as used by {@link kricket.neural.nn.NN}: a weight matrix of the given shape
+ * (neurons x inputs) times one input (feedForward, backprop) or a batch of them
+ * (feedForwardBatch). Matrix.times allocates its result, which shows up in the gc profile.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MatrixBenchmark {
+	@Param({"30x784", "300x784", "10x30"})
+	public String shape;
+	/**
+	 * The number of inputs multiplied at once.
+	 */
+	@Param({"1", "64"})
+	public int batch;
+
+	private Matrix w, x;
+
+	@Setup
+	public void setup() {
+		Shape s = Shape.parse(shape);
+		w = Matrix.random(s.rows, s.cols);
+		x = Matrix.random(s.cols, batch);
+	}
+
+	@Benchmark
+	public Matrix times(Flops f) {
+		f.flops += 2L * w.rows * w.cols * batch;
+		return w.times(x);
+	}
+}
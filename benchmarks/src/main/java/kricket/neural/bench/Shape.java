@@ -0,0 +1,20 @@
+package kricket.neural.bench;
+
+/**
+ * Parses the "RxC" or "RxCxS" shapes used as benchmark parameters.
+ */
+final class Shape {
+	final int rows, cols, slices;
+
+	private Shape(int rows, int cols, int slices) {
+		this.rows = rows;
+		this.cols = cols;
+		this.slices = slices;
+	}
+
+	static Shape parse(String s) {
+		String[] parts = s.split("x");
+		return new Shape(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+				parts.length > 2 ? Integer.parseInt(parts[2]) : 1);
+	}
+}
@@ -0,0 +1,64 @@
+package kricket.neural.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import kricket.neural.cnn.LayerContext;
+import kricket.neural.util.IncompatibleLayerException;
+import kricket.neural.util.Tensor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Inference on one Layer shared by all threads, each with its own {@link LayerContext}:
+ * the way concurrent evaluation and serving use a network.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class SharedLayerBenchmark {
+	@Param({"conv", "fc", "maxpool", "sigma", "relu", "flatten"})
+	public String layer;
+	@Param({"mnist", "24x24x6"})
+	public String input;
+	@Param({"6x5x5"})
+	public String conv;
+	@Param({"100"})
+	public int neurons;
+
+	private LayerFixture fixture;
+
+	@Setup
+	public void setup() throws IncompatibleLayerException {
+		fixture = new LayerFixture(layer, input, conv, neurons);
+	}
+
+	@State(Scope.Thread)
+	public static class Context {
+		LayerContext ctx;
+
+		@Setup
+		public void setup(SharedLayerBenchmark b) {
+			ctx = b.fixture.layer.newContext();
+		}
+	}
+
+	@Benchmark
+	public Tensor feedForward(Context c) {
+		return fixture.layer.feedForward(fixture.input, c.ctx);
+	}
+}
@@ -0,0 +1,76 @@
+package kricket.neural.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import kricket.neural.util.SubTensor;
+import kricket.neural.util.Tensor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The SubTensor kernels used by {@link kricket.neural.cnn.ConvolutionalLayer}, for one
+ * kernel position in the middle of an input:
+ * <ul>
+ * <li>innerProduct: the forward pass (one output pixel)
+ * <li>plusEqualsTimes: the input gradient (the kernel, scaled, added to the input region)
+ * <li>tensorPlusEqualsTimes: the kernel gradient (the input region, scaled, added to the kernel)
+ * </ul>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SubTensorBenchmark {
+	/**
+	 * input:kernel. The first conv layer on an MNIST image, and a deeper one on its feature maps.
+	 */
+	@Param({"28x28x1:5x5x1", "12x12x6:4x4x6", "12x12x16:3x3x16"})
+	public String shapes;
+
+	private SubTensor region;
+	private Tensor kernel, dK;
+	private long size;
+
+	@Setup
+	public void setup() {
+		String[] parts = shapes.split(":");
+		Shape in = Shape.parse(parts[0]), k = Shape.parse(parts[1]);
+		Tensor input = Tensor.random(in.rows, in.cols, in.slices);
+		region = new SubTensor(input, (in.rows - k.rows) / 2, (in.cols - k.cols) / 2, 0, k.rows, k.cols, k.slices);
+		kernel = Tensor.random(k.rows, k.cols, k.slices);
+		dK = new Tensor(k.rows, k.cols, k.slices);
+		size = (long) k.rows * k.cols * k.slices;
+	}
+
+	@Benchmark
+	public double innerProduct(Flops f) {
+		f.flops += 2 * size;
+		return region.innerProduct(kernel);
+	}
+
+	@Benchmark
+	public SubTensor plusEqualsTimes(Flops f) {
+		f.flops += 2 * size;
+		region.plusEqualsTimes(kernel, 1e-9);
+		return region;
+	}
+
+	@Benchmark
+	public Tensor tensorPlusEqualsTimes(Flops f) {
+		f.flops += 2 * size;
+		dK.plusEqualsTimes(region, 1e-9);
+		return dK;
+	}
+}
@@ -0,0 +1,94 @@
+package kricket.neural.bench;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import kricket.neural.util.Tensor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Tensor kernels used by {@link kricket.neural.cnn.FullyConnectedLayer}, for a
+ * weight matrix of the given shape (neurons x inputs):
+ * <ul>
+ * <li>times: the forward pass, W * x
+ * <li>timesTranspose: the weight gradient, d * x^T
+ * <li>transposeTimes: the input gradient, W^T * d
+ * <li>plusEquals, dotTimesEquals: elementwise updates of the whole matrix
+ * </ul>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TensorBenchmark {
+	/**
+	 * MNIST into a small and a large hidden layer, a hidden layer into the output, and a
+	 * square layer.
+	 */
+	@Param({"30x784", "300x784", "10x30", "256x256"})
+	public String shape;
+
+	private Tensor w, other, ones, x, d, y, dW, wTd;
+	private long size;
+
+	@Setup
+	public void setup() {
+		Shape s = Shape.parse(shape);
+		w = Tensor.random(s.rows, s.cols, 1);
+		other = Tensor.random(s.rows, s.cols, 1);
+		ones = new Tensor(s.rows, s.cols, 1);
+		Arrays.fill(ones.data, 1);
+		x = Tensor.random(s.cols, 1, 1);
+		d = Tensor.random(s.rows, 1, 1);
+		y = new Tensor(s.rows, 1, 1);
+		dW = new Tensor(s.rows, s.cols, 1);
+		wTd = new Tensor(s.cols, 1, 1);
+		size = (long) s.rows * s.cols;
+	}
+
+	@Benchmark
+	public Tensor times(Flops f) {
+		f.flops += 2 * size;
+		return w.times(x, y);
+	}
+
+	@Benchmark
+	public Tensor timesTranspose(Flops f) {
+		f.flops += size;
+		return d.timesTranspose(x, dW);
+	}
+
+	@Benchmark
+	public Tensor transposeTimes(Flops f) {
+		f.flops += 2 * size;
+		return w.transposeTimes(d, wTd);
+	}
+
+	@Benchmark
+	public Tensor plusEquals(Flops f) {
+		f.flops += size;
+		return dW.plusEquals(other);
+	}
+
+	@Benchmark
+	public Tensor dotTimesEquals(Flops f) {
+		f.flops += size;
+		// Repeatedly multiplying by values in (-1, 1) would soon underflow to (much slower)
+		// subnormals, so multiply by ones instead: the JIT can't know that they are
+		w.dotTimesEquals(ones);
+		return w;
+	}
+}
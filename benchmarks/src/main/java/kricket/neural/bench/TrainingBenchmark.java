@@ -0,0 +1,290 @@
+package kricket.neural.bench;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import kricket.neural.NNBase;
+import kricket.neural.cnn.CNN;
+import kricket.neural.cnn.ConvolutionalLayer;
+import kricket.neural.cnn.FlatteningLayer;
+import kricket.neural.cnn.FullyConnectedLayer;
+import kricket.neural.cnn.ReLULayer;
+import kricket.neural.cnn.SigmaLayer;
+import kricket.neural.mnist.Image;
+import kricket.neural.nn.NN;
+import kricket.neural.util.Datum;
+import kricket.neural.util.Dimension;
+import kricket.neural.util.IncompatibleLayerException;
+import kricket.neural.util.NNOptions;
+import kricket.neural.util.SyntheticData;
+
+/**
+ * End-to-end training benchmark: trains reference networks on synthetic MNIST-shaped data
+ * for a fixed number of batches per epoch, and records
+ * <ul>
+ * <li>samplesPerSecond: training throughput (evaluation isn't timed)
+ * <li>samplesToAccuracy: the number of samples trained on until the test accuracy first
+ * reached the target (-1 if it never did), checked every few batches
+ * <li>secondsToAccuracy: how long those samples take at samplesPerSecond (timing just
+ * the first few batches would mostly measure the JIT)
+ * <li>retainedHeapBytes: the most heap still in use after a GC, at any of the accuracy
+ * checks, less what was in use before the network was made (mostly the data)
+ * <li>allocatedBytes: the bytes allocated by the training thread
+ * <li>finalAccuracy: for information only
+ * </ul>
+ * The data and the initial weights are seeded (and the data isn't shuffled), so every run
+ * trains the same way: samplesToAccuracy only changes if the training does.
+ * <p>The results are written as JSON. Given a baseline (a results file from an earlier run
+ * on the same machine), any metric that is worse by more than the threshold is reported,
+ * and the exit code is 1.
+ * <p>Usage: <code>java -cp benchmarks.jar kricket.neural.bench.TrainingBenchmark
+ * results.json [baseline.json [threshold]]</code>, with -Dbatches=N, -Depochs=N,
+ * -DcheckEvery=N (batches) and -Dtarget=accuracy to change the run.
+ */
+public class TrainingBenchmark {
+	private static final int BATCH_SIZE = 10, TEST_SIZE = 1000, WARMUP_BATCHES = 50;
+	private static final double DEFAULT_THRESHOLD = 0.15;
+	private static final long SEED = 42;
+	/**
+	 * The most GCs to run to measure the retained heap.
+	 */
+	private static final int MAX_GCS = 5;
+	/**
+	 * How far (in pixels) each synthetic digit may be from where its class's stroke is.
+	 */
+	private static final int STROKE_SHIFT = 2;
+
+	/**
+	 * A network to train, and how.
+	 */
+	private static abstract class Reference {
+		final String name;
+		final double eta, lambda;
+
+		Reference(String name, double eta, double lambda) {
+			this.name = name;
+			this.eta = eta;
+			this.lambda = lambda;
+		}
+
+		abstract NNBase create(NNOptions opts) throws IncompatibleLayerException;
+	}
+
+	private static final Reference[] REFERENCES = {
+		new Reference("nn-784-30-10", 0.5, 0) {
+			@Override
+			NNBase create(NNOptions opts) {
+				return new NN(opts, Image.WIDTH * Image.HEIGHT, 30, 10);
+			}
+		},
+		// CNNPlayground.simpleConv: the 2x2, step-2 convolution is its pooling stage
+		new Reference("cnn-conv-pool-fc", 0.25, 0) {
+			@Override
+			NNBase create(NNOptions opts) throws IncompatibleLayerException {
+				return new CNN(opts, new Dimension(Image.HEIGHT, Image.WIDTH, 1),
+						new ConvolutionalLayer(6, 5, 5, 2, 2),
+						new ReLULayer(),
+						new ConvolutionalLayer(6, 2, 2, 2, 2),
+						new SigmaLayer(),
+						new ConvolutionalLayer(16, 4, 4, 2, 2),
+						new FlatteningLayer(),
+						new FullyConnectedLayer(30),
+						new SigmaLayer(),
+						new FullyConnectedLayer(10));
+			}
+		}
+	};
+
+	/**
+	 * The metrics, and whether higher is better.
+	 */
+	private static final String[] METRICS = {"samplesPerSecond", "samplesToAccuracy", "secondsToAccuracy", "retainedHeapBytes", "allocatedBytes"};
+	private static final boolean[] HIGHER_IS_BETTER = {true, false, false, false, false};
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 1) {
+			System.err.println("Usage: TrainingBenchmark results.json [baseline.json [threshold]]");
+			System.exit(2);
+		}
+		int batches = Integer.getInteger("batches", 500);
+		int epochs = Integer.getInteger("epochs", 5);
+		int checkEvery = Integer.getInteger("checkEvery", 50);
+		double target = Double.parseDouble(System.getProperty("target", "0.9"));
+
+		Map<String, Map<String, Double>> results = new LinkedHashMap<>();
+		for(Reference ref : REFERENCES) {
+			Map<String, Double> r = run(ref, batches, epochs, checkEvery, target);
+			results.put(ref.name, r);
+			System.out.println(ref.name + ": " + r);
+		}
+		Files.write(Paths.get(args[0]), toJson(results).getBytes(StandardCharsets.UTF_8));
+
+		if(args.length >= 2) {
+			double threshold = (args.length >= 3 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD);
+			List<String> regressions = compare(parse(Paths.get(args[1])), results, threshold);
+			for(String s : regressions)
+				System.out.println("REGRESSION: " + s);
+			if(!regressions.isEmpty())
+				System.exit(1);
+			System.out.println("No regressions beyond " + (threshold * 100) + "%");
+		}
+	}
+
+	private static Map<String, Double> run(Reference ref, int batches, int epochs, int checkEvery, double target)
+			throws IncompatibleLayerException {
+		NNOptions opts = new NNOptions();
+		opts.calcErrorsAfterEpochs = false;
+		opts.logEpochs = false;
+		opts.summarizeSGD = false;
+		opts.logDimensions = false;
+
+		// The same classes, but different images. They're generated on demand, so make them
+		// all now, rather than timing it.
+		SyntheticData all = new SyntheticData(new Dimension(Image.HEIGHT, Image.WIDTH, 1), 10, batches * BATCH_SIZE + TEST_SIZE, SEED)
+				.withStrokes(STROKE_SHIFT).withDensity(0.9).withSeparability(0.6);
+		List<Datum> training = new ArrayList<>(all.subList(0, batches * BATCH_SIZE));
+		List<Datum> test = new ArrayList<>(all.subList(training.size(), all.size()));
+
+		// Warm up the JIT on a throwaway network
+		ref.create(opts).SGD(training.subList(0, WARMUP_BATCHES * BATCH_SIZE), BATCH_SIZE, 1, ref.eta, ref.lambda);
+
+		// What the data (and everything else but the network) keeps live
+		long dataHeap = retainedHeap();
+		NNBase net = ref.create(opts);
+		net.randomizeParameters(SEED);
+
+		long trainingNanos = 0, allocated = 0, retained = 0;
+		long samples = 0, samplesToAccuracy = -1;
+		int chunk = checkEvery * BATCH_SIZE;
+		for(int e=0; e<epochs; e++) {
+			// Without shuffling (or regularization), an epoch run in chunks is the same as one run at once
+			for(int from=0; from<training.size(); from+=chunk) {
+				List<Datum> part = training.subList(from, Math.min(from + chunk, training.size()));
+				long allocStart = allocatedBytes(), start = System.nanoTime();
+				net.SGD(part, BATCH_SIZE, 1, ref.eta, ref.lambda);
+				trainingNanos += System.nanoTime() - start;
+				allocated += allocatedBytes() - allocStart;
+
+				samples += part.size();
+				// Neither the GC nor the evaluation is timed
+				retained = Math.max(retained, retainedHeap() - dataHeap);
+				if(samplesToAccuracy < 0 && net.evaluate(test).getAccuracy() >= target)
+					samplesToAccuracy = samples;
+			}
+		}
+		double accuracy = net.evaluate(test).getAccuracy();
+
+		Map<String, Double> r = new LinkedHashMap<>();
+		double samplesPerSecond = samples / (trainingNanos * 1e-9);
+		r.put("samplesPerSecond", samplesPerSecond);
+		r.put("samplesToAccuracy", (double) samplesToAccuracy);
+		r.put("secondsToAccuracy", samplesToAccuracy < 0 ? -1 : samplesToAccuracy / samplesPerSecond);
+		r.put("retainedHeapBytes", (double) retained);
+		r.put("allocatedBytes", (double) allocated);
+		r.put("finalAccuracy", accuracy);
+		return r;
+	}
+
+	/**
+	 * The heap in use after a full GC: what is still reachable. One GC can leave garbage
+	 * behind (e.g. what finalization or reference processing frees), so collect until the
+	 * heap stops shrinking.
+	 */
+	private static long retainedHeap() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long used = Long.MAX_VALUE;
+		for(int i=0; i<MAX_GCS; i++) {
+			System.gc();
+			long now = memory.getHeapMemoryUsage().getUsed();
+			if(now >= used)
+				break;
+			used = now;
+		}
+		return used;
+	}
+
+	/**
+	 * The bytes allocated so far by this thread (0 if the JVM can't tell us).
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(threads instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return 0;
+	}
+
+	/**
+	 * @return A description of each metric that got worse by more than the threshold.
+	 */
+	static List<String> compare(Map<String, Map<String, Double>> baseline, Map<String, Map<String, Double>> results, double threshold) {
+		List<String> regressions = new ArrayList<>();
+		for(Map.Entry<String, Map<String, Double>> e : results.entrySet()) {
+			Map<String, Double> base = baseline.get(e.getKey());
+			if(base == null)
+				continue;
+			for(int m=0; m<METRICS.length; m++) {
+				Double before = base.get(METRICS[m]), after = e.getValue().get(METRICS[m]);
+				if(before == null || after == null)
+					continue;
+				boolean worse;
+				if(METRICS[m].endsWith("ToAccuracy") && (before < 0 || after < 0))
+					// -1 = never got there
+					worse = (before >= 0 && after < 0);
+				else if(HIGHER_IS_BETTER[m])
+					worse = after < before * (1 - threshold);
+				else
+					worse = after > before * (1 + threshold);
+				if(worse)
+					regressions.add(String.format(Locale.ROOT, "%s %s: %.4g -> %.4g", e.getKey(), METRICS[m], before, after));
+			}
+		}
+		return regressions;
+	}
+
+	static String toJson(Map<String, Map<String, Double>> results) {
+		StringBuilder sb = new StringBuilder("{\n");
+		int i = 0;
+		for(Map.Entry<String, Map<String, Double>> e : results.entrySet()) {
+			sb.append("  \"").append(e.getKey()).append("\": {\n");
+			int j = 0;
+			for(Map.Entry<String, Double> m : e.getValue().entrySet()) {
+				sb.append("    \"").append(m.getKey()).append("\": ").append(String.format(Locale.ROOT, "%.6g", m.getValue()));
+				sb.append(++j < e.getValue().size() ? ",\n" : "\n");
+			}
+			sb.append(++i < results.size() ? "  },\n" : "  }\n");
+		}
+		return sb.append("}\n").toString();
+	}
+
+	private static final Pattern OBJECT = Pattern.compile("\"([^\"]+)\"\\s*:\\s*\\{([^}]*)\\}"),
+			NUMBER = Pattern.compile("\"([^\"]+)\"\\s*:\\s*(-?[0-9.]+(?:[eE][-+]?[0-9]+)?)");
+
+	/**
+	 * Read a file written by {@link #toJson(Map)}.
+	 */
+	static Map<String, Map<String, Double>> parse(Path file) throws IOException {
+		String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+		Map<String, Map<String, Double>> results = new LinkedHashMap<>();
+		Matcher o = OBJECT.matcher(json);
+		while(o.find()) {
+			Map<String, Double> metrics = new LinkedHashMap<>();
+			Matcher n = NUMBER.matcher(o.group(2));
+			while(n.find())
+				metrics.put(n.group(1), Double.parseDouble(n.group(2)));
+			results.put(o.group(1), metrics);
+		}
+		return results;
+	}
+}
@@ -0,0 +1,36 @@
+package kricket.neural.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("kricket.neural.Batch")
+@Label("Training Batch")
+@Description("A mini-batch of SGD: the forward and backward passes, and applying the gradients")
+@Category({"Neural Network", "Training"})
+@StackTrace(false)
+class BatchEvent extends jdk.jfr.Event {
+	@Label("Epoch")
+	int epoch;
+
+	@Label("Batch Size")
+	int size;
+
+	@Label("Samples per Second")
+	double samplesPerSecond;
+
+	@Label("Running Loss")
+	@Description("The average cost of the forward passes made during the epoch so far")
+	double loss;
+
+	@Label("Running Accuracy")
+	double accuracy;
+
+	@Label("Allocated")
+	@Description("The bytes allocated by the training thread during the batch")
+	@DataAmount
+	long allocated;
+}
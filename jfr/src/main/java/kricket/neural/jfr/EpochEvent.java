@@ -0,0 +1,30 @@
+package kricket.neural.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("kricket.neural.Epoch")
+@Label("Training Epoch")
+@Description("An epoch of SGD")
+@Category({"Neural Network", "Training"})
+@StackTrace(false)
+class EpochEvent extends jdk.jfr.Event {
+	@Label("Epoch")
+	int epoch;
+
+	@Label("Samples")
+	int samples;
+
+	@Label("Samples per Second")
+	double samplesPerSecond;
+
+	@Label("Running Loss")
+	@Description("The average cost of the forward passes made during the epoch")
+	double loss;
+
+	@Label("Running Accuracy")
+	double accuracy;
+}
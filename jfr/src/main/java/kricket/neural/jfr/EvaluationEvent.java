@@ -0,0 +1,24 @@
+package kricket.neural.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("kricket.neural.Evaluation")
+@Label("Evaluation")
+@Category({"Neural Network", "Inference"})
+@StackTrace(false)
+class EvaluationEvent extends jdk.jfr.Event {
+	@Label("Samples")
+	int samples;
+
+	@Label("Samples per Second")
+	double samplesPerSecond;
+
+	@Label("Loss")
+	double loss;
+
+	@Label("Accuracy")
+	double accuracy;
+}
@@ -0,0 +1,258 @@
+package kricket.neural.jfr;
+
+import java.lang.management.ManagementFactory;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import kricket.neural.Evaluation;
+import kricket.neural.NNBase;
+import kricket.neural.TrainingListener;
+import kricket.neural.cnn.CNN;
+import kricket.neural.cnn.Layer;
+import kricket.neural.cnn.LayerListener;
+import kricket.neural.serve.BatchingPredictor;
+
+/**
+ * Turns the progress of training and inference into Java Flight Recorder events, which
+ * JFR then lines up with its own GC, CPU and allocation events:
+ * <ul>
+ * <li>kricket.neural.Epoch and kricket.neural.Batch, for SGD
+ * <li>kricket.neural.Evaluation, for {@link NNBase#evaluate}
+ * <li>kricket.neural.Layer, for each layer operation of a CNN (off by default, since there
+ * are several per sample). The CNN only times its layers while a recording has this
+ * event enabled (checked whenever a recording starts or stops).
+ * <li>kricket.neural.InferenceBatch, for each batch of a {@link BatchingPredictor}
+ * </ul>
+ * When no recording is running (or an event is disabled), the events are never filled in.
+ * <p>The epoch, batch and evaluation events are kept between their start and end, so
+ * use one listener per network. It is added alongside the network's other listeners
+ * (e.g. Telemetry).
+ */
+public class FlightRecorderListener implements TrainingListener, LayerListener, BatchingPredictor.BatchListener {
+
+	private final String[] layerTypes;
+	private EpochEvent epoch;
+	private BatchEvent batch;
+	private EvaluationEvent evaluation;
+	private long epochSamples, epochStart, batchStart, evaluationStart, allocationStart;
+	/**
+	 * The CNN whose layers we time while the Layer event is enabled, and how we find out.
+	 */
+	private CNN cnn;
+	private jdk.jfr.FlightRecorderListener recordings;
+	private boolean timingLayers;
+
+	/**
+	 * @param layers The layers of the CNN this will listen to, for the layer events (may be empty).
+	 */
+	public FlightRecorderListener(Layer... layers) {
+		layerTypes = new String[layers.length];
+		for(int i=0; i<layers.length; i++)
+			layerTypes[i] = layers[i].getClass().getSimpleName();
+	}
+
+	/**
+	 * Emit events for the training and evaluation of the given network (and its layers,
+	 * if it's a CNN).
+	 * @param net
+	 * @return The new listener.
+	 */
+	public static FlightRecorderListener install(NNBase net) {
+		FlightRecorderListener listener;
+		if(net instanceof CNN) {
+			listener = new FlightRecorderListener(((CNN) net).getLayers());
+			listener.watchLayerEvent((CNN) net);
+		} else {
+			listener = new FlightRecorderListener();
+		}
+		net.addTrainingListener(listener);
+		return listener;
+	}
+
+	/**
+	 * Stop emitting events for the given network (on which this was installed).
+	 * @param net
+	 */
+	public void uninstall(NNBase net) {
+		net.removeTrainingListener(this);
+		if(recordings != null) {
+			FlightRecorder.removeListener(recordings);
+			synchronized(this) {
+				if(timingLayers)
+					cnn.removeLayerListener(this);
+				timingLayers = false;
+			}
+		}
+	}
+
+	/**
+	 * Time the layers of the given CNN only while the Layer event is enabled: the timing
+	 * itself costs two System.nanoTime() calls per layer per sample.
+	 */
+	private void watchLayerEvent(CNN cnn) {
+		this.cnn = cnn;
+		recordings = new jdk.jfr.FlightRecorderListener() {
+			@Override
+			public void recordingStateChanged(Recording recording) {
+				updateLayerListener();
+			}
+		};
+		FlightRecorder.addListener(recordings);
+		updateLayerListener();
+	}
+
+	private synchronized void updateLayerListener() {
+		boolean enabled = new LayerEvent().isEnabled();
+		if(enabled && !timingLayers)
+			cnn.addLayerListener(this);
+		else if(!enabled && timingLayers)
+			cnn.removeLayerListener(this);
+		timingLayers = enabled;
+	}
+
+	/**
+	 * Emit events for the batches of the given predictor.
+	 * @param predictor
+	 * @return The new listener.
+	 */
+	public static FlightRecorderListener install(BatchingPredictor predictor) {
+		FlightRecorderListener listener = new FlightRecorderListener();
+		predictor.setBatchListener(listener);
+		return listener;
+	}
+
+	@Override
+	public void sgdStarted(int size, int batchSize, int epochs, double eta, double lambda) {
+		// Nothing to record until the first epoch starts
+	}
+
+	@Override
+	public void epochStarted(int epoch) {
+		EpochEvent e = new EpochEvent();
+		if(e.isEnabled()) {
+			e.epoch = epoch;
+			epochStart = System.nanoTime();
+			e.begin();
+			this.epoch = e;
+		}
+		epochSamples = 0;
+	}
+
+	@Override
+	public void epochDone(int epoch, Evaluation running) {
+		EpochEvent e = this.epoch;
+		this.epoch = null;
+		if(e == null)
+			return;
+		e.end();
+		if(e.shouldCommit()) {
+			e.samples = (int) epochSamples;
+			e.samplesPerSecond = perSecond(epochSamples, epochStart);
+			if(running != null) {
+				e.loss = running.getLoss();
+				e.accuracy = running.getAccuracy();
+			}
+			e.commit();
+		}
+	}
+
+	@Override
+	public void batchStarted(int epoch, int size) {
+		epochSamples += size;
+		BatchEvent e = new BatchEvent();
+		if(e.isEnabled()) {
+			e.epoch = epoch;
+			e.size = size;
+			allocationStart = allocatedBytes();
+			batchStart = System.nanoTime();
+			e.begin();
+			batch = e;
+		}
+	}
+
+	@Override
+	public void batchDone(int epoch, int size, Evaluation running) {
+		BatchEvent e = batch;
+		batch = null;
+		if(e == null)
+			return;
+		e.end();
+		if(e.shouldCommit()) {
+			e.samplesPerSecond = perSecond(size, batchStart);
+			e.allocated = allocatedBytes() - allocationStart;
+			if(running != null) {
+				e.loss = running.getLoss();
+				e.accuracy = running.getAccuracy();
+			}
+			e.commit();
+		}
+	}
+
+	@Override
+	public void evaluationStarted(int size) {
+		EvaluationEvent e = new EvaluationEvent();
+		if(e.isEnabled()) {
+			e.samples = size;
+			evaluationStart = System.nanoTime();
+			e.begin();
+			evaluation = e;
+		}
+	}
+
+	@Override
+	public void evaluationDone(Evaluation result) {
+		EvaluationEvent e = evaluation;
+		evaluation = null;
+		if(e == null)
+			return;
+		e.end();
+		if(e.shouldCommit()) {
+			e.samplesPerSecond = perSecond(e.samples, evaluationStart);
+			e.loss = result.getLoss();
+			e.accuracy = result.getAccuracy();
+			e.commit();
+		}
+	}
+
+	@Override
+	public void layerDone(int layer, Phase phase, long nanos) {
+		LayerEvent e = new LayerEvent();
+		if(e.isEnabled()) {
+			e.layer = layer;
+			e.type = (layer < layerTypes.length ? layerTypes[layer] : null);
+			e.phase = phase.name();
+			e.time = nanos;
+			e.commit();
+		}
+	}
+
+	@Override
+	public void batchDone(int size, long nanos, long waitNanos) {
+		InferenceBatchEvent e = new InferenceBatchEvent();
+		if(e.isEnabled()) {
+			e.size = size;
+			e.time = nanos;
+			e.wait = waitNanos;
+			e.samplesPerSecond = size * 1e9 / Math.max(1, nanos);
+			e.commit();
+		}
+	}
+
+	/**
+	 * The rate since the given System.nanoTime() (the events only know their duration in
+	 * JFR's own ticks).
+	 */
+	private static double perSecond(long samples, long start) {
+		return samples * 1e9 / Math.max(1, System.nanoTime() - start);
+	}
+
+	/**
+	 * The bytes allocated so far by this thread (0 if the JVM can't tell us).
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(threads instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return 0;
+	}
+}
@@ -0,0 +1,30 @@
+package kricket.neural.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("kricket.neural.InferenceBatch")
+@Label("Inference Batch")
+@Description("A micro-batch run by a BatchingPredictor")
+@Category({"Neural Network", "Inference"})
+@StackTrace(false)
+class InferenceBatchEvent extends jdk.jfr.Event {
+	@Label("Batch Size")
+	int size;
+
+	@Label("Time")
+	@Timespan
+	long time;
+
+	@Label("Queue Wait")
+	@Description("How long the first request of the batch waited before it was run")
+	@Timespan
+	long wait;
+
+	@Label("Samples per Second")
+	double samplesPerSecond;
+}
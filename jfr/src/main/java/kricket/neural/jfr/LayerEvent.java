@@ -0,0 +1,33 @@
+package kricket.neural.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * One per layer per sample, so this is off unless it is enabled in the recording settings.
+ */
+@Name("kricket.neural.Layer")
+@Label("Layer Operation")
+@Description("A single feedForward, backprop or applyGradients call of a CNN layer")
+@Category({"Neural Network", "Layers"})
+@Enabled(false)
+@StackTrace(false)
+class LayerEvent extends jdk.jfr.Event {
+	@Label("Layer")
+	int layer;
+
+	@Label("Type")
+	String type;
+
+	@Label("Phase")
+	String phase;
+
+	@Label("Time")
+	@Timespan
+	long time;
+}
@@ -0,0 +1,99 @@
+package kricket.neural.jfr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import kricket.neural.cnn.CNN;
+import kricket.neural.cnn.FlatteningLayer;
+import kricket.neural.cnn.FullyConnectedLayer;
+import kricket.neural.serve.BatchingPredictor;
+import kricket.neural.telemetry.RingBufferSink;
+import kricket.neural.telemetry.Telemetry;
+import kricket.neural.util.Dimension;
+import kricket.neural.util.NNOptions;
+import kricket.neural.util.SyntheticData;
+
+import org.junit.Test;
+
+public class FlightRecorderListenerTest {
+
+	private NNOptions getOpts() {
+		NNOptions opts = new NNOptions();
+		opts.calcErrorsAfterEpochs = false;
+		opts.logEpochs = false;
+		opts.summarizeSGD = false;
+		opts.logDimensions = false;
+		return opts;
+	}
+
+	@Test
+	public void emitsEventsWhileRecording() throws Exception {
+		SyntheticData data = new SyntheticData(new Dimension(4, 4, 1), 3, 30, 1);
+		CNN cnn = new CNN(getOpts(), data.getDimension(), new FlatteningLayer(), new FullyConnectedLayer(3));
+		FlightRecorderListener jfr = FlightRecorderListener.install(cnn);
+		// Alongside Telemetry
+		RingBufferSink telemetry = new RingBufferSink(100);
+		Telemetry t = Telemetry.install(cnn, telemetry);
+		BatchingPredictor predictor = new BatchingPredictor(cnn.compile(), 4, 100, 1);
+		FlightRecorderListener.install(predictor);
+
+		// Nothing happens without a recording, and the layers aren't even timed
+		assertNull(cnn.getLayerListener());
+		cnn.SGD(data, 10, 1, 1, 0);
+
+		File file = File.createTempFile("training", ".jfr");
+		file.deleteOnExit();
+		try(Recording r = new Recording()) {
+			r.enable("kricket.neural.Epoch");
+			r.enable("kricket.neural.Batch");
+			r.enable("kricket.neural.Evaluation");
+			r.enable("kricket.neural.Layer");
+			r.enable("kricket.neural.InferenceBatch");
+			r.start();
+			assertSame(jfr, cnn.getLayerListener());
+			cnn.SGD(data, 10, 2, 1, 0);
+			cnn.evaluate(data);
+			predictor.predict(data.get(0).getDataTensor().data);
+			r.stop();
+			assertNull(cnn.getLayerListener());
+			r.dump(file.toPath());
+		} finally {
+			predictor.shutdown();
+		}
+		t.close();
+		// 2 SGD starts, 3 epochs of 3 batches, and the evaluation
+		assertEquals(2 + 3*3 + 3 + 1, telemetry.getTotal());
+		jfr.uninstall(cnn);
+		assertSame(t, cnn.getTrainingListener());
+
+		List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+		Map<String, Integer> counts = new HashMap<>();
+		for(RecordedEvent e : events)
+			counts.merge(e.getEventType().getName(), 1, Integer::sum);
+		assertEquals(2, (int) counts.get("kricket.neural.Epoch"));
+		assertEquals(6, (int) counts.get("kricket.neural.Batch"));
+		assertEquals(1, (int) counts.get("kricket.neural.Evaluation"));
+		assertEquals(1, (int) counts.get("kricket.neural.InferenceBatch"));
+		// Training: 3 layers forward and 2 backward per sample, and 3 gradient updates per
+		// batch; evaluation: 3 layers forward per sample
+		assertEquals(60*5 + 6*3 + 30*3, (int) counts.get("kricket.neural.Layer"));
+
+		for(RecordedEvent e : events) {
+			if(e.getEventType().getName().equals("kricket.neural.Batch")) {
+				assertEquals(10, e.getInt("size"));
+				assertTrue(e.getDouble("samplesPerSecond") > 0);
+				assertTrue(e.getDouble("loss") > 0);
+			}
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package kricket.neural;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import kricket.neural.util.ModelFile;
+
+/**
+ * A snapshot of a network part-way through SGD: its parameters, its optimizer state, and
+ * the position in the training run. Stored as a {@link ModelFile} of kind
+ * {@link ModelFile.Kind#CHECKPOINT}.
+ */
+public class Checkpoint {
+	/**
+	 * The value of the network's epoch counter at the start of the epoch to resume
+	 * (which determines its shuffle).
+	 */
+	public final long epochsRun;
+	/**
+	 * The number of epochs of the SGD call that were completed.
+	 */
+	public final int epoch;
+	/**
+	 * The index (in the epoch's order) of the first Datum of the next batch.
+	 */
+	public final int batchStart;
+	/**
+	 * The batch size and the size of the training set, which must be the same on resume.
+	 */
+	public final int batchSize, dataSize;
+
+	private final double[][] parameters, optimizerState;
+	private final boolean pruned;
+
+	private Checkpoint(long epochsRun, int epoch, int batchStart, int batchSize, int dataSize,
+			double[][] parameters, double[][] optimizerState, boolean pruned) {
+		this.epochsRun = epochsRun;
+		this.epoch = epoch;
+		this.batchStart = batchStart;
+		this.batchSize = batchSize;
+		this.dataSize = dataSize;
+		this.parameters = parameters;
+		this.optimizerState = optimizerState;
+		this.pruned = pruned;
+	}
+
+	/**
+	 * Copy the current state of the given network. This is the only part of checkpointing
+	 * that has to happen on the training thread; the copy can then be written at leisure.
+	 */
+	static Checkpoint snapshot(NNBase net, long epochsRun, int epoch, int batchStart, int batchSize, int dataSize) {
+		return new Checkpoint(epochsRun, epoch, batchStart, batchSize, dataSize,
+				copy(net.getParameterArrays()), copy(net.getOptimizerStateArrays()), net.isPruned());
+	}
+
+	private static double[][] copy(double[][] arrays) {
+		double[][] copy = new double[arrays.length][];
+		for(int i=0; i<arrays.length; i++)
+			copy[i] = arrays[i].clone();
+		return copy;
+	}
+
+	/**
+	 * Write this checkpoint to a temporary file, then move it over the given file, so that
+	 * the file always holds a complete checkpoint.
+	 * @param filename
+	 * @throws IOException
+	 */
+	void write(String filename) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream position = new DataOutputStream(bytes);
+		position.writeLong(epochsRun);
+		position.writeInt(epoch);
+		position.writeInt(batchStart);
+		position.writeInt(batchSize);
+		position.writeInt(dataSize);
+		position.close();
+
+		Path target = Paths.get(filename);
+		Path tmp = Paths.get(filename + ".tmp");
+		ModelFile.write(tmp.toString(), ModelFile.Kind.CHECKPOINT, bytes.toByteArray(), parameters,
+				optimizerState.length == 0 ? null : optimizerState, pruned);
+		Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Load the parameters and optimizer state in the given checkpoint into the given
+	 * network (which must have the same architecture as the one that was saved).
+	 * @param filename
+	 * @param net
+	 * @param batchSize The batch size that SGD will resume with.
+	 * @param dataSize The size of the training set that SGD will resume with.
+	 * @return The training position (without the parameters).
+	 * @throws IOException
+	 * @throws IllegalArgumentException if the batch size or training set size don't match.
+	 */
+	static Checkpoint restore(String filename, NNBase net, int batchSize, int dataSize) throws IOException {
+		ModelFile file = ModelFile.open(filename, ModelFile.Kind.CHECKPOINT);
+		DataInputStream position = file.getArchitecture();
+		Checkpoint cp = new Checkpoint(position.readLong(), position.readInt(), position.readInt(),
+				position.readInt(), position.readInt(), null, null, file.isPruned());
+		if(cp.batchSize != batchSize || cp.dataSize != dataSize)
+			throw new IllegalArgumentException("The checkpoint was made with " + cp.dataSize
+					+ " data in batches of " + cp.batchSize + ", not " + dataSize + " in batches of " + batchSize);
+		file.readParameters(net.getParameterArrays());
+		file.readOptimizerState(net.getOptimizerStateArrays());
+		if(cp.pruned)
+			net.pruneZeros();
+		return cp;
+	}
+
+	@Override
+	public String toString() {
+		return "epoch " + epoch + ", datum " + batchStart + " of " + dataSize;
+	}
+}
@@ -0,0 +1,90 @@
+package kricket.neural;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes {@link Checkpoint}s on a background thread, so that SGD only pays for copying
+ * the parameters. At most one write is in progress at a time.
+ */
+class CheckpointWriter {
+	private final String filename;
+	private final Logger log;
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "checkpoint-writer");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private Future<?> pending;
+	private int written, skipped;
+
+	CheckpointWriter(String filename, Logger log) {
+		this.filename = filename;
+		this.log = log;
+	}
+
+	/**
+	 * Snapshot the given network, and write it in the background.
+	 * @param net
+	 * @param epochsRun see {@link Checkpoint#epochsRun}
+	 * @param epoch see {@link Checkpoint#epoch}
+	 * @param batchStart see {@link Checkpoint#batchStart}
+	 * @param batchSize
+	 * @param dataSize
+	 * @param mustWrite If the previous checkpoint is still being written: true = wait for it,
+	 * false = skip this one.
+	 */
+	void save(NNBase net, long epochsRun, int epoch, int batchStart, int batchSize, int dataSize, boolean mustWrite) {
+		if(pending != null && !pending.isDone()) {
+			if(!mustWrite) {
+				skipped++;
+				return;
+			}
+			await();
+		}
+
+		final Checkpoint cp = Checkpoint.snapshot(net, epochsRun, epoch, batchStart, batchSize, dataSize);
+		pending = executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					cp.write(filename);
+				} catch(IOException e) {
+					log.log(Level.WARNING, "Couldn't write checkpoint to " + filename, e);
+				}
+			}
+		});
+		written++;
+	}
+
+	/**
+	 * Wait for the last checkpoint to be written, and stop the background thread.
+	 */
+	void close() {
+		await();
+		executor.shutdown();
+		if(skipped > 0)
+			log.info("Wrote " + written + " checkpoints (skipped " + skipped + " while busy writing)");
+	}
+
+	private void await() {
+		if(pending == null)
+			return;
+		try {
+			pending.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch(ExecutionException e) {
+			log.log(Level.WARNING, "Checkpoint failed", e.getCause());
+		}
+	}
+}
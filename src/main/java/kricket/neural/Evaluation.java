@@ -0,0 +1,151 @@
+package kricket.neural;
+
+/**
+ * The result of running some data through a network: how many were correct, the
+ * average (cross-entropy) cost, and a confusion matrix of which class was guessed
+ * for each actual class.
+ */
+public class Evaluation {
+
+	/**
+	 * Outputs are clamped to [EPSILON, 1-EPSILON] when calculating the cost, so that a
+	 * saturated sigmoid doesn't give us an infinite cost.
+	 */
+	private static final double EPSILON = 1e-12;
+
+	private int correct, total;
+	private double loss;
+	/**
+	 * confusion[actual][guess] = the number of data of class (actual) that were classified as (guess).
+	 */
+	private final int[][] confusion;
+
+	/**
+	 * @param numClasses The length of the output vectors.
+	 */
+	public Evaluation(int numClasses) {
+		confusion = new int[numClasses][numClasses];
+	}
+
+	/**
+	 * Index of the largest entry.
+	 */
+	static int argMax(double[] v) {
+		int max = 0;
+		for(int i=1; i<v.length; i++) {
+			if(v[i] > v[max])
+				max = i;
+		}
+		return max;
+	}
+
+	/**
+	 * Record the result for a single Datum.
+	 * @param result The output of the network.
+	 * @param answer The expected output.
+	 * @return Whether the result was correct.
+	 */
+	public boolean add(double[] result, double[] answer) {
+		int guess = argMax(result);
+		confusion[argMax(answer)][guess]++;
+		total++;
+		
+		for(int i=0; i<result.length; i++) {
+			double a = Math.min(1-EPSILON, Math.max(EPSILON, result[i]));
+			loss -= answer[i]*Math.log(a) + (1-answer[i])*Math.log(1-a);
+		}
+		
+		if(answer[guess] > 0.99) {
+			correct++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Add the results of another Evaluation to this one.
+	 * @param other
+	 * @return this
+	 */
+	public Evaluation merge(Evaluation other) {
+		correct += other.correct;
+		total += other.total;
+		loss += other.loss;
+		for(int a=0; a<confusion.length; a++)
+			for(int g=0; g<confusion.length; g++)
+				confusion[a][g] += other.confusion[a][g];
+		return this;
+	}
+
+	public int getCorrect() {
+		return correct;
+	}
+
+	public int getTotal() {
+		return total;
+	}
+
+	/**
+	 * The fraction (between 0 and 1) of correct answers.
+	 * @return
+	 */
+	public double getAccuracy() {
+		return total == 0 ? 0 : (double) correct / total;
+	}
+
+	/**
+	 * The average cross-entropy cost.
+	 * @return
+	 */
+	public double getLoss() {
+		return total == 0 ? 0 : loss / total;
+	}
+
+	/**
+	 * Get a confidence interval for the accuracy, treating the data we saw as a random
+	 * sample of a larger population (Wilson score interval).
+	 * @param z The number of standard deviations (e.g. 1.96 for 95% confidence).
+	 * @return {lower bound, upper bound}
+	 */
+	public double[] confidenceInterval(double z) {
+		return confidenceInterval(getAccuracy(), total, z);
+	}
+
+	/**
+	 * Get a confidence interval (Wilson score interval) for the given accuracy on a random sample.
+	 * @param accuracy The fraction correct.
+	 * @param total The size of the sample.
+	 * @param z The number of standard deviations (e.g. 1.96 for 95% confidence).
+	 * @return {lower bound, upper bound}
+	 */
+	public static double[] confidenceInterval(double accuracy, int total, double z) {
+		if(total == 0)
+			return new double[] {0, 1};
+		double p = accuracy, n = total, z2 = z*z;
+		double center = (p + z2/(2*n)) / (1 + z2/n);
+		double halfWidth = z * Math.sqrt(p*(1-p)/n + z2/(4*n*n)) / (1 + z2/n);
+		return new double[] {Math.max(0, center - halfWidth), Math.min(1, center + halfWidth)};
+	}
+
+	/**
+	 * confusion[actual][guess] = the number of data of class (actual) that were classified as (guess).
+	 * @return
+	 */
+	public int[][] getConfusionMatrix() {
+		return confusion;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Correct: %d / %d (%.3f%%), cost %.4f%nactual \\ guess", correct, total, getAccuracy()*100, getLoss()));
+		for(int g=0; g<confusion.length; g++)
+			sb.append(String.format("%7d", g));
+		for(int a=0; a<confusion.length; a++) {
+			sb.append(String.format("%n%14d", a));
+			for(int g=0; g<confusion.length; g++)
+				sb.append(String.format("%7d", confusion[a][g]));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,109 @@
+package kricket.neural;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import kricket.neural.util.Datum;
+import kricket.neural.util.NNOptions;
+
+/**
+ * Runs a data set through a network on several threads at once. The data is split into
+ * one contiguous shard per thread; each thread gets its own {@link Worker} (and thus its
+ * own copy of any state the network keeps while feeding forward), fills in its own
+ * {@link Evaluation}, and the results are merged at the end.
+ */
+public class Evaluator {
+
+	/**
+	 * Runs data through a network. A Worker is only ever used by one thread at a time.
+	 */
+	public interface Worker {
+		/**
+		 * Feed the given batch forward, putting the output for batch.get(i) into results[i].
+		 * @param batch
+		 * @param results Storage for the results (at least as long as batch).
+		 */
+		void feedForward(List<? extends Datum> batch, double[][] results);
+	}
+
+	private final NNOptions options;
+
+	/**
+	 * @param opts Options controlling the number of threads, the batch size and logging.
+	 */
+	public Evaluator(NNOptions opts) {
+		options = opts;
+	}
+
+	/**
+	 * Evaluate the given network on the given data.
+	 * @param network
+	 * @param data
+	 * @return
+	 */
+	public Evaluation evaluate(final NNBase network, final List<? extends Datum> data) {
+		final int numClasses = (data.isEmpty() ? 0 : data.get(0).getAnswerTensor().data.length);
+		int shards = Math.max(1, Math.min(options.evaluationThreads, data.size() / options.evaluationBatchSize));
+		if(shards == 1)
+			return evaluate(network.newEvaluationWorker(), data, numClasses);
+
+		ExecutorService pool = Executors.newFixedThreadPool(shards);
+		try {
+			List<Future<Evaluation>> futures = new ArrayList<>(shards);
+			for(int s=0; s<shards; s++) {
+				final int from = (int) ((long) data.size() * s / shards);
+				final int to = (int) ((long) data.size() * (s+1) / shards);
+				futures.add(pool.submit(new Callable<Evaluation>() {
+					@Override
+					public Evaluation call() {
+						return evaluate(network.newEvaluationWorker(), data.subList(from, to), numClasses);
+					}
+				}));
+			}
+
+			Evaluation total = new Evaluation(numClasses);
+			for(Future<Evaluation> f : futures)
+				total.merge(f.get());
+			return total;
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while evaluating", e);
+		} catch(ExecutionException e) {
+			throw new IllegalStateException("Evaluation failed", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Evaluate a single shard on the current thread.
+	 */
+	private Evaluation evaluate(Worker worker, List<? extends Datum> shard, int numClasses) {
+		Evaluation eval = new Evaluation(numClasses);
+		final int batchSize = options.evaluationBatchSize;
+		double[][] results = new double[batchSize][];
+
+		for(int start=0; start<shard.size(); start+=batchSize) {
+			List<? extends Datum> batch = shard.subList(start, Math.min(start+batchSize, shard.size()));
+			worker.feedForward(batch, results);
+
+			for(int i=0; i<batch.size(); i++) {
+				Datum dat = batch.get(i);
+				if(!eval.add(results[i], dat.getAnswerTensor().data) && options.logIncorrectAnswers) {
+					StringBuilder sb = new StringBuilder("Got this one wrong:\n");
+					sb.append(dat);
+					for(double d : results[i])
+						sb.append(String.format("%n%.3f", d));
+					options.log.info(sb.toString());
+				}
+			}
+		}
+
+		return eval;
+	}
+}
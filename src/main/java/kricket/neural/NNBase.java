@@ -1,13 +1,40 @@
 package kricket.neural;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Random;
 
+import kricket.neural.telemetry.ConsoleSink;
+import kricket.neural.telemetry.Telemetry;
+import kricket.neural.telemetry.TrainingRecord;
+import kricket.neural.telemetry.TrainingRecord.Kind;
 import kricket.neural.util.Datum;
+import kricket.neural.util.IndexedList;
+import kricket.neural.util.MemoryBudget;
 import kricket.neural.util.NNOptions;
+import kricket.neural.util.Pruning;
+import kricket.neural.util.Shuffler;
 
 public abstract class NNBase {
+	/**
+	 * How many progress records may be waiting to be logged.
+	 */
+	private static final int PROGRESS_CAPACITY = 1024;
 	
 	protected NNOptions options;
+	/**
+	 * Total number of epochs run so far, over all calls to SGD. Used to get a
+	 * different (but reproducible) shuffle for each epoch.
+	 */
+	private long epochsRun;
+	/**
+	 * The results of the forward passes made during the current (or last) epoch of SGD.
+	 */
+	private Evaluation running;
+	/**
+	 * Told about the progress of SGD and evaluation, if not null.
+	 */
+	private volatile TrainingListener trainingListener;
 	
 	public NNBase(NNOptions opts) {
 		options = opts;
@@ -17,6 +44,35 @@ public abstract class NNBase {
 		return options;
 	}
 	
+	/**
+	 * Replace all the TrainingListeners.
+	 * @param listener The listener to tell about each epoch, batch and evaluation, or null to stop.
+	 */
+	public synchronized void setTrainingListener(TrainingListener listener) {
+		trainingListener = listener;
+	}
+	
+	/**
+	 * Tell the given listener about each epoch, batch and evaluation, as well as any
+	 * listeners that are already there (see {@link TrainingListeners}).
+	 * @param listener
+	 */
+	public synchronized void addTrainingListener(TrainingListener listener) {
+		trainingListener = TrainingListeners.add(trainingListener, listener);
+	}
+	
+	/**
+	 * Stop telling the given listener (added by {@link #addTrainingListener}) about training.
+	 * @param listener
+	 */
+	public synchronized void removeTrainingListener(TrainingListener listener) {
+		trainingListener = TrainingListeners.remove(trainingListener, listener);
+	}
+	
+	public TrainingListener getTrainingListener() {
+		return trainingListener;
+	}
+	
 	/**
 	 * Perform Stochastic Gradient Descent using the given data.
 	 * @param trainingSet The training data.
@@ -26,34 +82,230 @@ public abstract class NNBase {
 	 * @param lambda The regularization parameter (for L2 regularization - set to 0 to ignore).
 	 */
 	public void SGD(List<? extends Datum> trainingSet, int batchSize, int epochs, double eta, double lambda) {
+		SGD(trainingSet, batchSize, epochs, eta, lambda, 0, 0);
+	}
+	
+	/**
+	 * Carry on with SGD from a checkpoint (see {@link NNOptions#checkpointFile}). The parameters
+	 * of this network are replaced by those in the checkpoint, and training resumes from the
+	 * batch after the checkpoint (and the pruned weights, if any, stay pruned). Given the
+	 * same arguments and options as the original run, the result is exactly the same as if
+	 * the run had never been interrupted - unless dropout is on: its random number
+	 * generators are not saved, so the resumed run draws different masks, and is only
+	 * statistically equivalent.
+	 * @param checkpointFile
+	 * @param trainingSet The training data.
+	 * @param batchSize The size of each mini-batch to use.
+	 * @param epochs The total number of training epochs (including those before the checkpoint).
+	 * @param eta The training rate.
+	 * @param lambda The regularization parameter (for L2 regularization - set to 0 to ignore).
+	 * @throws IOException
+	 * @throws IllegalArgumentException if the checkpoint was made with a different batch size
+	 * or training set size.
+	 */
+	public void resumeSGD(String checkpointFile, List<? extends Datum> trainingSet, int batchSize, int epochs,
+			double eta, double lambda) throws IOException {
+		Checkpoint cp = Checkpoint.restore(checkpointFile, this, batchSize, trainingSet.size());
+		if(options.summarizeSGD)
+			options.log.info("Resuming from checkpoint at " + cp);
+		epochsRun = cp.epochsRun;
+		SGD(trainingSet, batchSize, epochs, eta, lambda, cp.epoch, cp.batchStart);
+	}
+	
+	private void SGD(List<? extends Datum> trainingSet, int batchSize, int epochs, double eta, double lambda,
+			int firstEpoch, int firstStart) {
 		if(options.summarizeSGD)
 			options.log.info("Performing SGD with:\n\tNum data: " + trainingSet.size()
 				+ "\n\tBatch size: " + batchSize
 				+ "\n\tEpochs: " + epochs
 				+ "\n\tTraining rate: " + eta
 				+ "\n\tRegularization rate: " + lambda
+				+ "\n\tShuffle: " + options.shuffle
+				+ "\n\tCheckpoints: " + (options.checkpointFile == null ? "none" : options.checkpointFile)
 				);
 
 		double regTerm = (lambda == 0 ? 0 : 1 - (eta*lambda / trainingSet.size()));
+		Shuffler shuffler = new Shuffler(options);
+		int numClasses = (trainingSet.isEmpty() ? 0 : trainingSet.get(0).getAnswerTensor().data.length);
+		List<? extends Datum> errorSample = null;
+		if(options.errorEstimate == NNOptions.ErrorEstimate.SAMPLED) {
+			int[] sample = Shuffler.sample(trainingSet.size(), options.errorSampleSize, options.shuffleSeed);
+			errorSample = new IndexedList<Datum>(trainingSet, sample, 0, sample.length);
+		}
 		
-		for(int epoch = 0; epoch < epochs; epoch++) {
-			if(options.logEpochs)
-				options.log.info("Running epoch " + epoch);
-			
-			long startTime = System.currentTimeMillis();
-			
-			for(int start = 0; start < trainingSet.size(); start += batchSize) {
-				runBatch(trainingSet.subList(start, start+batchSize), regTerm, eta);
+		CheckpointWriter checkpoints = (options.checkpointFile == null ? null
+				: new CheckpointWriter(options.checkpointFile, options.log));
+		int batches = 0;
+		TrainingListener listener = trainingListener;
+		if(listener != null)
+			listener.sgdStarted(trainingSet.size(), batchSize, epochs, eta, lambda);
+		boolean trackRunning = (listener != null || options.errorEstimate == NNOptions.ErrorEstimate.RUNNING);
+		// Formatting and logging happen on another thread, so they don't hold up training
+		Telemetry progress = (options.logEpochs || options.calcErrorsAfterEpochs
+				? new Telemetry(options.log, 0, PROGRESS_CAPACITY,
+						new ConsoleSink(options.log, options.logEpochs, options.calcErrorsAfterEpochs))
+				: null);
+		
+		try {
+			for(int epoch = firstEpoch; epoch < epochs; epoch++) {
+				if(progress != null)
+					progress.record(new TrainingRecord(Kind.EPOCH_START, System.currentTimeMillis(), epoch, 0, 0, 0, 0, eta, 0));
+				
+				long startTime = System.nanoTime();
+				int epochBatches = 0, epochSamples = 0;
+				if(listener != null)
+					listener.epochStarted(epoch);
+				
+				int[] order = (shuffler.getMode() == Shuffler.Mode.NONE ? null : shuffler.order(trainingSet, epochsRun));
+				epochsRun++;
+				// Scoring every forward pass costs a log per output, so only do it if someone looks
+				running = (trackRunning ? new Evaluation(numClasses) : null);
+				
+				for(int start = (epoch == firstEpoch ? firstStart : 0); start < trainingSet.size(); start += batchSize) {
+					int end = Math.min(start+batchSize, trainingSet.size());
+					if(listener != null)
+						listener.batchStarted(epoch, end - start);
+					if(order == null)
+						runBatch(trainingSet.subList(start, end), regTerm, eta);
+					else
+						runBatch(new IndexedList<Datum>(trainingSet, order, start, end), regTerm, eta);
+					if(listener != null)
+						listener.batchDone(epoch, end - start, running);
+				
+					epochBatches++;
+					epochSamples += end - start;
+					batches++;
+					if(checkpoints != null) {
+						if(end == trainingSet.size())
+							checkpoints.save(this, epochsRun, epoch+1, 0, batchSize, trainingSet.size(), true);
+						else if(options.checkpointEveryBatches > 0 && batches % options.checkpointEveryBatches == 0)
+							checkpoints.save(this, epochsRun-1, epoch, end, batchSize, trainingSet.size(), false);
+					}
+				}
+				
+				long nanos = System.nanoTime() - startTime;
+				if(listener != null)
+					listener.epochDone(epoch, running);
+				if(progress == null)
+					continue;
+				
+				// How did we do? (The running estimate goes with the epoch.)
+				boolean showRunning = (options.errorEstimate == NNOptions.ErrorEstimate.RUNNING);
+				progress.record(new TrainingRecord(Kind.EPOCH, System.currentTimeMillis(), epoch, epochBatches, epochSamples,
+						showRunning ? running.getLoss() : Double.NaN, showRunning ? running.getAccuracy() : Double.NaN, eta, nanos));
+				if(options.calcErrorsAfterEpochs) {
+					switch(options.errorEstimate) {
+					case FULL:
+						record(progress, Kind.EVALUATION, epoch, evaluate(trainingSet));
+						break;
+					case SAMPLED:
+						record(progress, Kind.SAMPLED_EVALUATION, epoch, evaluate(errorSample));
+						break;
+					case RUNNING:
+						break;
+					}
+				}
 			}
-			
+		} finally {
+			if(checkpoints != null)
+				checkpoints.close();
+			// Everything is logged by the time SGD returns
+			if(progress != null) {
+				try {
+					progress.close();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+	
+	private static void record(Telemetry progress, Kind kind, int epoch, Evaluation e) {
+		progress.record(new TrainingRecord(kind, System.currentTimeMillis(), epoch, 0, e.getTotal(),
+				e.getLoss(), e.getAccuracy(), 0, 0));
+	}
+	
+	/**
+	 * Iterative magnitude pruning: alternately prune the network a bit more (see
+	 * {@link #prune(double)}) and retrain it, so that it can recover from each step.
+	 * The sparsity follows {@link Pruning#schedule(double, int, int)}.
+	 * @param trainingSet The training data.
+	 * @param batchSize The size of each mini-batch to use.
+	 * @param eta The training rate.
+	 * @param lambda The regularization parameter (for L2 regularization - set to 0 to ignore).
+	 * @param targetSparsity The fraction of the (prunable) weights to end up at zero.
+	 * @param steps The number of pruning steps.
+	 * @param epochsPerStep The number of epochs of SGD after each pruning step.
+	 */
+	public void pruneGradually(List<? extends Datum> trainingSet, int batchSize, double eta, double lambda,
+			double targetSparsity, int steps, int epochsPerStep) {
+		for(int step=1; step<=steps; step++) {
+			double sparsity = Pruning.schedule(targetSparsity, step, steps);
 			if(options.logEpochs)
-				options.log.info(String.format("Epoch completed in %.3fs", (System.currentTimeMillis() - startTime)*0.001));
-			
-			// How did we do?
-			if(options.calcErrorsAfterEpochs)
-				calc_error(trainingSet);
+				options.log.info(String.format("Pruning to %.1f%% sparsity", sparsity*100));
+			prune(sparsity);
+			SGD(trainingSet, batchSize, epochsPerStep, eta, lambda);
 		}
 	}
+	
+	/**
+	 * Zero out the smallest weights of the network (per layer), so that the given fraction
+	 * of them are zero, and keep them at zero during further training. Only weight matrices
+	 * are pruned; biases and convolution kernels are left alone.
+	 * @param sparsity In [0, 1].
+	 */
+	public abstract void prune(double sparsity);
+	
+	/**
+	 * Whether any weights have been pruned (and are kept at zero).
+	 * @return
+	 */
+	public abstract boolean isPruned();
+	
+	/**
+	 * Treat the weights that are exactly zero as pruned, and keep them at zero from now on.
+	 * Saved networks and checkpoints only record whether the network was pruned; this
+	 * rebuilds the masks when they are loaded.
+	 */
+	protected abstract void pruneZeros();
+	
+	/**
+	 * Draw all the parameters again, as the constructors do (the difference of two uniform
+	 * draws from [0, 1)), but from the given seed, so that training runs can be repeated exactly.
+	 * @param seed
+	 * @throws IllegalStateException if the network has been pruned.
+	 */
+	public void randomizeParameters(long seed) {
+		if(isPruned())
+			throw new IllegalStateException("The network has been pruned");
+		Random rand = new Random(seed);
+		for(double[] a : getParameterArrays())
+			for(int i=0; i<a.length; i++)
+				a[i] = rand.nextDouble() - rand.nextDouble();
+	}
+	
+	/**
+	 * Record the result of a forward pass made during training, for the running
+	 * estimate of the error (see {@link #getRunningEvaluation()}).
+	 * @param output The output of the network.
+	 * @param answer The expected output.
+	 */
+	protected void recordForward(double[] output, double[] answer) {
+		if(running != null)
+			running.add(output, answer);
+	}
+	
+	/**
+	 * Get the accuracy and cost of the forward passes made during the current (or last)
+	 * epoch of SGD. Note that the network was changing during the epoch, so this is only
+	 * an estimate of how the network does now.
+	 * <p>This is only kept track of when it is used: with {@link NNOptions.ErrorEstimate#RUNNING},
+	 * or when there is a {@link TrainingListener}.
+	 * @return null if SGD hasn't been run yet, or the last run didn't keep track.
+	 */
+	public Evaluation getRunningEvaluation() {
+		return running;
+	}
 
 	/**
 	 * Run a batch as part of SGD.
@@ -64,11 +316,67 @@ public abstract class NNBase {
 	protected abstract void runBatch(List<? extends Datum> batch, double regTerm, double eta);
 	
 	/**
-	 * Get the % error of the network with the given data.
+	 * The arrays behind all the trainable parameters of this network, in a fixed order.
+	 * These are the network's own arrays, not copies.
+	 * @return
+	 */
+	protected abstract double[][] getParameterArrays();
+	
+	/**
+	 * The arrays behind the state that training carries from one batch to the next (e.g. for
+	 * momentum), in a fixed order. These are the network's own arrays, not copies.
+	 * @return
+	 */
+	protected abstract double[][] getOptimizerStateArrays();
+	
+	/**
+	 * Estimate the memory this network needs per layer (see {@link MemoryBudget}).
+	 * @param bytesPerValue The size of each parameter or activation (8 for doubles; 4 or 2
+	 * to see what lower precision would save).
+	 * @return
+	 */
+	public abstract MemoryBudget getMemoryBudget(int bytesPerValue);
+	
+	/**
+	 * Estimate the memory this network needs per layer, with doubles.
+	 * @return
+	 */
+	public MemoryBudget getMemoryBudget() {
+		return getMemoryBudget(8);
+	}
+	
+	/**
+	 * Get the % error of the network with the given data, and log it.
+	 * @param data
+	 * @return The fraction of correct answers.
+	 */
+	public double calc_error(List<? extends Datum> data) {
+		double correct = evaluate(data).getAccuracy();
+		options.log.info(String.format("-------------------> Percent correct: %.3f", correct*100));
+		return correct;
+	}
+	
+	/**
+	 * Run the given data through the network (in parallel - see {@link Evaluator}).
 	 * @param data
+	 * @return The number correct, and the confusion matrix.
+	 */
+	public Evaluation evaluate(List<? extends Datum> data) {
+		TrainingListener listener = trainingListener;
+		if(listener != null)
+			listener.evaluationStarted(data.size());
+		Evaluation result = new Evaluator(options).evaluate(this, data);
+		if(listener != null)
+			listener.evaluationDone(result);
+		return result;
+	}
+	
+	/**
+	 * Get a new {@link Evaluator.Worker} for this network. Each Worker will only be used by
+	 * a single thread, but several Workers may run at the same time.
 	 * @return
 	 */
-	public abstract double calc_error(List<? extends Datum> data);
+	protected abstract Evaluator.Worker newEvaluationWorker();
 	
 	protected boolean isCorrect(double[] result, double[] answer) {
 		int guess = 0;
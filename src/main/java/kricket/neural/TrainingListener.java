@@ -0,0 +1,59 @@
+package kricket.neural;
+
+/**
+ * Told about the progress of SGD and evaluation (see {@link NNBase#setTrainingListener}).
+ * Each call is made on the thread running SGD or {@link NNBase#evaluate}, and each
+ * started event is followed by its done event on the same thread.
+ */
+public interface TrainingListener {
+
+	/**
+	 * SGD is starting (or resuming).
+	 * @param size The number of training data.
+	 * @param batchSize
+	 * @param epochs
+	 * @param eta The training rate.
+	 * @param lambda The regularization parameter.
+	 */
+	void sgdStarted(int size, int batchSize, int epochs, double eta, double lambda);
+
+	/**
+	 * An epoch of SGD is starting.
+	 * @param epoch The number of the epoch in this run of SGD.
+	 */
+	void epochStarted(int epoch);
+
+	/**
+	 * An epoch of SGD has finished.
+	 * @param epoch
+	 * @param running The forward passes made during the epoch (see {@link NNBase#getRunningEvaluation()}).
+	 */
+	void epochDone(int epoch, Evaluation running);
+
+	/**
+	 * A mini-batch is starting.
+	 * @param epoch
+	 * @param size The number of data in the batch.
+	 */
+	void batchStarted(int epoch, int size);
+
+	/**
+	 * A mini-batch has been run, and the gradients applied.
+	 * @param epoch
+	 * @param size The number of data in the batch.
+	 * @param running The forward passes made during the epoch so far.
+	 */
+	void batchDone(int epoch, int size, Evaluation running);
+
+	/**
+	 * {@link NNBase#evaluate} is starting.
+	 * @param size The number of data to evaluate.
+	 */
+	void evaluationStarted(int size);
+
+	/**
+	 * {@link NNBase#evaluate} has finished.
+	 * @param result
+	 */
+	void evaluationDone(Evaluation result);
+}
@@ -0,0 +1,104 @@
+package kricket.neural;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Several TrainingListeners acting as one (see {@link NNBase#addTrainingListener}), so that
+ * e.g. telemetry, a dashboard and a profiler can all watch the same network. Immutable:
+ * adding or removing a listener makes a new one.
+ */
+public final class TrainingListeners implements TrainingListener {
+
+	private final TrainingListener[] listeners;
+
+	private TrainingListeners(TrainingListener[] listeners) {
+		this.listeners = listeners;
+	}
+
+	/**
+	 * Combine two listeners.
+	 * @param a May be null.
+	 * @param b May be null.
+	 * @return Whichever isn't null, if either is; otherwise a TrainingListeners that calls a, then b.
+	 */
+	public static TrainingListener add(TrainingListener a, TrainingListener b) {
+		if(a == null)
+			return b;
+		if(b == null)
+			return a;
+		List<TrainingListener> all = new ArrayList<>(asList(a));
+		all.addAll(asList(b));
+		return new TrainingListeners(all.toArray(new TrainingListener[all.size()]));
+	}
+
+	/**
+	 * Remove a listener (that was added by {@link #add}).
+	 * @param from
+	 * @param listener
+	 * @return from without listener (null if nothing is left).
+	 */
+	public static TrainingListener remove(TrainingListener from, TrainingListener listener) {
+		List<TrainingListener> all = new ArrayList<>(asList(from));
+		all.remove(listener);
+		if(all.isEmpty())
+			return null;
+		if(all.size() == 1)
+			return all.get(0);
+		return new TrainingListeners(all.toArray(new TrainingListener[all.size()]));
+	}
+
+	/**
+	 * The listeners in the given one (which may be null, a single listener, or a TrainingListeners).
+	 */
+	private static List<TrainingListener> asList(TrainingListener l) {
+		if(l == null)
+			return Arrays.asList();
+		if(l instanceof TrainingListeners)
+			return Arrays.asList(((TrainingListeners) l).listeners);
+		return Arrays.asList(l);
+	}
+
+	@Override
+	public void sgdStarted(int size, int batchSize, int epochs, double eta, double lambda) {
+		for(TrainingListener l : listeners)
+			l.sgdStarted(size, batchSize, epochs, eta, lambda);
+	}
+
+	@Override
+	public void epochStarted(int epoch) {
+		for(TrainingListener l : listeners)
+			l.epochStarted(epoch);
+	}
+
+	@Override
+	public void epochDone(int epoch, Evaluation running) {
+		for(TrainingListener l : listeners)
+			l.epochDone(epoch, running);
+	}
+
+	@Override
+	public void batchStarted(int epoch, int size) {
+		for(TrainingListener l : listeners)
+			l.batchStarted(epoch, size);
+	}
+
+	@Override
+	public void batchDone(int epoch, int size, Evaluation running) {
+		for(TrainingListener l : listeners)
+			l.batchDone(epoch, size, running);
+	}
+
+	@Override
+	public void evaluationStarted(int size) {
+		for(TrainingListener l : listeners)
+			l.evaluationStarted(size);
+	}
+
+	@Override
+	public void evaluationDone(Evaluation result) {
+		for(TrainingListener l : listeners)
+			l.evaluationDone(result);
+	}
+}
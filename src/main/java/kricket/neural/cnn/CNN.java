@@ -1,13 +1,20 @@
 package kricket.neural.cnn;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import kricket.neural.Evaluator;
 import kricket.neural.NNBase;
 import kricket.neural.nn.NN;
 import kricket.neural.util.Datum;
 import kricket.neural.util.Dimension;
 import kricket.neural.util.IncompatibleLayerException;
+import kricket.neural.util.MemoryBudget;
+import kricket.neural.util.ModelFile;
 import kricket.neural.util.NNOptions;
 import kricket.neural.util.Tensor;
 
@@ -21,6 +28,39 @@ public class CNN extends NNBase {
 	 * The layers of this CNN (not counting the input layer).
 	 */
 	private final Layer[] layers;
+	/**
+	 * dimensions[i] = the size of the input to layers[i]; the last entry is the size of the output.
+	 */
+	private final Dimension[] dimensions;
+	/**
+	 * Told about each Layer operation, if not null.
+	 */
+	private volatile LayerListener listener;
+	
+	/**
+	 * The storage needed to run data through a CNN: one {@link LayerContext} per Layer.
+	 * A Context may only be used by one thread at a time, but any number of threads
+	 * can feed data through the same CNN, each with their own Context.
+	 */
+	public static class Context {
+		private final LayerContext[] layers;
+		
+		private Context(Layer[] layers) {
+			this.layers = new LayerContext[layers.length];
+			for(int i=0; i<layers.length; i++)
+				this.layers[i] = layers[i].newContext();
+		}
+	}
+	
+	/**
+	 * The Context used by {@link #feedForward(Tensor)} on each thread.
+	 */
+	private final ThreadLocal<Context> contexts = new ThreadLocal<Context>() {
+		@Override
+		protected Context initialValue() {
+			return newContext();
+		}
+	};
 	
 	/**
 	 * Create a new network.
@@ -36,6 +76,7 @@ public class CNN extends NNBase {
 		for(int i=0; i<layers.length; i++)
 			this.layers[i] = layers[i];
 		this.layers[layers.length] = new SigmaLayer();
+		dimensions = new Dimension[this.layers.length + 1];
 		
 		prepare(inputDimension);
 	}
@@ -56,11 +97,124 @@ public class CNN extends NNBase {
 	private void prepare(Dimension inputDimension) throws IncompatibleLayerException {
 		if(options.logDimensions)
 			options.log.info("Input: " + inputDimension);
-		for(Layer layer : layers) {
-			inputDimension = layer.prepare(inputDimension);
+		for(int i=0; i<layers.length; i++) {
+			dimensions[i] = inputDimension;
+			inputDimension = layers[i].prepare(inputDimension);
 			if(options.logDimensions)
-				options.log.info(layer.getClass().getSimpleName() + " => " + inputDimension);
+				options.log.info(layers[i].getClass().getSimpleName() + " => " + inputDimension);
+		}
+		dimensions[layers.length] = inputDimension;
+		if(options.logMemory)
+			options.log.info("Memory:\n" + getMemoryBudget());
+	}
+	
+	/**
+	 * Get the size of the data passed between the layers.
+	 * @return dimensions[i] = the size of the input to layer i; the last entry is the size of the output.
+	 */
+	public Dimension[] getDimensions() {
+		return dimensions.clone();
+	}
+	
+	/**
+	 * Estimate the memory needed by each Layer, from its shapes. The batch buffers are those
+	 * of {@link Predictor#predictBatch}: two of the largest layer output per datum, plus its
+	 * input and output.
+	 */
+	@Override
+	public MemoryBudget getMemoryBudget(int bytesPerValue) {
+		long b = bytesPerValue, largest = 0;
+		for(int i=1; i<dimensions.length; i++)
+			largest = Math.max(largest, volume(dimensions[i]));
+		MemoryBudget budget = new MemoryBudget(bytesPerValue,
+				b * (volume(dimensions[0]) + 2*largest + volume(dimensions[layers.length])));
+		
+		for(int i=0; i<layers.length; i++) {
+			Layer layer = layers[i];
+			long in = volume(dimensions[i]), out = volume(dimensions[i+1]);
+			long params = 0;
+			for(Tensor t : layer.getParameters())
+				params += t.data.length;
+			
+			long activations, temporaries;
+			if(layer instanceof FullyConnectedLayer) {
+				// The output, and the indices of the non-zero inputs; dT_times_x and wT_times_d
+				activations = b*out + 4*in;
+				temporaries = b * (out*in + in);
+			} else if(layer instanceof LowRankLayer) {
+				// The output and h; d_times_hT, g_times_xT, uT_times_d and vT_times_g
+				Tensor u = layer.getParameters()[0];
+				long rank = u.cols;
+				activations = b * (out + rank);
+				temporaries = b * (out*rank + rank*in + rank + in);
+			} else if(layer instanceof ConvolutionalLayer) {
+				// backAdjust, and the deltas of the input
+				activations = b*out;
+				temporaries = 2*b*in;
+			} else if(layer instanceof MaxPoolingLayer) {
+				// The output and maxIndices; the deltas of the input
+				activations = b*out + 4*out;
+				temporaries = b*in;
+			} else if(layer instanceof DropoutLayer) {
+				// The output, and one bit per value for the mask
+				activations = b*out;
+				temporaries = 8 * ((in + 63) / 64);
+			} else if(layer instanceof FlatteningLayer) {
+				// Only wraps its input
+				activations = 0;
+				temporaries = 0;
+			} else {
+				activations = b*out;
+				temporaries = 0;
+			}
+			// Every layer with parameters keeps the gradients of this batch and the last
+			budget.add(new MemoryBudget.Entry(layer.getClass().getSimpleName(),
+					b*params, b*params, b*params, activations, temporaries));
 		}
+		return budget;
+	}
+	
+	private static long volume(Dimension d) {
+		return (long) d.rows * d.columns * d.depth;
+	}
+	
+	/**
+	 * Time each Layer operation (see {@link LayerMetrics}). Without a listener, the only
+	 * cost is a null check per pass through the layers.
+	 * @param listener The listener to tell (replacing any others), or null to stop.
+	 */
+	public synchronized void setLayerListener(LayerListener listener) {
+		this.listener = listener;
+	}
+	
+	/**
+	 * Time each Layer operation, for the given listener as well as any that are already
+	 * there (see {@link LayerListeners}).
+	 * @param listener
+	 */
+	public synchronized void addLayerListener(LayerListener listener) {
+		this.listener = LayerListeners.add(this.listener, listener);
+	}
+	
+	/**
+	 * Stop telling the given listener (added by {@link #addLayerListener}) about Layer operations.
+	 * @param listener
+	 */
+	public synchronized void removeLayerListener(LayerListener listener) {
+		this.listener = LayerListeners.remove(this.listener, listener);
+	}
+	
+	public LayerListener getLayerListener() {
+		return listener;
+	}
+	
+	/**
+	 * Compile this network into a {@link Predictor}: an immutable snapshot of the current
+	 * parameters, specialized for inference.
+	 * @return
+	 */
+	public Predictor compile() {
+		return new Predictor(this);
 	}
 	
 	@Override
@@ -74,17 +228,48 @@ public class CNN extends NNBase {
 	}
 	
 	/**
-	 * Get the result of running the given feature maps through this CNN.
+	 * Get the result of running the given feature maps through this CNN. This is safe to
+	 * call from several threads at once (each thread uses its own {@link Context}).
 	 * @param x The initial feature maps.
-	 * @return
+	 * @return The output. This belongs to the current thread's Context, and will be
+	 * overwritten by its next call!
 	 */
 	public Tensor feedForward(Tensor x) {
-		for(Layer layer : layers) {
-			x = layer.feedForward(x);
+		return feedForward(x, contexts.get());
+	}
+	
+	/**
+	 * Get the result of running the given feature maps through this CNN, using the given
+	 * Context for all intermediate values. The parameters of the network are only read,
+	 * so several threads can do this at once (as long as nobody is training it).
+	 * @param x The initial feature maps.
+	 * @param ctx
+	 * @return The output (which belongs to the Context).
+	 */
+	public Tensor feedForward(Tensor x, Context ctx) {
+		LayerListener l = listener;
+		if(l == null) {
+			for(int i=0; i<layers.length; i++) {
+				x = layers[i].feedForward(x, ctx.layers[i]);
+			}
+		} else {
+			for(int i=0; i<layers.length; i++) {
+				long start = System.nanoTime();
+				x = layers[i].feedForward(x, ctx.layers[i]);
+				l.layerDone(i, LayerListener.Phase.FORWARD, System.nanoTime() - start);
+			}
 		}
 		return x;
 	}
 	
+	/**
+	 * Create the storage for running data through this CNN on one thread.
+	 * @return
+	 */
+	public Context newContext() {
+		return new Context(layers);
+	}
+	
 	@Override
 	protected void runBatch(List<? extends Datum> batch, double regTerm, double eta) {
 		for(Layer layer : layers)
@@ -93,8 +278,13 @@ public class CNN extends NNBase {
 		for(Datum dat : batch)
 			backprop(dat.getDataTensor(), dat.getAnswerTensor());
 		
-		for(Layer layer : layers)
-			layer.applyGradients(regTerm, eta/batch.size());
+		LayerListener l = listener;
+		for(int i=0; i<layers.length; i++) {
+			long start = (l == null ? 0 : System.nanoTime());
+			layers[i].applyGradients(regTerm, eta/batch.size());
+			if(l != null)
+				l.layerDone(i, LayerListener.Phase.APPLY_GRADIENTS, System.nanoTime() - start);
+		}
 	}
 
 	/**
@@ -103,7 +293,16 @@ public class CNN extends NNBase {
 	 * @param y
 	 */
 	private void backprop(Tensor x, Tensor y) {
-		Tensor forward = feedForward(x);
+		// Use the Layers' own storage, since that's what backprop will look at
+		LayerListener l = listener;
+		Tensor forward = x;
+		for(int i=0; i<layers.length; i++) {
+			long start = (l == null ? 0 : System.nanoTime());
+			forward = layers[i].feedForward(forward);
+			if(l != null)
+				l.layerDone(i, LayerListener.Phase.FORWARD, System.nanoTime() - start);
+		}
+		recordForward(forward.data, y.data);
 		Tensor deltas = forward.minus(y);
 		
 		// The cross-entropy cost function basically boils down to not running
@@ -111,27 +310,197 @@ public class CNN extends NNBase {
 		// to use quadratic cost, we would simply include the last layer in the
 		// following loop.
 		for(int i=layers.length-2; i>=0; i--) {
+			long start = (l == null ? 0 : System.nanoTime());
 			deltas = layers[i].backprop(deltas);
+			if(l != null)
+				l.layerDone(i, LayerListener.Phase.BACKPROP, System.nanoTime() - start);
 		}
 	}
 
+	/**
+	 * Prune each {@link FullyConnectedLayer}.
+	 */
+	@Override
+	public void prune(double sparsity) {
+		for(Layer l : layers) {
+			if(l instanceof FullyConnectedLayer)
+				((FullyConnectedLayer) l).prune(sparsity);
+		}
+	}
+	
 	@Override
-	public double calc_error(List<? extends Datum> data) {
-		double numCorrect = 0;
-		for(Datum dat : data) {
-			Tensor result = feedForward(dat.getDataTensor());
-			if(isCorrect(result.data, dat.getAnswer().data)) {
-				numCorrect++;
-			} else if(options.logIncorrectAnswers) {
-				options.log.info("Got this one wrong:\n" + dat);
-				for(double d : result.data)
-					options.log.info(String.format("%.3f", d));
+	public boolean isPruned() {
+		for(Layer l : layers) {
+			if(l instanceof FullyConnectedLayer && ((FullyConnectedLayer) l).isPruned())
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Only the {@link FullyConnectedLayer}s that have zero weights are treated as pruned.
+	 */
+	@Override
+	protected void pruneZeros() {
+		for(Layer l : layers) {
+			if(l instanceof FullyConnectedLayer && ((FullyConnectedLayer) l).getSparsity() > 0)
+				((FullyConnectedLayer) l).pruneZeros();
+		}
+	}
+
+	/**
+	 * Create a copy of this network in which each {@link FullyConnectedLayer} is replaced
+	 * by a {@link LowRankLayer} of (at most) the given rank, initialized with the best
+	 * approximation of its weights. Layers that are too small to gain anything from it
+	 * are copied as they are. The copy can then be fine-tuned with SGD, and compared with
+	 * this one by {@link Comparison#of}.
+	 * @param rank
+	 * @return
+	 */
+	public CNN compress(int rank) {
+		Layer[] copy = new Layer[layers.length-1];
+		for(int i=0; i<copy.length; i++) {
+			if(layers[i] instanceof FullyConnectedLayer && worthFactorizing(dimensions[i].rows, dimensions[i+1].rows, rank))
+				copy[i] = new LowRankLayer(dimensions[i+1].rows, rank, ((FullyConnectedLayer) layers[i]).getMomentum());
+			else
+				copy[i] = LayerCodec.copy(layers[i]);
+		}
+		
+		CNN cnn;
+		try {
+			cnn = new CNN(options, dimensions[0], copy);
+		} catch(IncompatibleLayerException e) {
+			// Same dimensions as this one
+			throw new IllegalStateException(e);
+		}
+		for(int i=0; i<copy.length; i++) {
+			if(copy[i] instanceof LowRankLayer && layers[i] instanceof FullyConnectedLayer) {
+				((LowRankLayer) copy[i]).factorize((FullyConnectedLayer) layers[i]);
+			} else {
+				Tensor[] from = layers[i].getParameters(), to = copy[i].getParameters();
+				for(int p=0; p<from.length; p++)
+					System.arraycopy(from[p].data, 0, to[p].data, 0, from[p].data.length);
 			}
 		}
+		return cnn;
+	}
+	
+	private static boolean worthFactorizing(int inputs, int outputs, int rank) {
+		return (long) rank * (inputs + outputs) < (long) inputs * outputs;
+	}
+
+	@Override
+	protected Evaluator.Worker newEvaluationWorker() {
+		final Context ctx = newContext();
+		return new Evaluator.Worker() {
+			@Override
+			public void feedForward(List<? extends Datum> batch, double[][] results) {
+				for(int b=0; b<batch.size(); b++) {
+					Tensor x = CNN.this.feedForward(batch.get(b).getDataTensor(), ctx);
+					
+					if(results[b] == null || results[b].length != x.data.length)
+						results[b] = new double[x.data.length];
+					System.arraycopy(x.data, 0, results[b], 0, x.data.length);
+				}
+			}
+		};
+	}
+	
+	
+	//--- Load and save -----------------------------------------------------//
+	
+	
+	/**
+	 * Save the architecture and parameters of this CNN to the given file.
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void save(String filename) throws IOException {
+		save(filename, false);
+	}
+	
+	/**
+	 * Save the architecture and parameters of this CNN to the given file.
+	 * @param filename
+	 * @param includeOptimizerState Whether to also save the gradient (momentum) state, so
+	 * that training can carry on exactly where it left off.
+	 * @throws IOException
+	 * @throws UnsupportedOperationException if one of the Layers can't be saved.
+	 */
+	public void save(String filename, boolean includeOptimizerState) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream arch = new DataOutputStream(bytes);
+		Dimension input = dimensions[0];
+		arch.writeInt(input.rows);
+		arch.writeInt(input.columns);
+		arch.writeInt(input.depth);
+		// Leave out the final SigmaLayer: the constructor adds it back in.
+		arch.writeInt(layers.length-1);
+		for(int i=0; i<layers.length-1; i++)
+			LayerCodec.write(arch, layers[i]);
+		arch.close();
 		
-		double correct = numCorrect / data.size();
-		options.log.info(String.format("-------------------> Percent correct: %.3f", correct*100));
-		return correct;
+		ModelFile.write(filename, ModelFile.Kind.CNN, bytes.toByteArray(), getParameterArrays(),
+				includeOptimizerState ? getOptimizerStateArrays() : null, isPruned());
+	}
+	
+	/**
+	 * Load a CNN that was previously saved by {@link #save(String, boolean)}, with the default options.
+	 * @param filename
+	 * @return
+	 * @throws IOException
+	 */
+	public static CNN load(String filename) throws IOException {
+		NNOptions opts = new NNOptions();
+		opts.logDimensions = false;
+		return load(filename, opts);
+	}
+	
+	/**
+	 * Load a CNN that was previously saved by {@link #save(String, boolean)}. The optimizer
+	 * state is restored too, if it was saved.
+	 * @param filename
+	 * @param opts
+	 * @return
+	 * @throws IOException
+	 */
+	public static CNN load(String filename, NNOptions opts) throws IOException {
+		ModelFile file = ModelFile.open(filename, ModelFile.Kind.CNN);
+		DataInputStream arch = file.getArchitecture();
+		Dimension input = new Dimension(arch.readInt(), arch.readInt(), arch.readInt());
+		Layer[] layers = new Layer[arch.readInt()];
+		for(int i=0; i<layers.length; i++)
+			layers[i] = LayerCodec.read(arch);
+		
+		CNN cnn;
+		try {
+			cnn = new CNN(opts, input, layers);
+		} catch(IncompatibleLayerException e) {
+			throw new IOException(filename + " contains an invalid architecture", e);
+		}
+		file.readParameters(cnn.getParameterArrays());
+		file.readOptimizerState(cnn.getOptimizerStateArrays());
+		if(file.isPruned())
+			cnn.pruneZeros();
+		return cnn;
+	}
+	
+	@Override
+	protected double[][] getParameterArrays() {
+		List<double[]> arrays = new ArrayList<>();
+		for(Layer l : layers)
+			for(Tensor t : l.getParameters())
+				arrays.add(t.data);
+		return arrays.toArray(new double[arrays.size()][]);
+	}
+	
+	@Override
+	protected double[][] getOptimizerStateArrays() {
+		List<double[]> arrays = new ArrayList<>();
+		for(Layer l : layers)
+			for(Tensor t : l.getOptimizerState())
+				arrays.add(t.data);
+		return arrays.toArray(new double[arrays.size()][]);
 	}
 	
 	
@@ -158,7 +527,7 @@ public class CNN extends NNBase {
 		
 		eta = eta / batchSize;
 		for(int start=0; start<data.size(); start+=batchSize) {
-			List<? extends Datum> batch = data.subList(start, start+batchSize);
+			List<? extends Datum> batch = data.subList(start, Math.min(start+batchSize, data.size()));
 			preTrain(preLayers, batch, regTerm, eta);
 		}
 	}
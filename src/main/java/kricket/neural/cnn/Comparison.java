@@ -0,0 +1,105 @@
+package kricket.neural.cnn;
+
+import java.util.List;
+
+import kricket.neural.Evaluation;
+import kricket.neural.util.Datum;
+
+/**
+ * The difference between two Predictors on some data: typically a full-precision network,
+ * and a cheaper approximation of it (see {@link Quantizer} and {@link LowRankLayer}).
+ */
+public class Comparison {
+	public final Evaluation baseline, candidate;
+	public final long baselineBytes, candidateBytes;
+	/**
+	 * The fraction of data for which both Predictors give the same class.
+	 */
+	public final double agreement;
+	/**
+	 * The largest difference between corresponding outputs.
+	 */
+	public final double maxError;
+	/**
+	 * The average time per prediction, in nanoseconds.
+	 */
+	public final double baselineNanos, candidateNanos;
+
+	private Comparison(Evaluation baseline, Evaluation candidate, long baselineBytes, long candidateBytes,
+			double agreement, double maxError, double baselineNanos, double candidateNanos) {
+		this.baseline = baseline;
+		this.candidate = candidate;
+		this.baselineBytes = baselineBytes;
+		this.candidateBytes = candidateBytes;
+		this.agreement = agreement;
+		this.maxError = maxError;
+		this.baselineNanos = baselineNanos;
+		this.candidateNanos = candidateNanos;
+	}
+
+	/**
+	 * Run the given data through both Predictors, and compare the results.
+	 * @param baseline
+	 * @param candidate
+	 * @param data
+	 * @return
+	 */
+	public static Comparison of(Predictor baseline, Predictor candidate, List<? extends Datum> data) {
+		int numClasses = baseline.getOutputSize();
+		Evaluation baselineEval = new Evaluation(numClasses), candidateEval = new Evaluation(numClasses);
+		double[] baselineOut = new double[numClasses], candidateOut = new double[numClasses];
+		int agree = 0;
+		double maxError = 0;
+
+		for(Datum d : data) {
+			double[] in = d.getDataTensor().data;
+			baseline.predict(in, baselineOut);
+			candidate.predict(in, candidateOut);
+			baselineEval.add(baselineOut, d.getAnswerTensor().data);
+			candidateEval.add(candidateOut, d.getAnswerTensor().data);
+			if(argMax(baselineOut) == argMax(candidateOut))
+				agree++;
+			for(int i=0; i<numClasses; i++)
+				maxError = Math.max(maxError, Math.abs(baselineOut[i] - candidateOut[i]));
+		}
+
+		return new Comparison(baselineEval, candidateEval, baseline.getParameterBytes(), candidate.getParameterBytes(),
+				data.isEmpty() ? 1 : (double) agree / data.size(), maxError,
+				time(baseline, data), time(candidate, data));
+	}
+
+	private static int argMax(double[] values) {
+		int max = 0;
+		for(int i=1; i<values.length; i++) {
+			if(values[i] > values[max])
+				max = i;
+		}
+		return max;
+	}
+
+	private static double time(Predictor p, List<? extends Datum> data) {
+		if(data.isEmpty())
+			return 0;
+		double[][] inputs = new double[data.size()][];
+		for(int i=0; i<inputs.length; i++)
+			inputs[i] = data.get(i).getDataTensor().data;
+		double[] out = new double[p.getOutputSize()];
+
+		// The comparison above was the warm-up
+		long start = System.nanoTime();
+		for(double[] in : inputs)
+			p.predict(in, out);
+		return (double) (System.nanoTime() - start) / inputs.length;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Accuracy: %.3f%% -> %.3f%% (%+.3f), agreement %.3f%%, max output error %.5f%n"
+				+ "Parameters: %d -> %d bytes (%.1fx smaller)%n"
+				+ "Time per prediction: %.1f -> %.1f us (%.2fx faster)",
+				baseline.getAccuracy()*100, candidate.getAccuracy()*100, (candidate.getAccuracy() - baseline.getAccuracy())*100,
+				agreement*100, maxError,
+				baselineBytes, candidateBytes, (double) baselineBytes / candidateBytes,
+				baselineNanos*1e-3, candidateNanos*1e-3, baselineNanos / candidateNanos);
+	}
+}
@@ -15,7 +15,8 @@ public class ConvolutionalLayer implements Layer {
 	
 	private Tensor[] kernels, dK, oldDK;
 	private final int stepX, stepY, kernelRows, kernelCols, numKernels;
-	private Tensor lastX, lastY, biases;
+	private Tensor biases;
+	private LayerContext state;
 	private Tensor dB, oldDB;
 	private int outputRows, outputCols;
 	private Tensor backAdjust;
@@ -62,9 +63,71 @@ public class ConvolutionalLayer implements Layer {
 		return outputCols;
 	}
 
+	@Override
+	public Tensor[] getParameters() {
+		Tensor[] params = new Tensor[numKernels+1];
+		System.arraycopy(kernels, 0, params, 0, numKernels);
+		params[numKernels] = biases;
+		return params;
+	}
+	
+	/**
+	 * The last (scaled) gradients, from which {@link #resetGradients()} derives the momentum.
+	 */
+	@Override
+	public Tensor[] getOptimizerState() {
+		Tensor[] state = new Tensor[numKernels+1];
+		System.arraycopy(dK, 0, state, 0, numKernels);
+		state[numKernels] = dB;
+		return state;
+	}
+	
+	int getNumKernels() {
+		return numKernels;
+	}
+	
+	int getKernelRows() {
+		return kernelRows;
+	}
+	
+	int getKernelColumns() {
+		return kernelCols;
+	}
+	
+	double getMomentum() {
+		return momentum;
+	}
+
+	Tensor[] getKernels() {
+		return kernels;
+	}
+	
+	Tensor getBiases() {
+		return biases;
+	}
+	
+	int getRowStep() {
+		return stepY;
+	}
+	
+	int getColumnStep() {
+		return stepX;
+	}
+
 	@Override
 	public Tensor feedForward(Tensor x) {
-		lastX = x;
+		return feedForward(x, state);
+	}
+	
+	@Override
+	public LayerContext newContext() {
+		return new LayerContext(new Tensor(outputRows, outputCols, numKernels));
+	}
+
+	@Override
+	public Tensor feedForward(Tensor x, LayerContext ctx) {
+		ctx.lastX = x;
+		Tensor y = ctx.lastY;
 		
 		// Each kernel is basically like the weights of a single neuron of a fully-connected layer.
 		// The output of a single kernel will fill one slice of the output layer.
@@ -76,12 +139,12 @@ public class ConvolutionalLayer implements Layer {
 				for(int c = 0, oc = 0; c <= x.cols - kernelCols; c += stepX, oc++) {
 					SubTensor xs = new SubTensor(x, r, c, 0, kernelRows, kernelCols, x.slices);
 					double pixel = xs.innerProduct(kernels[k]) + biases.data[k];
-					lastY.set(or, oc, k, pixel);
+					y.set(or, oc, k, pixel);
 				}
 			}
 		}
 		
-		return lastY;
+		return y;
 	}
 
 	@Override
@@ -90,6 +153,7 @@ public class ConvolutionalLayer implements Layer {
 		// we simply repeat the feedforward loops to pair up the kernels with the sub-regions
 		// where they are applied. The backpropagated deltas are the kernels, and the dKs are
 		// the original input SubTensors.
+		Tensor lastX = state.lastX;
 		Tensor back = new Tensor(lastX.rows, lastX.cols, lastX.slices);
 		
 		for(int r=0; r<deltas.rows; r++) for(int c=0; c<deltas.cols; c++) {
@@ -183,10 +247,10 @@ public class ConvolutionalLayer implements Layer {
 		biases = Tensor.random(numKernels, 1, 1);
 		dB = new Tensor(biases.rows, biases.cols, 1);
 		
-		lastY = new Tensor(outputRows, outputCols, numKernels);
+		state = newContext();
 		setupBackAdjust(inputDimension);
 		
-		return lastY.getDimension();
+		return new Dimension(outputRows, outputCols, numKernels);
 	}
 
 	/**
@@ -0,0 +1,111 @@
+package kricket.neural.cnn;
+
+import java.util.Random;
+
+import kricket.neural.util.Dimension;
+import kricket.neural.util.DropoutMask;
+import kricket.neural.util.IncompatibleLayerException;
+import kricket.neural.util.Tensor;
+
+/**
+ * During training, a dropout layer zeroes a random fraction of its inputs, with a fresh
+ * {@link DropoutMask} for each sample, and scales the rest up to compensate. Everywhere
+ * else (evaluation, {@link Predictor}, ...) it passes its input straight through.
+ */
+public class DropoutLayer implements Layer {
+	
+	private final double RATE;
+	private Random random = new Random();
+	private DropoutMask mask;
+	/**
+	 * The last (masked) output.
+	 */
+	private Tensor lastY;
+	
+	/**
+	 * @param rate The probability of dropping each input, in [0, 1).
+	 */
+	public DropoutLayer(double rate) {
+		if(rate < 0 || rate >= 1)
+			throw new IllegalArgumentException("The dropout rate must be in [0, 1), not " + rate);
+		RATE = rate;
+	}
+	
+	/**
+	 * Draw the masks from a fixed seed, so that training runs are reproducible.
+	 * @param seed
+	 * @return
+	 */
+	public DropoutLayer withSeed(long seed) {
+		random = new Random(seed);
+		return this;
+	}
+	
+	/**
+	 * The training pass: a new mask is drawn for every call.
+	 */
+	@Override
+	public Tensor feedForward(Tensor x) {
+		mask.randomize(random, RATE);
+		System.arraycopy(x.data, 0, lastY.data, 0, lastY.data.length);
+		mask.apply(lastY.data);
+		return lastY;
+	}
+	
+	/**
+	 * Inference: thanks to the inverted scaling, there's nothing to do.
+	 */
+	@Override
+	public Tensor feedForward(Tensor x, LayerContext ctx) {
+		return x;
+	}
+	
+	@Override
+	public LayerContext newContext() {
+		// feedForward doesn't store anything
+		return new LayerContext(null);
+	}
+	
+	@Override
+	public Tensor backprop(Tensor deltas) {
+		// The same mask and scale, applied to the gradient
+		mask.apply(deltas.data);
+		return deltas;
+	}
+	
+	@Override
+	public void applyGradients(double regTerm, double scale) {
+		// Nothing to do
+	}
+	
+	@Override
+	public void resetGradients() {
+		// Nothing to do
+	}
+	
+	@Override
+	public Tensor[] getParameters() {
+		return new Tensor[0];
+	}
+	
+	@Override
+	public Tensor[] getOptimizerState() {
+		return new Tensor[0];
+	}
+	
+	double getRate() {
+		return RATE;
+	}
+	
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " (rate=" + RATE + ")";
+	}
+	
+	@Override
+	public Dimension prepare(Dimension inputDimension) throws IncompatibleLayerException {
+		lastY = new Tensor(inputDimension);
+		mask = new DropoutMask(lastY.data.length);
+		return inputDimension;
+	}
+}
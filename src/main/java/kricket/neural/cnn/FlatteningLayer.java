@@ -15,6 +15,17 @@ public class FlatteningLayer implements Layer {
 		return new Tensor(x.data);
 	}
 
+	@Override
+	public Tensor feedForward(Tensor x, LayerContext ctx) {
+		return new Tensor(x.data);
+	}
+
+	@Override
+	public LayerContext newContext() {
+		// feedForward doesn't store anything
+		return new LayerContext(null);
+	}
+
 	@Override
 	public Tensor backprop(Tensor deltas) {
 		return new Tensor(inputDimension, deltas.data);
@@ -30,6 +41,16 @@ public class FlatteningLayer implements Layer {
 		// Nothing to do
 	}
 
+	@Override
+	public Tensor[] getParameters() {
+		return new Tensor[0];
+	}
+
+	@Override
+	public Tensor[] getOptimizerState() {
+		return new Tensor[0];
+	}
+
 	@Override
 	public String toString() {
 		return getClass().getSimpleName();
@@ -2,6 +2,8 @@ package kricket.neural.cnn;
 
 import kricket.neural.util.Dimension;
 import kricket.neural.util.IncompatibleLayerException;
+import kricket.neural.util.Pruning;
+import kricket.neural.util.SparseVector;
 import kricket.neural.util.Tensor;
 
 /**
@@ -9,19 +11,40 @@ import kricket.neural.util.Tensor;
  * linear function of all the inputs to this layer.
  */
 public class FullyConnectedLayer implements Layer {
+	
+	private static class Context extends LayerContext {
+		/**
+		 * The indices of the non-zero values of the last input, if it was sparse enough
+		 * to use them (see {@link SparseVector}).
+		 */
+		final int[] nonZeros;
+		/**
+		 * The number of nonZeros, or -1 if the last input was dense.
+		 */
+		int count = -1;
+		
+		Context(int inputs, int outputs) {
+			super(new Tensor(outputs, 1, 1));
+			nonZeros = new int[inputs];
+		}
+	}
 
 	/**
 	 * The parameters of this Layer.
 	 */
 	private Tensor weights, biases;
 	/**
-	 * The last input and output.
+	 * The last input and output, for backpropagation.
 	 */
-	private Tensor lastX, lastY;
+	private Context state;
 	/**
 	 * The running total of the calculated gradients of the weights and biases.
 	 */
 	private Tensor dW, dB, oldDW, oldDB;
+	/**
+	 * mask[i] = false if weights.data[i] has been pruned (null = nothing pruned).
+	 */
+	private boolean[] mask;
 	
 	/**
 	 * Temp values, to avoid re-allocating.
@@ -29,6 +52,10 @@ public class FullyConnectedLayer implements Layer {
 	private Tensor dT_times_x, wT_times_d;
 	private final int NEURONS;
 	private final double MOMENTUM;
+	/**
+	 * Inputs with at most this fraction of non-zero values take the sparse path.
+	 */
+	private double sparseInputDensity = SparseVector.WORTHWHILE_DENSITY;
 	
 	/**
 	 * Initialize this layer (with 0 momentum).
@@ -47,10 +74,37 @@ public class FullyConnectedLayer implements Layer {
 		MOMENTUM = momentum;
 	}
 	
+	/**
+	 * Set the fraction of non-zero inputs below which the product with the weights (and
+	 * the weight gradient) skips the zero inputs. The default is
+	 * {@link SparseVector#WORTHWHILE_DENSITY}; 0 always uses the dense product.
+	 * @param density
+	 * @return
+	 */
+	public FullyConnectedLayer withSparseInputDensity(double density) {
+		sparseInputDensity = density;
+		return this;
+	}
+	
 	@Override
 	public Tensor feedForward(Tensor x) {
-		lastX = x;
-		return weights.times(lastX, lastY).plusEquals(biases);
+		return feedForward(x, state);
+	}
+	
+	@Override
+	public Tensor feedForward(Tensor x, LayerContext ctx) {
+		Context c = (Context) ctx;
+		c.lastX = x;
+		c.count = (sparseInputDensity > 0 ? SparseVector.nonZeros(x.data, c.nonZeros, sparseInputDensity) : -1);
+		if(c.count < 0)
+			return weights.times(x, c.lastY).plusEquals(biases);
+		SparseVector.times(weights.data, x.data, c.nonZeros, c.count, c.lastY.data);
+		return c.lastY.plusEquals(biases);
+	}
+	
+	@Override
+	public LayerContext newContext() {
+		return new Context(weights.cols, weights.rows);
 	}
 
 	@Override
@@ -61,7 +115,10 @@ public class FullyConnectedLayer implements Layer {
 		 * - calculate the derivatives wrt the inputs, and return them
 		 */
 		dB.plusEquals(deltas);
-		dW.plusEquals(deltas.timesTranspose(lastX, dT_times_x));
+		if(state.count < 0)
+			dW.plusEquals(deltas.timesTranspose(state.lastX, dT_times_x));
+		else
+			SparseVector.plusEqualsOuter(dW.data, deltas.data, state.lastX.data, state.nonZeros, state.count);
 		
 		return weights.transposeTimes(deltas, wT_times_d);
 	}
@@ -82,6 +139,80 @@ public class FullyConnectedLayer implements Layer {
 		biases.plusEquals(dB.timesEquals(-scale));
 		weights.plusEquals(oldDW);
 		biases.plusEquals(oldDB);
+		if(mask != null)
+			Pruning.applyMask(weights.data, mask);
+	}
+	
+	/**
+	 * Zero out the smallest weights, so that the given fraction of them are zero, and
+	 * keep them at zero from now on (see {@link Pruning}).
+	 * @param sparsity
+	 */
+	public void prune(double sparsity) {
+		if(mask == null)
+			mask = Pruning.newMask(weights.data.length);
+		Pruning.prune(weights.data, mask, sparsity);
+	}
+	
+	/**
+	 * Whether this layer has been pruned (see {@link #prune(double)}).
+	 * @return
+	 */
+	public boolean isPruned() {
+		return mask != null;
+	}
+	
+	/**
+	 * Keep the weights that are exactly zero at zero from now on (e.g. after loading a
+	 * pruned layer).
+	 */
+	void pruneZeros() {
+		mask = Pruning.maskZeros(weights.data);
+	}
+	
+	/**
+	 * The fraction of the weights that are zero.
+	 * @return
+	 */
+	public double getSparsity() {
+		int zeros = 0;
+		for(double w : weights.data) {
+			if(w == 0)
+				zeros++;
+		}
+		return (double) zeros / weights.data.length;
+	}
+	
+	@Override
+	public Tensor[] getParameters() {
+		return new Tensor[] {weights, biases};
+	}
+	
+	/**
+	 * The last (scaled) gradients, from which {@link #resetGradients()} derives the momentum.
+	 */
+	@Override
+	public Tensor[] getOptimizerState() {
+		return new Tensor[] {dW, dB};
+	}
+	
+	int getNeurons() {
+		return NEURONS;
+	}
+	
+	double getMomentum() {
+		return MOMENTUM;
+	}
+	
+	/**
+	 * The weights (one row per neuron). Package-private, for {@link Predictor}.
+	 */
+	Tensor getWeights() {
+		return weights;
+	}
+	
+	Tensor getBiases() {
+		return biases;
 	}
 	
 	@Override
@@ -110,7 +241,7 @@ public class FullyConnectedLayer implements Layer {
 		
 		dT_times_x = new Tensor(NEURONS, inputDimension.rows, 1);
 		wT_times_d = new Tensor(weights.cols, 1, 1);
-		lastY = new Tensor(weights.rows, 1, 1);
+		state = new Context(weights.cols, weights.rows);
 		
 		return new Dimension(biases.rows, 1, 1);
 	}
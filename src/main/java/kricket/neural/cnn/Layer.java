@@ -16,6 +16,23 @@ public interface Layer {
 	 */
 	Tensor feedForward(Tensor x);
 	
+	/**
+	 * Run the given feature maps forward through this layer, storing everything in the
+	 * given context rather than in this Layer. The parameters of this Layer are only
+	 * read, so any number of threads may call this at once (each with its own context).
+	 * @param x The inputs to this layer.
+	 * @param ctx A context previously created by {@link #newContext()}.
+	 * @return The resulting feature maps (stored in the context).
+	 */
+	Tensor feedForward(Tensor x, LayerContext ctx);
+	
+	/**
+	 * Create the storage for running data through this Layer with
+	 * {@link #feedForward(Tensor, LayerContext)}. Only valid after {@link #prepare(Dimension)}.
+	 * @return
+	 */
+	LayerContext newContext();
+	
 	/**
 	 * Calculate the gradient of the parameters of this Layer with respect to
 	 * the given errors, and get the errors for the prior Layer. Adds the gradient
@@ -37,6 +54,20 @@ public interface Layer {
 	 */
 	void resetGradients();
 
+	/**
+	 * The trainable parameters of this Layer, in a fixed order (empty if there are none).
+	 * These are the Layer's own Tensors, not copies. Only valid after {@link #prepare(Dimension)}.
+	 * @return
+	 */
+	Tensor[] getParameters();
+	
+	/**
+	 * The gradient state that this Layer carries from one batch to the next (for momentum),
+	 * matching {@link #getParameters()} one-to-one. These are the Layer's own Tensors.
+	 * @return
+	 */
+	Tensor[] getOptimizerState();
+
 	/**
 	 * Check that this Layer is compatible with the given input dimensions, and prepare any
 	 * optimizations (resource allocation) prior to execution.
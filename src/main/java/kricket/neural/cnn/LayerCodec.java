@@ -0,0 +1,112 @@
+package kricket.neural.cnn;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes and reads the configuration of each type of {@link Layer} (not its parameters),
+ * for the architecture section of a {@link kricket.neural.util.ModelFile}.
+ */
+final class LayerCodec {
+
+	private static final int FULLY_CONNECTED = 1, CONVOLUTIONAL = 2, MAX_POOLING = 3,
+			FLATTENING = 4, RELU = 5, SIGMA = 6, LOW_RANK = 7, DROPOUT = 8;
+
+	private LayerCodec() {}
+
+	/**
+	 * @param out
+	 * @param layer
+	 * @throws IOException
+	 * @throws UnsupportedOperationException if we don't know how to save this type of Layer.
+	 */
+	static void write(DataOutput out, Layer layer) throws IOException {
+		if(layer instanceof FullyConnectedLayer) {
+			FullyConnectedLayer fc = (FullyConnectedLayer) layer;
+			out.writeInt(FULLY_CONNECTED);
+			out.writeInt(fc.getNeurons());
+			out.writeDouble(fc.getMomentum());
+		} else if(layer instanceof ConvolutionalLayer) {
+			ConvolutionalLayer conv = (ConvolutionalLayer) layer;
+			out.writeInt(CONVOLUTIONAL);
+			out.writeInt(conv.getNumKernels());
+			out.writeInt(conv.getKernelColumns());
+			out.writeInt(conv.getKernelRows());
+			out.writeInt(conv.getColumnStep());
+			out.writeInt(conv.getRowStep());
+			out.writeDouble(conv.getMomentum());
+		} else if(layer instanceof LowRankLayer) {
+			LowRankLayer lr = (LowRankLayer) layer;
+			out.writeInt(LOW_RANK);
+			out.writeInt(lr.getNeurons());
+			out.writeInt(lr.getRank());
+			out.writeDouble(lr.getMomentum());
+		} else if(layer instanceof DropoutLayer) {
+			out.writeInt(DROPOUT);
+			out.writeDouble(((DropoutLayer) layer).getRate());
+		} else if(layer instanceof MaxPoolingLayer) {
+			out.writeInt(MAX_POOLING);
+		} else if(layer instanceof FlatteningLayer) {
+			out.writeInt(FLATTENING);
+		} else if(layer instanceof ReLULayer) {
+			out.writeInt(RELU);
+		} else if(layer instanceof SigmaLayer) {
+			out.writeInt(SIGMA);
+		} else {
+			throw new UnsupportedOperationException("Don't know how to save a " + layer.getClass().getName());
+		}
+	}
+
+	/**
+	 * Create a new (unprepared) Layer, configured as it was saved by {@link #write(DataOutput, Layer)}.
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	static Layer read(DataInput in) throws IOException {
+		int type = in.readInt();
+		switch(type) {
+		case FULLY_CONNECTED:
+			return new FullyConnectedLayer(in.readInt(), in.readDouble());
+		case CONVOLUTIONAL:
+			return new ConvolutionalLayer(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt())
+					.withMomentum(in.readDouble());
+		case LOW_RANK:
+			return new LowRankLayer(in.readInt(), in.readInt(), in.readDouble());
+		case DROPOUT:
+			return new DropoutLayer(in.readDouble());
+		case MAX_POOLING:
+			return new MaxPoolingLayer();
+		case FLATTENING:
+			return new FlatteningLayer();
+		case RELU:
+			return new ReLULayer();
+		case SIGMA:
+			return new SigmaLayer();
+		default:
+			throw new IOException("Unknown layer type " + type);
+		}
+	}
+
+	/**
+	 * Create a new (unprepared) Layer, configured like the given one.
+	 * @param layer
+	 * @return
+	 * @throws UnsupportedOperationException if we don't know how to save this type of Layer.
+	 */
+	static Layer copy(Layer layer) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			write(new DataOutputStream(bytes), layer);
+			return read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		} catch(IOException e) {
+			// There's no I/O going on
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package kricket.neural.cnn;
+
+import kricket.neural.util.Tensor;
+
+/**
+ * The values a {@link Layer} keeps while running data through it: the last input and
+ * output, plus whatever else a particular kind of Layer needs for backpropagation.
+ * <p>The parameters of a Layer are only read while feeding forward, so any number of
+ * threads can use the same Layer at once, as long as each one has its own context
+ * (see {@link Layer#newContext()}).
+ */
+public class LayerContext {
+	/**
+	 * The last input and output.
+	 */
+	Tensor lastX, lastY;
+
+	/**
+	 * Create a context whose output is stored in the given Tensor.
+	 * @param lastY Storage for the output (null if the Layer allocates its own).
+	 */
+	LayerContext(Tensor lastY) {
+		this.lastY = lastY;
+	}
+
+	/**
+	 * Get the last output that was generated with this context.
+	 * @return
+	 */
+	public Tensor getLastOutput() {
+		return lastY;
+	}
+}
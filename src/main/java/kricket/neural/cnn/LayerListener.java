@@ -0,0 +1,32 @@
+package kricket.neural.cnn;
+
+/**
+ * Told about every Layer operation run by a {@link CNN} (see {@link CNN#setLayerListener}).
+ * This may be called from several threads at once, since any number of threads can
+ * feed data through a CNN.
+ */
+public interface LayerListener {
+
+	enum Phase {
+		/**
+		 * {@link Layer#feedForward}, whether for training or not.
+		 */
+		FORWARD,
+		/**
+		 * {@link Layer#backprop}.
+		 */
+		BACKPROP,
+		/**
+		 * {@link Layer#applyGradients}, once per batch.
+		 */
+		APPLY_GRADIENTS
+	}
+
+	/**
+	 * A Layer has finished an operation.
+	 * @param layer The index of the Layer in {@link CNN#getLayers()}.
+	 * @param phase
+	 * @param nanos How long it took.
+	 */
+	void layerDone(int layer, Phase phase, long nanos);
+}
@@ -0,0 +1,64 @@
+package kricket.neural.cnn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Several LayerListeners acting as one (see {@link CNN#addLayerListener}). Immutable:
+ * adding or removing a listener makes a new one.
+ */
+public final class LayerListeners implements LayerListener {
+
+	private final LayerListener[] listeners;
+
+	private LayerListeners(LayerListener[] listeners) {
+		this.listeners = listeners;
+	}
+
+	/**
+	 * Combine two listeners.
+	 * @param a May be null.
+	 * @param b May be null.
+	 * @return Whichever isn't null, if either is; otherwise a LayerListeners that calls a, then b.
+	 */
+	public static LayerListener add(LayerListener a, LayerListener b) {
+		if(a == null)
+			return b;
+		if(b == null)
+			return a;
+		List<LayerListener> all = new ArrayList<>(asList(a));
+		all.addAll(asList(b));
+		return new LayerListeners(all.toArray(new LayerListener[all.size()]));
+	}
+
+	/**
+	 * Remove a listener (that was added by {@link #add}).
+	 * @param from
+	 * @param listener
+	 * @return from without listener (null if nothing is left).
+	 */
+	public static LayerListener remove(LayerListener from, LayerListener listener) {
+		List<LayerListener> all = new ArrayList<>(asList(from));
+		all.remove(listener);
+		if(all.isEmpty())
+			return null;
+		if(all.size() == 1)
+			return all.get(0);
+		return new LayerListeners(all.toArray(new LayerListener[all.size()]));
+	}
+
+	private static List<LayerListener> asList(LayerListener l) {
+		if(l == null)
+			return Arrays.asList();
+		if(l instanceof LayerListeners)
+			return Arrays.asList(((LayerListeners) l).listeners);
+		return Arrays.asList(l);
+	}
+
+	@Override
+	public void layerDone(int layer, Phase phase, long nanos) {
+		for(LayerListener l : listeners)
+			l.layerDone(layer, phase, nanos);
+	}
+}
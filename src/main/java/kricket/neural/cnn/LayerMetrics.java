@@ -0,0 +1,187 @@
+package kricket.neural.cnn;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import kricket.neural.cnn.LayerListener.Phase;
+import kricket.neural.util.Dimension;
+import kricket.neural.util.Tensor;
+
+/**
+ * Adds up the time spent and the number of calls per Layer and {@link Phase} of a CNN,
+ * and estimates the floating-point operations and bytes moved by each call, from the
+ * shapes of the layer and its input and output:
+ * <ul>
+ * <li>Layers with weights (fully-connected, convolutional, low-rank) do a multiply-add
+ * (2 FLOPs) per weight per output position forward, and twice that in backprop (for
+ * the gradient of the weights and the deltas of the inputs).
+ * <li>The other layers do 1 FLOP per input value, in either direction.
+ * <li>Applying the gradients costs 3 FLOPs per parameter.
+ * </ul>
+ * The bytes are those of the parameters, gradients, input and output that each call
+ * reads or writes (as doubles), ignoring caches. Usage:
+ * <pre>
+ * LayerMetrics metrics = new LayerMetrics(cnn);
+ * cnn.setLayerListener(metrics);
+ * cnn.SGD(...);
+ * System.out.println(metrics);
+ * </pre>
+ */
+public class LayerMetrics implements LayerListener {
+	private static final int PHASES = Phase.values().length;
+
+	private final String[] names;
+	/**
+	 * The estimated cost of a single call, indexed by layer*PHASES + phase.
+	 */
+	private final long[] flops, bytes;
+	private final AtomicLongArray calls, nanos;
+
+	/**
+	 * @param cnn The network this will listen to.
+	 */
+	public LayerMetrics(CNN cnn) {
+		Layer[] layers = cnn.getLayers();
+		Dimension[] dims = cnn.getDimensions();
+		names = new String[layers.length];
+		flops = new long[layers.length * PHASES];
+		bytes = new long[layers.length * PHASES];
+		calls = new AtomicLongArray(layers.length * PHASES);
+		nanos = new AtomicLongArray(layers.length * PHASES);
+
+		for(int i=0; i<layers.length; i++) {
+			names[i] = layers[i].getClass().getSimpleName();
+			long in = volume(dims[i]), out = volume(dims[i+1]);
+			Tensor[] params = layers[i].getParameters();
+			long numParams = 0;
+			for(Tensor t : params)
+				numParams += t.data.length;
+
+			long forward, backward;
+			if(params.length > 0) {
+				// The last parameter Tensor is the biases
+				long weights = numParams - params[params.length-1].data.length;
+				// Each kernel is applied at every position of its output map
+				long positions = (layers[i] instanceof ConvolutionalLayer ? (long) dims[i+1].rows * dims[i+1].columns : 1);
+				forward = 2 * weights * positions + out;
+				backward = 4 * weights * positions + out;
+			} else {
+				forward = in;
+				backward = in;
+			}
+			int f = i*PHASES + Phase.FORWARD.ordinal(), b = i*PHASES + Phase.BACKPROP.ordinal(), a = i*PHASES + Phase.APPLY_GRADIENTS.ordinal();
+			flops[f] = forward;
+			flops[b] = backward;
+			flops[a] = 3 * numParams;
+			// Read the parameters; backprop also reads and writes their gradients
+			bytes[f] = 8 * (numParams + in + out);
+			bytes[b] = 8 * (3*numParams + in + out);
+			// Read the gradients and momentum, read and write the parameters
+			bytes[a] = 8 * 4 * numParams;
+		}
+	}
+
+	private static long volume(Dimension d) {
+		return (long) d.rows * d.columns * d.depth;
+	}
+
+	@Override
+	public void layerDone(int layer, Phase phase, long nanos) {
+		int i = layer*PHASES + phase.ordinal();
+		calls.incrementAndGet(i);
+		this.nanos.addAndGet(i, nanos);
+	}
+
+	/**
+	 * Forget everything recorded so far.
+	 */
+	public void reset() {
+		for(int i=0; i<calls.length(); i++) {
+			calls.set(i, 0);
+			nanos.set(i, 0);
+		}
+	}
+
+	public int getNumLayers() {
+		return names.length;
+	}
+
+	/**
+	 * The class of the given layer.
+	 * @param layer
+	 * @return
+	 */
+	public String getLayerType(int layer) {
+		return names[layer];
+	}
+
+	public long getCalls(int layer, Phase phase) {
+		return calls.get(layer*PHASES + phase.ordinal());
+	}
+
+	/**
+	 * The total time spent.
+	 * @param layer
+	 * @param phase
+	 * @return
+	 */
+	public long getNanos(int layer, Phase phase) {
+		return nanos.get(layer*PHASES + phase.ordinal());
+	}
+
+	/**
+	 * The estimated floating-point operations of a single call.
+	 * @param layer
+	 * @param phase
+	 * @return
+	 */
+	public long getFlops(int layer, Phase phase) {
+		return flops[layer*PHASES + phase.ordinal()];
+	}
+
+	/**
+	 * The estimated bytes read and written by a single call.
+	 * @param layer
+	 * @param phase
+	 * @return
+	 */
+	public long getBytes(int layer, Phase phase) {
+		return bytes[layer*PHASES + phase.ordinal()];
+	}
+
+	/**
+	 * The estimated throughput so far, in GFLOP/s (0 if there were no calls).
+	 * @param layer
+	 * @param phase
+	 * @return
+	 */
+	public double getGFlops(int layer, Phase phase) {
+		long n = getNanos(layer, phase);
+		return (n == 0 ? 0 : (double) getFlops(layer, phase) * getCalls(layer, phase) / n);
+	}
+
+	/**
+	 * A table of the calls, time and throughput per layer and phase, with each layer's
+	 * share of the total time.
+	 */
+	@Override
+	public String toString() {
+		long total = 0;
+		for(int i=0; i<nanos.length(); i++)
+			total += nanos.get(i);
+
+		StringBuilder sb = new StringBuilder(String.format("%-3s %-20s %-15s %10s %10s %8s %8s %7s%n",
+				"#", "Layer", "Phase", "Calls", "Total ms", "GFLOP/s", "GB/s", "Time %"));
+		for(int l=0; l<names.length; l++) {
+			for(Phase p : Phase.values()) {
+				long c = getCalls(l, p), n = getNanos(l, p);
+				if(c == 0)
+					continue;
+				sb.append(String.format("%-3d %-20s %-15s %10d %10.2f %8.3f %8.3f %7.1f%n",
+						l, names[l], p, c, n*1e-6, getGFlops(l, p),
+						(n == 0 ? 0 : (double) getBytes(l, p) * c / n),
+						(total == 0 ? 0 : 100.0 * n / total)));
+			}
+		}
+		return sb.toString();
+	}
+}
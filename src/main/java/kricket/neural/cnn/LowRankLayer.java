@@ -0,0 +1,218 @@
+package kricket.neural.cnn;
+
+import kricket.neural.util.Dimension;
+import kricket.neural.util.IncompatibleLayerException;
+import kricket.neural.util.Matrix;
+import kricket.neural.util.SVD;
+import kricket.neural.util.Tensor;
+
+/**
+ * A fully-connected layer whose weight matrix is factorized as W = U * V, where U has
+ * only a few columns (the rank) and V only a few rows. The input is first projected down
+ * to the rank (h = V * x), then back up to the neurons (y = U * h + b).
+ * <p>With n inputs and m neurons, this costs rank * (n + m) multiplications instead of
+ * n * m, so it is cheaper whenever rank &lt; n*m / (n+m). It can be trained directly, or
+ * initialized from a trained {@link FullyConnectedLayer} (see {@link #factorize} and
+ * {@link CNN#compress(int)}).
+ */
+public class LowRankLayer implements Layer {
+
+	private static class Context extends LayerContext {
+		/**
+		 * The projection h = V * x.
+		 */
+		final Tensor h;
+
+		Context(int rank, int outputs) {
+			super(new Tensor(outputs, 1, 1));
+			h = new Tensor(rank, 1, 1);
+		}
+	}
+
+	/**
+	 * The parameters of this Layer: W = u * v.
+	 */
+	private Tensor u, v, biases;
+	/**
+	 * The last input, projection and output, for backpropagation.
+	 */
+	private Context state;
+	/**
+	 * The running total of the calculated gradients of the parameters.
+	 */
+	private Tensor dU, dV, dB, oldDU, oldDV, oldDB;
+
+	/**
+	 * Temp values, to avoid re-allocating.
+	 */
+	private Tensor d_times_hT, g_times_xT, uT_times_d, vT_times_g;
+	private final int NEURONS, RANK;
+	private final double MOMENTUM;
+
+	/**
+	 * @param numNeurons The number of neurons (outputs) in this layer.
+	 * @param rank The number of columns of U (and rows of V).
+	 * @param momentum The momentum factor: how much of the previous gradient we conserve.
+	 */
+	public LowRankLayer(int numNeurons, int rank, double momentum) {
+		if(rank < 1)
+			throw new IllegalArgumentException("The rank must be positive, not " + rank);
+		NEURONS = numNeurons;
+		RANK = rank;
+		MOMENTUM = momentum;
+	}
+
+	/**
+	 * Set the parameters of this (prepared) layer to the closest it can get to the given
+	 * layer: U * V is the best approximation of its weights with this rank (from the
+	 * largest singular values), and the biases are the same.
+	 * @param fc A prepared layer with the same inputs and neurons as this one.
+	 */
+	public void factorize(FullyConnectedLayer fc) {
+		Tensor w = fc.getWeights();
+		if(w.rows != u.rows || w.cols != v.cols)
+			throw new IllegalArgumentException("Can't factorize a " + w.rows + "x" + w.cols
+					+ " layer into a " + u.rows + "x" + v.cols + " one");
+
+		SVD svd = new SVD(new Matrix(w.rows, w.cols, w.data));
+		// Split each singular value evenly between U and V
+		for(int k=0; k<RANK; k++) {
+			double root = (k < svd.getNumValues() ? Math.sqrt(svd.S[k]) : 0);
+			for(int r=0; r<u.rows; r++)
+				u.set(r, k, 0, k < svd.getNumValues() ? svd.U.at(r, k) * root : 0);
+			for(int c=0; c<v.cols; c++)
+				v.set(k, c, 0, k < svd.getNumValues() ? svd.V.at(c, k) * root : 0);
+		}
+		System.arraycopy(fc.getBiases().data, 0, biases.data, 0, biases.data.length);
+	}
+
+	@Override
+	public Tensor feedForward(Tensor x) {
+		return feedForward(x, state);
+	}
+
+	@Override
+	public Tensor feedForward(Tensor x, LayerContext ctx) {
+		Context c = (Context) ctx;
+		c.lastX = x;
+		v.times(x, c.h);
+		return u.times(c.h, c.lastY).plusEquals(biases);
+	}
+
+	@Override
+	public LayerContext newContext() {
+		return new Context(RANK, NEURONS);
+	}
+
+	@Override
+	public Tensor backprop(Tensor deltas) {
+		// y = U*h + b, h = V*x
+		dB.plusEquals(deltas);
+		dU.plusEquals(deltas.timesTranspose(state.h, d_times_hT));
+		Tensor g = u.transposeTimes(deltas, uT_times_d);
+		dV.plusEquals(g.timesTranspose(state.lastX, g_times_xT));
+
+		return v.transposeTimes(g, vT_times_g);
+	}
+
+	@Override
+	public void resetGradients() {
+		oldDU = dU.timesEquals(MOMENTUM);
+		oldDV = dV.timesEquals(MOMENTUM);
+		oldDB = dB.timesEquals(MOMENTUM);
+		dU = new Tensor(u.rows, u.cols, 1);
+		dV = new Tensor(v.rows, v.cols, 1);
+		dB = new Tensor(biases.rows, biases.cols, 1);
+	}
+
+	@Override
+	public void applyGradients(double regTerm, double scale) {
+		if(regTerm != 0) {
+			u.timesEquals(regTerm);
+			v.timesEquals(regTerm);
+		}
+		u.plusEquals(dU.timesEquals(-scale));
+		v.plusEquals(dV.timesEquals(-scale));
+		biases.plusEquals(dB.timesEquals(-scale));
+		u.plusEquals(oldDU);
+		v.plusEquals(oldDV);
+		biases.plusEquals(oldDB);
+	}
+
+	@Override
+	public Tensor[] getParameters() {
+		return new Tensor[] {u, v, biases};
+	}
+
+	/**
+	 * The last (scaled) gradients, from which {@link #resetGradients()} derives the momentum.
+	 */
+	@Override
+	public Tensor[] getOptimizerState() {
+		return new Tensor[] {dU, dV, dB};
+	}
+
+	int getNeurons() {
+		return NEURONS;
+	}
+
+	int getRank() {
+		return RANK;
+	}
+
+	double getMomentum() {
+		return MOMENTUM;
+	}
+
+	/**
+	 * U, V and the biases. Package-private, for {@link Predictor}.
+	 */
+	Tensor getU() {
+		return u;
+	}
+
+	Tensor getV() {
+		return v;
+	}
+
+	Tensor getBiases() {
+		return biases;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName()
+				+ " (input "
+				+ v.cols
+				+ " => rank "
+				+ RANK
+				+ " => output "
+				+ u.rows
+				+ ", momentum="
+				+ MOMENTUM
+				+ ")";
+	}
+
+	@Override
+	public Dimension prepare(Dimension inputDimension) throws IncompatibleLayerException {
+		if(inputDimension.depth != 1 || inputDimension.columns != 1)
+			throw new IncompatibleLayerException("A " + getClass().getSimpleName()
+					+ " can only accept a single column vector, not: " + inputDimension);
+
+		u = Tensor.random(NEURONS, RANK, 1);
+		v = Tensor.random(RANK, inputDimension.rows, 1);
+		biases = Tensor.random(NEURONS, 1, 1);
+
+		dU = new Tensor(u.rows, u.cols, 1);
+		dV = new Tensor(v.rows, v.cols, 1);
+		dB = new Tensor(NEURONS, 1, 1);
+
+		d_times_hT = new Tensor(NEURONS, RANK, 1);
+		g_times_xT = new Tensor(RANK, inputDimension.rows, 1);
+		uT_times_d = new Tensor(RANK, 1, 1);
+		vT_times_g = new Tensor(inputDimension.rows, 1, 1);
+		state = (Context) newContext();
+
+		return new Dimension(NEURONS, 1, 1);
+	}
+}
@@ -1,7 +1,6 @@
 package kricket.neural.cnn;
 
 import kricket.neural.util.Dimension;
-import kricket.neural.util.IncompatibleLayerException;
 import kricket.neural.util.Tensor;
 
 /**
@@ -10,22 +9,39 @@ import kricket.neural.util.Tensor;
  */
 public class MaxPoolingLayer implements Layer {
 	
+	private static class Context extends LayerContext {
+		/**
+		 * Indices of which kernel map had the max value for each pixel.
+		 * I.e., if x[3] had the max value for the pixel at (r=2, c=5), then
+		 * maxIndices[2][5] = 3
+		 */
+		final int[][] maxIndices;
+		
+		Context(int rows, int cols) {
+			super(new Tensor(rows, cols, 1));
+			maxIndices = new int[rows][];
+			for(int i=0; i<maxIndices.length; i++)
+				maxIndices[i] = new int[cols];
+		}
+	}
+	
+	private int rows, cols, inputDepth;
 	/**
-	 * Cache, to avoid re-allocating tensors on each run.
-	 */
-	private Tensor lastY;
-	private int inputDepth;
-	/**
-	 * Indices of which kernel map had the max value for each pixel.
-	 * I.e., if x[3] had the max value for the pixel at (r=2, c=5), then
-	 * maxIndices[2][5] = 3
+	 * The last output and max indices, for backpropagation.
 	 */
-	private int[][] maxIndices;
+	private Context state;
 
 	@Override
 	public Tensor feedForward(Tensor x) {
+		return feedForward(x, state);
+	}
+	
+	@Override
+	public Tensor feedForward(Tensor x, LayerContext ctx) {
+		Tensor lastY = ctx.lastY;
+		int[][] maxIndices = ((Context) ctx).maxIndices;
 		for(int r=0; r<lastY.rows; r++) for(int c=0; c<lastY.cols; c++) {
-			double max = Double.MIN_VALUE;
+			double max = Double.NEGATIVE_INFINITY;
 			for(int i=0; i<x.slices; i++) {
 				double d = x.at(r, c, i);
 				if(d > max) {
@@ -38,12 +54,18 @@ public class MaxPoolingLayer implements Layer {
 		}
 		return lastY;
 	}
+	
+	@Override
+	public LayerContext newContext() {
+		return new Context(rows, cols);
+	}
 
 	@Override
 	public Tensor backprop(Tensor deltas) {
 		// The easiest way to zero out the tensor...?
 		Tensor delta = new Tensor(deltas.rows, deltas.cols, inputDepth);
 		
+		int[][] maxIndices = state.maxIndices;
 		for(int r=0; r<deltas.rows; r++) for(int c=0; c<deltas.cols; c++) {
 			delta.set(r, c, maxIndices[r][c], deltas.at(r, c, 0));
 		}
@@ -62,14 +84,23 @@ public class MaxPoolingLayer implements Layer {
 	}
 
 	@Override
-	public Dimension prepare(Dimension inputDimension) throws IncompatibleLayerException {
-		lastY = new Tensor(inputDimension.rows, inputDimension.columns, 1);
+	public Tensor[] getParameters() {
+		return new Tensor[0];
+	}
+
+	@Override
+	public Tensor[] getOptimizerState() {
+		return new Tensor[0];
+	}
+
+	@Override
+	public Dimension prepare(Dimension inputDimension) {
+		rows = inputDimension.rows;
+		cols = inputDimension.columns;
 		inputDepth = inputDimension.depth;
-		maxIndices = new int[inputDimension.rows][];
-		for(int i=0; i<maxIndices.length; i++)
-			maxIndices[i] = new int[inputDimension.columns];
+		state = new Context(rows, cols);
 		
-		return new Dimension(inputDimension.rows, inputDimension.columns, 1);
+		return new Dimension(rows, cols, 1);
 	}
 
 	@Override
@@ -81,6 +112,6 @@ public class MaxPoolingLayer implements Layer {
 	 * Get the last output that this layer generated.
 	 */
 	public Tensor getLastOutput() {
-		return lastY;
+		return state.lastY;
 	}
 }
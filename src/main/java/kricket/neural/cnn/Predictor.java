@@ -0,0 +1,476 @@
+package kricket.neural.cnn;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import kricket.neural.util.Dimension;
+import kricket.neural.util.SparseMatrix;
+import kricket.neural.util.Tensor;
+
+/**
+ * An immutable, inference-only version of a trained {@link CNN}. Compiling a CNN:
+ * <ul>
+ * <li>copies its parameters into flat arrays, so further training won't affect the Predictor</li>
+ * <li>drops everything needed for training (gradients, momentum, stored inputs...)</li>
+ * <li>fuses each fully-connected or convolutional layer with the activation that follows it</li>
+ * <li>stores the weights of mostly-zero (e.g. pruned) fully-connected layers in CSR format</li>
+ * <li>precomputes the input offsets of each convolution kernel, so no SubTensors are created</li>
+ * <li>removes flattening layers entirely (they don't change the memory layout)</li>
+ * </ul>
+ * A Predictor can be shared by any number of threads. Each thread gets its own pair of
+ * workspace buffers (sized once, on first use), so a prediction doesn't allocate anything.
+ * The results are exactly the same as {@link CNN#feedForward(Tensor)}.
+ */
+public final class Predictor {
+
+	/**
+	 * A single step of the compiled plan.
+	 */
+	static abstract class Op {
+		final int inputSize, outputSize;
+
+		Op(int inputSize, int outputSize) {
+			this.inputSize = inputSize;
+			this.outputSize = outputSize;
+		}
+
+		/**
+		 * Compute out from in. The two arrays are never the same.
+		 */
+		abstract void run(double[] in, double[] out);
+
+		/**
+		 * Compute out[b] from in[b] for each b < count. Ops that can reuse their
+		 * parameters across the batch should override this.
+		 */
+		void runBatch(double[][] in, double[][] out, int count) {
+			for(int b=0; b<count; b++)
+				run(in[b], out[b]);
+		}
+
+		/**
+		 * The memory used by the parameters of this Op.
+		 */
+		abstract long parameterBytes();
+	}
+
+	/**
+	 * An activation function applied after a Dense or Conv op (or on its own).
+	 */
+	enum Activation {
+		NONE, SIGMA, RELU;
+
+		double apply(double z) {
+			switch(this) {
+			case SIGMA:
+				return SigmaLayer.sigma(z);
+			case RELU:
+				return (z > 0 ? z : 0);
+			default:
+				return z;
+			}
+		}
+	}
+
+	/**
+	 * A fully-connected layer: out = act(W*in + b).
+	 */
+	static class Dense extends Op {
+		final double[] weights, biases;
+		final Activation act;
+
+		Dense(Tensor weights, Tensor biases, Activation act) {
+			super(weights.cols, weights.rows);
+			this.weights = weights.data.clone();
+			this.biases = biases.data.clone();
+			this.act = act;
+		}
+
+		@Override
+		void run(double[] in, double[] out) {
+			for(int r=0, w=0; r<outputSize; r++) {
+				double sum = 0;
+				for(int i=0; i<inputSize; i++)
+					sum += weights[w++] * in[i];
+				out[r] = act.apply(sum + biases[r]);
+			}
+		}
+
+		@Override
+		void runBatch(double[][] in, double[][] out, int count) {
+			// Walk the weights once per batch rather than once per input
+			for(int r=0; r<outputSize; r++) {
+				int row = r*inputSize;
+				for(int b=0; b<count; b++) {
+					double[] x = in[b];
+					double sum = 0;
+					for(int i=0; i<inputSize; i++)
+						sum += weights[row+i] * x[i];
+					out[b][r] = act.apply(sum + biases[r]);
+				}
+			}
+		}
+
+		@Override
+		long parameterBytes() {
+			return 8L * (weights.length + biases.length);
+		}
+	}
+
+	/**
+	 * A fully-connected layer whose weights are mostly zero (e.g. after pruning), stored
+	 * in CSR format.
+	 */
+	static class SparseDense extends Op {
+		final SparseMatrix weights;
+		final double[] biases;
+		final Activation act;
+
+		SparseDense(Tensor weights, Tensor biases, Activation act) {
+			super(weights.cols, weights.rows);
+			this.weights = new SparseMatrix(weights.data, weights.rows, weights.cols);
+			this.biases = biases.data.clone();
+			this.act = act;
+		}
+
+		@Override
+		void run(double[] in, double[] out) {
+			weights.times(in, out);
+			for(int r=0; r<outputSize; r++)
+				out[r] = act.apply(out[r] + biases[r]);
+		}
+
+		@Override
+		void runBatch(double[][] in, double[][] out, int count) {
+			weights.times(in, out, count);
+			for(int b=0; b<count; b++) {
+				double[] y = out[b];
+				for(int r=0; r<outputSize; r++)
+					y[r] = act.apply(y[r] + biases[r]);
+			}
+		}
+
+		@Override
+		long parameterBytes() {
+			return weights.getBytes() + 8L * biases.length;
+		}
+	}
+
+	/**
+	 * A convolutional layer. The kernels are packed into one array, and offsets[i] is the
+	 * position (relative to the top-left corner of the current window) of the input that
+	 * is multiplied by entry i of a kernel.
+	 */
+	static class Conv extends Op {
+		final double[] kernels, biases;
+		final int[] offsets;
+		final int numKernels, outRows, outCols, rowStride, colStride;
+		final Activation act;
+
+		Conv(ConvolutionalLayer layer, Dimension in, Dimension out, Activation act) {
+			super(in.rows*in.columns*in.depth, out.rows*out.columns*out.depth);
+			Tensor[] k = layer.getKernels();
+			numKernels = k.length;
+			int kSize = k[0].data.length;
+			kernels = new double[numKernels * kSize];
+			for(int i=0; i<numKernels; i++)
+				System.arraycopy(k[i].data, 0, kernels, i*kSize, kSize);
+			biases = layer.getBiases().data.clone();
+
+			// Same order as SubTensor.innerProduct: slice, row, column
+			offsets = new int[kSize];
+			int o = 0;
+			for(int s=0; s<k[0].slices; s++) for(int r=0; r<k[0].rows; r++) for(int c=0; c<k[0].cols; c++)
+				offsets[o++] = s*in.rows*in.columns + r*in.columns + c;
+
+			outRows = out.rows;
+			outCols = out.columns;
+			rowStride = layer.getRowStep() * in.columns;
+			colStride = layer.getColumnStep();
+			this.act = act;
+		}
+
+		@Override
+		void run(double[] in, double[] out) {
+			final int kSize = offsets.length;
+			int o = 0;
+			for(int k=0; k<numKernels; k++) {
+				int kOff = k*kSize;
+				for(int or=0; or<outRows; or++) {
+					for(int oc=0; oc<outCols; oc++) {
+						int base = or*rowStride + oc*colStride;
+						double sum = 0;
+						for(int i=0; i<kSize; i++)
+							sum += in[base + offsets[i]] * kernels[kOff + i];
+						out[o++] = act.apply(sum + biases[k]);
+					}
+				}
+			}
+		}
+
+		@Override
+		long parameterBytes() {
+			return 8L * (kernels.length + biases.length) + 4L * offsets.length;
+		}
+	}
+
+	/**
+	 * Max over the slices of the input.
+	 */
+	static class MaxPool extends Op {
+		private final int depth;
+
+		MaxPool(Dimension in) {
+			super(in.rows*in.columns*in.depth, in.rows*in.columns);
+			depth = in.depth;
+		}
+
+		@Override
+		void run(double[] in, double[] out) {
+			for(int p=0; p<outputSize; p++) {
+				// Same starting value as MaxPoolingLayer
+				double max = Double.NEGATIVE_INFINITY;
+				for(int s=0, i=p; s<depth; s++, i+=outputSize) {
+					if(in[i] > max)
+						max = in[i];
+				}
+				out[p] = max;
+			}
+		}
+
+		@Override
+		long parameterBytes() {
+			return 0;
+		}
+	}
+
+	/**
+	 * An activation function that couldn't be fused into the previous op.
+	 */
+	static class Elementwise extends Op {
+		private final Activation act;
+
+		Elementwise(int size, Activation act) {
+			super(size, size);
+			this.act = act;
+		}
+
+		@Override
+		void run(double[] in, double[] out) {
+			for(int i=0; i<outputSize; i++)
+				out[i] = act.apply(in[i]);
+		}
+
+		@Override
+		long parameterBytes() {
+			return 0;
+		}
+	}
+
+	/**
+	 * Per-thread buffers for the intermediate results.
+	 */
+	private static class Workspace {
+		final double[][] single = new double[2][];
+		double[][][] batch = new double[2][0][];
+	}
+
+	private final Op[] ops;
+	private final int inputSize, outputSize, bufferSize;
+	private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+		@Override
+		protected Workspace initialValue() {
+			Workspace ws = new Workspace();
+			ws.single[0] = new double[bufferSize];
+			ws.single[1] = new double[bufferSize];
+			return ws;
+		}
+	};
+
+	Predictor(CNN cnn) {
+		this(compile(cnn.getLayers(), cnn.getDimensions()));
+	}
+
+	/**
+	 * Create a Predictor that runs the given ops in order.
+	 * @param ops
+	 */
+	Predictor(List<Op> ops) {
+		if(ops.isEmpty())
+			throw new IllegalArgumentException("Nothing to compile");
+		this.ops = ops.toArray(new Op[ops.size()]);
+		inputSize = this.ops[0].inputSize;
+		outputSize = this.ops[this.ops.length-1].outputSize;
+		int max = 0;
+		for(Op op : this.ops)
+			max = Math.max(max, op.outputSize);
+		bufferSize = max;
+	}
+
+	/**
+	 * Translate the given layers into a list of Ops.
+	 * @param layers
+	 * @param dims dims[i] = input size of layers[i]
+	 * @return
+	 */
+	static List<Op> compile(Layer[] layers, Dimension[] dims) {
+		// Dropout only happens during training, so leave it out (which also lets the
+		// layers around it be fused)
+		List<Layer> kept = new ArrayList<>();
+		List<Dimension> keptDims = new ArrayList<>();
+		for(int i=0; i<layers.length; i++) {
+			if(!(layers[i] instanceof DropoutLayer)) {
+				kept.add(layers[i]);
+				keptDims.add(dims[i]);
+			}
+		}
+		keptDims.add(dims[layers.length]);
+		layers = kept.toArray(new Layer[kept.size()]);
+		dims = keptDims.toArray(new Dimension[keptDims.size()]);
+
+		List<Op> ops = new ArrayList<>();
+		for(int i=0; i<layers.length; i++) {
+			Layer layer = layers[i];
+			Activation next = (i+1 < layers.length ? activationOf(layers[i+1]) : Activation.NONE);
+
+			if(layer instanceof FullyConnectedLayer) {
+				FullyConnectedLayer fc = (FullyConnectedLayer) layer;
+				if(SparseMatrix.density(fc.getWeights().data) <= SparseMatrix.WORTHWHILE_DENSITY)
+					ops.add(new SparseDense(fc.getWeights(), fc.getBiases(), next));
+				else
+					ops.add(new Dense(fc.getWeights(), fc.getBiases(), next));
+			} else if(layer instanceof LowRankLayer) {
+				// Two dense products: down to the rank, then back up
+				LowRankLayer lr = (LowRankLayer) layer;
+				ops.add(new Dense(lr.getV(), new Tensor(lr.getV().rows, 1, 1), Activation.NONE));
+				ops.add(new Dense(lr.getU(), lr.getBiases(), next));
+			} else if(layer instanceof ConvolutionalLayer) {
+				ops.add(new Conv((ConvolutionalLayer) layer, dims[i], dims[i+1], next));
+			} else if(layer instanceof MaxPoolingLayer) {
+				ops.add(new MaxPool(dims[i]));
+				next = Activation.NONE;
+			} else if(layer instanceof FlatteningLayer) {
+				// Same data, different shape: nothing to do
+				continue;
+			} else if(activationOf(layer) != Activation.NONE) {
+				ops.add(new Elementwise(dims[i].rows*dims[i].columns*dims[i].depth, activationOf(layer)));
+				next = Activation.NONE;
+			} else {
+				throw new UnsupportedOperationException("Don't know how to compile a " + layer.getClass().getSimpleName());
+			}
+
+			// The next layer has been fused into this one
+			if(next != Activation.NONE)
+				i++;
+		}
+		return ops;
+	}
+
+	private static Activation activationOf(Layer layer) {
+		if(layer instanceof SigmaLayer)
+			return Activation.SIGMA;
+		if(layer instanceof ReLULayer)
+			return Activation.RELU;
+		return Activation.NONE;
+	}
+
+	/**
+	 * The number of inputs this Predictor expects.
+	 * @return
+	 */
+	public int getInputSize() {
+		return inputSize;
+	}
+
+	/**
+	 * The number of outputs this Predictor generates.
+	 * @return
+	 */
+	public int getOutputSize() {
+		return outputSize;
+	}
+
+	/**
+	 * The number of steps in the compiled plan.
+	 * @return
+	 */
+	public int getNumOps() {
+		return ops.length;
+	}
+
+	/**
+	 * The memory used by the parameters of this Predictor.
+	 * @return
+	 */
+	public long getParameterBytes() {
+		long bytes = 0;
+		for(Op op : ops)
+			bytes += op.parameterBytes();
+		return bytes;
+	}
+
+	/**
+	 * Run the given input through the network, without allocating anything.
+	 * @param input {@link #getInputSize()} values (not modified).
+	 * @param output Storage for the {@link #getOutputSize()} results.
+	 */
+	public void predict(double[] input, double[] output) {
+		double[][] buffers = workspaces.get().single;
+		double[] in = input;
+		for(int i=0; i<ops.length; i++) {
+			double[] out = (i == ops.length-1 ? output : buffers[i & 1]);
+			ops[i].run(in, out);
+			in = out;
+		}
+	}
+
+	/**
+	 * Run the given input through the network.
+	 * @param input
+	 * @return A new array holding the output.
+	 */
+	public double[] predict(double[] input) {
+		double[] output = new double[outputSize];
+		predict(input, output);
+		return output;
+	}
+
+	/**
+	 * Get the index of the largest output for the given input.
+	 * @param input
+	 * @return
+	 */
+	public int classify(double[] input) {
+		// The buffer that the last op would write to anyway isn't the input of the last op
+		double[] out = workspaces.get().single[(ops.length-1) & 1];
+		predict(input, out);
+		int max = 0;
+		for(int i=1; i<outputSize; i++) {
+			if(out[i] > out[max])
+				max = i;
+		}
+		return max;
+	}
+
+	/**
+	 * Run several inputs through the network at once. This is faster than predicting them
+	 * one at a time, since each layer's parameters are read once per batch.
+	 * @param inputs inputs[b] for b < count are the inputs (not modified).
+	 * @param outputs Storage for the results: outputs[b] for b < count.
+	 * @param count The number of inputs.
+	 */
+	public void predictBatch(double[][] inputs, double[][] outputs, int count) {
+		Workspace ws = workspaces.get();
+		if(ws.batch[0].length < count) {
+			for(int i=0; i<2; i++)
+				ws.batch[i] = new double[count][bufferSize];
+		}
+
+		double[][] in = inputs;
+		for(int i=0; i<ops.length; i++) {
+			double[][] out = (i == ops.length-1 ? outputs : ws.batch[i & 1]);
+			ops[i].runBatch(in, out, count);
+			in = out;
+		}
+	}
+}
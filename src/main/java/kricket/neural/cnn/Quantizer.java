@@ -0,0 +1,368 @@
+package kricket.neural.cnn;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import kricket.neural.util.Datum;
+
+/**
+ * Post-training int8 quantization of a {@link CNN}, for inference.
+ * <p>The fully-connected and convolutional layers are converted to int8 weights, with one
+ * scale per layer or per output channel (neuron or kernel). The inputs of every quantized
+ * layer are quantized to int8 on the fly, using a scale calibrated on a sample of data, and
+ * the products are accumulated in int32. Only the result is converted back to double, to
+ * add the bias and apply the activation; everything else (max pooling etc.) runs as in the
+ * full-precision {@link Predictor}.
+ * <p>Pruned fully-connected layers (which the Predictor stores as sparse matrices) stay
+ * sparse: only their non-zero weights are kept.
+ * <p>Usage: <code>new Quantizer(cnn, PER_CHANNEL).calibrate(sample).quantize()</code>, then
+ * {@link #compare(Predictor, Predictor, List)} to see what it cost.
+ */
+public class Quantizer {
+
+	/**
+	 * How many weight scales each layer gets.
+	 */
+	public enum Granularity {
+		/** One scale for all the weights of a layer. */
+		PER_LAYER,
+		/** One scale per neuron (fully-connected) or kernel (convolutional). */
+		PER_CHANNEL
+	}
+
+	private final List<Predictor.Op> ops;
+	private final Predictor full;
+	private final Granularity granularity;
+	/**
+	 * inputMax[i] = the largest absolute input to ops[i] seen during calibration.
+	 */
+	private final double[] inputMax;
+	private int calibrated;
+
+	/**
+	 * @param cnn The network to quantize (its current parameters are copied).
+	 * @param granularity
+	 */
+	public Quantizer(CNN cnn, Granularity granularity) {
+		ops = Predictor.compile(cnn.getLayers(), cnn.getDimensions());
+		full = new Predictor(ops);
+		this.granularity = granularity;
+		inputMax = new double[ops.size()];
+	}
+
+	/**
+	 * The full-precision version of the network.
+	 * @return
+	 */
+	public Predictor getFullPrecision() {
+		return full;
+	}
+
+	/**
+	 * Run the given data through the full-precision network, and record the range of the
+	 * input of each layer. May be called several times, to calibrate on more data.
+	 * @param sample Should be representative of the data the network will see.
+	 * @return this
+	 */
+	public Quantizer calibrate(List<? extends Datum> sample) {
+		double[][] buffers = new double[2][];
+		for(Predictor.Op op : ops) {
+			for(int i=0; i<2; i++) {
+				if(buffers[i] == null || buffers[i].length < op.outputSize)
+					buffers[i] = new double[op.outputSize];
+			}
+		}
+
+		for(Datum d : sample) {
+			double[] in = d.getDataTensor().data;
+			for(int i=0; i<ops.size(); i++) {
+				for(int j=0; j<ops.get(i).inputSize; j++)
+					inputMax[i] = Math.max(inputMax[i], Math.abs(in[j]));
+				ops.get(i).run(in, buffers[i & 1]);
+				in = buffers[i & 1];
+			}
+			calibrated++;
+		}
+		return this;
+	}
+
+	/**
+	 * Create the quantized version of the network.
+	 * @return
+	 * @throws IllegalStateException if {@link #calibrate(List)} hasn't been called.
+	 */
+	public Predictor quantize() {
+		if(calibrated == 0)
+			throw new IllegalStateException("Calibrate on some data first");
+
+		List<Predictor.Op> quantized = new ArrayList<>();
+		for(int i=0; i<ops.size(); i++) {
+			Predictor.Op op = ops.get(i);
+			if(op instanceof Predictor.Dense)
+				quantized.add(new QuantizedDense((Predictor.Dense) op, inputMax[i], granularity));
+			else if(op instanceof Predictor.SparseDense)
+				quantized.add(new QuantizedSparseDense((Predictor.SparseDense) op, inputMax[i], granularity));
+			else if(op instanceof Predictor.Conv)
+				quantized.add(new QuantizedConv((Predictor.Conv) op, inputMax[i], granularity));
+			else
+				quantized.add(op);
+		}
+		return new Predictor(quantized);
+	}
+
+	/**
+	 * Run the given data through both Predictors, and compare the results.
+	 * @param full
+	 * @param quantized
+	 * @param data
+	 * @return
+	 */
+	public static Comparison compare(Predictor full, Predictor quantized, List<? extends Datum> data) {
+		return Comparison.of(full, quantized, data);
+	}
+
+	/**
+	 * The scale that maps [-max, max] onto [-127, 127].
+	 */
+	private static double scaleFor(double max) {
+		return (max == 0 ? 1 : max / 127);
+	}
+
+	/**
+	 * Quantize the given weights, in channels of the given size.
+	 * @param weights
+	 * @param channelSize
+	 * @param granularity
+	 * @param q Storage for the quantized weights.
+	 * @return The scale of each channel.
+	 */
+	private static double[] quantizeWeights(double[] weights, int channelSize, Granularity granularity, byte[] q) {
+		int channels = weights.length / channelSize;
+		double[] scales = new double[channels];
+		double layerMax = 0;
+		for(int c=0; c<channels; c++) {
+			double max = 0;
+			for(int i=c*channelSize; i<(c+1)*channelSize; i++)
+				max = Math.max(max, Math.abs(weights[i]));
+			scales[c] = max;
+			layerMax = Math.max(layerMax, max);
+		}
+
+		for(int c=0; c<channels; c++) {
+			scales[c] = scaleFor(granularity == Granularity.PER_LAYER ? layerMax : scales[c]);
+			for(int i=c*channelSize; i<(c+1)*channelSize; i++)
+				q[i] = (byte) Math.round(weights[i] / scales[c]);
+		}
+		return scales;
+	}
+
+	/**
+	 * Quantize the given inputs with the given (inverse) scale, clamping anything that
+	 * lies outside the calibrated range.
+	 */
+	private static void quantizeInput(double[] in, int length, double invScale, byte[] q) {
+		for(int i=0; i<length; i++) {
+			double v = in[i] * invScale;
+			// Round half away from zero (the cast truncates towards zero)
+			v = (v > 126.5 ? 127 : (v < -126.5 ? -127 : (v < 0 ? v - 0.5 : v + 0.5)));
+			q[i] = (byte) (int) v;
+		}
+	}
+
+	private static final ThreadLocal<byte[][]> SCRATCH = new ThreadLocal<byte[][]>() {
+		@Override
+		protected byte[][] initialValue() {
+			return new byte[1][0];
+		}
+	};
+
+	/**
+	 * Per-thread storage for the quantized input(s) of an op.
+	 */
+	private static byte[][] scratch(int count, int size) {
+		byte[][] s = SCRATCH.get();
+		if(s.length < count || s[0].length < size) {
+			s = new byte[Math.max(count, s.length)][Math.max(size, s[0].length)];
+			SCRATCH.set(s);
+		}
+		return s;
+	}
+
+	/**
+	 * A fully-connected layer with int8 weights and inputs.
+	 */
+	static class QuantizedDense extends Predictor.Op {
+		private final byte[] weights;
+		/**
+		 * outScales[r] = input scale * weight scale of row r: converts the int32 sum back.
+		 */
+		private final double[] outScales, biases;
+		private final double invInputScale;
+		private final Predictor.Activation act;
+
+		QuantizedDense(Predictor.Dense dense, double inputMax, Granularity granularity) {
+			super(dense.inputSize, dense.outputSize);
+			weights = new byte[dense.weights.length];
+			double inputScale = scaleFor(inputMax);
+			invInputScale = 1 / inputScale;
+			outScales = quantizeWeights(dense.weights, inputSize, granularity, weights);
+			for(int r=0; r<outScales.length; r++)
+				outScales[r] *= inputScale;
+			biases = dense.biases.clone();
+			act = dense.act;
+		}
+
+		@Override
+		void run(double[] in, double[] out) {
+			byte[] q = scratch(1, inputSize)[0];
+			quantizeInput(in, inputSize, invInputScale, q);
+			for(int r=0, w=0; r<outputSize; r++) {
+				int sum = 0;
+				for(int i=0; i<inputSize; i++)
+					sum += weights[w++] * q[i];
+				out[r] = act.apply(sum * outScales[r] + biases[r]);
+			}
+		}
+
+		@Override
+		void runBatch(double[][] in, double[][] out, int count) {
+			byte[][] q = scratch(count, inputSize);
+			for(int b=0; b<count; b++)
+				quantizeInput(in[b], inputSize, invInputScale, q[b]);
+			for(int r=0; r<outputSize; r++) {
+				int row = r*inputSize;
+				for(int b=0; b<count; b++) {
+					byte[] x = q[b];
+					int sum = 0;
+					for(int i=0; i<inputSize; i++)
+						sum += weights[row+i] * x[i];
+					out[b][r] = act.apply(sum * outScales[r] + biases[r]);
+				}
+			}
+		}
+
+		@Override
+		long parameterBytes() {
+			return weights.length + 8L * (outScales.length + biases.length);
+		}
+	}
+
+	/**
+	 * A pruned fully-connected layer with int8 weights (the non-zero ones, in CSR format)
+	 * and inputs.
+	 */
+	static class QuantizedSparseDense extends Predictor.Op {
+		/**
+		 * The weights of row r are values[rowStart[r] .. rowStart[r+1]), in the given columns.
+		 */
+		private final int[] rowStart, columns;
+		private final byte[] values;
+		private final double[] outScales, biases;
+		private final double invInputScale;
+		private final Predictor.Activation act;
+
+		QuantizedSparseDense(Predictor.SparseDense sparse, double inputMax, Granularity granularity) {
+			super(sparse.inputSize, sparse.outputSize);
+			byte[] q = new byte[inputSize * outputSize];
+			double inputScale = scaleFor(inputMax);
+			invInputScale = 1 / inputScale;
+			outScales = quantizeWeights(sparse.weights.toDense().data, inputSize, granularity, q);
+			for(int r=0; r<outScales.length; r++)
+				outScales[r] *= inputScale;
+			biases = sparse.biases.clone();
+			act = sparse.act;
+
+			// Weights that round to zero can go too
+			int nonZeros = 0;
+			for(byte b : q) {
+				if(b != 0)
+					nonZeros++;
+			}
+			rowStart = new int[outputSize+1];
+			columns = new int[nonZeros];
+			values = new byte[nonZeros];
+			for(int r=0, k=0; r<outputSize; r++) {
+				for(int c=0; c<inputSize; c++) {
+					byte b = q[r*inputSize + c];
+					if(b != 0) {
+						columns[k] = c;
+						values[k++] = b;
+					}
+				}
+				rowStart[r+1] = k;
+			}
+		}
+
+		@Override
+		void run(double[] in, double[] out) {
+			byte[] q = scratch(1, inputSize)[0];
+			quantizeInput(in, inputSize, invInputScale, q);
+			for(int r=0; r<outputSize; r++) {
+				int sum = 0;
+				for(int k=rowStart[r]; k<rowStart[r+1]; k++)
+					sum += values[k] * q[columns[k]];
+				out[r] = act.apply(sum * outScales[r] + biases[r]);
+			}
+		}
+
+		@Override
+		long parameterBytes() {
+			return values.length + 4L * (columns.length + rowStart.length) + 8L * (outScales.length + biases.length);
+		}
+	}
+
+	/**
+	 * A convolutional layer with int8 kernels and inputs.
+	 */
+	static class QuantizedConv extends Predictor.Op {
+		private final byte[] kernels;
+		private final double[] outScales, biases;
+		private final int[] offsets;
+		private final int numKernels, outRows, outCols, rowStride, colStride;
+		private final double invInputScale;
+		private final Predictor.Activation act;
+
+		QuantizedConv(Predictor.Conv conv, double inputMax, Granularity granularity) {
+			super(conv.inputSize, conv.outputSize);
+			kernels = new byte[conv.kernels.length];
+			double inputScale = scaleFor(inputMax);
+			invInputScale = 1 / inputScale;
+			outScales = quantizeWeights(conv.kernels, conv.offsets.length, granularity, kernels);
+			for(int k=0; k<outScales.length; k++)
+				outScales[k] *= inputScale;
+			biases = conv.biases.clone();
+			offsets = conv.offsets;
+			numKernels = conv.numKernels;
+			outRows = conv.outRows;
+			outCols = conv.outCols;
+			rowStride = conv.rowStride;
+			colStride = conv.colStride;
+			act = conv.act;
+		}
+
+		@Override
+		void run(double[] in, double[] out) {
+			byte[] q = scratch(1, inputSize)[0];
+			quantizeInput(in, inputSize, invInputScale, q);
+			final int kSize = offsets.length;
+			int o = 0;
+			for(int k=0; k<numKernels; k++) {
+				int kOff = k*kSize;
+				for(int or=0; or<outRows; or++) {
+					for(int oc=0; oc<outCols; oc++) {
+						int base = or*rowStride + oc*colStride;
+						int sum = 0;
+						for(int i=0; i<kSize; i++)
+							sum += q[base + offsets[i]] * kernels[kOff + i];
+						out[o++] = act.apply(sum * outScales[k] + biases[k]);
+					}
+				}
+			}
+		}
+
+		@Override
+		long parameterBytes() {
+			return kernels.length + 8L * (outScales.length + biases.length) + 4L * offsets.length;
+		}
+	}
+}
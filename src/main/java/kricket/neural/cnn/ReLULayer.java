@@ -9,7 +9,11 @@ import kricket.neural.util.Tensor;
  */
 public class ReLULayer implements Layer {
 	
-	private Tensor lastX, lastY;
+	private Dimension dimension;
+	/**
+	 * The last input and output, for backpropagation.
+	 */
+	private LayerContext state;
 
 	private double rectify(double x) {
 		return (x > 0 ? x : 0);
@@ -17,17 +21,29 @@ public class ReLULayer implements Layer {
 	
 	@Override
 	public Tensor feedForward(Tensor x) {
-		lastX = x;
+		return feedForward(x, state);
+	}
+	
+	@Override
+	public Tensor feedForward(Tensor x, LayerContext ctx) {
+		ctx.lastX = x;
+		Tensor y = ctx.lastY;
 		for(int i=0; i<x.data.length; i++)
-			lastY.data[i] = rectify(x.data[i]);
+			y.data[i] = rectify(x.data[i]);
 		
-		return lastY;
+		return y;
+	}
+	
+	@Override
+	public LayerContext newContext() {
+		return new LayerContext(new Tensor(dimension));
 	}
 
 	@Override
 	public Tensor backprop(Tensor deltas) {
 		// The gradient here is simple: the only parts that get backpropagated
 		// are the ones that correspond to positive inputs.
+		Tensor lastX = state.lastX;
 		for(int i=0; i<lastX.data.length; i++) {
 			if(lastX.data[i] <= 0)
 				deltas.data[i] = 0;
@@ -46,9 +62,20 @@ public class ReLULayer implements Layer {
 		// Nothing to do
 	}
 
+	@Override
+	public Tensor[] getParameters() {
+		return new Tensor[0];
+	}
+
+	@Override
+	public Tensor[] getOptimizerState() {
+		return new Tensor[0];
+	}
+
 	@Override
 	public Dimension prepare(Dimension inputDimension) throws IncompatibleLayerException {
-		lastY = new Tensor(inputDimension);
+		dimension = inputDimension;
+		state = newContext();
 		return inputDimension;
 	}
 
@@ -10,7 +10,11 @@ import kricket.neural.util.Tensor;
  */
 public class SigmaLayer implements Layer {
 	
-	private Tensor lastX, lastY;
+	private Dimension dimension;
+	/**
+	 * The last input and output, for backpropagation.
+	 */
+	private LayerContext state;
 
 	/**
 	 * The smoothing function.
@@ -56,17 +60,27 @@ public class SigmaLayer implements Layer {
 	
 	@Override
 	public Tensor feedForward(Tensor x) {
-		lastX = x;
-		sigma(x, lastY);
-		return lastY;
+		return feedForward(x, state);
+	}
+	
+	@Override
+	public Tensor feedForward(Tensor x, LayerContext ctx) {
+		ctx.lastX = x;
+		sigma(x, ctx.lastY);
+		return ctx.lastY;
+	}
+	
+	@Override
+	public LayerContext newContext() {
+		return new LayerContext(new Tensor(dimension));
 	}
 
 	@Override
 	public Tensor backprop(Tensor deltas) {
-		if(!deltas.getDimension().equals(lastX.getDimension()))
+		if(!deltas.getDimension().equals(state.lastX.getDimension()))
 			throw new IllegalArgumentException();
 		
-		deltas.dotTimesEquals(dSigma(lastX));
+		deltas.dotTimesEquals(dSigma(state.lastX));
 		return deltas;
 	}
 
@@ -75,6 +89,16 @@ public class SigmaLayer implements Layer {
 		// Nothing to do
 	}
 
+	@Override
+	public Tensor[] getParameters() {
+		return new Tensor[0];
+	}
+
+	@Override
+	public Tensor[] getOptimizerState() {
+		return new Tensor[0];
+	}
+
 	@Override
 	public void applyGradients(double regTerm, double scale) {
 		// Nothing to do
@@ -82,7 +106,8 @@ public class SigmaLayer implements Layer {
 
 	@Override
 	public Dimension prepare(Dimension inputDimension) {
-		lastY = new Tensor(inputDimension);
+		dimension = inputDimension;
+		state = newContext();
 		return inputDimension;
 	}
 
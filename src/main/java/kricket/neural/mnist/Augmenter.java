@@ -0,0 +1,154 @@
+package kricket.neural.mnist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates augmented training sets by applying a fixed set of {@link SamplingGrid}s
+ * to many images at once. The grids are computed once, up front, and the work is
+ * split across all available cores.
+ */
+public class Augmenter {
+
+	private final SamplingGrid[] grids;
+	private final int threads;
+
+	/**
+	 * Create an Augmenter that uses all available cores.
+	 * @param grids The transformations to apply to each image.
+	 */
+	public Augmenter(SamplingGrid... grids) {
+		this(Runtime.getRuntime().availableProcessors(), grids);
+	}
+
+	/**
+	 * @param threads The number of threads to use.
+	 * @param grids The transformations to apply to each image.
+	 */
+	public Augmenter(int threads, SamplingGrid... grids) {
+		if(threads < 1)
+			throw new IllegalArgumentException("Need at least one thread, not " + threads);
+		this.threads = threads;
+		this.grids = grids;
+	}
+
+	/**
+	 * The usual set of transformations: +-30 degrees rotation, and +-3 pixels shift
+	 * in each diagonal direction.
+	 * @return
+	 */
+	public static Augmenter standard() {
+		return new Augmenter(
+				SamplingGrid.rotation(Math.PI/6),
+				SamplingGrid.shift(-3, -3),
+				SamplingGrid.shift(3, -3),
+				SamplingGrid.shift(-3, 3),
+				SamplingGrid.shift(3, 3),
+				SamplingGrid.rotation(-Math.PI/6));
+	}
+
+	/**
+	 * Get the original images, followed by each transformation of each image. The
+	 * transformations of image i are stored contiguously, in the order the grids
+	 * were given.
+	 * @param original
+	 * @return
+	 */
+	public List<Image> augment(final List<Image> original) {
+		final Image[] result = new Image[original.size() * (grids.length+1)];
+		for(int i=0; i<original.size(); i++)
+			result[i] = original.get(i);
+
+		final int offset = original.size();
+		forEachChunk(original.size(), new Chunk() {
+			@Override
+			public void run(int from, int to) {
+				for(int i=from; i<to; i++) {
+					Image img = original.get(i);
+					double[] src = img.getDataTensor().data;
+					for(int g=0; g<grids.length; g++) {
+						double[] dst = new double[src.length];
+						grids[g].apply(src, dst);
+						result[offset + i*grids.length + g] = new Image(dst, img);
+					}
+				}
+			}
+		});
+
+		return Arrays.asList(result);
+	}
+
+	/**
+	 * Apply one of the grids to a batch of images, writing the pixels into the given
+	 * buffers instead of allocating new Images. This lets the caller recycle the same
+	 * buffers for every batch when streaming augmented data.
+	 * @param images The images to transform.
+	 * @param grid The index of the grid to apply.
+	 * @param buffers One buffer (of at least width*height entries) per image.
+	 */
+	public void apply(final List<Image> images, int grid, final double[][] buffers) {
+		if(buffers.length < images.size())
+			throw new IllegalArgumentException("Have " + images.size() + " images, but only " + buffers.length + " buffers");
+
+		final SamplingGrid g = grids[grid];
+		forEachChunk(images.size(), new Chunk() {
+			@Override
+			public void run(int from, int to) {
+				for(int i=from; i<to; i++)
+					g.apply(images.get(i).getDataTensor().data, buffers[i]);
+			}
+		});
+	}
+
+	/**
+	 * The transformations this Augmenter applies.
+	 * @return
+	 */
+	public SamplingGrid[] getGrids() {
+		return grids;
+	}
+
+	private interface Chunk {
+		void run(int from, int to);
+	}
+
+	/**
+	 * Split [0, size) into one contiguous chunk per thread, and wait for them all to finish.
+	 */
+	private void forEachChunk(int size, final Chunk chunk) {
+		int numChunks = Math.min(threads, size);
+		if(numChunks <= 1) {
+			chunk.run(0, size);
+			return;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(numChunks);
+		try {
+			List<Future<?>> futures = new ArrayList<>(numChunks);
+			for(int c=0; c<numChunks; c++) {
+				final int from = (int) ((long) size * c / numChunks);
+				final int to = (int) ((long) size * (c+1) / numChunks);
+				futures.add(pool.submit(new Runnable() {
+					@Override
+					public void run() {
+						chunk.run(from, to);
+					}
+				}));
+			}
+			for(Future<?> f : futures)
+				f.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while augmenting", e);
+		} catch(ExecutionException e) {
+			throw new IllegalStateException("Augmentation failed", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -21,6 +21,17 @@ public class Image implements Datum {
 		answer.set(answerByte, 0, 0, 1);
 	}
 	
+	/**
+	 * Create a new Image with the same answer as the given one.
+	 * @param image
+	 * @param label The Image whose answer we share.
+	 */
+	Image(double[] image, Image label) {
+		data = new Tensor(WIDTH, HEIGHT, 1, image);
+		answerByte = label.answerByte;
+		answer = label.answer;
+	}
+	
 	public Matrix getData() {
 		return new Matrix(data.data);
 	}
@@ -44,53 +55,13 @@ public class Image implements Datum {
 		return sb.toString();
 	}
 	
-	private double pixel(double dx, double dy) {
-		int x = (int) dx, y = (int) dy;
-		if(x < 0 || y < 0 || x >= WIDTH || y >= HEIGHT)
-			return 0;
-		return data.at(y, x, 0);
-	}
-	
-	private void setPixel(int x, int y, double value) {
-		data.set(y, x, 0, value);
-	}
-	
 	/**
 	 * Get a copy of this image, rotated by the given amount.
 	 * @param rad
 	 * @return
 	 */
 	public Image rotate(double rad) {
-		Image r = new Image(new double[WIDTH*HEIGHT], answerByte);
-		// Rotate BACKWARDS
-		double sin = Math.sin(-rad), cos = Math.cos(-rad);
-		
-		final int W = WIDTH/2, H = HEIGHT/2;
-		for(int x=0; x<WIDTH; x++) {
-			for(int y=0; y<HEIGHT; y++) {
-				// rotate (x,y) by -rad about the middle of the image
-				double origX = cos*(x-W) - sin*(y-H) + W;
-				double origY = sin*(x-W) + cos*(y-H) + H;
-				
-				// origX is going to be somewhere between two integral values. We use that
-				// to scale the amout of each pixel we find from the original image.
-				double leftX = 1. - (origX - ((int)origX));
-				double botY = 1. - (origY - ((int)origY));
-				
-				// So, now we have something like:
-				// for X: 0.22 left, 0.78 right
-				// for Y: 0.61 bot,  0.39 top
-				// We just need to combine them
-				double result =
-						leftX * botY * pixel(origX, origY) +
-						leftX * (1-botY) * pixel(origX, origY+1) +
-						(1-leftX) * botY * pixel(origX+1, origY) +
-						(1-leftX) * (1-botY) * pixel(origX+1, origY+1);
-				r.setPixel(x,y,result);
-			}
-		}
-		
-		return r;
+		return transform(SamplingGrid.rotation(rad));
 	}
 	
 	/**
@@ -100,15 +71,19 @@ public class Image implements Datum {
 	 * @return
 	 */
 	public Image shift(int x, int y) {
-		Image img = new Image(new double[WIDTH*HEIGHT], answerByte);
-		
-		for(int r=0; r<HEIGHT; r++) {
-			for(int c=0; c<WIDTH; c++) {
-				img.setPixel(c, r, pixel(c-x,r+y));
-			}
-		}
-		
-		return img;
+		return transform(SamplingGrid.shift(x, y));
+	}
+	
+	/**
+	 * Get a copy of this Image, transformed by the given grid. If you're going to apply the
+	 * same transformation to many images, build the grid once and reuse it (or see {@link Augmenter}).
+	 * @param grid
+	 * @return
+	 */
+	public Image transform(SamplingGrid grid) {
+		double[] pixels = new double[WIDTH*HEIGHT];
+		grid.apply(data.data, pixels);
+		return new Image(pixels, this);
 	}
 
 	@Override
@@ -0,0 +1,146 @@
+package kricket.neural.mnist;
+
+/**
+ * A precomputed affine transformation of an image. For each output pixel, we store
+ * the indices of the source pixels it is interpolated from, along with their
+ * (bilinear) weights. Building a grid does all the trig and coordinate math once;
+ * applying it to an image is then just a short weighted sum per pixel.
+ * <p>Taps that fall outside of the source image (or that have a weight of 0) are
+ * simply left out, so e.g. a shift only costs one multiplication per pixel.
+ */
+public class SamplingGrid {
+
+	/**
+	 * Size of the images this grid applies to.
+	 */
+	public final int width, height;
+	/**
+	 * The taps for output pixel i are stored in [start[i], start[i+1]).
+	 */
+	private final int[] start;
+	/**
+	 * Index of the source pixel for each tap.
+	 */
+	private final int[] source;
+	/**
+	 * Weight of each tap.
+	 */
+	private final double[] weights;
+
+	/**
+	 * Create a grid for the inverse mapping:
+	 * <pre>origX = a*(x-W) + b*(y-H) + W + tx
+	 *origY = c*(x-W) + d*(y-H) + H + ty</pre>
+	 * where (W,H) is the middle of the image, (x,y) is the output pixel, and
+	 * (origX, origY) is where we sample the source image.
+	 */
+	public SamplingGrid(int width, int height, double a, double b, double c, double d, double tx, double ty) {
+		this.width = width;
+		this.height = height;
+
+		final int pixels = width*height;
+		start = new int[pixels+1];
+		int[] src = new int[pixels*4];
+		double[] w = new double[pixels*4];
+		int taps = 0;
+
+		final int W = width/2, H = height/2;
+		for(int y=0; y<height; y++) {
+			for(int x=0; x<width; x++) {
+				double origX = a*(x-W) + b*(y-H) + W + tx;
+				double origY = c*(x-W) + d*(y-H) + H + ty;
+
+				// Same interpolation as the original Image.rotate(): origX is somewhere between
+				// two integral values, and we use that to weight the neighbouring pixels.
+				double leftX = 1. - (origX - ((int)origX));
+				double botY = 1. - (origY - ((int)origY));
+
+				start[y*width + x] = taps;
+				taps = addTap(src, w, taps, (int)origX, (int)origY, leftX * botY);
+				taps = addTap(src, w, taps, (int)origX, (int)(origY+1), leftX * (1-botY));
+				taps = addTap(src, w, taps, (int)(origX+1), (int)origY, (1-leftX) * botY);
+				taps = addTap(src, w, taps, (int)(origX+1), (int)(origY+1), (1-leftX) * (1-botY));
+			}
+		}
+		start[pixels] = taps;
+
+		source = new int[taps];
+		weights = new double[taps];
+		System.arraycopy(src, 0, source, 0, taps);
+		System.arraycopy(w, 0, weights, 0, taps);
+	}
+
+	private int addTap(int[] src, double[] w, int taps, int x, int y, double weight) {
+		if(weight == 0 || x < 0 || y < 0 || x >= width || y >= height)
+			return taps;
+		src[taps] = y*width + x;
+		w[taps] = weight;
+		return taps+1;
+	}
+
+	/**
+	 * Rotate an {@link Image} by the given amount about its middle.
+	 * @param rad
+	 * @return
+	 */
+	public static SamplingGrid rotation(double rad) {
+		// Rotate BACKWARDS
+		double sin = Math.sin(-rad), cos = Math.cos(-rad);
+		return new SamplingGrid(Image.WIDTH, Image.HEIGHT, cos, -sin, sin, cos, 0, 0);
+	}
+
+	/**
+	 * Shift an {@link Image} by the given number of pixels (see {@link Image#shift(int, int)}).
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public static SamplingGrid shift(int x, int y) {
+		return new SamplingGrid(Image.WIDTH, Image.HEIGHT, 1, 0, 0, 1, -x, y);
+	}
+
+	/**
+	 * Scale an {@link Image} about its middle. Factors > 1 enlarge the image.
+	 * @param sx Horizontal scale factor.
+	 * @param sy Vertical scale factor.
+	 * @return
+	 */
+	public static SamplingGrid scale(double sx, double sy) {
+		return new SamplingGrid(Image.WIDTH, Image.HEIGHT, 1/sx, 0, 0, 1/sy, 0, 0);
+	}
+
+	/**
+	 * Shear an {@link Image} about its middle.
+	 * @param kx Horizontal shear: how far each row moves right, per row below the middle.
+	 * @param ky Vertical shear: how far each column moves down, per column right of the middle.
+	 * @return
+	 */
+	public static SamplingGrid shear(double kx, double ky) {
+		// Inverse of [1 kx; ky 1]
+		double det = 1 - kx*ky;
+		return new SamplingGrid(Image.WIDTH, Image.HEIGHT, 1/det, -kx/det, -ky/det, 1/det, 0, 0);
+	}
+
+	/**
+	 * Fill dst with the transformed version of src. Both must be (width*height) long,
+	 * and they may NOT be the same array.
+	 * @param src
+	 * @param dst
+	 */
+	public void apply(double[] src, double[] dst) {
+		for(int p=0; p<dst.length; p++) {
+			double sum = 0;
+			for(int t=start[p]; t<start[p+1]; t++)
+				sum += weights[t] * src[source[t]];
+			dst[p] = sum;
+		}
+	}
+
+	/**
+	 * The total number of interpolation taps (i.e., multiplications per image).
+	 * @return
+	 */
+	public int getTaps() {
+		return weights.length;
+	}
+}
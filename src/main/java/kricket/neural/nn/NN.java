@@ -1,18 +1,27 @@
 package kricket.neural.nn;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
+import kricket.neural.Evaluator;
 import kricket.neural.NNBase;
 import kricket.neural.util.Datum;
+import kricket.neural.util.DropoutMask;
 import kricket.neural.util.Matrix;
+import kricket.neural.util.MemoryBudget;
+import kricket.neural.util.ModelFile;
 import kricket.neural.util.NNOptions;
+import kricket.neural.util.Pruning;
+import kricket.neural.util.SparseMatrix;
+import kricket.neural.util.SparseVector;
 
 /**
  * A simple neural network.
@@ -24,14 +33,12 @@ public class NN extends NNBase {
 	 */
 	private static class NablaC {
 		public Matrix[] b, w;
-		public NablaC(Matrix[] _b, Matrix [] _w) {
-			b = _b;
-			w = _w;
-		}
-		public void plusEquals(NablaC other) {
+		public NablaC(Matrix[] weights, Matrix[] biases) {
+			b = new Matrix[biases.length];
+			w = new Matrix[weights.length];
 			for(int i=0; i<w.length; i++) {
-				w[i].plusEquals(other.w[i]);
-				b[i].plusEquals(other.b[i]);
+				w[i] = new Matrix(weights[i].rows, weights[i].cols);
+				b[i] = new Matrix(biases[i].rows, biases[i].cols);
 			}
 		}
 	}
@@ -49,6 +56,10 @@ public class NN extends NNBase {
 	 * Total number of layers, including the input layer.
 	 */
 	private final int NUM_LAYERS;
+	/**
+	 * The indices of the non-zero inputs, for backprop (see {@link NNOptions#sparseInputDensity}).
+	 */
+	private int[] nonZeros;
 
 	/**
 	 * Create a new NN with the default options.
@@ -78,6 +89,8 @@ public class NN extends NNBase {
 			weights[i-1] = Matrix.random(layers[i], layers[i-1]);
 			biases[i-1] = Matrix.random(layers[i], 1);
 		}
+		if(opts.logMemory)
+			opts.log.info("Memory:\n" + getMemoryBudget());
 	}
 	
 	/**
@@ -87,35 +100,69 @@ public class NN extends NNBase {
 	 * @return
 	 */
 	public Matrix feedForward(Matrix input) {
+		SparseMatrix[] sparse = getSparseWeights();
 		Matrix current = new Matrix(input.data);
 		for(int i=0; i<(NUM_LAYERS-1); i++) {
-			current = weights[i].times(current).plusEquals(biases[i]);
+			Matrix z;
+			int[] indices;
+			int count;
+			if(i == 0 && sparse[0] == null
+					&& (count = sparseInputs(current, indices = new int[current.rows])) >= 0) {
+				z = new Matrix(weights[0].rows, 1);
+				SparseVector.times(weights[0].data, current.data, indices, count, z.data);
+			} else
+				z = (sparse[i] == null ? weights[i].times(current) : sparse[i].times(current));
+			current = z.plusEquals(biases[i]);
 			sigma(current);
 		}
 		
 		return current;
 	}
 	
+	/**
+	 * Find the non-zero inputs, if there are few enough of them to skip the rest
+	 * (see {@link NNOptions#sparseInputDensity}).
+	 * @param x The input vector.
+	 * @param indices Storage for the indices of the non-zero inputs.
+	 * @return The number of non-zero inputs, or -1 if x is too dense.
+	 */
+	private int sparseInputs(Matrix x, int[] indices) {
+		if(options.sparseInputDensity <= 0)
+			return -1;
+		return SparseVector.nonZeros(x.data, indices, options.sparseInputDensity);
+	}
+	
 	/**
 	 * @param x The input (will be flattened into a vector)
 	 * @param y The "correct" output vector
-	 * @return The gradient vector of the cost function, for all the weights and biases.
+	 * @param nabla Where to add the gradient vector of the cost function, for all the weights and biases.
 	 */
-	private NablaC backprop(Matrix x, Matrix y) {
-		Matrix[] nabla_Cb = new Matrix[NUM_LAYERS - 1];
-		Matrix[] nabla_Cw = new Matrix[NUM_LAYERS - 1];
+	private void backprop(Matrix x, Matrix y, NablaC nabla) {
 		// The "z" vectors are the non-activated outputs of the SNs of each layer. The first one is null
 		// for convenience. Note that they will get modified in-place when we call dSigma! 
 		Matrix[] zs = new Matrix[NUM_LAYERS];
 		// The activations are the z vectors, with sigma applied. The first one is just the input.
 		Matrix[] activations = new Matrix[NUM_LAYERS];
 		activations[0] = new Matrix(x.data);
+		if(nonZeros == null || nonZeros.length != x.data.length)
+			nonZeros = new int[x.data.length];
+		int count = sparseInputs(activations[0], nonZeros);
 		
 		// Step forward through the network, saving the z and sigma(z) on each layer.
 		for(int i=1; i<NUM_LAYERS; i++) {
-			zs[i] = weights[i-1].times(activations[i-1]).plusEquals(biases[i-1]);
+			if(i == 1 && count >= 0) {
+				zs[i] = new Matrix(weights[0].rows, 1);
+				SparseVector.times(weights[0].data, activations[0].data, nonZeros, count, zs[i].data);
+				zs[i].plusEquals(biases[0]);
+			} else
+				zs[i] = weights[i-1].times(activations[i-1]).plusEquals(biases[i-1]);
 			activations[i] = sigma(zs[i].copy());
+			if(dropoutMasks != null && i < NUM_LAYERS-1) {
+				dropoutMasks[i].randomize(dropoutRandom, dropoutRate);
+				dropoutMasks[i].apply(activations[i].data);
+			}
 		}
+		recordForward(activations[NUM_LAYERS-1].data, y.data);
 
 		// Now, start working backwards. We have to start manually with the last layer...
 		Matrix delta = activations[NUM_LAYERS-1]
@@ -124,8 +171,7 @@ public class NN extends NNBase {
 				// WITHOUT, we're using cross-entropy (which should learn faster).
 				//.dotTimesEquals(dSigma(zs[NUM_LAYERS-1]))
 				;
-		nabla_Cb[NUM_LAYERS-2] = delta;
-		nabla_Cw[NUM_LAYERS-2] = delta.timesTranspose(activations[NUM_LAYERS-2]);
+		addGradients(nabla, NUM_LAYERS-2, delta, activations[NUM_LAYERS-2], count);
 		
 		// ...and now walk backwards through the remaining layers.
 		for(int layer = NUM_LAYERS-2; layer > 0; layer--) {
@@ -133,12 +179,54 @@ public class NN extends NNBase {
 			delta = weights[layer]
 					.transposeTimes(delta)
 					.dotTimesEquals(dSigma(zs[layer]));
+			if(dropoutMasks != null)
+				dropoutMasks[layer].apply(delta.data);
 			
-			nabla_Cb[layer-1] = delta;
-			nabla_Cw[layer-1] = delta.timesTranspose(activations[layer-1]);
+			addGradients(nabla, layer-1, delta, activations[layer-1], count);
 		}
+	}
+	
+	/**
+	 * Add the gradients of the given layer's weights and biases to nabla. For the first
+	 * layer, with sparse inputs, only the columns for the non-zero inputs are touched.
+	 * @param nabla
+	 * @param layer
+	 * @param delta
+	 * @param input The layer's input.
+	 * @param count The number of {@link #nonZeros} in the network's input (-1 = dense).
+	 */
+	private void addGradients(NablaC nabla, int layer, Matrix delta, Matrix input, int count) {
+		nabla.b[layer].plusEquals(delta);
+		if(layer == 0 && count >= 0)
+			SparseVector.plusEqualsOuter(nabla.w[0].data, delta.data, input.data, nonZeros, count);
+		else
+			nabla.w[layer].plusEquals(delta.timesTranspose(input));
+	}
+	
+	/**
+	 * Estimate the memory needed by each layer. There is no momentum; backprop keeps z and
+	 * sigma(z) of each layer, and the first layer's indices of non-zero inputs. The batch
+	 * buffers are those of {@link #feedForwardBatch}: the input and two consecutive layers
+	 * per datum.
+	 */
+	@Override
+	public MemoryBudget getMemoryBudget(int bytesPerValue) {
+		long b = bytesPerValue, widest = 0;
+		for(int i=1; i<NUM_LAYERS; i++)
+			widest = Math.max(widest, weights[i-1].rows + (long) weights[i-1].cols);
+		MemoryBudget budget = new MemoryBudget(bytesPerValue, b * (weights[0].cols + widest));
 		
-		return new NablaC(nabla_Cb, nabla_Cw);
+		for(int i=0; i<NUM_LAYERS-1; i++) {
+			long in = weights[i].cols, out = weights[i].rows, params = in*out + out;
+			// The deltas, and the product of delta and the input
+			long temporaries = b * (out + in*out);
+			if(i == 0)
+				temporaries += 4*in;
+			if(dropoutMasks != null && i < NUM_LAYERS-2)
+				temporaries += 8 * ((out + 63) / 64);
+			budget.add(new MemoryBudget.Entry("Layer " + (i+1), b*params, b*params, 0, 2*b*out, temporaries));
+		}
+		return budget;
 	}
 	
 	/**
@@ -180,14 +268,9 @@ public class NN extends NNBase {
 	
 	@Override
 	protected void runBatch(List<? extends Datum> batch, double regTerm, double eta) {
-		NablaC nabla = null;
-		for(Datum dat : batch) {
-			NablaC backprop = backprop(dat.getData(), dat.getAnswer());
-			if(nabla == null)
-				nabla = backprop;
-			else
-				nabla.plusEquals(backprop);
-		}
+		NablaC nabla = new NablaC(weights, biases);
+		for(Datum dat : batch)
+			backprop(dat.getData(), dat.getAnswer(), nabla);
 		
 		// Update w and b
 		for(int i=0; i<NUM_LAYERS-1; i++) {
@@ -195,30 +278,57 @@ public class NN extends NNBase {
 				weights[i].timesEquals(regTerm);
 			weights[i].plusEquals(nabla.w[i].timesEquals(-eta / batch.size()));
 			biases[i].plusEquals(nabla.b[i].timesEquals(-eta / batch.size()));
+			if(masks != null)
+				Pruning.applyMask(weights[i].data, masks[i]);
 		}
+		sparseWeights = null;
+	}
+	
+	@Override
+	protected Evaluator.Worker newEvaluationWorker() {
+		// feedForwardBatch doesn't touch any shared state, so there's nothing to set up per thread.
+		return new Evaluator.Worker() {
+			@Override
+			public void feedForward(List<? extends Datum> batch, double[][] results) {
+				int inputs = weights[0].cols;
+				Matrix x = new Matrix(inputs, batch.size());
+				for(int b=0; b<batch.size(); b++) {
+					double[] in = batch.get(b).getData().data;
+					for(int r=0; r<inputs; r++)
+						x.set(r, b, in[r]);
+				}
+				
+				Matrix y = feedForwardBatch(x);
+				for(int b=0; b<batch.size(); b++) {
+					if(results[b] == null || results[b].length != y.rows)
+						results[b] = new double[y.rows];
+					for(int r=0; r<y.rows; r++)
+						results[b][r] = y.at(r, b);
+				}
+			}
+		};
 	}
 	
 	/**
-	 * Calculate the error for the given training set.
-	 * @param data
-	 * @return The percent correct.
+	 * Feed several inputs through the NN at once. This does one matrix-matrix product
+	 * per layer, rather than one matrix-vector product per layer per input.
+	 * @param inputs One column for each input.
+	 * @return One column for each output.
 	 */
-	public double calc_error(List<? extends Datum> data) {
-		double numCorrect = 0;
-		for(Datum dat : data) {
-			Matrix result = feedForward(dat.getData());
-			if(isCorrect(result.data, dat.getAnswer().data)) {
-				numCorrect++;
-			} else if(options.logIncorrectAnswers) {
-				options.log.info("Got this one wrong:\n" + dat);
-				for(double d : result.data)
-					options.log.info(String.format("%.3f", d));
+	public Matrix feedForwardBatch(Matrix inputs) {
+		SparseMatrix[] sparse = getSparseWeights();
+		Matrix current = inputs;
+		for(int i=0; i<(NUM_LAYERS-1); i++) {
+			current = (sparse[i] == null ? weights[i].times(current) : sparse[i].times(current));
+			for(int r=0; r<current.rows; r++) {
+				double b = biases[i].data[r];
+				for(int c=0; c<current.cols; c++)
+					current.set(r, c, current.at(r, c) + b);
 			}
+			sigma(current);
 		}
 		
-		double correct = numCorrect / data.size();
-		options.log.info(String.format("-------------------> Percent correct: %.3f", correct*100));
-		return correct;
+		return current;
 	}
 	
 	
@@ -226,42 +336,70 @@ public class NN extends NNBase {
 	
 	
 	/**
-	 * Serialize this NN (weights and biases only) to the given file.
+	 * Serialize this NN (weights and biases only) to the given file, in the
+	 * {@link ModelFile} format.
 	 * @param filename
 	 * @throws IOException
 	 */
 	public void save(String filename) throws IOException {
-		FileOutputStream fs = new FileOutputStream(filename);
-		DataOutputStream dos = new DataOutputStream(fs);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream arch = new DataOutputStream(bytes);
+		arch.writeInt(NUM_LAYERS);
+		arch.writeInt(weights[0].cols);
+		for(Matrix w : weights)
+			arch.writeInt(w.rows);
+		arch.close();
 		
-		try {
-			dos.writeInt(NUM_LAYERS);
-			dos.writeInt(weights[0].cols);
-			for(int i=0; i<weights.length; i++) {
-				dos.writeInt(weights[i].rows);
-				writeMatrix(dos, weights[i]);
-				writeMatrix(dos, biases[i]);
-			}
-		} finally {
-			dos.close();
-		}
-	}
-
-	private void writeMatrix(DataOutputStream dos, Matrix m) throws IOException {
-		for(double val : m.data) {
-			dos.writeDouble(val);
-		}
+		ModelFile.write(filename, ModelFile.Kind.NN, bytes.toByteArray(), getParameterArrays(), null, isPruned());
 	}
 	
 	/**
-	 * Load a NN that was previously saved by {@link #save(String)}.
+	 * Load a NN that was previously saved by {@link #save(String)}. Files in the old
+	 * format (a plain stream of ints and doubles) can still be read.
 	 * @param filename
 	 * @return
 	 * @throws IOException
 	 */
 	public static NN load(String filename) throws IOException {
-		FileInputStream fs = new FileInputStream(filename);
-		DataInputStream dis = new DataInputStream(fs);
+		if(!ModelFile.isModelFile(filename))
+			return loadLegacy(filename);
+		
+		ModelFile file = ModelFile.open(filename, ModelFile.Kind.NN);
+		DataInputStream arch = file.getArchitecture();
+		NN nn = new NN(arch.readInt());
+		int prevLayerSize = arch.readInt();
+		for(int i=1; i<nn.NUM_LAYERS; i++) {
+			int layerISize = arch.readInt();
+			nn.weights[i-1] = new Matrix(layerISize, prevLayerSize);
+			nn.biases[i-1] = new Matrix(layerISize, 1);
+			prevLayerSize = layerISize;
+		}
+		file.readParameters(nn.getParameterArrays());
+		if(file.isPruned())
+			nn.pruneZeros();
+		return nn;
+	}
+	
+	@Override
+	protected double[][] getParameterArrays() {
+		double[][] arrays = new double[2*weights.length][];
+		for(int i=0; i<weights.length; i++) {
+			arrays[2*i] = weights[i].data;
+			arrays[2*i+1] = biases[i].data;
+		}
+		return arrays;
+	}
+	
+	/**
+	 * Plain SGD: nothing is carried from one batch to the next.
+	 */
+	@Override
+	protected double[][] getOptimizerStateArrays() {
+		return new double[0][];
+	}
+	
+	private static NN loadLegacy(String filename) throws IOException {
+		DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
 		
 		try {
 			int nLayers = dis.readInt();
@@ -297,20 +435,112 @@ public class NN extends NNBase {
 	}
 	
 	
+	//--- Pruning -----------------------------------------------------------//
+	
+	
+	/**
+	 * masks[i][j] = false if weights[i].data[j] has been pruned (null = nothing pruned).
+	 */
+	private boolean[][] masks;
+	/**
+	 * The weights, compressed for inference wherever they are sparse enough to be worth it
+	 * (null = use the dense weights). Rebuilt after the weights change.
+	 */
+	private volatile SparseMatrix[] sparseWeights;
+	
+	@Override
+	public void prune(double sparsity) {
+		if(removedRows != null)
+			throw new UnsupportedOperationException("Can't prune while neurons are dropped out");
+		if(masks == null) {
+			masks = new boolean[weights.length][];
+			for(int i=0; i<weights.length; i++)
+				masks[i] = Pruning.newMask(weights[i].data.length);
+		}
+		for(int i=0; i<weights.length; i++)
+			Pruning.prune(weights[i].data, masks[i], sparsity);
+		sparseWeights = null;
+	}
+	
+	@Override
+	public boolean isPruned() {
+		return masks != null;
+	}
+	
+	@Override
+	protected void pruneZeros() {
+		masks = new boolean[weights.length][];
+		for(int i=0; i<weights.length; i++)
+			masks[i] = Pruning.maskZeros(weights[i].data);
+		sparseWeights = null;
+	}
+	
+	private SparseMatrix[] getSparseWeights() {
+		SparseMatrix[] sparse = sparseWeights;
+		if(sparse == null) {
+			sparse = new SparseMatrix[weights.length];
+			for(int i=0; i<weights.length; i++) {
+				if(SparseMatrix.density(weights[i].data) <= SparseMatrix.WORTHWHILE_DENSITY)
+					sparse[i] = new SparseMatrix(weights[i]);
+			}
+			sparseWeights = sparse;
+		}
+		return sparse;
+	}
+	
+	
 	//--- DROPOUT! ----------------------------------------------------------//
 	
 	
+	/**
+	 * dropoutMasks[i] = the mask for the activations of hidden layer i (null = no dropout).
+	 */
+	private DropoutMask[] dropoutMasks;
+	private double dropoutRate;
+	private Random dropoutRandom;
+	
+	/**
+	 * During training, drop out each hidden neuron with the given probability, drawing a
+	 * new {@link DropoutMask} for each sample. The masks are applied to the activations
+	 * (and their gradients) in place, and the kept ones are scaled up, so feeding forward
+	 * needs no correction. Unlike {@link #dropout(int)}, no weights are copied, and there
+	 * is nothing to restore.
+	 * @param rate The probability of dropping each neuron, in [0, 1); 0 turns dropout off.
+	 * @param seed For the random masks.
+	 */
+	public void setDropoutRate(double rate, long seed) {
+		if(rate < 0 || rate >= 1)
+			throw new IllegalArgumentException("The dropout rate must be in [0, 1), not " + rate);
+		if(removedRows != null)
+			throw new UnsupportedOperationException("Restore the dropped-out neurons first");
+		if(rate == 0) {
+			dropoutMasks = null;
+			return;
+		}
+		dropoutRate = rate;
+		dropoutRandom = new Random(seed);
+		dropoutMasks = new DropoutMask[NUM_LAYERS-1];
+		for(int i=1; i<NUM_LAYERS-1; i++)
+			dropoutMasks[i] = new DropoutMask(weights[i-1].rows);
+	}
+	
 	private Set<Integer> removedRows;
 	private int dropoutLayer;
 	private Matrix dropoutWeight, dropoutBias, dropoutWeightPlusOne;
 	
 	/**
-	 * Perform dropout on the given layer (MUST be a HIDDEN layer!).
+	 * Perform dropout on the given layer (MUST be a HIDDEN layer!). This removes half
+	 * of its neurons from the weight matrices until {@link #restore()} puts them back;
+	 * see {@link #setDropoutRate(double, long)} for dropout that doesn't.
 	 * @param layer
 	 */
 	public void dropout(int layer) {
 		if(removedRows != null)
 			throw new UnsupportedOperationException("Oh shit, TWO dropouts???");
+		if(masks != null)
+			throw new UnsupportedOperationException("Can't drop out neurons from a pruned network");
+		if(dropoutMasks != null)
+			throw new UnsupportedOperationException("Dropout is already on: see setDropoutRate");
 		if(layer < 1 || layer >= weights.length)
 			throw new UnsupportedOperationException("Dropout only makes sense for hidden layers, not layer " + layer);
 		dropoutLayer = layer-1; // Offset, since our list of weights starts with layer 1
@@ -0,0 +1,220 @@
+package kricket.neural.serve;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import kricket.neural.cnn.Predictor;
+
+/**
+ * Coalesces concurrent single-input requests into micro-batches for
+ * {@link Predictor#predictBatch(double[][], double[][], int)}.
+ * <p>Each worker thread waits for a request, then keeps collecting requests until it
+ * either has a full batch, or the first request has waited for the maximum latency.
+ * Under light load, requests therefore go through (almost) alone; under heavy load,
+ * they are run in full batches.
+ */
+public class BatchingPredictor {
+
+	/**
+	 * A request waiting to be run.
+	 */
+	public static class Request {
+		final double[] input;
+		final long arrival = System.nanoTime();
+		private final CountDownLatch done = new CountDownLatch(1);
+		private double[] output;
+		private RuntimeException error;
+
+		Request(double[] input) {
+			this.input = input;
+		}
+
+		/**
+		 * Wait for the result.
+		 * @return The output of the network.
+		 * @throws InterruptedException
+		 */
+		public double[] get() throws InterruptedException {
+			done.await();
+			if(error != null)
+				throw new IllegalStateException("Prediction failed", error);
+			return output;
+		}
+
+		void complete(double[] result, RuntimeException e) {
+			output = result;
+			error = e;
+			done.countDown();
+		}
+	}
+
+	/**
+	 * Told about each batch run by a worker (see {@link BatchingPredictor#setBatchListener}).
+	 * Called from the worker threads, possibly several at once.
+	 */
+	public interface BatchListener {
+		/**
+		 * @param size The number of requests in the batch.
+		 * @param nanos The time taken by {@link Predictor#predictBatch}.
+		 * @param waitNanos How long the first request of the batch waited before it was run.
+		 */
+		void batchDone(int size, long nanos, long waitNanos);
+	}
+
+	private final Predictor predictor;
+	private final int maxBatch;
+	private final long maxLatencyNanos;
+	private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+	private final Thread[] workers;
+	private final LatencyStats stats = new LatencyStats();
+	private volatile BatchListener listener;
+	private volatile boolean shutdown;
+
+	/**
+	 * @param predictor The network to run.
+	 * @param maxBatch The largest number of requests to run at once.
+	 * @param maxLatencyMicros How long the first request of a batch may wait for others to join it.
+	 * @param numWorkers The number of batches that may run at the same time.
+	 */
+	public BatchingPredictor(Predictor predictor, int maxBatch, long maxLatencyMicros, int numWorkers) {
+		if(maxBatch < 1 || numWorkers < 1)
+			throw new IllegalArgumentException("Need a positive batch size and number of workers");
+		this.predictor = predictor;
+		this.maxBatch = maxBatch;
+		this.maxLatencyNanos = maxLatencyMicros * 1000;
+
+		workers = new Thread[numWorkers];
+		for(int i=0; i<numWorkers; i++) {
+			workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, "batching-predictor-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Queue the given input to be run in the next batch.
+	 * @param input {@link Predictor#getInputSize()} values.
+	 * @return The pending request.
+	 * @throws IllegalStateException If we've been shut down.
+	 */
+	public Request submit(double[] input) {
+		if(shutdown)
+			throw new IllegalStateException("Shut down");
+		if(input.length != predictor.getInputSize())
+			throw new IllegalArgumentException("Expected " + predictor.getInputSize() + " inputs, got " + input.length);
+		Request r = new Request(input);
+		queue.add(r);
+		// If shutdown() drained the queue before we added to it, nobody else will
+		if(shutdown)
+			failQueued();
+		return r;
+	}
+
+	/**
+	 * Run the given input, and wait for the result.
+	 * @param input
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public double[] predict(double[] input) throws InterruptedException {
+		return submit(input).get();
+	}
+
+	public Predictor getPredictor() {
+		return predictor;
+	}
+
+	/**
+	 * Latency (from submission to result) and throughput of the requests so far.
+	 * @return
+	 */
+	public LatencyStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * @param listener The listener to tell about each batch, or null to stop.
+	 */
+	public void setBatchListener(BatchListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Stop the worker threads. Requests that haven't been run yet fail: their
+	 * {@link Request#get()} throws an IllegalStateException. So does {@link #submit}, from now on.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		for(Thread t : workers)
+			t.interrupt();
+		failQueued();
+	}
+
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	private void failQueued() {
+		Request r;
+		while((r = queue.poll()) != null)
+			r.complete(null, new IllegalStateException("Shut down"));
+	}
+
+	private void work() {
+		Request[] batch = new Request[maxBatch];
+		double[][] inputs = new double[maxBatch][];
+		double[][] outputs = new double[maxBatch][];
+		int n = 0;
+
+		try {
+			while(true) {
+				batch[0] = queue.take();
+				n = 1;
+				long deadline = batch[0].arrival + maxLatencyNanos;
+				while(n < maxBatch) {
+					long wait = deadline - System.nanoTime();
+					Request r = (wait <= 0 ? queue.poll() : queue.poll(wait, TimeUnit.NANOSECONDS));
+					if(r == null)
+						break;
+					batch[n++] = r;
+				}
+
+				for(int i=0; i<n; i++) {
+					inputs[i] = batch[i].input;
+					outputs[i] = new double[predictor.getOutputSize()];
+				}
+				RuntimeException error = null;
+				long start = System.nanoTime();
+				try {
+					predictor.predictBatch(inputs, outputs, n);
+				} catch(RuntimeException e) {
+					error = e;
+				}
+				stats.recordBatch();
+				BatchListener l = listener;
+				if(l != null)
+					l.batchDone(n, System.nanoTime() - start, start - batch[0].arrival);
+
+				long now = System.nanoTime();
+				for(int i=0; i<n; i++) {
+					stats.record(now - batch[i].arrival);
+					batch[i].complete(outputs[i], error);
+					batch[i] = null;
+					inputs[i] = null;
+				}
+				n = 0;
+			}
+		} catch(InterruptedException e) {
+			// Shutting down: fail the batch we were collecting
+			for(int i=0; i<n; i++)
+				batch[i].complete(null, new IllegalStateException("Shut down"));
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package kricket.neural.serve;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The kind of thread that an {@link InferenceServer} runs each request on.
+ * <p>Request handlers only parse the input, wait for their batch, and write the
+ * response: the forward passes themselves always run on the (bounded) worker threads
+ * of the {@link BatchingPredictor}. So a handler spends nearly all of its time blocked,
+ * which is exactly what virtual threads are for.
+ */
+public enum HandlerThreads {
+	/** One platform thread per concurrent request, from a cached pool. */
+	PLATFORM,
+	/**
+	 * One virtual thread per request. This needs a JDK with virtual threads (21+); on
+	 * older JDKs, it falls back to {@link #PLATFORM}.
+	 */
+	VIRTUAL;
+
+	private static final Method NEW_VIRTUAL_EXECUTOR = findVirtualExecutor();
+
+	private static Method findVirtualExecutor() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch(NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Whether this JDK has virtual threads.
+	 * @return
+	 */
+	public static boolean virtualThreadsAvailable() {
+		return NEW_VIRTUAL_EXECUTOR != null;
+	}
+
+	/**
+	 * The kind of thread that {@link #newExecutor()} will really use.
+	 * @return
+	 */
+	public HandlerThreads effective() {
+		return (this == VIRTUAL && !virtualThreadsAvailable() ? PLATFORM : this);
+	}
+
+	/**
+	 * Create an executor that starts a new thread of this kind for each task.
+	 * @return
+	 */
+	public ExecutorService newExecutor() {
+		if(effective() == PLATFORM)
+			return Executors.newCachedThreadPool();
+		try {
+			return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+		} catch(IllegalAccessException | InvocationTargetException e) {
+			throw new UnsupportedOperationException("Couldn't create virtual threads", e);
+		}
+	}
+}
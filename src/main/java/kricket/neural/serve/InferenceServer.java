@@ -0,0 +1,207 @@
+package kricket.neural.serve;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+
+import kricket.neural.cnn.Predictor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A small HTTP server (on localhost only) that runs a {@link Predictor}. Concurrent
+ * requests are coalesced into micro-batches by a {@link BatchingPredictor}.
+ * <ul>
+ * <li><b>POST /predict</b> with the input values (separated by commas and/or whitespace,
+ * optionally in [brackets]) returns <code>{"class":3,"output":[...]}</code></li>
+ * <li><b>GET /stats</b> returns the request count, throughput and p50/p99 latencies</li>
+ * </ul>
+ */
+public class InferenceServer {
+
+	private final HttpServer server;
+	private final BatchingPredictor batcher;
+	private final ExecutorService handlers;
+
+	/**
+	 * Start serving.
+	 * @param predictor The network to run.
+	 * @param port The port to listen on (0 = pick a free one).
+	 * @param maxBatch The largest number of requests to run at once.
+	 * @param maxLatencyMicros How long a request may wait for others to join its batch.
+	 * @throws IOException
+	 */
+	public InferenceServer(Predictor predictor, int port, int maxBatch, long maxLatencyMicros) throws IOException {
+		this(predictor, port, maxBatch, maxLatencyMicros, HandlerThreads.PLATFORM);
+	}
+
+	/**
+	 * Start serving. The forward passes run on one worker per core; each request is
+	 * handled on a new thread of the given kind while it waits for its batch.
+	 * @param predictor The network to run.
+	 * @param port The port to listen on (0 = pick a free one).
+	 * @param maxBatch The largest number of requests to run at once.
+	 * @param maxLatencyMicros How long a request may wait for others to join its batch.
+	 * @param threads The kind of thread to handle requests on.
+	 * @throws IOException
+	 */
+	public InferenceServer(Predictor predictor, int port, int maxBatch, long maxLatencyMicros, HandlerThreads threads) throws IOException {
+		this(new BatchingPredictor(predictor, maxBatch, maxLatencyMicros, Runtime.getRuntime().availableProcessors()),
+				port, threads.newExecutor());
+	}
+
+	/**
+	 * Start serving.
+	 * @param batcher Runs the requests.
+	 * @param port The port to listen on (0 = pick a free one).
+	 * @param handlers Runs the HTTP handlers. Each handler blocks until its request has
+	 * been run, so this must be able to run at least as many tasks as there are
+	 * concurrent requests.
+	 * @throws IOException
+	 */
+	public InferenceServer(BatchingPredictor batcher, int port, ExecutorService handlers) throws IOException {
+		this.batcher = batcher;
+		this.handlers = handlers;
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+		server.setExecutor(handlers);
+		server.createContext("/predict", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				predict(exchange);
+			}
+		});
+		server.createContext("/stats", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange, 200, getStats().toJson());
+			}
+		});
+		server.start();
+	}
+
+	/**
+	 * The port we're listening on.
+	 * @return
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Latency (from arrival to result) and throughput of the requests so far.
+	 * @return
+	 */
+	public LatencyStats getStats() {
+		return batcher.getStats();
+	}
+
+	/**
+	 * Stop serving.
+	 */
+	public void stop() {
+		server.stop(0);
+		handlers.shutdownNow();
+		batcher.shutdown();
+	}
+
+	private void predict(HttpExchange exchange) throws IOException {
+		if(!"POST".equals(exchange.getRequestMethod())) {
+			respond(exchange, 405, "{\"error\":\"POST the input values\"}");
+			return;
+		}
+
+		double[] input;
+		try {
+			input = parse(readBody(exchange.getRequestBody()));
+		} catch(NumberFormatException e) {
+			respond(exchange, 400, "{\"error\":\"The input must be numbers\"}");
+			return;
+		}
+		if(input.length != batcher.getPredictor().getInputSize()) {
+			respond(exchange, 400, "{\"error\":\"Expected " + batcher.getPredictor().getInputSize()
+					+ " inputs, got " + input.length + "\"}");
+			return;
+		}
+
+		double[] output;
+		try {
+			output = batcher.predict(input);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			respond(exchange, 503, "{\"error\":\"Shutting down\"}");
+			return;
+		} catch(RuntimeException e) {
+			if(batcher.isShutdown())
+				respond(exchange, 503, "{\"error\":\"Shutting down\"}");
+			else
+				respond(exchange, 500, "{\"error\":\"Prediction failed\"}");
+			return;
+		}
+
+		respond(exchange, 200, toJson(output));
+	}
+
+	static String toJson(double[] output) {
+		int max = 0;
+		StringBuilder sb = new StringBuilder("{\"output\":[");
+		for(int i=0; i<output.length; i++) {
+			if(i > 0)
+				sb.append(',');
+			sb.append(output[i]);
+			if(output[i] > output[max])
+				max = i;
+		}
+		sb.append("],\"class\":");
+		sb.append(max);
+		sb.append('}');
+		return sb.toString();
+	}
+
+	/**
+	 * Parse a list of numbers, separated by commas and/or whitespace, optionally in brackets.
+	 * @param body
+	 * @return
+	 */
+	static double[] parse(String body) {
+		String trimmed = body.trim();
+		if(trimmed.startsWith("["))
+			trimmed = trimmed.substring(1);
+		if(trimmed.endsWith("]"))
+			trimmed = trimmed.substring(0, trimmed.length()-1);
+		trimmed = trimmed.trim();
+		if(trimmed.isEmpty())
+			return new double[0];
+
+		String[] parts = trimmed.split("[,\\s]+");
+		double[] values = new double[parts.length];
+		for(int i=0; i<parts.length; i++)
+			values[i] = Double.parseDouble(parts[i]);
+		return values;
+	}
+
+	private static String readBody(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		while((n = in.read(buf)) > 0)
+			bytes.write(buf, 0, n);
+		in.close();
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+}
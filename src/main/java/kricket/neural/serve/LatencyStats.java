@@ -0,0 +1,95 @@
+package kricket.neural.serve;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of the latency of the most recent requests, and the overall throughput.
+ */
+public class LatencyStats {
+
+	private final long[] recent;
+	private long count, batches;
+	private final long startTime = System.nanoTime();
+
+	/**
+	 * @param window The number of most recent latencies to keep for the percentiles.
+	 */
+	public LatencyStats(int window) {
+		recent = new long[window];
+	}
+
+	public LatencyStats() {
+		this(8192);
+	}
+
+	/**
+	 * Record the latency of one request.
+	 * @param nanos
+	 */
+	public synchronized void record(long nanos) {
+		recent[(int) (count % recent.length)] = nanos;
+		count++;
+	}
+
+	/**
+	 * Record that a batch was run.
+	 */
+	public synchronized void recordBatch() {
+		batches++;
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	public synchronized long getBatches() {
+		return batches;
+	}
+
+	/**
+	 * Get the given percentile of the recent latencies.
+	 * @param p Between 0 and 100.
+	 * @return The latency, in nanoseconds (0 if there haven't been any requests).
+	 */
+	public long percentile(double p) {
+		long[] sorted;
+		synchronized(this) {
+			sorted = Arrays.copyOf(recent, (int) Math.min(count, recent.length));
+		}
+		if(sorted.length == 0)
+			return 0;
+		Arrays.sort(sorted);
+		int idx = (int) Math.ceil(p / 100 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length-1, idx))];
+	}
+
+	/**
+	 * The number of requests per second since this was created.
+	 * @return
+	 */
+	public double throughput() {
+		double seconds = (System.nanoTime() - startTime) * 1e-9;
+		return getCount() / seconds;
+	}
+
+	/**
+	 * Get a JSON summary of the stats.
+	 * @return
+	 */
+	public String toJson() {
+		long count, batches;
+		synchronized(this) {
+			count = this.count;
+			batches = this.batches;
+		}
+		return String.format("{\"requests\":%d,\"batches\":%d,\"meanBatchSize\":%.2f,\"throughput\":%.1f,\"p50Micros\":%.1f,\"p99Micros\":%.1f}",
+				count, batches, (batches == 0 ? 0. : (double) count / batches), throughput(),
+				percentile(50) * 1e-3, percentile(99) * 1e-3);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d requests, %.1f/s, p50 %.3fms, p99 %.3fms",
+				getCount(), throughput(), percentile(50) * 1e-6, percentile(99) * 1e-6);
+	}
+}
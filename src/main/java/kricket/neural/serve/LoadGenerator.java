@@ -0,0 +1,173 @@
+package kricket.neural.serve;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import kricket.neural.cnn.CNN;
+import kricket.neural.cnn.ConvolutionalLayer;
+import kricket.neural.cnn.FlatteningLayer;
+import kricket.neural.cnn.FullyConnectedLayer;
+import kricket.neural.cnn.Predictor;
+import kricket.neural.cnn.ReLULayer;
+import kricket.neural.cnn.SigmaLayer;
+import kricket.neural.mnist.Image;
+import kricket.neural.util.Dimension;
+import kricket.neural.util.IncompatibleLayerException;
+import kricket.neural.util.NNOptions;
+
+/**
+ * Hammers an {@link InferenceServer} with concurrent requests, and reports the latency
+ * and throughput seen by the clients.
+ * <p>Usage: <code>LoadGenerator [clients] [seconds] [maxBatch] [maxLatencyMicros] [platform|virtual|compare]</code>
+ * <br>This starts a server on localhost (running an untrained, MNIST-shaped CNN), and
+ * runs the given number of clients against it. With <code>compare</code> (the default),
+ * it does so once with platform-thread handlers and once with virtual-thread handlers,
+ * so that the tail latencies can be compared.
+ */
+public class LoadGenerator {
+
+	private final URL url;
+	private final int inputSize;
+
+	public LoadGenerator(int port, int inputSize) throws IOException {
+		url = new URL("http://127.0.0.1:" + port + "/predict");
+		this.inputSize = inputSize;
+	}
+
+	/**
+	 * Run the given number of clients (each on its own platform thread) for the given time.
+	 * @param clients
+	 * @param seconds
+	 * @return The latencies seen by the clients.
+	 * @throws InterruptedException
+	 */
+	public LatencyStats run(int clients, double seconds) throws InterruptedException {
+		return run(clients, seconds, HandlerThreads.PLATFORM);
+	}
+
+	/**
+	 * Run the given number of clients for the given time. Each client sends its next
+	 * request as soon as it gets the response to the previous one.
+	 * @param clients
+	 * @param seconds
+	 * @param threads The kind of thread to run each client on.
+	 * @return The latencies seen by the clients.
+	 * @throws InterruptedException
+	 */
+	public LatencyStats run(int clients, double seconds, HandlerThreads threads) throws InterruptedException {
+		final LatencyStats stats = new LatencyStats(1 << 16);
+		final AtomicLong errors = new AtomicLong();
+		final long end = System.nanoTime() + (long) (seconds * 1e9);
+
+		ExecutorService pool = threads.newExecutor();
+		for(int t=0; t<clients; t++) {
+			final Random rand = new Random(t);
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					byte[] body = randomInput(rand).getBytes(StandardCharsets.UTF_8);
+					while(System.nanoTime() < end) {
+						long start = System.nanoTime();
+						try {
+							post(body);
+							stats.record(System.nanoTime() - start);
+						} catch(IOException e) {
+							errors.incrementAndGet();
+						}
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+		if(errors.get() > 0)
+			System.err.println(errors.get() + " requests failed");
+		return stats;
+	}
+
+	private String randomInput(Random rand) {
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<inputSize; i++) {
+			if(i > 0)
+				sb.append(',');
+			sb.append(rand.nextDouble());
+		}
+		return sb.toString();
+	}
+
+	private void post(byte[] body) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		conn.setRequestMethod("POST");
+		conn.setDoOutput(true);
+		OutputStream out = conn.getOutputStream();
+		out.write(body);
+		out.close();
+		if(conn.getResponseCode() != 200)
+			throw new IOException("HTTP " + conn.getResponseCode());
+		InputStream in = conn.getInputStream();
+		byte[] buf = new byte[4096];
+		while(in.read(buf) > 0) {
+			// Read the whole response so the connection can be reused
+		}
+		in.close();
+	}
+
+	/**
+	 * A CNN of the same shape as the one in CNNPlayground.
+	 */
+	static CNN mnistShapedCNN() throws IncompatibleLayerException {
+		NNOptions opts = new NNOptions();
+		opts.logDimensions = false;
+		return new CNN(opts, new Dimension(Image.HEIGHT, Image.WIDTH, 1),
+				new ConvolutionalLayer(6, 5, 5, 2, 2),
+				new ReLULayer(),
+				new ConvolutionalLayer(6, 2, 2, 2, 2),
+				new SigmaLayer(),
+				new ConvolutionalLayer(16, 4, 4, 2, 2),
+				new FlatteningLayer(),
+				new FullyConnectedLayer(30),
+				new SigmaLayer(),
+				new FullyConnectedLayer(10));
+	}
+
+	private static String arg(String[] args, int i, String dflt) {
+		return (args.length > i ? args[i] : dflt);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int clients = Integer.parseInt(arg(args, 0, "64"));
+		double seconds = Double.parseDouble(arg(args, 1, "10"));
+		int maxBatch = Integer.parseInt(arg(args, 2, "32"));
+		long maxLatency = Long.parseLong(arg(args, 3, "2000"));
+		String mode = arg(args, 4, "compare");
+
+		Predictor predictor = mnistShapedCNN().compile();
+		if(!mode.equals("virtual"))
+			run(predictor, clients, seconds, maxBatch, maxLatency, HandlerThreads.PLATFORM);
+		if(!mode.equals("platform"))
+			run(predictor, clients, seconds, maxBatch, maxLatency, HandlerThreads.VIRTUAL);
+	}
+
+	private static void run(Predictor predictor, int clients, double seconds, int maxBatch, long maxLatency,
+			HandlerThreads threads) throws Exception {
+		System.out.println("Handler threads: " + threads
+				+ (threads.effective() != threads ? " (not available; using " + threads.effective() + ")" : ""));
+		InferenceServer server = new InferenceServer(predictor, 0, maxBatch, maxLatency, threads);
+		try {
+			LatencyStats client = new LoadGenerator(server.getPort(), predictor.getInputSize()).run(clients, seconds, threads);
+			System.out.println("  Clients: " + client);
+			System.out.println("  Server:  " + server.getStats().toJson());
+		} finally {
+			server.stop();
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package kricket.neural.telemetry;
+
+import java.util.logging.Logger;
+
+import kricket.neural.Evaluation;
+
+/**
+ * Logs the epochs and evaluations in the words {@link kricket.neural.NNBase} has always
+ * used - it logs its own progress (see {@link kricket.neural.util.NNOptions#logEpochs} and
+ * {@link kricket.neural.util.NNOptions#calcErrorsAfterEpochs}) through one of these:
+ * <pre>
+ * Running epoch 3
+ * Epoch completed in 1.234s
+ * -------------------> Running percent correct: 91.500, cost: 0.3120
+ * </pre>
+ * Batches aren't logged.
+ */
+public class ConsoleSink implements TelemetrySink {
+	private final Logger log;
+	private final boolean epochs, errors;
+
+	/**
+	 * Log the epochs and the errors.
+	 * @param log e.g. {@link kricket.neural.util.NNOptions#log}.
+	 */
+	public ConsoleSink(Logger log) {
+		this(log, true, true);
+	}
+
+	/**
+	 * @param log e.g. {@link kricket.neural.util.NNOptions#log}.
+	 * @param epochs Whether to log the start and end of each epoch.
+	 * @param errors Whether to log the accuracy after each epoch, and of each evaluation.
+	 */
+	public ConsoleSink(Logger log, boolean epochs, boolean errors) {
+		this.log = log;
+		this.epochs = epochs;
+		this.errors = errors;
+	}
+
+	@Override
+	public void accept(TrainingRecord r) {
+		switch(r.kind) {
+		case EPOCH_START:
+			if(epochs)
+				log.info("Running epoch " + r.epoch);
+			break;
+		case EPOCH:
+			if(epochs)
+				log.info(String.format("Epoch completed in %.3fs", r.nanos*1e-9));
+			// NaN if the running accuracy wasn't kept
+			if(errors && !Double.isNaN(r.accuracy))
+				log.info(String.format("-------------------> Running percent correct: %.3f, cost: %.4f", r.accuracy*100, r.loss));
+			break;
+		case EVALUATION:
+			if(errors)
+				log.info(String.format("-------------------> Percent correct: %.3f", r.accuracy*100));
+			break;
+		case SAMPLED_EVALUATION:
+			if(errors) {
+				double[] interval = Evaluation.confidenceInterval(r.accuracy, r.samples, 1.96);
+				log.info(String.format("-------------------> Percent correct: %.3f (95%% in %.3f - %.3f, sample of %d)",
+						r.accuracy*100, interval[0]*100, interval[1]*100, r.samples));
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,49 @@
+package kricket.neural.telemetry;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the records as CSV, with a header line (see {@link TrainingRecord#CSV_HEADER}).
+ */
+public class CsvSink implements TelemetrySink {
+	private final Writer out;
+	private boolean header;
+
+	/**
+	 * @param filename The file to write to; it is replaced, if it exists.
+	 * @throws IOException
+	 */
+	public CsvSink(String filename) throws IOException {
+		this(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename), StandardCharsets.UTF_8)));
+	}
+
+	public CsvSink(Writer out) {
+		this.out = out;
+	}
+
+	@Override
+	public void accept(TrainingRecord record) throws IOException {
+		if(!header) {
+			out.write(TrainingRecord.CSV_HEADER);
+			out.write('\n');
+			header = true;
+		}
+		out.write(record.toCsv());
+		out.write('\n');
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
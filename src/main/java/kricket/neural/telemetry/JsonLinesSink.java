@@ -0,0 +1,43 @@
+package kricket.neural.telemetry;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes each record as a line of JSON (see {@link TrainingRecord#toJson()}).
+ */
+public class JsonLinesSink implements TelemetrySink {
+	private final Writer out;
+
+	/**
+	 * @param filename The file to write to; it is replaced, if it exists.
+	 * @throws IOException
+	 */
+	public JsonLinesSink(String filename) throws IOException {
+		this(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename), StandardCharsets.UTF_8)));
+	}
+
+	public JsonLinesSink(Writer out) {
+		this.out = out;
+	}
+
+	@Override
+	public void accept(TrainingRecord record) throws IOException {
+		out.write(record.toJson());
+		out.write('\n');
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
@@ -0,0 +1,90 @@
+package kricket.neural.telemetry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the most recent records in memory. Any number of threads can read them while
+ * they are being written, without locking: a reader copies what it needs, then drops
+ * whatever was overwritten while it was copying.
+ */
+public class RingBufferSink implements TelemetrySink {
+	private final AtomicReferenceArray<TrainingRecord> slots;
+	/**
+	 * The number of records written so far. Record n is in slot n % capacity, until it
+	 * is overwritten by record n + capacity.
+	 */
+	private volatile long written;
+
+	/**
+	 * @param capacity The number of records to keep.
+	 */
+	public RingBufferSink(int capacity) {
+		if(capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive, not " + capacity);
+		slots = new AtomicReferenceArray<>(capacity);
+	}
+
+	/**
+	 * Only ever called by one thread.
+	 */
+	@Override
+	public void accept(TrainingRecord record) {
+		long n = written;
+		slots.set((int) (n % slots.length()), record);
+		written = n + 1;
+	}
+
+	/**
+	 * The number of records written so far (including those no longer kept).
+	 * @return
+	 */
+	public long getTotal() {
+		return written;
+	}
+
+	/**
+	 * The most recent records, oldest first.
+	 * @param max The most to return.
+	 * @return
+	 */
+	public List<TrainingRecord> getRecent(int max) {
+		int capacity = slots.length();
+		long end = written;
+		long start = Math.max(0, end - Math.min(max, capacity));
+		TrainingRecord[] copy = new TrainingRecord[(int) (end - start)];
+		for(long n=start; n<end; n++)
+			copy[(int) (n - start)] = slots.get((int) (n % capacity));
+
+		// Anything before (written - capacity) may have been overwritten while we copied,
+		// and the writer may be overwriting the next one
+		long valid = Math.max(start, written + 1 - capacity);
+		List<TrainingRecord> recent = new ArrayList<>(copy.length);
+		for(long n=valid; n<end; n++)
+			recent.add(copy[(int) (n - start)]);
+		return recent;
+	}
+
+	/**
+	 * The most recent record of the given kind that is still kept.
+	 * @param kind
+	 * @return null if there isn't one.
+	 */
+	public TrainingRecord getLatest(TrainingRecord.Kind kind) {
+		List<TrainingRecord> recent = getRecent(slots.length());
+		for(int i=recent.size()-1; i>=0; i--) {
+			if(recent.get(i).kind == kind)
+				return recent.get(i);
+		}
+		return null;
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+	}
+}
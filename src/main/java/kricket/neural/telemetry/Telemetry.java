@@ -0,0 +1,222 @@
+package kricket.neural.telemetry;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import kricket.neural.Evaluation;
+import kricket.neural.NNBase;
+import kricket.neural.TrainingListener;
+import kricket.neural.telemetry.TrainingRecord.Kind;
+
+/**
+ * Structured training telemetry: turns the progress of SGD (see {@link TrainingListener})
+ * into {@link TrainingRecord}s, and passes them on to any number of {@link TelemetrySink}s.
+ * <p>The training thread only fills in a record and queues it; a background thread does
+ * all the formatting and I/O. If the sinks can't keep up and the queue fills up, records
+ * are dropped (and counted) rather than holding up training.
+ * <p>{@link kricket.neural.NNBase} logs its own progress through a Telemetry with a
+ * {@link ConsoleSink}; add one here for the same lines with logEpochs off.
+ */
+public class Telemetry implements TrainingListener {
+	private static final int DEFAULT_CAPACITY = 1 << 16;
+
+	/**
+	 * Tells the dispatcher to stop.
+	 */
+	private static final TrainingRecord CLOSE = new TrainingRecord(Kind.START, 0, 0, 0, 0, 0, 0, 0, 0);
+
+	private final List<TelemetrySink> sinks = new CopyOnWriteArrayList<>();
+	private final BlockingQueue<TrainingRecord> queue;
+	private final Logger log;
+	private final Thread dispatcher;
+	private final AtomicLong queued = new AtomicLong(), dispatched = new AtomicLong(), dropped = new AtomicLong();
+	private final int batchInterval;
+
+	// Only touched by the training thread
+	private double eta;
+	private int batchesInEpoch, samplesInEpoch;
+	private long epochStart, batchStart, evaluationStart;
+
+	/**
+	 * @param log Where to report sink errors.
+	 * @param batchInterval Record every this many batches (0 = only whole epochs).
+	 * @param sinks
+	 */
+	public Telemetry(Logger log, int batchInterval, TelemetrySink... sinks) {
+		this(log, batchInterval, DEFAULT_CAPACITY, sinks);
+	}
+
+	/**
+	 * @param log Where to report sink errors.
+	 * @param batchInterval Record every this many batches (0 = only whole epochs).
+	 * @param capacity How many records may be waiting for the sinks.
+	 * @param sinks
+	 */
+	public Telemetry(Logger log, int batchInterval, int capacity, TelemetrySink... sinks) {
+		if(batchInterval < 0)
+			throw new IllegalArgumentException("Negative batch interval: " + batchInterval);
+		this.log = log;
+		this.batchInterval = batchInterval;
+		queue = new ArrayBlockingQueue<>(capacity);
+		for(TelemetrySink s : sinks)
+			this.sinks.add(s);
+
+		dispatcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				dispatch();
+			}
+		}, "telemetry");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	/**
+	 * Record the training of the given network, with every batch, and report sink errors
+	 * to its log. Any other TrainingListeners of the network keep running.
+	 * @param net
+	 * @param sinks
+	 * @return The new Telemetry.
+	 */
+	public static Telemetry install(NNBase net, TelemetrySink... sinks) {
+		Telemetry t = new Telemetry(net.getOptions().log, 1, sinks);
+		net.addTrainingListener(t);
+		return t;
+	}
+
+	public void addSink(TelemetrySink sink) {
+		sinks.add(sink);
+	}
+
+	/**
+	 * Queue a record for the sinks (e.g. one made by some other part of a training run).
+	 * Never blocks.
+	 * @param r
+	 * @return false if the queue was full, and the record was dropped.
+	 */
+	public boolean record(TrainingRecord r) {
+		if(queue.offer(r)) {
+			queued.incrementAndGet();
+			return true;
+		}
+		dropped.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * The number of records dropped because the queue was full.
+	 * @return
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Wait until every record queued so far has been passed to the sinks (and the sinks flushed).
+	 * @throws InterruptedException
+	 */
+	public void flush() throws InterruptedException {
+		long target = queued.get();
+		while(dispatched.get() < target && dispatcher.isAlive())
+			Thread.sleep(1);
+	}
+
+	/**
+	 * Pass on every queued record, then close the sinks and stop the background thread.
+	 * @throws InterruptedException
+	 */
+	public void close() throws InterruptedException {
+		queue.put(CLOSE);
+		dispatcher.join();
+	}
+
+	private void dispatch() {
+		try {
+			while(true) {
+				TrainingRecord r = queue.take();
+				if(r == CLOSE)
+					break;
+				for(TelemetrySink s : sinks) {
+					try {
+						s.accept(r);
+					} catch(IOException | RuntimeException e) {
+						log.log(Level.WARNING, "Couldn't send telemetry to " + s, e);
+					}
+				}
+				if(queue.isEmpty())
+					flushSinks();
+				dispatched.incrementAndGet();
+			}
+		} catch(InterruptedException e) {
+			// Give up on whatever is left
+		}
+		flushSinks();
+		for(TelemetrySink s : sinks) {
+			try {
+				s.close();
+			} catch(IOException e) {
+				log.log(Level.WARNING, "Couldn't close " + s, e);
+			}
+		}
+	}
+
+	private void flushSinks() {
+		for(TelemetrySink s : sinks) {
+			try {
+				s.flush();
+			} catch(IOException e) {
+				log.log(Level.WARNING, "Couldn't flush " + s, e);
+			}
+		}
+	}
+
+	@Override
+	public void sgdStarted(int size, int batchSize, int epochs, double eta, double lambda) {
+		this.eta = eta;
+		record(new TrainingRecord(Kind.START, System.currentTimeMillis(), -1, 0, size, 0, 0, eta, 0));
+	}
+
+	@Override
+	public void epochStarted(int epoch) {
+		batchesInEpoch = 0;
+		samplesInEpoch = 0;
+		epochStart = System.nanoTime();
+	}
+
+	@Override
+	public void epochDone(int epoch, Evaluation running) {
+		record(new TrainingRecord(Kind.EPOCH, System.currentTimeMillis(), epoch, batchesInEpoch, samplesInEpoch,
+				running.getLoss(), running.getAccuracy(), eta, System.nanoTime() - epochStart));
+	}
+
+	@Override
+	public void batchStarted(int epoch, int size) {
+		batchStart = System.nanoTime();
+	}
+
+	@Override
+	public void batchDone(int epoch, int size, Evaluation running) {
+		batchesInEpoch++;
+		samplesInEpoch += size;
+		if(batchInterval > 0 && batchesInEpoch % batchInterval == 0)
+			record(new TrainingRecord(Kind.BATCH, System.currentTimeMillis(), epoch, batchesInEpoch, size,
+					running.getLoss(), running.getAccuracy(), eta, System.nanoTime() - batchStart));
+	}
+
+	@Override
+	public void evaluationStarted(int size) {
+		evaluationStart = System.nanoTime();
+	}
+
+	@Override
+	public void evaluationDone(Evaluation result) {
+		record(new TrainingRecord(Kind.EVALUATION, System.currentTimeMillis(), -1, 0, result.getTotal(),
+				result.getLoss(), result.getAccuracy(), 0, System.nanoTime() - evaluationStart));
+	}
+}
@@ -0,0 +1,24 @@
+package kricket.neural.telemetry;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Somewhere to send {@link TrainingRecord}s. The records are passed on by a single
+ * background thread (see {@link Telemetry}), so a sink needn't be thread-safe, and may
+ * take its time.
+ */
+public interface TelemetrySink extends Closeable {
+	/**
+	 * Handle the next record.
+	 * @param record
+	 * @throws IOException
+	 */
+	void accept(TrainingRecord record) throws IOException;
+
+	/**
+	 * Write out anything buffered. Called whenever there are no more records waiting.
+	 * @throws IOException
+	 */
+	void flush() throws IOException;
+}
@@ -0,0 +1,204 @@
+package kricket.neural.telemetry;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import kricket.neural.NNBase;
+import kricket.neural.cnn.CNN;
+import kricket.neural.cnn.LayerListener.Phase;
+import kricket.neural.cnn.LayerMetrics;
+import kricket.neural.telemetry.TrainingRecord.Kind;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A live view of a training run, over HTTP (on localhost only). As a {@link TelemetrySink},
+ * it keeps the recent batches and epochs in {@link RingBufferSink}s; <b>GET /status</b>
+ * returns the current epoch and throughput, the heap usage, the time per layer (from a
+ * {@link LayerMetrics}, if there is one) and the recent loss curve as JSON.
+ * <p>Answering a request only reads the ring buffers, the layer counters and the memory
+ * beans, none of which lock, so SGD never waits for the dashboard.
+ */
+public class TrainingDashboard implements TelemetrySink {
+	private static final int BATCHES = 1000, EPOCHS = 1000;
+
+	private final RingBufferSink batches = new RingBufferSink(BATCHES), epochs = new RingBufferSink(EPOCHS);
+	private final LayerMetrics layers;
+	private final HttpServer server;
+	private final ExecutorService handler;
+	private Telemetry telemetry;
+	private NNBase net;
+
+	/**
+	 * Start serving. Add this to a {@link Telemetry} to feed it.
+	 * @param port The port to listen on (0 = pick a free one).
+	 * @param layers The per-layer timings to show (may be null).
+	 * @throws IOException
+	 */
+	public TrainingDashboard(int port, LayerMetrics layers) throws IOException {
+		this.layers = layers;
+		handler = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "training-dashboard");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 16);
+		server.setExecutor(handler);
+		server.createContext("/status", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange, getStatus());
+			}
+		});
+		server.start();
+	}
+
+	/**
+	 * Show the training of the given network: records every batch with a new {@link Telemetry}
+	 * and, for a CNN, times its layers. Both are added to the network's listeners, and
+	 * removed again by {@link #stop()}.
+	 * @param net
+	 * @param port The port to listen on (0 = pick a free one).
+	 * @param sinks Any other sinks for the Telemetry.
+	 * @return
+	 * @throws IOException
+	 */
+	public static TrainingDashboard attach(NNBase net, int port, TelemetrySink... sinks) throws IOException {
+		LayerMetrics metrics = null;
+		if(net instanceof CNN) {
+			metrics = new LayerMetrics((CNN) net);
+			((CNN) net).addLayerListener(metrics);
+		}
+		TrainingDashboard dashboard = new TrainingDashboard(port, metrics);
+		dashboard.net = net;
+		dashboard.telemetry = Telemetry.install(net, sinks);
+		dashboard.telemetry.addSink(dashboard);
+		return dashboard;
+	}
+
+	/**
+	 * The Telemetry created by {@link #attach}, or null.
+	 * @return
+	 */
+	public Telemetry getTelemetry() {
+		return telemetry;
+	}
+
+	/**
+	 * The port we're listening on.
+	 * @return
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stop serving (and detach from the network, and close the Telemetry, if created by {@link #attach}).
+	 * @throws InterruptedException
+	 */
+	public void stop() throws InterruptedException {
+		server.stop(0);
+		handler.shutdownNow();
+		if(net != null) {
+			net.removeTrainingListener(telemetry);
+			if(layers != null)
+				((CNN) net).removeLayerListener(layers);
+		}
+		if(telemetry != null)
+			telemetry.close();
+	}
+
+	@Override
+	public void accept(TrainingRecord record) {
+		if(record.kind == Kind.BATCH)
+			batches.accept(record);
+		else if(record.kind == Kind.EPOCH)
+			epochs.accept(record);
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * What GET /status returns.
+	 * @return
+	 */
+	public String getStatus() {
+		List<TrainingRecord> recent = batches.getRecent(BATCHES);
+		TrainingRecord lastBatch = (recent.isEmpty() ? null : recent.get(recent.size()-1));
+		TrainingRecord lastEpoch = epochs.getLatest(Kind.EPOCH);
+
+		StringBuilder sb = new StringBuilder("{");
+		sb.append("\"epoch\":").append(lastBatch != null ? lastBatch.epoch : lastEpoch != null ? lastEpoch.epoch : -1);
+		sb.append(",\"batches\":").append(batches.getTotal());
+		sb.append(",\"samplesPerSecond\":").append(lastBatch == null ? "0" : TrainingRecord.json(lastBatch.samplesPerSecond));
+		sb.append(",\"lastBatch\":").append(lastBatch == null ? "null" : lastBatch.toJson());
+		sb.append(",\"lastEpoch\":").append(lastEpoch == null ? "null" : lastEpoch.toJson());
+
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		sb.append(",\"memory\":{\"heapUsed\":").append(heap.getUsed())
+			.append(",\"heapCommitted\":").append(heap.getCommitted())
+			.append(",\"heapMax\":").append(heap.getMax()).append('}');
+
+		sb.append(",\"layers\":[");
+		if(layers != null) {
+			boolean first = true;
+			for(int l=0; l<layers.getNumLayers(); l++) {
+				for(Phase p : Phase.values()) {
+					if(layers.getCalls(l, p) == 0)
+						continue;
+					if(!first)
+						sb.append(',');
+					first = false;
+					sb.append("{\"layer\":").append(l)
+						.append(",\"type\":\"").append(layers.getLayerType(l))
+						.append("\",\"phase\":\"").append(p.name().toLowerCase())
+						.append("\",\"calls\":").append(layers.getCalls(l, p))
+						.append(",\"nanos\":").append(layers.getNanos(l, p))
+						.append(",\"gflops\":").append(TrainingRecord.json(layers.getGFlops(l, p))).append('}');
+				}
+			}
+		}
+		sb.append(']');
+
+		// [epoch, batch, loss, accuracy] per recent batch
+		sb.append(",\"lossCurve\":[");
+		for(int i=0; i<recent.size(); i++) {
+			TrainingRecord r = recent.get(i);
+			if(i > 0)
+				sb.append(',');
+			sb.append('[').append(r.epoch).append(',').append(r.batch).append(',')
+				.append(TrainingRecord.json(r.loss)).append(',').append(TrainingRecord.json(r.accuracy)).append(']');
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+
+	private static void respond(HttpExchange exchange, String json) throws IOException {
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+}
@@ -0,0 +1,124 @@
+package kricket.neural.telemetry;
+
+/**
+ * A single, immutable measurement of training progress, as passed to each
+ * {@link TelemetrySink}. Which fields mean what depends on the {@link Kind}.
+ */
+public class TrainingRecord {
+
+	public enum Kind {
+		/**
+		 * SGD is starting: {@link TrainingRecord#samples} is the size of the training set.
+		 */
+		START,
+		/**
+		 * An epoch is starting: only {@link TrainingRecord#epoch} (and the learning rate) is set.
+		 */
+		EPOCH_START,
+		/**
+		 * A mini-batch has been run: the samples, time and throughput are the batch's, the
+		 * loss and accuracy those of the epoch so far.
+		 */
+		BATCH,
+		/**
+		 * An epoch has finished: everything is for the whole epoch.
+		 */
+		EPOCH,
+		/**
+		 * {@link kricket.neural.NNBase#evaluate} has finished (not counted in any epoch).
+		 */
+		EVALUATION,
+		/**
+		 * SGD's estimate of the accuracy after an epoch, from a random sample of the training
+		 * set (see {@link kricket.neural.util.NNOptions.ErrorEstimate#SAMPLED}): the samples
+		 * are the size of the sample.
+		 */
+		SAMPLED_EVALUATION
+	}
+
+	public static final String CSV_HEADER = "kind,time,epoch,batch,samples,loss,accuracy,samplesPerSecond,learningRate,nanos";
+
+	public final Kind kind;
+	/**
+	 * When this was recorded, in milliseconds since the epoch (as in {@link System#currentTimeMillis()}).
+	 */
+	public final long time;
+	/**
+	 * The epoch (-1 for START, and for an EVALUATION outside SGD), and the number of batches
+	 * run in it so far.
+	 */
+	public final int epoch, batch;
+	public final int samples;
+	/**
+	 * The average cross-entropy cost and the fraction of correct answers.
+	 */
+	public final double loss, accuracy;
+	public final double samplesPerSecond;
+	/**
+	 * The training rate of the SGD run (0 for EVALUATION).
+	 */
+	public final double learningRate;
+	/**
+	 * The time taken.
+	 */
+	public final long nanos;
+
+	public TrainingRecord(Kind kind, long time, int epoch, int batch, int samples, double loss, double accuracy,
+			double learningRate, long nanos) {
+		this.kind = kind;
+		this.time = time;
+		this.epoch = epoch;
+		this.batch = batch;
+		this.samples = samples;
+		this.loss = loss;
+		this.accuracy = accuracy;
+		this.learningRate = learningRate;
+		this.nanos = nanos;
+		samplesPerSecond = (nanos <= 0 ? 0 : samples * 1e9 / nanos);
+	}
+
+	/**
+	 * A single-line JSON object with all the fields.
+	 * @return
+	 */
+	public String toJson() {
+		StringBuilder sb = new StringBuilder(200);
+		sb.append("{\"kind\":\"").append(kind.name().toLowerCase())
+			.append("\",\"time\":").append(time)
+			.append(",\"epoch\":").append(epoch)
+			.append(",\"batch\":").append(batch)
+			.append(",\"samples\":").append(samples)
+			.append(",\"loss\":").append(json(loss))
+			.append(",\"accuracy\":").append(json(accuracy))
+			.append(",\"samplesPerSecond\":").append(json(samplesPerSecond))
+			.append(",\"learningRate\":").append(json(learningRate))
+			.append(",\"nanos\":").append(nanos)
+			.append('}');
+		return sb.toString();
+	}
+
+	/**
+	 * A line of CSV, with the columns of {@link #CSV_HEADER}.
+	 * @return
+	 */
+	public String toCsv() {
+		StringBuilder sb = new StringBuilder(120);
+		sb.append(kind.name().toLowerCase()).append(',').append(time).append(',').append(epoch)
+			.append(',').append(batch).append(',').append(samples).append(',').append(loss)
+			.append(',').append(accuracy).append(',').append(samplesPerSecond)
+			.append(',').append(learningRate).append(',').append(nanos);
+		return sb.toString();
+	}
+
+	/**
+	 * JSON has no NaN or infinity.
+	 */
+	static String json(double d) {
+		return (Double.isNaN(d) || Double.isInfinite(d) ? "null" : Double.toString(d));
+	}
+
+	@Override
+	public String toString() {
+		return toJson();
+	}
+}
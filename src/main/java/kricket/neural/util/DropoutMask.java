@@ -0,0 +1,71 @@
+package kricket.neural.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A random keep/drop decision for each of a fixed number of values, packed 64 to a long.
+ * <p>Dropout uses "inverted" scaling: the values that are kept are scaled up by
+ * 1 / (1 - rate) during training, so that their expected total stays the same, and
+ * inference needs no correction at all.
+ */
+public class DropoutMask {
+	private final long[] bits;
+	private final int size;
+	private double scale = 1;
+
+	/**
+	 * A mask that keeps everything.
+	 * @param size The number of values.
+	 */
+	public DropoutMask(int size) {
+		this.size = size;
+		bits = new long[(size + 63) / 64];
+		Arrays.fill(bits, -1L);
+	}
+
+	/**
+	 * Draw a new mask.
+	 * @param random
+	 * @param rate The probability of dropping each value, in [0, 1).
+	 */
+	public void randomize(Random random, double rate) {
+		if(rate == 0.5) {
+			// Every bit of a random long is a fair coin
+			for(int w=0; w<bits.length; w++)
+				bits[w] = random.nextLong();
+		} else {
+			for(int w=0; w<bits.length; w++) {
+				long word = 0;
+				for(int b=0; b<64; b++) {
+					if(random.nextDouble() >= rate)
+						word |= 1L << b;
+				}
+				bits[w] = word;
+			}
+		}
+		scale = 1 / (1 - rate);
+	}
+
+	/**
+	 * @param i
+	 * @return Whether value i is kept.
+	 */
+	public boolean isKept(int i) {
+		return ((bits[i >>> 6] >>> i) & 1) != 0;
+	}
+
+	/**
+	 * Apply this mask in place: dropped values become 0, and kept values are scaled by
+	 * 1 / (1 - rate). This is both the forward step, and (since it is linear) the backward one.
+	 * @param x At least {@link #size()} values.
+	 */
+	public void apply(double[] x) {
+		for(int i=0; i<size; i++)
+			x[i] = ((bits[i >>> 6] >>> i) & 1) != 0 ? x[i] * scale : 0;
+	}
+
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,43 @@
+package kricket.neural.util;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A read-only view of some of the elements of a List, in the order given by an array
+ * of indices. Nothing is copied: get(i) simply looks up source.get(indices[from+i]).
+ */
+public class IndexedList<T> extends AbstractList<T> implements RandomAccess {
+
+	private final List<? extends T> source;
+	private final int[] indices;
+	private final int from, to;
+
+	/**
+	 * @param source The underlying List.
+	 * @param indices Indices into the source.
+	 * @param from The first entry of indices to use.
+	 * @param to One past the last entry of indices to use.
+	 */
+	public IndexedList(List<? extends T> source, int[] indices, int from, int to) {
+		if(from < 0 || to > indices.length || from > to)
+			throw new IndexOutOfBoundsException("[" + from + ", " + to + ") of " + indices.length);
+		this.source = source;
+		this.indices = indices;
+		this.from = from;
+		this.to = to;
+	}
+
+	@Override
+	public T get(int index) {
+		if(index < 0 || index >= to - from)
+			throw new IndexOutOfBoundsException("Index " + index + " of " + size());
+		return source.get(indices[from + index]);
+	}
+
+	@Override
+	public int size() {
+		return to - from;
+	}
+}
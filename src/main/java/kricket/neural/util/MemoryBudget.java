@@ -0,0 +1,172 @@
+package kricket.neural.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An estimate of the memory a network needs, per layer, worked out from the shapes of
+ * its layers (see {@link kricket.neural.NNBase#getMemoryBudget}). For each layer:
+ * <ul>
+ * <li><b>parameters:</b> the weights and biases;
+ * <li><b>gradients:</b> where backprop adds up the gradients of the parameters;
+ * <li><b>momentum:</b> the previous batch's gradients, kept for momentum;
+ * <li><b>activations:</b> what the forward pass keeps for backprop;
+ * <li><b>temporaries:</b> scratch space for backprop (products, indices, masks).
+ * </ul>
+ * Training backpropagates one sample at a time, so none of these grow with the batch
+ * size. What does is the batch itself: its inputs and answers, and the buffers that
+ * batched inference (e.g. {@link kricket.neural.cnn.Predictor#predictBatch}) passes
+ * between layers - see {@link #getBatchBytes}. A scheduler can use
+ * {@link #maxBatchSize} to pick the largest batch that fits.
+ * <p>Object headers and other JVM overhead are not counted.
+ */
+public class MemoryBudget {
+	/**
+	 * The bytes needed by one layer.
+	 */
+	public static class Entry {
+		public final String name;
+		public final long parameters, gradients, momentum, activations, temporaries;
+
+		public Entry(String name, long parameters, long gradients, long momentum, long activations, long temporaries) {
+			this.name = name;
+			this.parameters = parameters;
+			this.gradients = gradients;
+			this.momentum = momentum;
+			this.activations = activations;
+			this.temporaries = temporaries;
+		}
+
+		public long getTotal() {
+			return parameters + gradients + momentum + activations + temporaries;
+		}
+	}
+
+	private final List<Entry> entries = new ArrayList<>();
+	private final int bytesPerValue;
+	private final long bytesPerSample;
+
+	/**
+	 * @param bytesPerValue The size of each parameter or activation (8 for doubles).
+	 * @param bytesPerSample The extra bytes needed for each datum in a batch.
+	 */
+	public MemoryBudget(int bytesPerValue, long bytesPerSample) {
+		if(bytesPerValue <= 0)
+			throw new IllegalArgumentException("Bytes per value must be positive: " + bytesPerValue);
+		this.bytesPerValue = bytesPerValue;
+		this.bytesPerSample = bytesPerSample;
+	}
+
+	/**
+	 * Add the next layer.
+	 * @param e
+	 */
+	public void add(Entry e) {
+		entries.add(e);
+	}
+
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(entries);
+	}
+
+	public int getBytesPerValue() {
+		return bytesPerValue;
+	}
+
+	public long getBytesPerSample() {
+		return bytesPerSample;
+	}
+
+	/**
+	 * The bytes of all the parameters.
+	 * @return
+	 */
+	public long getParameterBytes() {
+		long total = 0;
+		for(Entry e : entries)
+			total += e.parameters;
+		return total;
+	}
+
+	/**
+	 * The bytes needed whatever the batch size: the sum over all layers.
+	 * @return
+	 */
+	public long getFixedBytes() {
+		long total = 0;
+		for(Entry e : entries)
+			total += e.getTotal();
+		return total;
+	}
+
+	/**
+	 * The bytes that grow with the batch size.
+	 * @param batchSize
+	 * @return
+	 */
+	public long getBatchBytes(int batchSize) {
+		return bytesPerSample * batchSize;
+	}
+
+	/**
+	 * The bytes needed to train or run batches of the given size.
+	 * @param batchSize
+	 * @return
+	 */
+	public long getTotalBytes(int batchSize) {
+		return getFixedBytes() + getBatchBytes(batchSize);
+	}
+
+	/**
+	 * The largest batch size that fits in the given number of bytes.
+	 * @param availableBytes
+	 * @return 0 if not even a batch of 1 fits.
+	 */
+	public int maxBatchSize(long availableBytes) {
+		long left = availableBytes - getFixedBytes();
+		if(left <= 0 || left < bytesPerSample)
+			return 0;
+		if(bytesPerSample == 0)
+			return Integer.MAX_VALUE;
+		return (int) Math.min(Integer.MAX_VALUE, left / bytesPerSample);
+	}
+
+	/**
+	 * Format a number of bytes for people (e.g. "1.5 MB").
+	 * @param bytes
+	 * @return
+	 */
+	public static String format(long bytes) {
+		if(bytes < 1024)
+			return bytes + " B";
+		String units = "KMGTPE";
+		int u = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+		return String.format("%.1f %sB", bytes / (double) (1L << (10*u)), units.charAt(u-1));
+	}
+
+	/**
+	 * A table of the bytes per layer, with the totals.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(String.format("%-3s %-20s %10s %10s %10s %10s %10s %10s%n",
+				"#", "Layer", "Params", "Gradients", "Momentum", "Activation", "Temporary", "Total"));
+		long p = 0, g = 0, m = 0, a = 0, t = 0;
+		for(int i=0; i<entries.size(); i++) {
+			Entry e = entries.get(i);
+			sb.append(String.format("%-3d %-20s %10s %10s %10s %10s %10s %10s%n", i, e.name,
+					format(e.parameters), format(e.gradients), format(e.momentum),
+					format(e.activations), format(e.temporaries), format(e.getTotal())));
+			p += e.parameters;
+			g += e.gradients;
+			m += e.momentum;
+			a += e.activations;
+			t += e.temporaries;
+		}
+		sb.append(String.format("%-3s %-20s %10s %10s %10s %10s %10s %10s%n", "", "Total",
+				format(p), format(g), format(m), format(a), format(t), format(getFixedBytes())));
+		sb.append("Plus ").append(format(bytesPerSample)).append(" per datum in a batch");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,281 @@
+package kricket.neural.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The binary file format for saved networks. A file consists of:
+ * <ol>
+ * <li>A fixed header: magic number, format version, {@link Kind}, flags (whether there is
+ * optimizer state, and whether the network was pruned), the length of the
+ * architecture section, and the offset and length (in doubles) of the parameter section.</li>
+ * <li>The architecture: an opaque blob, written and read by the network itself.</li>
+ * <li>Padding, up to the next multiple of {@link #ALIGNMENT} bytes.</li>
+ * <li>The parameters: every parameter array, one after the other, as little-endian doubles.</li>
+ * <li>Optionally, the optimizer state: the same again, for the (momentum) state of the
+ * gradients.</li>
+ * </ol>
+ * <p>The parameter section is memory-mapped on load (in chunks of at most
+ * {@link #CHUNK_BYTES}, since a single mapping can't exceed 2 GB), and copied in bulk
+ * straight into the network's arrays.
+ */
+public class ModelFile {
+	/**
+	 * The first 4 bytes of every model file ("KNNM").
+	 */
+	public static final int MAGIC = 0x4B4E4E4D;
+	public static final int VERSION = 1;
+	/**
+	 * The parameter section starts on a multiple of this many bytes.
+	 */
+	public static final int ALIGNMENT = 64;
+	/**
+	 * The largest piece of the parameter section that is mapped at once (a multiple of 8).
+	 */
+	public static final int CHUNK_BYTES = 1 << 30;
+
+	/**
+	 * What a file contains: a network, or a training checkpoint.
+	 */
+	public enum Kind {NN, CNN, CHECKPOINT}
+
+	private static final int FLAG_OPTIMIZER_STATE = 1, FLAG_PRUNED = 2;
+	/**
+	 * magic, version, kind, flags, architecture length (ints); parameter offset, parameter count (longs)
+	 */
+	private static final int HEADER_BYTES = 5*4 + 2*8;
+
+	private final Kind kind;
+	private final byte[] architecture;
+	private final boolean hasOptimizerState, pruned;
+	private final long parameterCount;
+	private final MappedByteBuffer[] chunks;
+	private final int chunkBytes;
+
+	private ModelFile(Kind kind, byte[] architecture, boolean hasOptimizerState, boolean pruned,
+			long parameterCount, MappedByteBuffer[] chunks, int chunkBytes) {
+		this.kind = kind;
+		this.architecture = architecture;
+		this.hasOptimizerState = hasOptimizerState;
+		this.pruned = pruned;
+		this.parameterCount = parameterCount;
+		this.chunks = chunks;
+		this.chunkBytes = chunkBytes;
+	}
+
+	/**
+	 * Write a model file.
+	 * @param filename
+	 * @param kind
+	 * @param architecture Whatever the network needs to rebuild itself (before its parameters are loaded).
+	 * @param parameters All the parameter arrays, in a fixed order.
+	 * @param optimizerState The optimizer state arrays, with the same total length as the
+	 * parameters (or null, to leave it out).
+	 * @param pruned Whether the network was pruned: its zero weights must stay zero when
+	 * it is trained further.
+	 * @throws IOException
+	 */
+	public static void write(String filename, Kind kind, byte[] architecture, double[][] parameters,
+			double[][] optimizerState, boolean pruned) throws IOException {
+		long count = length(parameters);
+		if(optimizerState != null && length(optimizerState) != count)
+			throw new IllegalArgumentException("The optimizer state must be the same size as the parameters");
+
+		long offset = align(HEADER_BYTES + architecture.length);
+		ByteBuffer header = ByteBuffer.allocate((int) offset);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(kind.ordinal());
+		header.putInt((optimizerState == null ? 0 : FLAG_OPTIMIZER_STATE) | (pruned ? FLAG_PRUNED : 0));
+		header.putInt(architecture.length);
+		header.putLong(offset);
+		header.putLong(count);
+		header.put(architecture);
+		header.rewind();
+
+		try(RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+			file.setLength(0);
+			FileChannel channel = file.getChannel();
+			writeFully(channel, header);
+
+			ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			writeDoubles(channel, buf, parameters);
+			if(optimizerState != null)
+				writeDoubles(channel, buf, optimizerState);
+		}
+	}
+
+	/**
+	 * Open a model file, and map its parameter section.
+	 * @param filename
+	 * @param expected The kind of network we expect to find.
+	 * @return
+	 * @throws IOException if this isn't a model file (of the expected kind and version).
+	 */
+	public static ModelFile open(String filename, Kind expected) throws IOException {
+		return open(filename, expected, CHUNK_BYTES);
+	}
+
+	static ModelFile open(String filename, Kind expected, int chunkBytes) throws IOException {
+		try(RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+			FileChannel channel = file.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			while(header.hasRemaining()) {
+				if(channel.read(header) < 0)
+					throw new IOException(filename + " is not a model file (too short)");
+			}
+			header.flip();
+
+			if(header.getInt() != MAGIC)
+				throw new IOException(filename + " is not a model file");
+			int version = header.getInt();
+			if(version != VERSION)
+				throw new IOException(filename + " has format version " + version + "; expected " + VERSION);
+			int kind = header.getInt();
+			if(kind != expected.ordinal())
+				throw new IOException(filename + " does not contain a " + expected);
+			int flags = header.getInt();
+			boolean hasOptimizerState = (flags & FLAG_OPTIMIZER_STATE) != 0;
+			boolean pruned = (flags & FLAG_PRUNED) != 0;
+			byte[] architecture = new byte[header.getInt()];
+			long offset = header.getLong();
+			long count = header.getLong();
+
+			ByteBuffer arch = ByteBuffer.wrap(architecture);
+			while(arch.hasRemaining()) {
+				if(channel.read(arch) < 0)
+					throw new IOException(filename + " is truncated");
+			}
+
+			if(count < 0 || count > Long.MAX_VALUE / 16)
+				throw new IOException(filename + " has a corrupt header (" + count + " parameters)");
+			long bytes = count * 8 * (hasOptimizerState ? 2 : 1);
+			if(offset < 0 || offset + bytes > channel.size())
+				throw new IOException(filename + " is truncated");
+			MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((bytes + chunkBytes - 1) / chunkBytes)];
+			for(int c=0; c<chunks.length; c++) {
+				long start = (long) c * chunkBytes;
+				chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, offset + start, Math.min(chunkBytes, bytes - start));
+			}
+			return new ModelFile(expected, architecture, hasOptimizerState, pruned, count, chunks, chunkBytes);
+		}
+	}
+
+	/**
+	 * Quickly check whether the given file starts with the {@link #MAGIC} number.
+	 * @param filename
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isModelFile(String filename) throws IOException {
+		try(RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+			return file.length() >= 4 && file.readInt() == MAGIC;
+		}
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * Get a stream over the architecture section.
+	 * @return
+	 */
+	public DataInputStream getArchitecture() {
+		return new DataInputStream(new ByteArrayInputStream(architecture));
+	}
+
+	public boolean hasOptimizerState() {
+		return hasOptimizerState;
+	}
+
+	/**
+	 * Whether the network was pruned: the weights that are zero must be kept at zero.
+	 * @return
+	 */
+	public boolean isPruned() {
+		return pruned;
+	}
+
+	/**
+	 * Copy the parameters into the given arrays (which must have the same total length
+	 * as those that were saved).
+	 * @param parameters
+	 * @throws IOException if the sizes don't match.
+	 */
+	public void readParameters(double[][] parameters) throws IOException {
+		read(parameters, 0);
+	}
+
+	/**
+	 * Copy the optimizer state into the given arrays. Does nothing if there is no
+	 * optimizer state in the file.
+	 * @param state
+	 * @throws IOException if the sizes don't match.
+	 */
+	public void readOptimizerState(double[][] state) throws IOException {
+		if(hasOptimizerState)
+			read(state, parameterCount);
+	}
+
+	private void read(double[][] arrays, long start) throws IOException {
+		if(length(arrays) != parameterCount)
+			throw new IOException("The file has " + parameterCount + " parameters, but the network has " + length(arrays));
+		long position = start * 8;
+		for(double[] a : arrays) {
+			// An array may span several chunks
+			for(int i=0; i<a.length; ) {
+				ByteBuffer bytes = chunks[(int) (position / chunkBytes)].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+				bytes.position((int) (position % chunkBytes));
+				DoubleBuffer doubles = bytes.asDoubleBuffer();
+				int n = Math.min(doubles.remaining(), a.length - i);
+				doubles.get(a, i, n);
+				i += n;
+				position += 8L * n;
+			}
+		}
+	}
+
+	private static long length(double[][] arrays) {
+		long n = 0;
+		for(double[] a : arrays)
+			n += a.length;
+		return n;
+	}
+
+	private static long align(long offset) {
+		return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+
+	private static void writeDoubles(FileChannel channel, ByteBuffer buf, double[][] arrays) throws IOException {
+		DoubleBuffer doubles = buf.asDoubleBuffer();
+		for(double[] a : arrays) {
+			for(int i=0; i<a.length; ) {
+				int n = Math.min(doubles.remaining(), a.length - i);
+				doubles.put(a, i, n);
+				i += n;
+				if(!doubles.hasRemaining()) {
+					buf.clear();
+					writeFully(channel, buf);
+					doubles.clear();
+				}
+			}
+		}
+		buf.clear();
+		buf.limit(doubles.position() * 8);
+		writeFully(channel, buf);
+		buf.clear();
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+		while(buf.hasRemaining())
+			channel.write(buf);
+	}
+}
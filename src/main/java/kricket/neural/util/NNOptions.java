@@ -9,6 +9,27 @@ import java.util.logging.Logger;
  * Simple struct of non-functional options for a NN.
  */
 public class NNOptions {
+	/**
+	 * How to calculate the %error after each epoch (see {@link NNOptions#calcErrorsAfterEpochs}).
+	 */
+	public enum ErrorEstimate {
+		/**
+		 * Run the whole training set through the network.
+		 */
+		FULL,
+		/**
+		 * Report the accuracy and cost of the forward passes that SGD made during the epoch.
+		 * This costs (almost) nothing, but since the network changes during the epoch, it
+		 * lags a bit behind the true value.
+		 */
+		RUNNING,
+		/**
+		 * Run a fixed random sample of the training set through the network, and report
+		 * a 95% confidence interval.
+		 */
+		SAMPLED
+	}
+	
 	public NNOptions() {
 		log = Logger.getAnonymousLogger();
 		log.setUseParentHandlers(false);
@@ -35,10 +56,26 @@ public class NNOptions {
 	 * Whether to calculate the %error after each epoch.
 	 */
 	public boolean calcErrorsAfterEpochs = true;
+	/**
+	 * How to calculate the %error after each epoch.
+	 */
+	public ErrorEstimate errorEstimate = ErrorEstimate.FULL;
+	/**
+	 * For {@link ErrorEstimate#SAMPLED}: the number of data in the sample.
+	 */
+	public int errorSampleSize = 1000;
 	/**
 	 * When calculating the %error, use this to log every Datum that was incorrect.
 	 */
 	public boolean logIncorrectAnswers = false;
+	/**
+	 * The number of threads to use when calculating the %error.
+	 */
+	public int evaluationThreads = Runtime.getRuntime().availableProcessors();
+	/**
+	 * The number of data each thread feeds forward at once when calculating the %error.
+	 */
+	public int evaluationBatchSize = 64;
 	/**
 	 * Whether to log the neurons that were dropped out.
 	 */
@@ -47,4 +84,37 @@ public class NNOptions {
 	 * Whether to log the dimensions of the data passed between layers when a network is created.
 	 */
 	public boolean logDimensions = true;
+	/**
+	 * Whether to log the estimated memory needed per layer when a network is created
+	 * (see {@link MemoryBudget}).
+	 */
+	public boolean logMemory = false;
+	/**
+	 * How to order the training data in each epoch of SGD.
+	 */
+	public Shuffler.Mode shuffle = Shuffler.Mode.NONE;
+	/**
+	 * Seed for the shuffle, so that runs are reproducible.
+	 */
+	public long shuffleSeed = 0;
+	/**
+	 * For {@link Shuffler.Mode#LOCAL}: the number of consecutive data in each shuffled block.
+	 */
+	public int shuffleBlockSize = 1024;
+	/**
+	 * Where SGD writes its checkpoints, for {@link kricket.neural.NNBase#resumeSGD} (null = don't checkpoint).
+	 * Checkpoints are written in the background, and always after the last batch of an epoch.
+	 */
+	public String checkpointFile = null;
+	/**
+	 * Also checkpoint every so many batches (0 = only after each epoch). If the previous
+	 * checkpoint is still being written, this one is skipped.
+	 */
+	public int checkpointEveryBatches = 0;
+	/**
+	 * Inputs with at most this fraction of non-zero values skip the zeros when they are
+	 * multiplied by the first layer's weights, and when its weight gradient is calculated
+	 * (0 = always use the dense product). See {@link SparseVector}.
+	 */
+	public double sparseInputDensity = SparseVector.WORTHWHILE_DENSITY;
 }
@@ -0,0 +1,105 @@
+package kricket.neural.util;
+
+import java.util.Arrays;
+
+/**
+ * Magnitude pruning: zeroing out the smallest weights of a layer, and keeping them at
+ * zero while the rest of the network trains.
+ */
+public final class Pruning {
+
+	private Pruning() {}
+
+	/**
+	 * Prune the smallest weights, so that the given fraction of them are zero. Weights that
+	 * were already pruned stay pruned (they are zero, so they are always among the smallest).
+	 * @param weights
+	 * @param mask mask[i] = false if weights[i] has been pruned. Updated in place.
+	 * @param sparsity The fraction of weights to prune, in [0, 1].
+	 * @return The number of weights that are now pruned.
+	 */
+	public static int prune(double[] weights, boolean[] mask, double sparsity) {
+		if(sparsity < 0 || sparsity > 1)
+			throw new IllegalArgumentException("Sparsity must be between 0 and 1, not " + sparsity);
+		int target = (int) (sparsity * weights.length);
+
+		int pruned = 0;
+		double[] magnitudes = new double[weights.length];
+		for(int i=0; i<weights.length; i++) {
+			magnitudes[i] = (mask[i] ? Math.abs(weights[i]) : -1);
+			if(!mask[i])
+				pruned++;
+		}
+		if(pruned >= target)
+			return pruned;
+
+		Arrays.sort(magnitudes);
+		double threshold = magnitudes[target-1];
+		// Everything strictly below the threshold goes; then ties, until we hit the target
+		for(int i=0; i<weights.length; i++) {
+			if(mask[i] && Math.abs(weights[i]) < threshold) {
+				mask[i] = false;
+				weights[i] = 0;
+				pruned++;
+			}
+		}
+		for(int i=0; i<weights.length && pruned < target; i++) {
+			if(mask[i] && Math.abs(weights[i]) == threshold) {
+				mask[i] = false;
+				weights[i] = 0;
+				pruned++;
+			}
+		}
+		return pruned;
+	}
+
+	/**
+	 * Set the pruned weights back to zero (e.g. after a gradient step).
+	 * @param weights
+	 * @param mask
+	 */
+	public static void applyMask(double[] weights, boolean[] mask) {
+		for(int i=0; i<weights.length; i++) {
+			if(!mask[i])
+				weights[i] = 0;
+		}
+	}
+
+	/**
+	 * A mask in which exactly the zero weights are pruned: the mask of a layer that was
+	 * saved after pruning (see {@link ModelFile}).
+	 * @param weights
+	 * @return
+	 */
+	public static boolean[] maskZeros(double[] weights) {
+		boolean[] mask = new boolean[weights.length];
+		for(int i=0; i<weights.length; i++)
+			mask[i] = (weights[i] != 0);
+		return mask;
+	}
+
+	/**
+	 * A new mask, with nothing pruned.
+	 * @param size
+	 * @return
+	 */
+	public static boolean[] newMask(int size) {
+		boolean[] mask = new boolean[size];
+		Arrays.fill(mask, true);
+		return mask;
+	}
+
+	/**
+	 * The sparsity to prune to at the given step of gradual pruning. This rises quickly at
+	 * first, then levels off towards the target, giving the network more time to recover
+	 * as fewer weights remain: s = target * (1 - (1 - step/steps)^3).
+	 * @param target The final sparsity.
+	 * @param step From 1 to steps.
+	 * @param steps
+	 * @return
+	 */
+	public static double schedule(double target, int step, int steps) {
+		double remaining = 1 - (double) step / steps;
+		return target * (1 - remaining*remaining*remaining);
+	}
+}
@@ -0,0 +1,138 @@
+package kricket.neural.util;
+
+/**
+ * Singular value decomposition A = U * diag(S) * V^T, by one-sided Jacobi rotations:
+ * pairs of columns of A are rotated until they are all orthogonal, at which point their
+ * lengths are the singular values. It is slower than the usual bidiagonalization, but
+ * short, and accurate even for the small singular values.
+ * <p>For an m x n matrix A, with k = min(m, n): U is m x k, S has k values (largest first),
+ * and V is n x k.
+ */
+public class SVD {
+	private static final int MAX_SWEEPS = 60;
+	private static final double EPSILON = 1e-15;
+
+	/**
+	 * The left singular vectors (one per column).
+	 */
+	public final Matrix U;
+	/**
+	 * The singular values, in decreasing order.
+	 */
+	public final double[] S;
+	/**
+	 * The right singular vectors (one per column).
+	 */
+	public final Matrix V;
+
+	public SVD(Matrix a) {
+		// Rotate the columns of whichever of A and A^T has fewer of them
+		boolean transpose = a.rows < a.cols;
+		int m = (transpose ? a.cols : a.rows), n = (transpose ? a.rows : a.cols);
+
+		// u[j] = column j of A (or A^T), v[j] = column j of the identity
+		double[][] u = new double[n][m], v = new double[n][n];
+		for(int j=0; j<n; j++) {
+			for(int i=0; i<m; i++)
+				u[j][i] = (transpose ? a.data[j*a.cols + i] : a.data[i*a.cols + j]);
+			v[j][j] = 1;
+		}
+
+		for(int sweep=0; sweep<MAX_SWEEPS; sweep++) {
+			boolean rotated = false;
+			for(int p=0; p<n-1; p++) for(int q=p+1; q<n; q++) {
+				double alpha = dot(u[p], u[p]), beta = dot(u[q], u[q]), gamma = dot(u[p], u[q]);
+				if(gamma == 0 || Math.abs(gamma) <= EPSILON * Math.sqrt(alpha * beta))
+					continue;
+				rotated = true;
+
+				// The rotation that makes columns p and q orthogonal
+				double zeta = (beta - alpha) / (2 * gamma);
+				double t = Math.signum(zeta) / (Math.abs(zeta) + Math.sqrt(1 + zeta*zeta));
+				if(zeta == 0)
+					t = 1;
+				double c = 1 / Math.sqrt(1 + t*t), s = c * t;
+				rotate(u[p], u[q], c, s);
+				rotate(v[p], v[q], c, s);
+			}
+			if(!rotated)
+				break;
+		}
+
+		// Sort by singular value (selection sort: n is small, and this is nothing next to the sweeps)
+		double[] sigma = new double[n];
+		for(int j=0; j<n; j++)
+			sigma[j] = Math.sqrt(dot(u[j], u[j]));
+		for(int j=0; j<n; j++) {
+			int max = j;
+			for(int k=j+1; k<n; k++) {
+				if(sigma[k] > sigma[max])
+					max = k;
+			}
+			swap(sigma, j, max);
+			swap(u, j, max);
+			swap(v, j, max);
+		}
+
+		// Normalize the left singular vectors
+		for(int j=0; j<n; j++) {
+			if(sigma[j] != 0) {
+				for(int i=0; i<m; i++)
+					u[j][i] /= sigma[j];
+			}
+		}
+
+		S = sigma;
+		Matrix left = columns(u), right = columns(v);
+		U = (transpose ? right : left);
+		V = (transpose ? left : right);
+	}
+
+	/**
+	 * The number of singular values (and of columns of U and V), including any that are
+	 * zero - so not the rank of the matrix.
+	 * @return min(rows, columns) of the matrix.
+	 */
+	public int getNumValues() {
+		return S.length;
+	}
+
+	private static double dot(double[] x, double[] y) {
+		double sum = 0;
+		for(int i=0; i<x.length; i++)
+			sum += x[i] * y[i];
+		return sum;
+	}
+
+	private static void rotate(double[] x, double[] y, double c, double s) {
+		for(int i=0; i<x.length; i++) {
+			double xi = x[i], yi = y[i];
+			x[i] = c*xi - s*yi;
+			y[i] = s*xi + c*yi;
+		}
+	}
+
+	private static void swap(double[] x, int i, int j) {
+		double tmp = x[i];
+		x[i] = x[j];
+		x[j] = tmp;
+	}
+
+	private static void swap(double[][] x, int i, int j) {
+		double[] tmp = x[i];
+		x[i] = x[j];
+		x[j] = tmp;
+	}
+
+	/**
+	 * A Matrix with the given columns.
+	 */
+	private static Matrix columns(double[][] cols) {
+		Matrix m = new Matrix(cols[0].length, cols.length);
+		for(int c=0; c<cols.length; c++) {
+			for(int r=0; r<m.rows; r++)
+				m.data[r*m.cols + c] = cols[c][r];
+		}
+		return m;
+	}
+}
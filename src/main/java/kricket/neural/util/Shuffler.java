@@ -0,0 +1,197 @@
+package kricket.neural.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Decides the order in which the training data is visited during an epoch. Rather
+ * than reordering (or copying) the data itself, we compute a permutation of its
+ * indices, and gather the batches through it (see {@link IndexedList}).
+ * <p>The permutation depends only on the seed and the epoch number, so a run can be
+ * reproduced (or resumed) exactly.
+ */
+public class Shuffler {
+
+	public enum Mode {
+		/**
+		 * Visit the data in its original order.
+		 */
+		NONE,
+		/**
+		 * A uniformly random permutation.
+		 */
+		RANDOM,
+		/**
+		 * A random permutation, arranged so that each class is spread evenly across the
+		 * epoch. Every batch then has roughly the same class proportions as the whole set.
+		 */
+		STRATIFIED,
+		/**
+		 * Split the data into contiguous blocks, and shuffle both the order of the blocks
+		 * and the data within each block. Each batch then only touches one (or two) blocks,
+		 * which is much kinder to the caches (and to lazily-generated data sets).
+		 */
+		LOCAL
+	}
+
+	private final Mode mode;
+	private final long seed;
+	private final int blockSize;
+	/**
+	 * Cached class of each Datum, for {@link Mode#STRATIFIED}.
+	 */
+	private int[] classes;
+	private List<? extends Datum> classesOf;
+
+	/**
+	 * @param mode How to shuffle.
+	 * @param seed Base seed for the random permutations.
+	 * @param blockSize The size of the blocks for {@link Mode#LOCAL} (ignored otherwise).
+	 */
+	public Shuffler(Mode mode, long seed, int blockSize) {
+		if(blockSize < 1)
+			throw new IllegalArgumentException("Block size must be positive, not " + blockSize);
+		this.mode = mode;
+		this.seed = seed;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Create a Shuffler from the given options.
+	 * @param opts
+	 */
+	public Shuffler(NNOptions opts) {
+		this(opts.shuffle, opts.shuffleSeed, opts.shuffleBlockSize);
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Get the order in which to visit the given data during the given epoch.
+	 * @param data
+	 * @param epoch
+	 * @return A permutation of [0, data.size())
+	 */
+	public int[] order(List<? extends Datum> data, long epoch) {
+		int[] order = new int[data.size()];
+		for(int i=0; i<order.length; i++)
+			order[i] = i;
+
+		Random rand = new Random(seed + epoch * 0x9E3779B97F4A7C15L);
+		switch(mode) {
+		case NONE:
+			break;
+		case RANDOM:
+			shuffle(order, 0, order.length, rand);
+			break;
+		case STRATIFIED:
+			return stratified(data, rand);
+		case LOCAL:
+			return local(order.length, rand);
+		}
+
+		return order;
+	}
+
+	/**
+	 * Pick k distinct indices from [0, size), at random.
+	 * @param size
+	 * @param k
+	 * @param seed
+	 * @return
+	 */
+	public static int[] sample(int size, int k, long seed) {
+		k = Math.min(k, size);
+		int[] order = new int[size];
+		for(int i=0; i<size; i++)
+			order[i] = i;
+		Random rand = new Random(seed);
+		for(int i=0; i<k; i++) {
+			int j = i + rand.nextInt(size - i);
+			int tmp = order[i];
+			order[i] = order[j];
+			order[j] = tmp;
+		}
+		int[] sample = new int[k];
+		System.arraycopy(order, 0, sample, 0, k);
+		return sample;
+	}
+
+	/**
+	 * Fisher-Yates shuffle of order[from, to).
+	 */
+	private static void shuffle(int[] order, int from, int to, Random rand) {
+		for(int i=to-1; i>from; i--) {
+			int j = from + rand.nextInt(i - from + 1);
+			int tmp = order[i];
+			order[i] = order[j];
+			order[j] = tmp;
+		}
+	}
+
+	private int[] stratified(List<? extends Datum> data, Random rand) {
+		if(classesOf != data || classes.length != data.size()) {
+			classes = new int[data.size()];
+			for(int i=0; i<classes.length; i++)
+				classes[i] = data.get(i).getAnswerClass();
+			classesOf = data;
+		}
+
+		int numClasses = 0;
+		for(int c : classes)
+			numClasses = Math.max(numClasses, c+1);
+		int[] counts = new int[numClasses];
+		for(int c : classes)
+			counts[c]++;
+
+		// Shuffle within each class, then give the j'th member of class c the position
+		// (j + jitter) / count[c]: sorting by that interleaves the classes evenly.
+		int[] order = new int[classes.length];
+		for(int i=0; i<order.length; i++)
+			order[i] = i;
+		shuffle(order, 0, order.length, rand);
+
+		int[] seen = new int[numClasses];
+		final double[] keys = new double[classes.length];
+		for(int i : order) {
+			int c = classes[i];
+			keys[i] = (seen[c]++ + rand.nextDouble()) / counts[c];
+		}
+
+		Integer[] sorted = new Integer[order.length];
+		for(int i=0; i<sorted.length; i++)
+			sorted[i] = i;
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(keys[a], keys[b]);
+			}
+		});
+
+		for(int i=0; i<order.length; i++)
+			order[i] = sorted[i];
+		return order;
+	}
+
+	private int[] local(int size, Random rand) {
+		int numBlocks = (size + blockSize - 1) / blockSize;
+		int[] blocks = new int[numBlocks];
+		for(int b=0; b<numBlocks; b++)
+			blocks[b] = b;
+		shuffle(blocks, 0, numBlocks, rand);
+
+		int[] order = new int[size];
+		int pos = 0;
+		for(int b : blocks) {
+			int from = pos;
+			for(int i=b*blockSize; i<Math.min(size, (b+1)*blockSize); i++)
+				order[pos++] = i;
+			shuffle(order, from, pos, rand);
+		}
+		return order;
+	}
+}
@@ -0,0 +1,169 @@
+package kricket.neural.util;
+
+/**
+ * An immutable sparse matrix, in compressed sparse row (CSR) format: the non-zero values
+ * of each row are stored together, in order of column.
+ * <p>The products add up the non-zero terms in the same order as {@link Matrix#times(Matrix)},
+ * so (for finite inputs) the results are exactly the same as with the dense matrix.
+ */
+public class SparseMatrix {
+	/**
+	 * Above this fraction of non-zero values, the dense product is usually faster.
+	 */
+	public static final double WORTHWHILE_DENSITY = 0.5;
+	
+	public final int rows, cols;
+	/**
+	 * The non-zero values of row r are values[rowStart[r]] ... values[rowStart[r+1]-1].
+	 */
+	private final int[] rowStart;
+	/**
+	 * The column of each non-zero value.
+	 */
+	private final int[] columns;
+	private final double[] values;
+
+	/**
+	 * Compress the given row-major data (see {@link Matrix#data}), dropping all the zeros.
+	 * @param data
+	 * @param rows
+	 * @param cols
+	 */
+	public SparseMatrix(double[] data, int rows, int cols) {
+		if(data.length != rows*cols)
+			throw new IllegalArgumentException("Expected " + rows + "x" + cols + " values, got " + data.length);
+		this.rows = rows;
+		this.cols = cols;
+
+		int nonZeros = 0;
+		for(double d : data) {
+			if(d != 0)
+				nonZeros++;
+		}
+
+		rowStart = new int[rows+1];
+		columns = new int[nonZeros];
+		values = new double[nonZeros];
+		for(int r=0, n=0; r<rows; r++) {
+			rowStart[r] = n;
+			for(int c=0; c<cols; c++) {
+				double d = data[r*cols + c];
+				if(d != 0) {
+					columns[n] = c;
+					values[n++] = d;
+				}
+			}
+		}
+		rowStart[rows] = nonZeros;
+	}
+
+	public SparseMatrix(Matrix m) {
+		this(m.data, m.rows, m.cols);
+	}
+
+	/**
+	 * The fraction of the given values that are non-zero.
+	 * @param data
+	 * @return
+	 */
+	public static double density(double[] data) {
+		int nonZeros = 0;
+		for(double d : data) {
+			if(d != 0)
+				nonZeros++;
+		}
+		return (data.length == 0 ? 0 : (double) nonZeros / data.length);
+	}
+
+	/**
+	 * The number of non-zero values.
+	 * @return
+	 */
+	public int getNonZeros() {
+		return values.length;
+	}
+
+	/**
+	 * The fraction of values that are non-zero.
+	 * @return
+	 */
+	public double getDensity() {
+		return (rows*cols == 0 ? 0 : (double) values.length / (rows*cols));
+	}
+
+	/**
+	 * The memory used by the values and indices.
+	 * @return
+	 */
+	public long getBytes() {
+		return 8L * values.length + 4L * (columns.length + rowStart.length);
+	}
+
+	/**
+	 * Sparse matrix-vector product: y = this * x.
+	 * @param x {@link #cols} values.
+	 * @param y Storage for the {@link #rows} results.
+	 */
+	public void times(double[] x, double[] y) {
+		for(int r=0; r<rows; r++) {
+			double sum = 0;
+			for(int i=rowStart[r], end=rowStart[r+1]; i<end; i++)
+				sum += values[i] * x[columns[i]];
+			y[r] = sum;
+		}
+	}
+
+	/**
+	 * Sparse matrix-vector product, for each of the given vectors.
+	 * @param x x[b] for b < count are the vectors (of {@link #cols} values).
+	 * @param y Storage for the results: y[b][r] = row r of this * x[b].
+	 * @param count
+	 */
+	public void times(double[][] x, double[][] y, int count) {
+		// Walk the matrix once for the whole batch
+		for(int r=0; r<rows; r++) {
+			int start = rowStart[r], end = rowStart[r+1];
+			for(int b=0; b<count; b++) {
+				double[] xb = x[b];
+				double sum = 0;
+				for(int i=start; i<end; i++)
+					sum += values[i] * xb[columns[i]];
+				y[b][r] = sum;
+			}
+		}
+	}
+
+	/**
+	 * Sparse matrix-matrix product.
+	 * @param m A dense matrix with {@link #cols} rows.
+	 * @return this * m
+	 */
+	public Matrix times(Matrix m) {
+		if(m.rows != cols)
+			throw new IllegalArgumentException("Incompatible dimensions: I have " + cols + " cols, but m has " + m.rows + " rows");
+		Matrix p = new Matrix(rows, m.cols);
+		for(int r=0; r<rows; r++) {
+			int start = rowStart[r], end = rowStart[r+1];
+			for(int c=0; c<m.cols; c++) {
+				double rc = 0;
+				for(int i=start; i<end; i++)
+					rc += values[i] * m.data[columns[i]*m.cols + c];
+				p.data[r*m.cols + c] = rc;
+			}
+		}
+		return p;
+	}
+
+	/**
+	 * Expand this back into a dense Matrix.
+	 * @return
+	 */
+	public Matrix toDense() {
+		Matrix m = new Matrix(rows, cols);
+		for(int r=0; r<rows; r++) {
+			for(int i=rowStart[r]; i<rowStart[r+1]; i++)
+				m.data[r*cols + columns[i]] = values[i];
+		}
+		return m;
+	}
+}
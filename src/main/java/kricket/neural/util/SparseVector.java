@@ -0,0 +1,77 @@
+package kricket.neural.util;
+
+/**
+ * Kernels for products with a mostly-zero input vector (e.g. the background pixels of an
+ * MNIST image), which only touch the weight columns of the non-zero inputs.
+ * <p>The terms are added up in the same order as {@link Matrix#times(Matrix)} and
+ * {@link Tensor#times(Tensor, Tensor)}; the skipped terms are all zero, so (for finite
+ * weights) the results are exactly the same as with the dense product.
+ */
+public final class SparseVector {
+	/**
+	 * Above this fraction of non-zero inputs, the dense product is usually faster.
+	 */
+	public static final double WORTHWHILE_DENSITY = 0.5;
+
+	private SparseVector() {}
+
+	/**
+	 * Find the non-zero values of x, giving up as soon as there are too many.
+	 * @param x
+	 * @param indices Storage for the indices of the non-zero values (at least x.length).
+	 * @param maxDensity The largest fraction of non-zero values worth listing.
+	 * @return The number of non-zero values, or -1 if there are more than maxDensity * x.length.
+	 */
+	public static int nonZeros(double[] x, int[] indices, double maxDensity) {
+		int max = (int) (maxDensity * x.length);
+		int n = 0;
+		for(int i=0; i<x.length; i++) {
+			if(x[i] != 0) {
+				if(n == max)
+					return -1;
+				indices[n++] = i;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * y = w * x, where only the given values of x are non-zero.
+	 * @param w A row-major matrix with x.length columns.
+	 * @param x
+	 * @param indices The indices of the non-zero values of x (see {@link #nonZeros}).
+	 * @param count The number of indices.
+	 * @param y Storage for the w.length / x.length results.
+	 */
+	public static void times(double[] w, double[] x, int[] indices, int count, double[] y) {
+		int cols = x.length;
+		for(int r=0, row=0; r<y.length; r++, row+=cols) {
+			double sum = 0;
+			for(int k=0; k<count; k++) {
+				int i = indices[k];
+				sum += w[row + i] * x[i];
+			}
+			y[r] = sum;
+		}
+	}
+
+	/**
+	 * dW += d * x^T, where only the given values of x are non-zero. The columns of dW for
+	 * the zero inputs are left alone.
+	 * @param dW A row-major matrix with d.length rows and x.length columns.
+	 * @param d
+	 * @param x
+	 * @param indices The indices of the non-zero values of x (see {@link #nonZeros}).
+	 * @param count The number of indices.
+	 */
+	public static void plusEqualsOuter(double[] dW, double[] d, double[] x, int[] indices, int count) {
+		int cols = x.length;
+		for(int r=0, row=0; r<d.length; r++, row+=cols) {
+			double dr = d[r];
+			for(int k=0; k<count; k++) {
+				int i = indices[k];
+				dW[row + i] += dr * x[i];
+			}
+		}
+	}
+}
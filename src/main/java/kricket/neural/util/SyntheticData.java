@@ -0,0 +1,207 @@
+package kricket.neural.util;
+
+import java.util.AbstractList;
+import java.util.Random;
+import java.util.RandomAccess;
+
+/**
+ * A deterministic, synthetic data set, for testing at any scale without the MNIST files.
+ * Nothing but the class prototypes is stored: each Datum is generated when it is asked
+ * for, so millions of them can be streamed through SGD or {@link kricket.neural.NNBase#calc_error}
+ * without holding them in memory.
+ * <p>Each class has a random prototype, in which each value is either high or low. Datum i
+ * belongs to class i % classes, and each of its values is non-zero with probability
+ * {@link #withDensity density}, in which case it is a mix of the prototype and uniform
+ * noise, weighted by {@link #withSeparability separability}.
+ * <p>For image-like data (e.g. for convolutions), {@link #withStrokes strokes} makes each
+ * prototype a random pen stroke on an empty background instead, and shifts each Datum by
+ * a few pixels; the density is then the fraction of the stroke that is kept.
+ * <p>Datum i only depends on the seed and i, so it is the same every time.
+ */
+public class SyntheticData extends AbstractList<Datum> implements RandomAccess {
+	/**
+	 * The low prototype values (the high ones are 1). Not 0, so that the density doesn't
+	 * depend on the separability.
+	 */
+	private static final double LOW = 0.1;
+	/**
+	 * The number of steps each stroke takes, per pixel of the slice.
+	 */
+	private static final double STROKE_STEPS = 0.2;
+
+	private static class Sample implements Datum {
+		private final Tensor data;
+		private final int answerClass, classes;
+
+		Sample(Tensor data, int answerClass, int classes) {
+			this.data = data;
+			this.answerClass = answerClass;
+			this.classes = classes;
+		}
+
+		@Override
+		public Matrix getData() {
+			return new Matrix(data.data);
+		}
+
+		@Override
+		public Tensor getDataTensor() {
+			return data;
+		}
+
+		@Override
+		public Matrix getAnswer() {
+			Matrix answer = new Matrix(classes, 1);
+			answer.data[answerClass] = 1;
+			return answer;
+		}
+
+		@Override
+		public Tensor getAnswerTensor() {
+			Tensor answer = new Tensor(classes, 1, 1);
+			answer.data[answerClass] = 1;
+			return answer;
+		}
+
+		@Override
+		public int getAnswerClass() {
+			return answerClass;
+		}
+	}
+
+	private final Dimension dimension;
+	private final int classes, size;
+	private final long seed;
+	private final double[][] prototypes;
+	private double density = 1, separability = 1;
+	/**
+	 * -1 if the prototypes aren't strokes.
+	 */
+	private int maxShift = -1;
+
+	/**
+	 * @param dimension The dimension of each input.
+	 * @param classes The number of classes (and the size of each answer).
+	 * @param size The number of data.
+	 * @param seed
+	 */
+	public SyntheticData(Dimension dimension, int classes, int size, long seed) {
+		if(classes < 1 || size < 0)
+			throw new IllegalArgumentException("Need at least 1 class and 0 data, not " + classes + " and " + size);
+		this.dimension = dimension;
+		this.classes = classes;
+		this.size = size;
+		this.seed = seed;
+
+		Random rand = new Random(seed);
+		int volume = dimension.rows * dimension.columns * dimension.depth;
+		prototypes = new double[classes][volume];
+		for(double[] p : prototypes) {
+			for(int i=0; i<volume; i++)
+				p[i] = (rand.nextBoolean() ? 1 : LOW);
+		}
+	}
+
+	/**
+	 * Column vectors of the given size.
+	 */
+	public SyntheticData(int inputs, int classes, int size, long seed) {
+		this(new Dimension(inputs, 1, 1), classes, size, seed);
+	}
+
+	/**
+	 * @param density The fraction of values that are non-zero (1 by default).
+	 * @return this
+	 */
+	public SyntheticData withDensity(double density) {
+		if(density < 0 || density > 1)
+			throw new IllegalArgumentException("The density must be in [0, 1], not " + density);
+		this.density = density;
+		return this;
+	}
+
+	/**
+	 * @param separability How much of each value comes from the class prototype, rather
+	 * than noise: at 0 the classes can't be told apart, at 1 they only differ by which
+	 * values are missing (1 by default).
+	 * @return this
+	 */
+	public SyntheticData withSeparability(double separability) {
+		if(separability < 0 || separability > 1)
+			throw new IllegalArgumentException("The separability must be in [0, 1], not " + separability);
+		this.separability = separability;
+		return this;
+	}
+
+	/**
+	 * Make each prototype a random walk with a 2x2 pen (in each slice), like a hand-written
+	 * digit, and shift each Datum by up to the given number of pixels in each direction.
+	 * @param maxShift
+	 * @return this
+	 */
+	public SyntheticData withStrokes(int maxShift) {
+		if(maxShift < 0 || dimension.rows < 2*maxShift + 2 || dimension.columns < 2*maxShift + 2)
+			throw new IllegalArgumentException("Can't shift a " + dimension + " input by " + maxShift);
+		this.maxShift = maxShift;
+		Random rand = new Random(seed);
+		for(int k=0; k<classes; k++) {
+			Tensor stroke = new Tensor(dimension);
+			int steps = (int) (STROKE_STEPS * dimension.rows * dimension.columns);
+			int maxRow = dimension.rows - maxShift - 2, maxCol = dimension.columns - maxShift - 2;
+			for(int s=0; s<dimension.depth; s++) {
+				int r = maxShift + rand.nextInt(maxRow - maxShift + 1), c = maxShift + rand.nextInt(maxCol - maxShift + 1);
+				for(int step=0; step<steps; step++) {
+					for(int dr=0; dr<2; dr++)
+						for(int dc=0; dc<2; dc++)
+							stroke.set(r+dr, c+dc, s, 1);
+					r = Math.max(maxShift, Math.min(maxRow, r + rand.nextInt(3) - 1));
+					c = Math.max(maxShift, Math.min(maxCol, c + rand.nextInt(3) - 1));
+				}
+			}
+			prototypes[k] = stroke.data;
+		}
+		return this;
+	}
+
+	public Dimension getDimension() {
+		return dimension;
+	}
+
+	public int getClasses() {
+		return classes;
+	}
+
+	@Override
+	public Datum get(int index) {
+		if(index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index " + index + " of " + size);
+		Random rand = new Random(seed + (index + 1L) * 0x9E3779B97F4A7C15L);
+		int answerClass = index % classes;
+		double[] prototype = prototypes[answerClass];
+
+		Tensor data = new Tensor(dimension);
+		if(maxShift >= 0) {
+			int dr = rand.nextInt(2*maxShift + 1) - maxShift, dc = rand.nextInt(2*maxShift + 1) - maxShift;
+			for(int s=0; s<dimension.depth; s++) {
+				for(int r=0; r<dimension.rows; r++) {
+					for(int c=0; c<dimension.columns; c++) {
+						double p = prototype[data.index(r, c, s)];
+						if(p != 0 && (density == 1 || rand.nextDouble() < density))
+							data.set(r+dr, c+dc, s, separability * p + (1 - separability) * rand.nextDouble());
+					}
+				}
+			}
+		} else {
+			for(int i=0; i<prototype.length; i++) {
+				if(density == 1 || rand.nextDouble() < density)
+					data.data[i] = separability * prototype[i] + (1 - separability) * rand.nextDouble();
+			}
+		}
+		return new Sample(data, answerClass, classes);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,174 @@
+package kricket.neural;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+import kricket.neural.cnn.CNN;
+import kricket.neural.cnn.ConvolutionalLayer;
+import kricket.neural.cnn.FlatteningLayer;
+import kricket.neural.cnn.FullyConnectedLayer;
+import kricket.neural.cnn.SigmaLayer;
+import kricket.neural.nn.NN;
+import kricket.neural.util.Datum;
+import kricket.neural.util.Dimension;
+import kricket.neural.util.NNOptions;
+import kricket.neural.util.Shuffler;
+import kricket.neural.util.SingleDatum;
+
+import org.junit.Test;
+
+public class CheckpointTest {
+
+	/**
+	 * Simulates a crash: throws once the given number of data have been read.
+	 */
+	private static class CrashingList extends AbstractList<Datum> {
+		private final List<? extends Datum> data;
+		private int remaining;
+
+		CrashingList(List<? extends Datum> data, int reads) {
+			this.data = data;
+			remaining = reads;
+		}
+
+		@Override
+		public Datum get(int index) {
+			if(remaining-- <= 0)
+				throw new IllegalStateException("Crash!");
+			return data.get(index);
+		}
+
+		@Override
+		public int size() {
+			return data.size();
+		}
+	}
+
+	private static List<SingleDatum> data() {
+		List<SingleDatum> data = new ArrayList<>();
+		for(int i=0; i<11; i++)
+			data.add(new SingleDatum(i % 2, i % 2));
+		return data;
+	}
+
+	private static NNOptions getOpts() {
+		NNOptions opts = new NNOptions();
+		opts.calcErrorsAfterEpochs = false;
+		opts.logEpochs = false;
+		opts.summarizeSGD = false;
+		opts.logDimensions = false;
+		opts.shuffle = Shuffler.Mode.RANDOM;
+		opts.shuffleSeed = 7;
+		return opts;
+	}
+
+	private static File tempFile() throws Exception {
+		File file = File.createTempFile("checkpoint", ".model");
+		file.deleteOnExit();
+		return file;
+	}
+
+	@Test
+	public void resumedCNNMatchesUninterruptedRun() throws Exception {
+		List<SingleDatum> data = data();
+		NNOptions opts = getOpts();
+		CNN initial = new CNN(opts, new Dimension(1, 1, 1),
+				new ConvolutionalLayer(3, 1, 1, 1, 1).withMomentum(0.5),
+				new FlatteningLayer(),
+				new FullyConnectedLayer(4, 0.9),
+				new SigmaLayer(),
+				new FullyConnectedLayer(1, 0.9));
+		File model = tempFile();
+		initial.save(model.getPath());
+
+		CNN uninterrupted = CNN.load(model.getPath(), opts);
+		uninterrupted.SGD(data, 3, 5, 1, 0.1);
+
+		File checkpoint = tempFile();
+		NNOptions checkpointing = getOpts();
+		checkpointing.checkpointFile = checkpoint.getPath();
+		checkpointing.checkpointEveryBatches = 1;
+		CNN crashed = CNN.load(model.getPath(), checkpointing);
+		try {
+			// Crash part-way through the third epoch
+			crashed.SGD(new CrashingList(data, 2*data.size() + 5), 3, 5, 1, 0.1);
+		} catch(IllegalStateException e) {
+			// Expected
+		}
+
+		CNN resumed = CNN.load(model.getPath(), opts);
+		resumed.resumeSGD(checkpoint.getPath(), data, 3, 5, 1, 0.1);
+
+		for(SingleDatum d : data)
+			assertArrayEquals(uninterrupted.feedForward(d.getDataTensor()).data, resumed.feedForward(d.getDataTensor()).data, 0);
+	}
+
+	@Test
+	public void resumedNNMatchesUninterruptedRun() throws Exception {
+		List<SingleDatum> data = data();
+		File model = tempFile();
+		new NN(getOpts(), 1, 3, 1).save(model.getPath());
+
+		NN uninterrupted = NN.load(model.getPath());
+		uninterrupted.options = getOpts();
+		uninterrupted.SGD(data, 2, 4, 1, 0);
+
+		File checkpoint = tempFile();
+		NN checkpointed = NN.load(model.getPath());
+		checkpointed.options = getOpts();
+		checkpointed.options.checkpointFile = checkpoint.getPath();
+		checkpointed.SGD(data, 2, 2, 1, 0);
+
+		NN resumed = NN.load(model.getPath());
+		resumed.options = getOpts();
+		resumed.resumeSGD(checkpoint.getPath(), data, 2, 4, 1, 0);
+
+		for(SingleDatum d : data)
+			assertArrayEquals(uninterrupted.feedForward(d.getData()).data, resumed.feedForward(d.getData()).data, 0);
+	}
+
+	@Test
+	public void resumedRunKeepsPruning() throws Exception {
+		List<SingleDatum> data = data();
+		File model = tempFile();
+		new NN(getOpts(), 1, 6, 1).save(model.getPath());
+
+		NN uninterrupted = NN.load(model.getPath());
+		uninterrupted.options = getOpts();
+		uninterrupted.prune(0.5);
+		uninterrupted.SGD(data, 2, 4, 1, 0);
+
+		File checkpoint = tempFile();
+		NN checkpointed = NN.load(model.getPath());
+		checkpointed.options = getOpts();
+		checkpointed.options.checkpointFile = checkpoint.getPath();
+		checkpointed.prune(0.5);
+		checkpointed.SGD(data, 2, 2, 1, 0);
+
+		// Resume into the unpruned network: the checkpoint must bring the masks back
+		NN resumed = NN.load(model.getPath());
+		resumed.options = getOpts();
+		resumed.resumeSGD(checkpoint.getPath(), data, 2, 4, 1, 0);
+
+		assertTrue(resumed.isPruned());
+		for(SingleDatum d : data)
+			assertArrayEquals(uninterrupted.feedForward(d.getData()).data, resumed.feedForward(d.getData()).data, 0);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void rejectsDifferentBatchSize() throws Exception {
+		List<SingleDatum> data = data();
+		File checkpoint = tempFile();
+		NNOptions opts = getOpts();
+		opts.checkpointFile = checkpoint.getPath();
+		NN nn = new NN(opts, 1, 1);
+		nn.SGD(data, 2, 1, 1, 0);
+
+		nn.resumeSGD(checkpoint.getPath(), data, 3, 2, 1, 0);
+	}
+}
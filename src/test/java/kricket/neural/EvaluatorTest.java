@@ -0,0 +1,199 @@
+package kricket.neural;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import kricket.neural.cnn.CNN;
+import kricket.neural.cnn.ConvolutionalLayer;
+import kricket.neural.cnn.FlatteningLayer;
+import kricket.neural.cnn.FullyConnectedLayer;
+import kricket.neural.cnn.MaxPoolingLayer;
+import kricket.neural.cnn.ReLULayer;
+import kricket.neural.mnist.Image;
+import kricket.neural.nn.NN;
+import kricket.neural.util.Dimension;
+import kricket.neural.util.IncompatibleLayerException;
+import kricket.neural.util.NNOptions;
+import kricket.neural.util.TensorTest;
+
+import org.junit.Test;
+
+public class EvaluatorTest {
+
+	private static List<Image> randomImages(int n) {
+		List<Image> images = new ArrayList<>();
+		for(int i=0; i<n; i++) {
+			double[] pixels = new double[Image.WIDTH*Image.HEIGHT];
+			for(int p=0; p<pixels.length; p++)
+				pixels[p] = Math.random();
+			images.add(new Image(pixels, i % 10));
+		}
+		return images;
+	}
+
+	private static NNOptions getOpts(int threads) {
+		NNOptions opts = new NNOptions();
+		opts.logDimensions = false;
+		opts.evaluationThreads = threads;
+		opts.evaluationBatchSize = 16;
+		return opts;
+	}
+
+	/**
+	 * Collect the messages logged to the given Logger.
+	 */
+	private static List<String> capture(Logger log) {
+		final List<String> messages = new ArrayList<>();
+		log.addHandler(new Handler() {
+			@Override
+			public void publish(LogRecord record) {
+				messages.add(record.getMessage());
+			}
+			@Override
+			public void flush() {}
+			@Override
+			public void close() {}
+		});
+		return messages;
+	}
+
+	private static void assertSameEvaluation(Evaluation expected, Evaluation actual) {
+		assertEquals(expected.getTotal(), actual.getTotal());
+		assertEquals(expected.getCorrect(), actual.getCorrect());
+		for(int a=0; a<expected.getConfusionMatrix().length; a++)
+			assertArrayEquals("actual class " + a, expected.getConfusionMatrix()[a], actual.getConfusionMatrix()[a]);
+	}
+
+	@Test
+	public void parallelNNMatchesSerial() {
+		List<Image> data = randomImages(301);
+		NN nn = new NN(getOpts(1), Image.WIDTH*Image.HEIGHT, 20, 10);
+		Evaluation serial = nn.evaluate(data);
+
+		// Count by hand, with the single-input feedForward
+		int correct = 0;
+		for(Image img : data) {
+			if(nn.isCorrect(nn.feedForward(img.getData()).data, img.getAnswer().data))
+				correct++;
+		}
+		assertEquals(data.size(), serial.getTotal());
+		assertEquals(correct, serial.getCorrect());
+
+		nn.getOptions().evaluationThreads = 4;
+		assertSameEvaluation(serial, nn.evaluate(data));
+	}
+
+	@Test
+	public void parallelCNNMatchesSerial() throws IncompatibleLayerException {
+		List<Image> data = randomImages(203);
+		CNN cnn = new CNN(getOpts(1), new Dimension(Image.HEIGHT, Image.WIDTH, 1),
+				new ConvolutionalLayer(3, 5, 5, 3, 3),
+				new ReLULayer(),
+				new MaxPoolingLayer(),
+				new FlatteningLayer(),
+				new FullyConnectedLayer(10));
+		Evaluation serial = cnn.evaluate(data);
+
+		int correct = 0;
+		int[] perClass = new int[10];
+		for(Image img : data) {
+			if(cnn.isCorrect(cnn.feedForward(img.getDataTensor()).data, img.getAnswer().data))
+				correct++;
+			perClass[img.getAnswerClass()]++;
+		}
+		assertEquals(correct, serial.getCorrect());
+		for(int a=0; a<10; a++) {
+			int sum = 0;
+			for(int count : serial.getConfusionMatrix()[a])
+				sum += count;
+			assertEquals(perClass[a], sum);
+		}
+
+		cnn.getOptions().evaluationThreads = 3;
+		assertSameEvaluation(serial, cnn.evaluate(data));
+	}
+
+	@Test
+	public void runningEvaluationTracksSGD() {
+		List<Image> data = randomImages(50);
+		NNOptions opts = getOpts(2);
+		opts.summarizeSGD = false;
+		opts.logEpochs = false;
+		opts.errorEstimate = NNOptions.ErrorEstimate.RUNNING;
+		NN nn = new NN(opts, Image.WIDTH*Image.HEIGHT, 10);
+		assertEquals(null, nn.getRunningEvaluation());
+
+		nn.SGD(data, 7, 2, 0.5, 0);
+		Evaluation running = nn.getRunningEvaluation();
+		// Only the last epoch is kept
+		assertEquals(data.size(), running.getTotal());
+		assertTrue(running.getLoss() > 0);
+
+		List<String> messages = capture(opts.log);
+		opts.errorEstimate = NNOptions.ErrorEstimate.SAMPLED;
+		opts.errorSampleSize = 20;
+		nn.SGD(data, 7, 1, 0.5, 0);
+		// Nobody looks at the running estimate any more
+		assertEquals(null, nn.getRunningEvaluation());
+		
+		Pattern sampled = Pattern.compile(".*Percent correct: ([0-9.]+) \\(95% in ([0-9.]+) - ([0-9.]+), sample of (\\d+)\\)");
+		Matcher m = null;
+		for(String msg : messages) {
+			Matcher candidate = sampled.matcher(msg);
+			if(candidate.matches())
+				m = candidate;
+		}
+		assertTrue(messages.toString(), m != null);
+		assertEquals(20, Integer.parseInt(m.group(4)));
+		double accuracy = Double.parseDouble(m.group(1)), low = Double.parseDouble(m.group(2)), high = Double.parseDouble(m.group(3));
+		assertTrue(0 <= low && low <= accuracy && accuracy <= high && high <= 100);
+		// Even at 0% or 100%, the Wilson interval for 20 samples is 16 points wide
+		assertTrue(m.group(0), high - low > 15);
+	}
+
+	@Test
+	public void progressIsLoggedAsBefore() {
+		List<Image> data = randomImages(30);
+		NNOptions opts = getOpts(2);
+		opts.summarizeSGD = false;
+		opts.errorEstimate = NNOptions.ErrorEstimate.RUNNING;
+		NN nn = new NN(opts, Image.WIDTH*Image.HEIGHT, 10);
+		List<String> messages = capture(opts.log);
+		nn.SGD(data, 7, 2, 0.5, 0);
+		opts.errorEstimate = NNOptions.ErrorEstimate.FULL;
+		nn.SGD(data, 7, 1, 0.5, 0);
+
+		// All logged (in order) by the time SGD returns
+		String completed = "Epoch completed in \\d+\\.\\d{3}s";
+		String running = "-------------------> Running percent correct: \\d+\\.\\d{3}, cost: \\d+\\.\\d{4}";
+		String[] expected = {
+				"Running epoch 0", completed, running,
+				"Running epoch 1", completed, running,
+				"Running epoch 0", completed, "-------------------> Percent correct: \\d+\\.\\d{3}"};
+		assertEquals(messages.toString(), expected.length, messages.size());
+		for(int i=0; i<expected.length; i++)
+			assertTrue(messages.get(i), messages.get(i).matches(expected[i]));
+	}
+
+	@Test
+	public void confidenceInterval() {
+		Evaluation eval = new Evaluation(2);
+		for(int i=0; i<100; i++)
+			eval.add(new double[] {1, 0}, (i < 80 ? new double[] {1, 0} : new double[] {0, 1}));
+		assertEquals(0.8, eval.getAccuracy(), TensorTest.TOLERANCE);
+
+		double[] interval = eval.confidenceInterval(1.96);
+		// Wilson interval for 80/100
+		assertEquals(0.7111, interval[0], 0.0001);
+		assertEquals(0.8666, interval[1], 0.0001);
+	}
+}
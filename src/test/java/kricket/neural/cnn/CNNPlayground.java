@@ -1,9 +1,9 @@
 package kricket.neural.cnn;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 
+import kricket.neural.mnist.Augmenter;
 import kricket.neural.mnist.Image;
 import kricket.neural.mnist.Loader;
 import kricket.neural.util.Dimension;
@@ -85,17 +85,7 @@ public class CNNPlayground {
 	
 	public static List<Image> augment(List<Image> original) {
 		System.out.println("Augmenting images...");
-		List<Image> augmented = new ArrayList<>(original);
-		for(Image i : original) {
-			augmented.add(i.rotate(Math.PI/6));
-			
-			augmented.add(i.shift(-3, -3));
-			augmented.add(i.shift(3, -3));
-			augmented.add(i.shift(-3, 3));
-			augmented.add(i.shift(3, 3));
-			
-			augmented.add(i.rotate(-Math.PI/6));
-		}
+		List<Image> augmented = Augmenter.standard().augment(original);
 		System.gc();
 		return augmented;
 	}
@@ -128,6 +118,27 @@ public class CNNPlayground {
 		*/
 	}
 	
+	//@Test
+	public void quantize() throws IncompatibleLayerException {
+		CNN cnn = new CNN(getOpts(), new Dimension(Image.HEIGHT, Image.WIDTH, 1),
+				new ConvolutionalLayer(6, 5, 5, 2, 2),
+				new ReLULayer(),
+				new ConvolutionalLayer(6, 2, 2, 2, 2),
+				new SigmaLayer(),
+				new ConvolutionalLayer(16, 4, 4, 2, 2),
+				new FlatteningLayer(),
+				new FullyConnectedLayer(30),
+				new SigmaLayer(),
+				new FullyConnectedLayer(10)
+		);
+		cnn.SGD(trainingImages, 20, 3, 0.25, 0);
+		
+		for(Quantizer.Granularity g : Quantizer.Granularity.values()) {
+			Quantizer quantizer = new Quantizer(cnn, g).calibrate(trainingImages.subList(0, 1000));
+			System.out.println(g + ":\n" + Quantizer.compare(quantizer.getFullPrecision(), quantizer.quantize(), testImages));
+		}
+	}
+	
 	//@Test
 	public void tryMomentum() throws IncompatibleLayerException {
 		CNN cnn = new CNN(getOpts(), new Dimension(Image.HEIGHT, Image.WIDTH, 1),
@@ -1,15 +1,27 @@
 package kricket.neural.cnn;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import kricket.neural.cnn.LayerListener.Phase;
+import kricket.neural.nn.NN;
 import kricket.neural.util.Datum;
 import kricket.neural.util.Dimension;
 import kricket.neural.util.IncompatibleLayerException;
+import kricket.neural.util.MemoryBudget;
 import kricket.neural.util.NNOptions;
 import kricket.neural.util.SingleDatum;
+import kricket.neural.util.SyntheticData;
+import kricket.neural.util.Tensor;
+import kricket.neural.util.VectorDatum;
 
 import org.junit.Test;
 
@@ -103,6 +115,47 @@ public class CNNTest {
 		new CNN(getOpts(), new Dimension(1, 1, 2), new FullyConnectedLayer(2));
 	}
 	
+	@Test
+	public void concurrentFeedForward() throws Exception {
+		final CNN cnn = new CNN(getOpts(), new Dimension(8, 8, 1),
+				new ConvolutionalLayer(3, 3, 3, 1, 1),
+				new ReLULayer(),
+				new MaxPoolingLayer(),
+				new FlatteningLayer(),
+				new FullyConnectedLayer(4));
+		
+		final Tensor[] inputs = new Tensor[50];
+		final Tensor[] expected = new Tensor[inputs.length];
+		for(int i=0; i<inputs.length; i++) {
+			inputs[i] = Tensor.random(8, 8, 1);
+			expected[i] = cnn.feedForward(inputs[i]).copy();
+		}
+		
+		final AtomicInteger mismatches = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for(int t=0; t<threads.length; t++) {
+			final boolean ownContext = (t % 2 == 0);
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					CNN.Context ctx = cnn.newContext();
+					for(int rep=0; rep<20; rep++) {
+						for(int i=0; i<inputs.length; i++) {
+							Tensor y = ownContext ? cnn.feedForward(inputs[i], ctx) : cnn.feedForward(inputs[i]);
+							if(!y.equals(expected[i]))
+								mismatches.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for(Thread t : threads)
+			t.join();
+		
+		assertEquals(0, mismatches.get());
+	}
+	
 	final double EPSILON = Math.pow(2, -32) ;
 	
 	/**
@@ -111,6 +164,64 @@ public class CNNTest {
 	 * @throws IncompatibleLayerException 
 	 */
 	/*
+	@Test
+	public void saveAndLoad() throws Exception {
+		NNOptions opts = getOpts();
+		opts.logDimensions = false;
+		CNN cnn = new CNN(opts, new Dimension(12, 10, 2),
+				new ConvolutionalLayer(4, 3, 3, 1, 2).withMomentum(0.5),
+				new ReLULayer(),
+				new ConvolutionalLayer(3, 2, 2, 2, 1),
+				new MaxPoolingLayer(),
+				new SigmaLayer(),
+				new FlatteningLayer(),
+				new FullyConnectedLayer(7, 0.9),
+				new FullyConnectedLayer(5));
+		File file = File.createTempFile("model", ".model");
+		file.deleteOnExit();
+		cnn.save(file.getPath());
+		
+		CNN loaded = CNN.load(file.getPath());
+		assertEquals(cnn.toString(), loaded.toString());
+		assertTrue(Arrays.equals(cnn.getDimensions(), loaded.getDimensions()));
+		for(int i=0; i<5; i++) {
+			Tensor x = Tensor.random(12, 10, 2);
+			assertArrayEquals(cnn.feedForward(x).data, loaded.feedForward(x).data, 0);
+		}
+	}
+	
+	@Test
+	public void loadedOptimizerStateContinuesTraining() throws Exception {
+		List<SingleDatum> data = Arrays.asList(new SingleDatum(0,0), new SingleDatum(1, 1));
+		NNOptions opts = getOpts();
+		opts.logDimensions = false;
+		CNN cnn = new CNN(opts, new Dimension(1, 1, 1),
+				new ConvolutionalLayer(3, 1, 1, 1, 1).withMomentum(0.5),
+				new FlatteningLayer(),
+				new FullyConnectedLayer(4, 0.9),
+				new SigmaLayer(),
+				new FullyConnectedLayer(1, 0.9));
+		cnn.SGD(data, 1, 3, 1, 0);
+		
+		File file = File.createTempFile("model", ".model");
+		file.deleteOnExit();
+		cnn.save(file.getPath(), true);
+		CNN loaded = CNN.load(file.getPath(), opts);
+		
+		cnn.SGD(data, 1, 3, 1, 0);
+		loaded.SGD(data, 1, 3, 1, 0);
+		for(SingleDatum d : data)
+			assertArrayEquals(cnn.feedForward(d.getDataTensor()).data, loaded.feedForward(d.getDataTensor()).data, 0);
+	}
+	
+	@Test(expected=IOException.class)
+	public void loadRejectsOtherFiles() throws Exception {
+		File file = File.createTempFile("model", ".model");
+		file.deleteOnExit();
+		new NN(getOpts(), 2, 1).save(file.getPath());
+		CNN.load(file.getPath());
+	}
+	
 	@Test @Ignore
 	public void handCheckGradients() throws IncompatibleLayerException {
 		FullyConnectedLayer layer = new FullyConnectedLayer(3);
@@ -165,4 +276,157 @@ public class CNNTest {
 		System.arraycopy(source.data, 0, target.data, 0, source.data.length);
 	}
 	*/
+	
+	@Test
+	public void sparseInputsSameAsDense() throws Exception {
+		List<Datum> data = new ArrayList<>();
+		for(int i=0; i<20; i++)
+			data.add(VectorDatum.sparse(50, 0.1, i % 3, 3));
+		CNN cnn = new CNN(getOpts(), new Dimension(50, 1, 1), new FullyConnectedLayer(8, 0.5), new SigmaLayer(), new FullyConnectedLayer(3));
+		File file = File.createTempFile("model", ".model");
+		file.deleteOnExit();
+		cnn.save(file.getPath(), true);
+		
+		CNN sparse = CNN.load(file.getPath(), getOpts());
+		CNN dense = CNN.load(file.getPath(), getOpts());
+		for(Layer l : dense.getLayers()) {
+			if(l instanceof FullyConnectedLayer)
+				((FullyConnectedLayer) l).withSparseInputDensity(0);
+		}
+		sparse.SGD(data, 4, 3, 0.5, 0.1);
+		dense.SGD(data, 4, 3, 0.5, 0.1);
+		for(Datum d : data)
+			assertArrayEquals(dense.feedForward(d.getDataTensor()).data, sparse.feedForward(d.getDataTensor()).data, 0);
+	}
+	
+	@Test
+	public void lowRankCanTrain() throws IncompatibleLayerException {
+		List<SingleDatum> data = Arrays.asList(new SingleDatum(0,0), new SingleDatum(1, 1));
+		CNN cnn = new CNN(getOpts(), new Dimension(1, 1, 1), new FullyConnectedLayer(6), new SigmaLayer(), new LowRankLayer(1, 2, 0.5));
+		cnn.SGD(data, 1, 200, 1, 0);
+		
+		assertTrue(cnn.feedForward(data.get(0).getDataTensor()).data[0] < 0.1);
+		assertTrue(cnn.feedForward(data.get(1).getDataTensor()).data[0] > 0.9);
+	}
+	
+	@Test
+	public void compress() throws Exception {
+		List<Datum> data = new ArrayList<>();
+		for(int i=0; i<30; i++)
+			data.add(VectorDatum.sparse(20, 0.5, i % 3, 3));
+		CNN cnn = new CNN(getOpts(), new Dimension(20, 1, 1), new FullyConnectedLayer(15), new SigmaLayer(), new FullyConnectedLayer(3));
+		
+		CNN compressed = cnn.compress(5);
+		Layer[] layers = compressed.getLayers();
+		assertTrue(layers[0] instanceof LowRankLayer);
+		// Too small to be worth it
+		assertTrue(layers[2] instanceof FullyConnectedLayer);
+		
+		Comparison cmp = Comparison.of(cnn.compile(), compressed.compile(), data);
+		assertTrue(cmp.candidateBytes < cmp.baselineBytes);
+		assertTrue(cmp.toString(), cmp.maxError < 0.5);
+		// At full rank, the factorization is exact
+		LowRankLayer full = new LowRankLayer(15, 15, 0);
+		new CNN(getOpts(), new Dimension(20, 1, 1), full);
+		full.factorize((FullyConnectedLayer) cnn.getLayers()[0]);
+		for(Datum d : data)
+			assertArrayEquals(cnn.getLayers()[0].feedForward(d.getDataTensor()).data, full.feedForward(d.getDataTensor()).data, 1e-12);
+		
+		// Compiles to the same thing, and can be saved
+		File file = File.createTempFile("model", ".model");
+		file.deleteOnExit();
+		compressed.save(file.getPath());
+		CNN loaded = CNN.load(file.getPath(), getOpts());
+		Predictor p = loaded.compile();
+		for(Datum d : data)
+			assertArrayEquals(compressed.feedForward(d.getDataTensor()).data, p.predict(d.getDataTensor().data), 1e-15);
+	}
+	
+	@Test
+	public void dropoutOnlyWhileTraining() throws Exception {
+		List<SingleDatum> data = Arrays.asList(new SingleDatum(0,0), new SingleDatum(1, 1));
+		CNN cnn = new CNN(getOpts(), new Dimension(1, 1, 1),
+				new FullyConnectedLayer(20), new SigmaLayer(), new DropoutLayer(0.5).withSeed(3), new FullyConnectedLayer(1));
+		cnn.SGD(data, 1, 300, 1, 0);
+		
+		Tensor x = data.get(1).getDataTensor();
+		double y = cnn.feedForward(x).data[0];
+		assertTrue("Actual value: " + y, y > 0.9);
+		assertEquals(y, cnn.feedForward(x).data[0], 0);
+		// The dropout is left out, and the layers around it fused
+		Predictor p = cnn.compile();
+		assertEquals(2, p.getNumOps());
+		assertEquals(y, p.predict(x.data)[0], 0);
+		
+		File file = File.createTempFile("model", ".model");
+		file.deleteOnExit();
+		cnn.save(file.getPath());
+		assertTrue(CNN.load(file.getPath(), getOpts()).getLayers()[2] instanceof DropoutLayer);
+	}
+	
+	@Test
+	public void layerMetrics() throws Exception {
+		SyntheticData data = new SyntheticData(new Dimension(6, 6, 1), 5, 20, 1);
+		CNN cnn = new CNN(getOpts(), data.getDimension(),
+				new ConvolutionalLayer(2, 3, 3, 1, 1), new FlatteningLayer(), new FullyConnectedLayer(5));
+		LayerMetrics metrics = new LayerMetrics(cnn);
+		cnn.setLayerListener(metrics);
+		cnn.SGD(data, 5, 2, 1, 0);
+		
+		for(int i=0; i<cnn.getLayers().length; i++) {
+			assertEquals(40, metrics.getCalls(i, Phase.FORWARD));
+			// Backprop stops before the final SigmaLayer
+			assertEquals(i < 3 ? 40 : 0, metrics.getCalls(i, Phase.BACKPROP));
+			assertEquals(8, metrics.getCalls(i, Phase.APPLY_GRADIENTS));
+			assertTrue(metrics.getNanos(i, Phase.FORWARD) > 0);
+		}
+		// 2 kernels of 3x3 at 4x4 positions, and 32x5 weights, plus the biases
+		assertEquals(2*18*16 + 32, metrics.getFlops(0, Phase.FORWARD));
+		assertEquals(2*160 + 5, metrics.getFlops(2, Phase.FORWARD));
+		assertEquals(3*165, metrics.getFlops(2, Phase.APPLY_GRADIENTS));
+		assertTrue(metrics.getGFlops(0, Phase.BACKPROP) > 0);
+		assertTrue(metrics.toString(), metrics.toString().contains("ConvolutionalLayer"));
+		
+		cnn.feedForward(data.get(0).getDataTensor());
+		assertEquals(41, metrics.getCalls(0, Phase.FORWARD));
+		cnn.setLayerListener(null);
+		cnn.feedForward(data.get(0).getDataTensor());
+		assertEquals(41, metrics.getCalls(0, Phase.FORWARD));
+		metrics.reset();
+		assertEquals(0, metrics.getCalls(0, Phase.FORWARD));
+	}
+	
+	@Test
+	public void memoryBudget() throws Exception {
+		CNN cnn = new CNN(getOpts(), new Dimension(6, 6, 1),
+				new ConvolutionalLayer(2, 3, 3, 1, 1), new FlatteningLayer(), new FullyConnectedLayer(5));
+		MemoryBudget budget = cnn.getMemoryBudget();
+		assertEquals(4, budget.getEntries().size());
+		
+		MemoryBudget.Entry conv = budget.getEntries().get(0);
+		assertEquals(8 * (2*9 + 2), conv.parameters);
+		assertEquals(conv.parameters, conv.momentum);
+		// The 4x4x2 output; backAdjust and the deltas of the 6x6 input
+		assertEquals(8 * 32, conv.activations);
+		assertEquals(8 * 2*36, conv.temporaries);
+		assertEquals(0, budget.getEntries().get(1).getTotal());
+		
+		MemoryBudget.Entry fc = budget.getEntries().get(2);
+		assertEquals(8 * (32*5 + 5), fc.parameters);
+		assertEquals(fc.parameters, fc.gradients);
+		assertEquals(8*5 + 4*32, fc.activations);
+		assertEquals(8 * (5*32 + 32), fc.temporaries);
+		assertEquals(conv.parameters + fc.parameters, budget.getParameterBytes());
+		
+		// Input, two of the largest outputs, and the output
+		assertEquals(8 * (36 + 2*32 + 5), budget.getBytesPerSample());
+		long fixed = budget.getFixedBytes();
+		assertEquals(fixed + 3*budget.getBytesPerSample(), budget.getTotalBytes(3));
+		assertEquals(3, budget.maxBatchSize(budget.getTotalBytes(3)));
+		assertEquals(3, budget.maxBatchSize(budget.getTotalBytes(4) - 1));
+		assertEquals(0, budget.maxBatchSize(fixed));
+		
+		assertEquals(budget.getParameterBytes() / 2, cnn.getMemoryBudget(4).getParameterBytes());
+		assertTrue(budget.toString(), budget.toString().contains("FullyConnectedLayer"));
+	}
 }
@@ -0,0 +1,228 @@
+package kricket.neural.cnn;
+
+import static kricket.neural.util.Differential.assertGradient;
+import static kricket.neural.util.Differential.assertUlps;
+import static org.junit.Assert.assertEquals;
+
+import kricket.neural.util.Differential;
+import kricket.neural.util.Dimension;
+import kricket.neural.util.IncompatibleLayerException;
+import kricket.neural.util.NNOptions;
+import kricket.neural.util.Tensor;
+
+import org.junit.Test;
+
+/**
+ * Checks each Layer's backprop against finite differences, and the optimized paths
+ * (sparse inputs, {@link Predictor}) against the plain ones, over random shapes.
+ * <p>The loss is the inner product of the layer's output with fixed random deltas, so
+ * its gradient is what backprop should return when given those deltas.
+ */
+public class GradientCheckTest {
+	private static final int TRIALS = 40;
+	/**
+	 * The most entries of each Tensor to check (chosen at random).
+	 */
+	private static final int SAMPLES = 12;
+	private static final double H = 1e-6, TOLERANCE = 1e-6;
+	private static final long DROPOUT_SEED = 17;
+
+	private NNOptions getOpts() {
+		NNOptions opts = new NNOptions();
+		opts.calcErrorsAfterEpochs = false;
+		opts.logEpochs = false;
+		opts.summarizeSGD = false;
+		opts.logDimensions = false;
+		return opts;
+	}
+
+	/**
+	 * The training pass, with the same dropout mask every time.
+	 */
+	private static Tensor forward(Layer layer, Tensor x) {
+		if(layer instanceof DropoutLayer)
+			((DropoutLayer) layer).withSeed(DROPOUT_SEED);
+		// Some layers work in-place on what they were given
+		return layer.feedForward(x.copy());
+	}
+
+	private static double loss(Layer layer, Tensor x, Tensor deltas) {
+		Tensor y = forward(layer, x);
+		double sum = 0;
+		for(int i=0; i<y.data.length; i++)
+			sum += y.data[i] * deltas.data[i];
+		return sum;
+	}
+
+	private static double numericGradient(Layer layer, Tensor x, Tensor deltas, double[] values, int i) {
+		double v = values[i];
+		values[i] = v + H;
+		double plus = loss(layer, x, deltas);
+		values[i] = v - H;
+		double minus = loss(layer, x, deltas);
+		values[i] = v;
+		return (plus - minus) / (2*H);
+	}
+
+	/**
+	 * Compare backprop's gradients (of the input, and of every parameter) with central
+	 * differences.
+	 * @param d
+	 * @param layer
+	 * @param in The input dimension.
+	 * @param inputZeros The fraction of zeros in the input.
+	 * @param inputScale What backprop's input gradient must be multiplied by to get the true
+	 * gradient (null = 1).
+	 */
+	private static void check(Differential d, Layer layer, Dimension in, double inputZeros, Tensor inputScale)
+			throws IncompatibleLayerException {
+		String what = d.describe(layer.getClass().getSimpleName() + " " + in);
+		Dimension out = layer.prepare(in);
+		for(Tensor p : layer.getParameters())
+			System.arraycopy(d.values(p.data.length, 0), 0, p.data, 0, p.data.length);
+		Tensor x = new Tensor(in, d.values(in.rows*in.columns*in.depth, inputZeros));
+		Tensor deltas = d.tensor(out);
+
+		layer.resetGradients();
+		forward(layer, x);
+		Tensor back = layer.backprop(deltas.copy()).copy();
+		Tensor[] params = layer.getParameters(), grads = layer.getOptimizerState();
+		assertEquals(what, params.length, grads.length);
+		double[][] gradients = new double[grads.length][];
+		for(int p=0; p<grads.length; p++)
+			gradients[p] = grads[p].data.clone();
+
+		assertEquals(what, x.data.length, back.data.length);
+		for(int n=0; n<SAMPLES; n++) {
+			int i = d.rand.nextInt(x.data.length);
+			double analytic = back.data[i] * (inputScale == null ? 1 : inputScale.data[i]);
+			assertGradient(what + " input " + i, numericGradient(layer, x, deltas, x.data, i), analytic, TOLERANCE);
+		}
+		for(int p=0; p<params.length; p++) {
+			for(int n=0; n<SAMPLES; n++) {
+				int i = d.rand.nextInt(params[p].data.length);
+				assertGradient(what + " parameter " + p + "[" + i + "]",
+						numericGradient(layer, x, deltas, params[p].data, i), gradients[p][i], TOLERANCE);
+			}
+		}
+	}
+
+	private static Dimension dimension(Differential d, int max, int maxDepth) {
+		return new Dimension(d.size(max), d.size(max), d.size(maxDepth));
+	}
+
+	@Test
+	public void fullyConnected() throws IncompatibleLayerException {
+		for(int t=0; t<TRIALS; t++) {
+			Differential d = new Differential(t);
+			Dimension in = new Dimension(d.size(30), 1, 1);
+			// Dense, and sparse enough for the SparseVector path
+			check(d, new FullyConnectedLayer(d.size(12), 0.5), in, 0, null);
+			check(d, new FullyConnectedLayer(d.size(12)), in, 0.8, null);
+		}
+	}
+
+	@Test
+	public void lowRank() throws IncompatibleLayerException {
+		for(int t=0; t<TRIALS; t++) {
+			Differential d = new Differential(t);
+			check(d, new LowRankLayer(d.size(12), d.size(5), 0.5), new Dimension(d.size(30), 1, 1), 0, null);
+		}
+	}
+
+	@Test
+	public void convolutional() throws IncompatibleLayerException {
+		for(int t=0; t<TRIALS; t++) {
+			Differential d = new Differential(t);
+			Dimension in = dimension(d, 11, 3);
+			int kRows = d.size(in.rows), kCols = d.size(in.columns);
+			// Steps that don't divide (input - kernel) leave pixels that no kernel touches
+			int rowStep = d.size(3), colStep = d.size(3);
+			ConvolutionalLayer conv = new ConvolutionalLayer(d.size(3), kCols, kRows, colStep, rowStep);
+
+			// backprop divides each input's gradient by the number of windows it is in
+			Tensor windows = new Tensor(in);
+			for(int r=0; r+kRows <= in.rows; r+=rowStep)
+				for(int c=0; c+kCols <= in.columns; c+=colStep)
+					for(int s=0; s<in.depth; s++)
+						for(int i=0; i<kRows; i++)
+							for(int j=0; j<kCols; j++)
+								windows.set(r+i, c+j, s, windows.at(r+i, c+j, s) + 1);
+			for(int i=0; i<windows.data.length; i++)
+				windows.data[i] = Math.max(1, windows.data[i]);
+			check(d, conv, in, 0, windows);
+		}
+	}
+
+	@Test
+	public void parameterless() throws IncompatibleLayerException {
+		for(int t=0; t<TRIALS; t++) {
+			Differential d = new Differential(t);
+			check(d, new MaxPoolingLayer(), dimension(d, 9, 4), 0, null);
+			check(d, new ReLULayer(), dimension(d, 9, 3), 0, null);
+			check(d, new SigmaLayer(), dimension(d, 9, 3), 0, null);
+			check(d, new FlatteningLayer(), dimension(d, 9, 3), 0, null);
+			check(d, new DropoutLayer(d.rand.nextDouble() * 0.9), dimension(d, 9, 3), 0, null);
+		}
+	}
+
+	@Test
+	public void sparseInputsSameAsDense() throws IncompatibleLayerException {
+		for(int t=0; t<TRIALS; t++) {
+			Differential d = new Differential(t);
+			Dimension in = new Dimension(d.size(40), 1, 1);
+			int neurons = d.size(12);
+			FullyConnectedLayer sparse = new FullyConnectedLayer(neurons).withSparseInputDensity(1);
+			FullyConnectedLayer dense = new FullyConnectedLayer(neurons).withSparseInputDensity(0);
+			Dimension out = sparse.prepare(in);
+			dense.prepare(in);
+			Tensor[] from = sparse.getParameters(), to = dense.getParameters();
+			for(int p=0; p<from.length; p++)
+				System.arraycopy(from[p].data, 0, to[p].data, 0, from[p].data.length);
+
+			Tensor x = new Tensor(in, d.values(in.rows, d.rand.nextDouble()));
+			Tensor deltas = d.tensor(out);
+			String what = d.describe("sparse inputs " + in);
+			// Skipping zeros doesn't change the sums
+			assertUlps(what, dense.feedForward(x).data, sparse.feedForward(x).data, 1, 0);
+			assertUlps(what, dense.backprop(deltas.copy()).data, sparse.backprop(deltas.copy()).data, 1, 0);
+			assertUlps(what, dense.getOptimizerState()[0].data, sparse.getOptimizerState()[0].data, 1, 0);
+		}
+	}
+
+	@Test
+	public void predictorSameAsFeedForward() throws IncompatibleLayerException {
+		for(int t=0; t<TRIALS; t++) {
+			Differential d = new Differential(t);
+			Dimension in = new Dimension(d.size(12) + 2, d.size(12) + 2, d.size(3));
+			CNN cnn = new CNN(getOpts(), in,
+					new ConvolutionalLayer(d.size(4), d.size(3), d.size(3), d.size(3), d.size(3)),
+					new ReLULayer(),
+					new MaxPoolingLayer(),
+					new FlatteningLayer(),
+					new FullyConnectedLayer(d.size(16)),
+					new SigmaLayer(),
+					new LowRankLayer(d.size(6), d.size(3), 0),
+					new FullyConnectedLayer(d.size(5)));
+			for(Layer l : cnn.getLayers())
+				for(Tensor p : l.getParameters())
+					System.arraycopy(d.values(p.data.length, 0), 0, p.data, 0, p.data.length);
+			// Half the time, prune enough for the sparse kernels
+			if(d.rand.nextBoolean())
+				cnn.prune(0.8);
+			String what = d.describe("Predictor " + in);
+
+			Predictor predictor = cnn.compile();
+			int batch = d.size(9);
+			double[][] inputs = new double[batch][], single = new double[batch][], outputs = new double[batch][predictor.getOutputSize()];
+			for(int b=0; b<batch; b++) {
+				inputs[b] = d.tensor(in).data;
+				single[b] = predictor.predict(inputs[b]);
+				assertUlps(what, cnn.feedForward(new Tensor(in, inputs[b].clone())).data, single[b], 1, 16);
+			}
+			predictor.predictBatch(inputs, outputs, batch);
+			for(int b=0; b<batch; b++)
+				assertUlps(what + " batch", single[b], outputs[b], 1, 16);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package kricket.neural.cnn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import kricket.neural.util.Dimension;
+import kricket.neural.util.IncompatibleLayerException;
+import kricket.neural.util.NNOptions;
+import kricket.neural.util.SingleDatum;
+import kricket.neural.util.Tensor;
+
+import org.junit.Test;
+
+public class PredictorTest {
+
+	private NNOptions getOpts() {
+		NNOptions opts = new NNOptions();
+		opts.calcErrorsAfterEpochs = false;
+		opts.logEpochs = false;
+		opts.summarizeSGD = false;
+		opts.logDimensions = false;
+		return opts;
+	}
+
+	private CNN mixedCNN() throws IncompatibleLayerException {
+		return new CNN(getOpts(), new Dimension(12, 10, 2),
+				new ConvolutionalLayer(4, 3, 3, 1, 2),
+				new ReLULayer(),
+				new ConvolutionalLayer(3, 2, 2, 2, 1),
+				new MaxPoolingLayer(),
+				new SigmaLayer(),
+				new FlatteningLayer(),
+				new FullyConnectedLayer(7),
+				new ReLULayer(),
+				new FullyConnectedLayer(5));
+	}
+
+	@Test
+	public void sameAsFeedForward() throws IncompatibleLayerException {
+		CNN cnn = mixedCNN();
+		Predictor p = cnn.compile();
+		assertEquals(12*10*2, p.getInputSize());
+		assertEquals(5, p.getOutputSize());
+		// conv+relu, conv, maxpool, sigma, fc+relu, fc+sigma
+		assertEquals(6, p.getNumOps());
+
+		double[] out = new double[5];
+		for(int i=0; i<20; i++) {
+			Tensor x = Tensor.random(12, 10, 2);
+			p.predict(x.data, out);
+			assertArrayEquals(cnn.feedForward(x).data, out, 0);
+		}
+	}
+
+	@Test
+	public void batchSameAsSingle() throws IncompatibleLayerException {
+		Predictor p = mixedCNN().compile();
+		double[][] inputs = new double[9][];
+		double[][] outputs = new double[9][5];
+		for(int i=0; i<inputs.length; i++)
+			inputs[i] = Tensor.random(12, 10, 2).data;
+
+		p.predictBatch(inputs, outputs, 9);
+		for(int i=0; i<inputs.length; i++)
+			assertArrayEquals(p.predict(inputs[i]), outputs[i], 0);
+
+		// A smaller batch reuses the same workspace
+		p.predictBatch(inputs, outputs, 3);
+		assertArrayEquals(p.predict(inputs[2]), outputs[2], 0);
+	}
+
+	@Test
+	public void unaffectedByTraining() throws IncompatibleLayerException {
+		CNN cnn = new CNN(getOpts(), new Dimension(1, 1, 1), new FullyConnectedLayer(3), new SigmaLayer(), new FullyConnectedLayer(1));
+		Predictor p = cnn.compile();
+		double[] before = p.predict(new double[] {1});
+
+		cnn.SGD(Arrays.asList(new SingleDatum(1, 0)), 1, 10, 5, 0);
+		assertArrayEquals(before, p.predict(new double[] {1}), 0);
+		assertEquals(cnn.feedForward(new Tensor(new double[] {1})).data[0], cnn.compile().predict(new double[] {1})[0], 0);
+	}
+
+	@Test
+	public void prunedLayersStaySparse() throws IncompatibleLayerException {
+		CNN cnn = mixedCNN();
+		cnn.prune(0.8);
+		for(Layer l : cnn.getLayers()) {
+			if(l instanceof FullyConnectedLayer)
+				assertEquals(0.8, ((FullyConnectedLayer) l).getSparsity(), 0.05);
+		}
+		long denseBytes = mixedCNN().compile().getParameterBytes();
+		Predictor p = cnn.compile();
+		assertTrue(p.getParameterBytes() < denseBytes);
+		for(int i=0; i<5; i++) {
+			Tensor x = Tensor.random(12, 10, 2);
+			assertArrayEquals(cnn.feedForward(x).data, p.predict(x.data), 0);
+		}
+
+
+		// Pruned weights stay pruned while training
+		FullyConnectedLayer fc = new FullyConnectedLayer(10);
+		cnn = new CNN(getOpts(), new Dimension(1, 1, 1), fc, new SigmaLayer(), new FullyConnectedLayer(1));
+		cnn.prune(0.5);
+		cnn.SGD(Arrays.asList(new SingleDatum(1, 0)), 1, 3, 1, 0);
+		assertEquals(0.5, fc.getSparsity(), 0);
+	}
+
+	@Test
+	public void pruningSurvivesSaveAndLoad() throws Exception {
+		CNN cnn = new CNN(getOpts(), new Dimension(1, 1, 1), new FullyConnectedLayer(10), new SigmaLayer(), new FullyConnectedLayer(1));
+		cnn.prune(0.5);
+		File file = File.createTempFile("model", ".cnn");
+		file.deleteOnExit();
+		cnn.save(file.getPath());
+
+		CNN loaded = CNN.load(file.getPath(), getOpts());
+		assertTrue(loaded.isPruned());
+		loaded.SGD(Arrays.asList(new SingleDatum(1, 0)), 1, 3, 1, 0);
+		FullyConnectedLayer fc = (FullyConnectedLayer) loaded.getLayers()[0];
+		double[] before = ((FullyConnectedLayer) cnn.getLayers()[0]).getWeights().data;
+		for(int j=0; j<before.length; j++)
+			assertEquals("Weight " + j, before[j] == 0, fc.getWeights().data[j] == 0);
+		assertEquals(0.5, fc.getSparsity(), 0);
+	}
+
+	@Test
+	public void classify() throws IncompatibleLayerException {
+		Predictor p = mixedCNN().compile();
+		for(int i=0; i<10; i++) {
+			double[] x = Tensor.random(12, 10, 2).data;
+			double[] y = p.predict(x);
+			int max = 0;
+			for(int j=1; j<y.length; j++)
+				if(y[j] > y[max])
+					max = j;
+			assertEquals(max, p.classify(x));
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package kricket.neural.cnn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import kricket.neural.mnist.Image;
+import kricket.neural.util.Dimension;
+import kricket.neural.util.IncompatibleLayerException;
+import kricket.neural.util.NNOptions;
+
+import org.junit.Test;
+
+public class QuantizerTest {
+
+	private static List<Image> randomImages(int n) {
+		List<Image> images = new ArrayList<>();
+		for(int i=0; i<n; i++) {
+			double[] pixels = new double[Image.WIDTH*Image.HEIGHT];
+			for(int p=0; p<pixels.length; p++)
+				pixels[p] = Math.random();
+			images.add(new Image(pixels, i % 10));
+		}
+		return images;
+	}
+
+	private CNN cnn() throws IncompatibleLayerException {
+		NNOptions opts = new NNOptions();
+		opts.logDimensions = false;
+		return new CNN(opts, new Dimension(Image.HEIGHT, Image.WIDTH, 1),
+				new ConvolutionalLayer(6, 5, 5, 2, 2),
+				new ReLULayer(),
+				new ConvolutionalLayer(4, 3, 3, 2, 2),
+				new MaxPoolingLayer(),
+				new FlatteningLayer(),
+				new FullyConnectedLayer(30),
+				new SigmaLayer(),
+				new FullyConnectedLayer(10));
+	}
+
+	@Test
+	public void closeToFullPrecision() throws IncompatibleLayerException {
+		CNN cnn = cnn();
+		List<Image> images = randomImages(50);
+		for(Quantizer.Granularity g : Quantizer.Granularity.values()) {
+			Quantizer quantizer = new Quantizer(cnn, g).calibrate(images.subList(0, 20));
+			Predictor q = quantizer.quantize();
+			assertEquals(quantizer.getFullPrecision().getNumOps(), q.getNumOps());
+
+			Comparison report = Quantizer.compare(quantizer.getFullPrecision(), q, images);
+			assertTrue(g + ": " + report, report.maxError < 0.1);
+			assertTrue(g + ": " + report, report.baselineBytes >= 4 * report.candidateBytes);
+			assertEquals(images.size(), report.candidate.getTotal());
+		}
+	}
+
+	@Test
+	public void quantizesPrunedLayers() throws IncompatibleLayerException {
+		NNOptions opts = new NNOptions();
+		opts.logDimensions = false;
+		CNN cnn = new CNN(opts, new Dimension(Image.HEIGHT, Image.WIDTH, 1),
+				new FlatteningLayer(),
+				new FullyConnectedLayer(30),
+				new SigmaLayer(),
+				new FullyConnectedLayer(10));
+		cnn.prune(0.8);
+		List<Image> images = randomImages(50);
+		Quantizer quantizer = new Quantizer(cnn, Quantizer.Granularity.PER_CHANNEL).calibrate(images.subList(0, 20));
+
+		Comparison report = Quantizer.compare(quantizer.getFullPrecision(), quantizer.quantize(), images);
+		assertTrue(report.toString(), report.maxError < 0.1);
+		// Both layers are sparse: 1 + 4 bytes per non-zero weight, rather than 8 + 4
+		assertTrue(report.toString(), 2 * report.candidateBytes < report.baselineBytes);
+	}
+
+	@Test
+	public void batchSameAsSingle() throws IncompatibleLayerException {
+		List<Image> images = randomImages(7);
+		Predictor q = new Quantizer(cnn(), Quantizer.Granularity.PER_CHANNEL).calibrate(images).quantize();
+		double[][] inputs = new double[images.size()][], outputs = new double[images.size()][10];
+		for(int i=0; i<inputs.length; i++)
+			inputs[i] = images.get(i).getDataTensor().data;
+		q.predictBatch(inputs, outputs, inputs.length);
+		for(int i=0; i<inputs.length; i++)
+			assertArrayEquals(q.predict(inputs[i]), outputs[i], 0);
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void mustCalibrate() throws IncompatibleLayerException {
+		new Quantizer(cnn(), Quantizer.Granularity.PER_LAYER).quantize();
+	}
+}
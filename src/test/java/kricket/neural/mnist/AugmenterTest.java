@@ -0,0 +1,118 @@
+package kricket.neural.mnist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import kricket.neural.util.TensorTest;
+
+import org.junit.Test;
+
+public class AugmenterTest {
+
+	private static Image randomImage(int label) {
+		double[] pixels = new double[Image.WIDTH*Image.HEIGHT];
+		for(int i=0; i<pixels.length; i++)
+			pixels[i] = Math.random();
+		return new Image(pixels, label);
+	}
+
+	/**
+	 * The original, per-pixel implementation of Image.rotate().
+	 */
+	private static double[] referenceRotate(double[] src, double rad) {
+		double[] dst = new double[src.length];
+		double sin = Math.sin(-rad), cos = Math.cos(-rad);
+		final int W = Image.WIDTH/2, H = Image.HEIGHT/2;
+		for(int x=0; x<Image.WIDTH; x++) {
+			for(int y=0; y<Image.HEIGHT; y++) {
+				double origX = cos*(x-W) - sin*(y-H) + W;
+				double origY = sin*(x-W) + cos*(y-H) + H;
+				double leftX = 1. - (origX - ((int)origX));
+				double botY = 1. - (origY - ((int)origY));
+				dst[y*Image.WIDTH + x] =
+						leftX * botY * pixel(src, origX, origY) +
+						leftX * (1-botY) * pixel(src, origX, origY+1) +
+						(1-leftX) * botY * pixel(src, origX+1, origY) +
+						(1-leftX) * (1-botY) * pixel(src, origX+1, origY+1);
+			}
+		}
+		return dst;
+	}
+
+	private static double pixel(double[] src, double dx, double dy) {
+		int x = (int) dx, y = (int) dy;
+		if(x < 0 || y < 0 || x >= Image.WIDTH || y >= Image.HEIGHT)
+			return 0;
+		return src[y*Image.WIDTH + x];
+	}
+
+	private static void assertSameImage(double[] expected, double[] actual) {
+		assertEquals(expected.length, actual.length);
+		for(int i=0; i<expected.length; i++)
+			assertEquals("pixel " + i, expected[i], actual[i], TensorTest.TOLERANCE);
+	}
+
+	@Test
+	public void rotateMatchesReference() {
+		Image img = randomImage(3);
+		for(double rad : new double[] {0, Math.PI/6, -Math.PI/6, Math.PI/12, 2}) {
+			assertSameImage(referenceRotate(img.getDataTensor().data, rad), img.rotate(rad).getDataTensor().data);
+		}
+	}
+
+	@Test
+	public void shiftMovesPixels() {
+		Image img = randomImage(7);
+		Image shifted = img.shift(2, -1);
+		assertEquals(7, shifted.getAnswerClass());
+		for(int y=0; y<Image.HEIGHT; y++) for(int x=0; x<Image.WIDTH; x++) {
+			int origX = x-2, origY = y-1;
+			double expected = (origX < 0 || origY < 0) ? 0 : img.getDataTensor().at(origY, origX, 0);
+			assertEquals("x=" + x + " y=" + y, expected, shifted.getDataTensor().at(y, x, 0), TensorTest.TOLERANCE);
+		}
+		// Only one tap per pixel that stays inside the image
+		assertEquals((Image.WIDTH-2) * (Image.HEIGHT-1), SamplingGrid.shift(2, -1).getTaps());
+	}
+
+	@Test
+	public void identityTransforms() {
+		Image img = randomImage(1);
+		double[] src = img.getDataTensor().data;
+		assertSameImage(src, img.transform(SamplingGrid.scale(1, 1)).getDataTensor().data);
+		assertSameImage(src, img.transform(SamplingGrid.shear(0, 0)).getDataTensor().data);
+		assertSameImage(src, img.shift(0, 0).getDataTensor().data);
+	}
+
+	@Test
+	public void parallelMatchesSerial() {
+		List<Image> images = new ArrayList<>();
+		for(int i=0; i<37; i++)
+			images.add(randomImage(i % 10));
+
+		SamplingGrid[] grids = {
+				SamplingGrid.rotation(0.3),
+				SamplingGrid.shift(1, 2),
+				SamplingGrid.scale(1.2, 0.9),
+				SamplingGrid.shear(0.1, -0.2)};
+		List<Image> augmented = new Augmenter(4, grids).augment(images);
+
+		assertEquals(images.size() * (grids.length+1), augmented.size());
+		for(int i=0; i<images.size(); i++) {
+			Image img = images.get(i);
+			assertSame(img, augmented.get(i));
+			for(int g=0; g<grids.length; g++) {
+				Image aug = augmented.get(images.size() + i*grids.length + g);
+				assertEquals(img.getAnswerClass(), aug.getAnswerClass());
+				assertSameImage(img.transform(grids[g]).getDataTensor().data, aug.getDataTensor().data);
+			}
+		}
+
+		double[][] buffers = new double[images.size()][Image.WIDTH*Image.HEIGHT];
+		new Augmenter(3, grids).apply(images, 2, buffers);
+		for(int i=0; i<images.size(); i++)
+			assertSameImage(images.get(i).transform(grids[2]).getDataTensor().data, buffers[i]);
+	}
+}
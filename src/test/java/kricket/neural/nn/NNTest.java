@@ -1,12 +1,27 @@
 package kricket.neural.nn;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import kricket.neural.Evaluation;
+import kricket.neural.TrainingListener;
+import kricket.neural.util.Matrix;
+import kricket.neural.util.MemoryBudget;
 import kricket.neural.util.NNOptions;
+import kricket.neural.util.Shuffler;
 import kricket.neural.util.SingleDatum;
+import kricket.neural.util.VectorDatum;
 
 import org.junit.Test;
 
@@ -52,4 +67,267 @@ public class NNTest {
 		forward = nn.feedForward(data.get(1).getData()).data[0];
 		assertTrue("Actual value: " + forward, forward > 0.99);
 	}
+	
+	@Test
+	public void shuffledBatchesNeedNotDivideData() {
+		List<SingleDatum> data = Arrays.asList(new SingleDatum(0,0), new SingleDatum(1, 1), new SingleDatum(0,0));
+		NNOptions opts = getOpts();
+		opts.shuffle = Shuffler.Mode.RANDOM;
+		NN nn = new NN(opts, 1,1);
+		nn.SGD(data, 2, 100, 10, 0);
+		
+		double forward = nn.feedForward(data.get(0).getData()).data[0];
+		assertTrue("Actual value: " + forward, forward < 0.0101);
+		forward = nn.feedForward(data.get(1).getData()).data[0];
+		assertTrue("Actual value: " + forward, forward > 0.99);
+	}
+	
+	@Test
+	public void saveAndLoad() throws IOException {
+		NN nn = new NN(getOpts(), 3, 5, 2);
+		File file = File.createTempFile("model", ".model");
+		file.deleteOnExit();
+		nn.save(file.getPath());
+		
+		NN loaded = NN.load(file.getPath());
+		Matrix x = new Matrix(0.1, -0.5, 0.8);
+		assertEquals(nn.feedForward(x), loaded.feedForward(x));
+	}
+	
+	@Test
+	public void loadsOldFormat() throws IOException {
+		File file = File.createTempFile("model", ".model");
+		file.deleteOnExit();
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		out.writeInt(2);	// layers
+		out.writeInt(1);	// inputs
+		out.writeInt(1);	// outputs
+		out.writeDouble(2);	// weight
+		out.writeDouble(-1);	// bias
+		out.close();
+		
+		NN nn = NN.load(file.getPath());
+		assertEquals(1. / (1 + Math.exp(-1)), nn.feedForward(new Matrix(1.)).data[0], 1e-15);
+	}
+	
+	/**
+	 * Assert that exactly the given weights are zero.
+	 * @param nn
+	 * @param pruned pruned[i][j] = whether weight j of layer i should be zero (null = record them).
+	 * @return pruned
+	 */
+	private static boolean[][] assertPruned(NN nn, boolean[][] pruned, int expectedCount) {
+		double[][] params = nn.getParameterArrays();
+		if(pruned == null)
+			pruned = new boolean[params.length/2][];
+		int count = 0;
+		for(int i=0; i<pruned.length; i++) {
+			// The weights are the even arrays; the odd ones are biases
+			double[] w = params[2*i];
+			if(pruned[i] == null) {
+				pruned[i] = new boolean[w.length];
+				for(int j=0; j<w.length; j++)
+					pruned[i][j] = (w[j] == 0);
+			}
+			for(int j=0; j<w.length; j++) {
+				assertEquals("Layer " + i + " weight " + j, pruned[i][j], w[j] == 0);
+				if(pruned[i][j])
+					count++;
+			}
+		}
+		assertEquals(expectedCount, count);
+		return pruned;
+	}
+	
+	@Test
+	public void prunedWeightsStayPruned() {
+		List<SingleDatum> data = Arrays.asList(new SingleDatum(0,0), new SingleDatum(1, 1));
+		NN nn = new NN(getOpts(), 1, 20, 1);
+		nn.pruneGradually(data, 1, 10, 0, 0.5, 3, 20);
+		
+		Matrix x = new Matrix(1.);
+		assertEquals(nn.feedForward(x).data[0], nn.feedForwardBatch(x).data[0], 0);
+		assertTrue("Actual value: " + nn.feedForward(x).data[0], nn.feedForward(x).data[0] > 0.9);
+		// Half of each weight matrix (20 + 20 weights)
+		boolean[][] pruned = assertPruned(nn, null, 20);
+		
+		nn.SGD(data, 1, 20, 10, 0);
+		assertPruned(nn, pruned, 20);
+	}
+	
+	@Test
+	public void pruningSurvivesSaveAndLoad() throws IOException {
+		List<SingleDatum> data = Arrays.asList(new SingleDatum(0,0), new SingleDatum(1, 1));
+		NN nn = new NN(getOpts(), 1, 20, 1);
+		nn.prune(0.5);
+		boolean[][] pruned = assertPruned(nn, null, 20);
+		File file = File.createTempFile("model", ".model");
+		file.deleteOnExit();
+		nn.save(file.getPath());
+		
+		NN loaded = NN.load(file.getPath());
+		assertTrue(loaded.isPruned());
+		loaded.SGD(data, 1, 20, 10, 0);
+		assertPruned(loaded, pruned, 20);
+	}
+	
+	@Test
+	public void seededParametersAreRepeatable() {
+		List<SingleDatum> data = Arrays.asList(new SingleDatum(0,0), new SingleDatum(1, 1));
+		NN a = new NN(getOpts(), 1, 4, 1), b = new NN(getOpts(), 1, 4, 1);
+		a.randomizeParameters(5);
+		b.randomizeParameters(5);
+		a.SGD(data, 1, 3, 0.5, 0);
+		b.SGD(data, 1, 3, 0.5, 0);
+		Matrix input = new Matrix(new double[] {0.5});
+		assertTrue(Arrays.equals(a.feedForward(input).data, b.feedForward(input).data));
+	}
+	
+	@Test
+	public void sparseInputsSameAsDense() {
+		List<VectorDatum> data = new ArrayList<>();
+		for(int i=0; i<20; i++)
+			data.add(VectorDatum.sparse(50, 0.1, i % 3, 3));
+		NNOptions denseOpts = getOpts();
+		denseOpts.sparseInputDensity = 0;
+		NN sparse = new NN(getOpts(), 50, 8, 3);
+		NN dense = new NN(denseOpts, 50, 8, 3);
+		double[][] from = sparse.getParameterArrays(), to = dense.getParameterArrays();
+		for(int i=0; i<from.length; i++)
+			System.arraycopy(from[i], 0, to[i], 0, from[i].length);
+		
+		sparse.SGD(data, 4, 3, 0.5, 0.1);
+		dense.SGD(data, 4, 3, 0.5, 0.1);
+		for(VectorDatum d : data)
+			assertEquals(dense.feedForward(d.getData()), sparse.feedForward(d.getData()));
+	}
+	
+	@Test
+	public void maskedDropout() {
+		List<SingleDatum> data = Arrays.asList(new SingleDatum(0,0), new SingleDatum(1, 1));
+		NN nn = new NN(getOpts(), 1, 20, 1);
+		nn.setDropoutRate(0.5, 3);
+		nn.SGD(data, 1, 300, 1, 0);
+		
+		assertTrue(nn.feedForward(new Matrix(0.)).data[0] < 0.1);
+		assertTrue(nn.feedForward(new Matrix(1.)).data[0] > 0.9);
+	}
+	
+	/**
+	 * The outputs of a seeded 1-20-1 network after training on two points.
+	 * @param rate The dropout rate (0 = none).
+	 * @param seed For the dropout masks.
+	 */
+	private double[] trainWithDropout(double rate, long seed) {
+		List<SingleDatum> data = Arrays.asList(new SingleDatum(0,0), new SingleDatum(1, 1));
+		NN nn = new NN(getOpts(), 1, 20, 1);
+		nn.randomizeParameters(9);
+		nn.setDropoutRate(rate, seed);
+		nn.SGD(data, 1, 20, 1, 0);
+		return new double[] {nn.feedForward(new Matrix(0.)).data[0], nn.feedForward(new Matrix(1.)).data[0]};
+	}
+	
+	@Test
+	public void dropoutMasksTraining() {
+		double[] plain = trainWithDropout(0, 3), dropped = trainWithDropout(0.5, 3);
+		assertFalse(Arrays.equals(plain, dropped));
+		// The same masks every time
+		assertTrue(Arrays.equals(dropped, trainWithDropout(0.5, 3)));
+		assertFalse(Arrays.equals(dropped, trainWithDropout(0.5, 4)));
+	}
+	
+	@Test
+	public void dropoutDoesNotMaskFeedForward() {
+		NN nn = new NN(getOpts(), 1, 20, 1);
+		nn.randomizeParameters(9);
+		Matrix input = new Matrix(0.5);
+		double[] before = nn.feedForward(input).data;
+		nn.setDropoutRate(0.5, 3);
+		assertTrue(Arrays.equals(before, nn.feedForward(input).data));
+		assertTrue(Arrays.equals(before, nn.feedForward(input).data));
+	}
+	
+	/**
+	 * A listener that appends a letter (and a number) to calls for each event.
+	 */
+	private static TrainingListener recorder(final StringBuilder calls) {
+		return new TrainingListener() {
+			@Override
+			public void sgdStarted(int size, int batchSize, int epochs, double eta, double lambda) {
+				calls.append("S").append(size);
+			}
+			@Override
+			public void epochStarted(int epoch) {
+				calls.append("E").append(epoch);
+			}
+			@Override
+			public void epochDone(int epoch, Evaluation running) {
+				calls.append("e").append(running.getTotal());
+			}
+			@Override
+			public void batchStarted(int epoch, int size) {
+				calls.append("B").append(size);
+			}
+			@Override
+			public void batchDone(int epoch, int size, Evaluation running) {
+				calls.append("b").append(running.getTotal());
+			}
+			@Override
+			public void evaluationStarted(int size) {
+				calls.append("V").append(size);
+			}
+			@Override
+			public void evaluationDone(Evaluation result) {
+				calls.append("v");
+			}
+		};
+	}
+	
+	@Test
+	public void trainingListenerSeesEveryBatch() {
+		List<SingleDatum> data = Arrays.asList(new SingleDatum(0,0), new SingleDatum(1, 1), new SingleDatum(0,0));
+		StringBuilder calls = new StringBuilder();
+		NN nn = new NN(getOpts(), 1, 1);
+		nn.setTrainingListener(recorder(calls));
+		nn.SGD(data, 2, 2, 1, 0);
+		nn.evaluate(data);
+		assertEquals("S3E0B2b2B1b3e3E1B2b2B1b3e3V3v", calls.toString());
+	}
+	
+	@Test
+	public void severalTrainingListeners() {
+		List<SingleDatum> data = Arrays.asList(new SingleDatum(0,0), new SingleDatum(1, 1));
+		StringBuilder first = new StringBuilder(), second = new StringBuilder();
+		NN nn = new NN(getOpts(), 1, 1);
+		TrainingListener a = recorder(first), b = recorder(second);
+		nn.addTrainingListener(a);
+		nn.addTrainingListener(b);
+		nn.evaluate(data);
+		assertEquals("V2v", first.toString());
+		assertEquals("V2v", second.toString());
+		
+		nn.removeTrainingListener(a);
+		assertSame(b, nn.getTrainingListener());
+		nn.evaluate(data);
+		assertEquals("V2v", first.toString());
+		assertEquals("V2vV2v", second.toString());
+		nn.removeTrainingListener(b);
+		assertNull(nn.getTrainingListener());
+	}
+	
+	@Test
+	public void memoryBudget() {
+		NN nn = new NN(getOpts(), 10, 6, 2);
+		MemoryBudget budget = nn.getMemoryBudget();
+		assertEquals(2, budget.getEntries().size());
+		MemoryBudget.Entry first = budget.getEntries().get(0);
+		assertEquals(8 * (10*6 + 6), first.parameters);
+		assertEquals(first.parameters, first.gradients);
+		assertEquals(0, first.momentum);
+		// z and sigma(z)
+		assertEquals(8 * 2*6, first.activations);
+		// The input, and the widest pair of consecutive layers
+		assertEquals(8 * (10 + 10+6), budget.getBytesPerSample());
+		assertEquals(0, budget.maxBatchSize(budget.getFixedBytes() - 1));
+	}
 }
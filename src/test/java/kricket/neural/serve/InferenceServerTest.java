@@ -0,0 +1,167 @@
+package kricket.neural.serve;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kricket.neural.cnn.CNN;
+import kricket.neural.cnn.FullyConnectedLayer;
+import kricket.neural.cnn.Predictor;
+import kricket.neural.cnn.SigmaLayer;
+import kricket.neural.util.Dimension;
+import kricket.neural.util.NNOptions;
+import kricket.neural.util.Tensor;
+
+import org.junit.Test;
+
+public class InferenceServerTest {
+
+	private static Predictor smallPredictor() throws Exception {
+		NNOptions opts = new NNOptions();
+		opts.logDimensions = false;
+		return new CNN(opts, new Dimension(4, 1, 1), new FullyConnectedLayer(5), new SigmaLayer(), new FullyConnectedLayer(3)).compile();
+	}
+
+	@Test
+	public void batchesConcurrentRequests() throws Exception {
+		final Predictor p = smallPredictor();
+		final BatchingPredictor batcher = new BatchingPredictor(p, 16, 5000, 2);
+		final AtomicInteger mismatches = new AtomicInteger();
+
+		Thread[] threads = new Thread[8];
+		for(int t=0; t<threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for(int i=0; i<25; i++) {
+						double[] x = Tensor.random(4, 1, 1).data;
+						try {
+							double[] y = batcher.predict(x);
+							if(!Arrays.equals(p.predict(x), y))
+								mismatches.incrementAndGet();
+						} catch(InterruptedException e) {
+							mismatches.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for(Thread t : threads)
+			t.join();
+		batcher.shutdown();
+
+		assertEquals(0, mismatches.get());
+		assertEquals(200, batcher.getStats().getCount());
+		assertTrue(batcher.getStats().getBatches() <= 200);
+		assertTrue(batcher.getStats().percentile(99) >= batcher.getStats().percentile(50));
+	}
+
+	@Test
+	public void shutdownFailsPendingRequests() throws Exception {
+		// A long latency, so the worker is still collecting the batch when we shut down
+		BatchingPredictor batcher = new BatchingPredictor(smallPredictor(), 16, 60000000, 1);
+		BatchingPredictor.Request r = batcher.submit(new double[4]);
+		Thread.sleep(50);
+		batcher.shutdown();
+		try {
+			r.get();
+			fail("Request should have failed");
+		} catch(IllegalStateException e) {
+			// Expected
+		}
+		try {
+			batcher.submit(new double[4]);
+			fail("Submit should have failed");
+		} catch(IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void badInputIsValidJson() throws Exception {
+		InferenceServer server = new InferenceServer(smallPredictor(), 0, 8, 100);
+		try {
+			HttpURLConnection conn = open(server.getPort(), "/predict", "1, \"abc\", 3, 4");
+			assertEquals(400, conn.getResponseCode());
+			assertEquals("{\"error\":\"The input must be numbers\"}", read(conn.getErrorStream()));
+		} finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void servesOverHttp() throws Exception {
+		Predictor p = smallPredictor();
+		InferenceServer server = new InferenceServer(p, 0, 8, 100);
+		try {
+			double[] x = {0.5, -1, 2, 0};
+			String response = request(server.getPort(), "/predict", "[0.5, -1, 2, 0]");
+			assertEquals(InferenceServer.toJson(p.predict(x)), response);
+
+			assertTrue(request(server.getPort(), "/stats", null).contains("\"requests\":1"));
+		} finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void servesOnVirtualThreadsWhereAvailable() throws Exception {
+		assertEquals(HandlerThreads.virtualThreadsAvailable() ? HandlerThreads.VIRTUAL : HandlerThreads.PLATFORM,
+				HandlerThreads.VIRTUAL.effective());
+
+		Predictor p = smallPredictor();
+		InferenceServer server = new InferenceServer(p, 0, 8, 100, HandlerThreads.VIRTUAL);
+		try {
+			double[] x = {1, 2, 3, 4};
+			assertEquals(InferenceServer.toJson(p.predict(x)), request(server.getPort(), "/predict", "1,2,3,4"));
+		} finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void parse() {
+		assertArrayEquals(new double[] {1, 2.5, -3}, InferenceServer.parse(" [1, 2.5,\n-3] "), 0);
+		assertArrayEquals(new double[] {1, 2}, InferenceServer.parse("1 2"), 0);
+		assertEquals(0, InferenceServer.parse("[]").length);
+	}
+
+	private static HttpURLConnection open(int port, String path, String body) throws Exception {
+		HttpURLConnection conn = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+		if(body != null) {
+			conn.setRequestMethod("POST");
+			conn.setDoOutput(true);
+			OutputStream out = conn.getOutputStream();
+			out.write(body.getBytes(StandardCharsets.UTF_8));
+			out.close();
+		}
+		return conn;
+	}
+
+	private static String request(int port, String path, String body) throws Exception {
+		HttpURLConnection conn = open(port, path, body);
+		assertEquals(200, conn.getResponseCode());
+		return read(conn.getInputStream());
+	}
+
+	private static String read(InputStream in) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024];
+		int n;
+		while((n = in.read(buf)) > 0)
+			bytes.write(buf, 0, n);
+		in.close();
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,98 @@
+package kricket.neural.telemetry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.List;
+
+import kricket.neural.nn.NN;
+import kricket.neural.telemetry.TrainingRecord.Kind;
+import kricket.neural.util.NNOptions;
+import kricket.neural.util.SyntheticData;
+
+import org.junit.Test;
+
+public class TelemetryTest {
+
+	private NNOptions getOpts() {
+		NNOptions opts = new NNOptions();
+		opts.calcErrorsAfterEpochs = false;
+		opts.logEpochs = false;
+		opts.summarizeSGD = false;
+		return opts;
+	}
+
+	@Test
+	public void recordsEveryBatchAndEpoch() throws Exception {
+		SyntheticData data = new SyntheticData(10, 2, 40, 1);
+		NN nn = new NN(getOpts(), 10, 5, 2);
+		StringWriter json = new StringWriter(), csv = new StringWriter();
+		RingBufferSink ring = new RingBufferSink(100);
+		Telemetry t = Telemetry.install(nn, new JsonLinesSink(json), new CsvSink(csv), ring);
+
+		nn.SGD(data, 10, 2, 0.5, 0);
+		nn.evaluate(data);
+		t.flush();
+
+		// 1 start, 2 epochs of 4 batches, 1 evaluation
+		List<TrainingRecord> records = ring.getRecent(100);
+		assertEquals(1 + 2*5 + 1, records.size());
+		assertEquals(Kind.START, records.get(0).kind);
+		assertEquals(40, records.get(0).samples);
+		assertEquals(0.5, records.get(0).learningRate, 0);
+		TrainingRecord epoch = ring.getLatest(Kind.EPOCH);
+		assertEquals(1, epoch.epoch);
+		assertEquals(4, epoch.batch);
+		assertEquals(40, epoch.samples);
+		assertTrue(epoch.samplesPerSecond > 0);
+		assertTrue(epoch.loss > 0);
+		assertEquals(Kind.EVALUATION, records.get(records.size()-1).kind);
+
+		t.close();
+		String[] lines = json.toString().split("\n");
+		assertEquals(records.size(), lines.length);
+		assertTrue(lines[1], lines[1].startsWith("{\"kind\":\"batch\",\"time\":"));
+		lines = csv.toString().split("\n");
+		assertEquals(TrainingRecord.CSV_HEADER, lines[0]);
+		assertEquals(records.size() + 1, lines.length);
+		assertEquals(TrainingRecord.CSV_HEADER.split(",").length, lines[1].split(",").length);
+	}
+
+	@Test
+	public void ringBufferKeepsTheLatest() {
+		RingBufferSink ring = new RingBufferSink(4);
+		for(int i=0; i<10; i++)
+			ring.accept(new TrainingRecord(Kind.BATCH, 0, 0, i, 1, 0, 0, 0, 1));
+		assertEquals(10, ring.getTotal());
+		List<TrainingRecord> recent = ring.getRecent(10);
+		// The oldest slot is given up, in case it is being overwritten
+		assertEquals(3, recent.size());
+		assertEquals(7, recent.get(0).batch);
+		assertEquals(9, recent.get(2).batch);
+		assertEquals(9, ring.getRecent(1).get(0).batch);
+	}
+
+	@Test
+	public void dropsRatherThanBlocking() throws Exception {
+		final Object lock = new Object();
+		TelemetrySink slow = new TelemetrySink() {
+			@Override
+			public void accept(TrainingRecord record) {
+				synchronized(lock) {}
+			}
+			@Override
+			public void flush() {}
+			@Override
+			public void close() {}
+		};
+		Telemetry t = new Telemetry(getOpts().log, 1, 2, slow);
+		synchronized(lock) {
+			for(int i=0; i<10; i++)
+				t.record(new TrainingRecord(Kind.BATCH, 0, 0, i, 1, 0, 0, 0, 1));
+		}
+		// The sink holds one, and the queue two
+		assertTrue(t.getDropped() >= 7);
+		t.close();
+	}
+}
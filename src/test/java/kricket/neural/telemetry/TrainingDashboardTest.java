@@ -0,0 +1,78 @@
+package kricket.neural.telemetry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import kricket.neural.cnn.CNN;
+import kricket.neural.cnn.FlatteningLayer;
+import kricket.neural.cnn.FullyConnectedLayer;
+import kricket.neural.util.Dimension;
+import kricket.neural.util.NNOptions;
+import kricket.neural.util.SyntheticData;
+
+import org.junit.Test;
+
+public class TrainingDashboardTest {
+
+	private static String get(int port, String path) throws Exception {
+		HttpURLConnection c = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+		assertEquals(200, c.getResponseCode());
+		assertEquals("application/json", c.getHeaderField("Content-Type"));
+		InputStream in = c.getInputStream();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		while((n = in.read(buf)) > 0)
+			bytes.write(buf, 0, n);
+		in.close();
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void showsTrainingProgress() throws Exception {
+		NNOptions opts = new NNOptions();
+		opts.calcErrorsAfterEpochs = false;
+		opts.logEpochs = false;
+		opts.summarizeSGD = false;
+		opts.logDimensions = false;
+		SyntheticData data = new SyntheticData(new Dimension(4, 4, 1), 3, 30, 1);
+		CNN cnn = new CNN(opts, data.getDimension(), new FlatteningLayer(), new FullyConnectedLayer(3));
+		TrainingDashboard dashboard = TrainingDashboard.attach(cnn, 0);
+		try {
+			String empty = get(dashboard.getPort(), "/status");
+			assertTrue(empty, empty.startsWith("{\"epoch\":-1,\"batches\":0,"));
+
+			cnn.SGD(data, 10, 2, 1, 0);
+			dashboard.getTelemetry().flush();
+			String status = get(dashboard.getPort(), "/status");
+			assertTrue(status, status.startsWith("{\"epoch\":1,\"batches\":6,"));
+			assertTrue(status, status.contains("\"lastEpoch\":{\"kind\":\"epoch\""));
+			assertTrue(status, status.contains("\"heapUsed\":"));
+			assertTrue(status, status.contains("{\"layer\":1,\"type\":\"FullyConnectedLayer\",\"phase\":\"backprop\",\"calls\":60,"));
+			assertTrue(status, status.contains("\"lossCurve\":[[0,1,"));
+		} finally {
+			dashboard.stop();
+		}
+	}
+
+	@Test
+	public void divergingRunIsValidJson() throws Exception {
+		TrainingDashboard dashboard = new TrainingDashboard(0, null);
+		try {
+			dashboard.accept(new TrainingRecord(TrainingRecord.Kind.BATCH, 0, 0, 1, 10, Double.NaN, 0.1, 1, 1000));
+			dashboard.accept(new TrainingRecord(TrainingRecord.Kind.BATCH, 0, 0, 2, 10, Double.POSITIVE_INFINITY, 0.1, 1, 1000));
+			String status = get(dashboard.getPort(), "/status");
+			assertFalse(status, status.contains("NaN") || status.contains("Infinity"));
+			assertTrue(status, status.contains("\"lossCurve\":[[0,1,null,0.1],[0,2,null,0.1]]"));
+		} finally {
+			dashboard.stop();
+		}
+	}
+}
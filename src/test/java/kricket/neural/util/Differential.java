@@ -0,0 +1,167 @@
+package kricket.neural.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+/**
+ * Helpers for differential tests, which run the same random inputs through a plain
+ * reference implementation and an optimized one:
+ * <ul>
+ * <li>Random shapes, half of them drawn from sizes that tend to break unrolled or
+ * blocked loops (1, odd numbers, one off a power of two).
+ * <li>Reference kernels on row-major arrays, written as plainly as possible.
+ * <li>Comparisons in ULPs. A sum of n products, in any order, is within about n ULPs of
+ * the exact value, measured at the scale of the same sum over absolute values.
+ * </ul>
+ * Every message includes the seed, so a failing case can be replayed.
+ */
+public class Differential {
+	private static final int[] EDGE_SIZES = {1, 2, 3, 5, 7, 8, 9, 15, 16, 17};
+
+	public final long seed;
+	public final Random rand;
+
+	public Differential(long seed) {
+		this.seed = seed;
+		rand = new Random(seed);
+	}
+
+	/**
+	 * A size in [1, max]; half the time, one of the edge sizes.
+	 * @param max
+	 * @return
+	 */
+	public int size(int max) {
+		if(rand.nextBoolean()) {
+			int s = EDGE_SIZES[rand.nextInt(EDGE_SIZES.length)];
+			if(s <= max)
+				return s;
+		}
+		return 1 + rand.nextInt(max);
+	}
+
+	/**
+	 * Values in [-1, 1), with (about) the given fraction of zeros.
+	 * @param n
+	 * @param zeros
+	 * @return
+	 */
+	public double[] values(int n, double zeros) {
+		double[] v = new double[n];
+		for(int i=0; i<n; i++)
+			v[i] = (rand.nextDouble() < zeros ? 0 : 2*rand.nextDouble() - 1);
+		return v;
+	}
+
+	public Tensor tensor(int rows, int cols, int slices) {
+		return new Tensor(rows, cols, slices, values(rows*cols*slices, 0));
+	}
+
+	public Tensor tensor(Dimension d) {
+		return tensor(d.rows, d.columns, d.depth);
+	}
+
+	public Matrix matrix(int rows, int cols) {
+		return new Matrix(rows, cols, values(rows*cols, 0));
+	}
+
+	/**
+	 * Describe a failing case.
+	 * @param what
+	 * @return
+	 */
+	public String describe(String what) {
+		return what + " (seed " + seed + ")";
+	}
+
+
+	//--- Reference implementations -----------------------------------------//
+
+
+	/**
+	 * a * b, for row-major a (n x k) and b (k x m).
+	 */
+	public static double[] times(double[] a, double[] b, int n, int k, int m) {
+		double[] p = new double[n*m];
+		for(int r=0; r<n; r++) {
+			for(int c=0; c<m; c++) {
+				double sum = 0;
+				for(int i=0; i<k; i++)
+					sum += a[r*k + i] * b[i*m + c];
+				p[r*m + c] = sum;
+			}
+		}
+		return p;
+	}
+
+	/**
+	 * The transpose of the row-major a (rows x cols).
+	 */
+	public static double[] transpose(double[] a, int rows, int cols) {
+		double[] t = new double[a.length];
+		for(int r=0; r<rows; r++)
+			for(int c=0; c<cols; c++)
+				t[c*rows + r] = a[r*cols + c];
+		return t;
+	}
+
+	public static double[] abs(double[] a) {
+		double[] b = new double[a.length];
+		for(int i=0; i<a.length; i++)
+			b[i] = Math.abs(a[i]);
+		return b;
+	}
+
+	/**
+	 * The given slice of a Tensor, as a row-major array.
+	 */
+	public static double[] slice(Tensor t, int s) {
+		double[] d = new double[t.rows*t.cols];
+		System.arraycopy(t.data, s*d.length, d, 0, d.length);
+		return d;
+	}
+
+
+	//--- Comparisons --------------------------------------------------------//
+
+
+	/**
+	 * Assert that actual[i] is within the given number of ULPs of expected[i], measured
+	 * at the scale of magnitude[i] (e.g. the same sum of products, over absolute values).
+	 */
+	public static void assertUlps(String message, double[] expected, double[] actual, double[] magnitude, int ulps) {
+		assertEquals(message + ": length", expected.length, actual.length);
+		for(int i=0; i<expected.length; i++)
+			assertUlps(message + " [" + i + "]", expected[i], actual[i], magnitude[i], ulps);
+	}
+
+	/**
+	 * Assert that actual[i] is within the given number of ULPs of expected[i], measured
+	 * at the given scale (or at expected[i], if larger).
+	 */
+	public static void assertUlps(String message, double[] expected, double[] actual, double scale, int ulps) {
+		assertEquals(message + ": length", expected.length, actual.length);
+		for(int i=0; i<expected.length; i++)
+			assertUlps(message + " [" + i + "]", expected[i], actual[i], Math.max(scale, Math.abs(expected[i])), ulps);
+	}
+
+	public static void assertUlps(String message, double expected, double actual, double scale, int ulps) {
+		if(Double.isNaN(actual) || Math.abs(expected - actual) > ulps * Math.ulp(scale))
+			fail(message + ": expected " + expected + " but was " + actual + " (more than " + ulps + " ULPs of " + scale + ")");
+	}
+
+	/**
+	 * Assert that a finite-difference estimate agrees with an analytic gradient.
+	 * @param message
+	 * @param numeric
+	 * @param analytic
+	 * @param tolerance Relative to the larger of 1 and the gradients.
+	 */
+	public static void assertGradient(String message, double numeric, double analytic, double tolerance) {
+		double scale = Math.max(1, Math.max(Math.abs(numeric), Math.abs(analytic)));
+		if(Double.isNaN(analytic) || Math.abs(numeric - analytic) > tolerance * scale)
+			fail(message + ": finite difference " + numeric + " but backprop " + analytic);
+	}
+}
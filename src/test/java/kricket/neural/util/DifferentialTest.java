@@ -0,0 +1,191 @@
+package kricket.neural.util;
+
+import static kricket.neural.util.Differential.abs;
+import static kricket.neural.util.Differential.assertUlps;
+import static kricket.neural.util.Differential.slice;
+import static kricket.neural.util.Differential.transpose;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Runs random shapes through the kernels of Tensor, Matrix, SubTensor, SparseVector and
+ * SparseMatrix, and compares them with the plain implementations in {@link Differential}.
+ */
+public class DifferentialTest {
+	private static final int TRIALS = 200;
+
+	/**
+	 * For each slice: a * b (within the ULPs that a sum of k products allows).
+	 */
+	private static void assertSlicesTimes(String message, Tensor a, Tensor b, Tensor actual, int n, int k, int m) {
+		for(int s=0; s<a.slices; s++) {
+			double[] sa = slice(a, s), sb = slice(b, s);
+			assertUlps(message + " slice " + s, Differential.times(sa, sb, n, k, m), slice(actual, s),
+					Differential.times(abs(sa), abs(sb), n, k, m), 2*k);
+		}
+	}
+
+	@Test
+	public void tensorProducts() {
+		for(int t=0; t<TRIALS; t++) {
+			Differential d = new Differential(t);
+			int n = d.size(20), k = d.size(20), m = d.size(20), s = d.size(3);
+			String shape = d.describe(n + "x" + k + " * " + k + "x" + m + " x" + s);
+
+			Tensor a = d.tensor(n, k, s), b = d.tensor(k, m, s);
+			assertSlicesTimes("times " + shape, a, b, a.times(b, new Tensor(n, m, s)), n, k, m);
+
+			// (a^T)^T * b
+			Tensor aT = d.tensor(k, n, s);
+			Tensor expected = new Tensor(k, n, s);
+			for(int i=0; i<s; i++)
+				System.arraycopy(transpose(slice(aT, i), k, n), 0, expected.data, i*n*k, n*k);
+			assertSlicesTimes("transposeTimes " + shape, expected, b, aT.transposeTimes(b, new Tensor(n, m, s)), n, k, m);
+
+			// a * (bT^T)
+			Tensor bT = d.tensor(m, k, s);
+			for(int i=0; i<s; i++)
+				System.arraycopy(transpose(slice(bT, i), m, k), 0, b.data, i*k*m, k*m);
+			assertSlicesTimes("timesTranspose " + shape, a, b, a.timesTranspose(bT, new Tensor(n, m, s)), n, k, m);
+		}
+	}
+
+	@Test
+	public void matrixProducts() {
+		for(int t=0; t<TRIALS; t++) {
+			Differential d = new Differential(t);
+			int n = d.size(20), k = d.size(20), m = d.size(20);
+			String shape = d.describe(n + "x" + k + " * " + k + "x" + m);
+
+			Matrix a = d.matrix(n, k), b = d.matrix(k, m);
+			double[] magnitude = Differential.times(abs(a.data), abs(b.data), n, k, m);
+			double[] expected = Differential.times(a.data, b.data, n, k, m);
+			assertUlps("times " + shape, expected, a.times(b).data, magnitude, 2*k);
+
+			Matrix aT = new Matrix(k, n, transpose(a.data, n, k));
+			assertUlps("transposeTimes " + shape, expected, aT.transposeTimes(b).data, magnitude, 2*k);
+
+			Matrix bT = new Matrix(m, k, transpose(b.data, k, m));
+			assertUlps("timesTranspose " + shape, expected, a.timesTranspose(bT).data, magnitude, 2*k);
+
+			// Tensor and Matrix are two implementations of the same product
+			Tensor ta = new Tensor(n, k, 1, a.data.clone()), tb = new Tensor(k, m, 1, b.data.clone());
+			assertUlps("Tensor vs Matrix " + shape, a.times(b).data, ta.times(tb, new Tensor(n, m, 1)).data, magnitude, 2*k);
+		}
+	}
+
+	@Test
+	public void sparseMatrix() {
+		for(int t=0; t<TRIALS; t++) {
+			Differential d = new Differential(t);
+			int rows = d.size(25), cols = d.size(25), batch = d.size(9);
+			double zeros = d.rand.nextDouble();
+			String shape = d.describe(rows + "x" + cols + " batch " + batch + " zeros " + zeros);
+
+			double[] w = d.values(rows*cols, zeros);
+			SparseMatrix s = new SparseMatrix(w, rows, cols);
+			assertArrayEquals(shape, w, s.toDense().data, 0);
+			assertEquals(shape, SparseMatrix.density(w) * rows * cols, s.getNonZeros(), 1e-9);
+
+			Matrix x = d.matrix(cols, batch);
+			double[] magnitude = Differential.times(abs(w), abs(x.data), rows, cols, batch);
+			double[] expected = Differential.times(w, x.data, rows, cols, batch);
+			assertUlps("times(Matrix) " + shape, expected, s.times(x).data, magnitude, 2*cols);
+
+			double[][] xs = new double[batch][], ys = new double[batch][rows];
+			double[] y = new double[rows];
+			for(int b=0; b<batch; b++) {
+				double[] column = new double[cols];
+				for(int c=0; c<cols; c++)
+					column[c] = x.at(c, b);
+				xs[b] = column;
+			}
+			s.times(xs, ys, batch);
+			for(int b=0; b<batch; b++) {
+				double[] e = new double[rows], mag = new double[rows];
+				for(int r=0; r<rows; r++) {
+					e[r] = expected[r*batch + b];
+					mag[r] = magnitude[r*batch + b];
+				}
+				assertUlps("times(batch) " + shape + " b=" + b, e, ys[b], mag, 2*cols);
+				s.times(xs[b], y);
+				assertArrayEquals("times(vector) " + shape, ys[b], y, 0);
+			}
+		}
+	}
+
+	@Test
+	public void sparseVector() {
+		for(int t=0; t<TRIALS; t++) {
+			Differential d = new Differential(t);
+			int rows = d.size(20), cols = d.size(40);
+			double zeros = d.rand.nextDouble(), maxDensity = d.rand.nextDouble();
+			String shape = d.describe(rows + "x" + cols + " zeros " + zeros + " maxDensity " + maxDensity);
+
+			double[] w = d.values(rows*cols, 0), x = d.values(cols, zeros);
+			int[] indices = new int[cols];
+			int count = SparseVector.nonZeros(x, indices, maxDensity);
+			int nonZeros = 0;
+			for(double v : x)
+				if(v != 0)
+					nonZeros++;
+			if(nonZeros > (int) (maxDensity * cols)) {
+				assertEquals(shape, -1, count);
+				continue;
+			}
+			assertEquals(shape, nonZeros, count);
+			for(int k=0; k<count; k++)
+				assertTrue(shape, x[indices[k]] != 0);
+
+			double[] y = new double[rows];
+			SparseVector.times(w, x, indices, count, y);
+			assertUlps("times " + shape, Differential.times(w, x, rows, cols, 1), y,
+					Differential.times(abs(w), abs(x), rows, cols, 1), 2*cols);
+
+			double[] delta = d.values(rows, 0), dW = d.values(rows*cols, 0), expected = dW.clone();
+			double[] outer = Differential.times(delta, x, rows, 1, cols);
+			for(int i=0; i<expected.length; i++)
+				expected[i] += outer[i];
+			SparseVector.plusEqualsOuter(dW, delta, x, indices, count);
+			assertUlps("plusEqualsOuter " + shape, expected, dW, 1, 1);
+		}
+	}
+
+	@Test
+	public void subTensor() {
+		for(int t=0; t<TRIALS; t++) {
+			Differential d = new Differential(t);
+			int rows = d.size(12), cols = d.size(12), slices = d.size(4);
+			int r = d.size(rows), c = d.size(cols), s = d.size(slices);
+			int r0 = d.rand.nextInt(rows - r + 1), c0 = d.rand.nextInt(cols - c + 1), s0 = d.rand.nextInt(slices - s + 1);
+			String shape = d.describe(r + "x" + c + "x" + s + " at " + r0 + "," + c0 + "," + s0
+					+ " of " + rows + "x" + cols + "x" + slices);
+
+			Tensor source = d.tensor(rows, cols, slices), m = d.tensor(r, c, s);
+			SubTensor sub = new SubTensor(source, r0, c0, s0, r, c, s);
+			double expected = 0, magnitude = 0;
+			for(int k=0; k<s; k++) for(int i=0; i<r; i++) for(int j=0; j<c; j++) {
+				double p = source.at(r0+i, c0+j, s0+k) * m.at(i, j, k);
+				expected += p;
+				magnitude += Math.abs(p);
+			}
+			assertUlps("innerProduct " + shape, expected, sub.innerProduct(m), magnitude, 2*r*c*s);
+
+			Tensor before = source.copy();
+			double scale = 2*d.rand.nextDouble() - 1;
+			sub.plusEqualsTimes(m, scale);
+			Tensor back = m.copy();
+			back.plusEqualsTimes(sub, 1);
+			for(int k=0; k<slices; k++) for(int i=0; i<rows; i++) for(int j=0; j<cols; j++) {
+				boolean inside = (i >= r0 && i < r0+r && j >= c0 && j < c0+c && k >= s0 && k < s0+s);
+				double e = before.at(i, j, k) + (inside ? m.at(i-r0, j-c0, k-s0) * scale : 0);
+				assertEquals("plusEqualsTimes " + shape, e, source.at(i, j, k), 0);
+				if(inside)
+					assertEquals("Tensor.plusEqualsTimes " + shape, m.at(i-r0, j-c0, k-s0) + e, back.at(i-r0, j-c0, k-s0), 0);
+			}
+		}
+	}
+}
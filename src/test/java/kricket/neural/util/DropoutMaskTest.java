@@ -0,0 +1,44 @@
+package kricket.neural.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DropoutMaskTest {
+
+	private static void checkRate(double rate) {
+		DropoutMask mask = new DropoutMask(10000);
+		mask.randomize(new Random(1), rate);
+		double[] x = new double[mask.size()];
+		Arrays.fill(x, 1);
+		mask.apply(x);
+		
+		int kept = 0;
+		for(int i=0; i<x.length; i++) {
+			assertEquals(mask.isKept(i) ? 1 / (1 - rate) : 0, x[i], 1e-15);
+			if(mask.isKept(i))
+				kept++;
+		}
+		assertEquals(1 - rate, (double) kept / x.length, 0.02);
+	}
+
+	@Test
+	public void keepsTheRightFraction() {
+		checkRate(0.5);
+		checkRate(0.2);
+		checkRate(0.8);
+	}
+
+	@Test
+	public void keepsEverythingUntilRandomized() {
+		DropoutMask mask = new DropoutMask(70);
+		double[] x = new double[70];
+		Arrays.fill(x, 3);
+		mask.apply(x);
+		for(double d : x)
+			assertEquals(3, d, 0);
+	}
+}
@@ -0,0 +1,34 @@
+package kricket.neural.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+public class ModelFileTest {
+
+	@Test
+	public void readsAcrossChunks() throws Exception {
+		double[][] params = {new Differential(1).values(37, 0.1), new double[0], new Differential(2).values(50, 0)};
+		double[][] state = {new Differential(3).values(30, 0), new Differential(4).values(57, 0)};
+		File file = File.createTempFile("model", ".knn");
+		file.deleteOnExit();
+		ModelFile.write(file.getPath(), ModelFile.Kind.NN, new byte[] {1, 2, 3}, params, state, true);
+
+		// Chunks of 5 doubles, so the arrays (and the optimizer state) start mid-chunk
+		ModelFile loaded = ModelFile.open(file.getPath(), ModelFile.Kind.NN, 40);
+		assertEquals(1, loaded.getArchitecture().readByte());
+		assertTrue(loaded.hasOptimizerState());
+		assertTrue(loaded.isPruned());
+		double[][] p = {new double[37], new double[0], new double[50]}, s = {new double[30], new double[57]};
+		loaded.readParameters(p);
+		loaded.readOptimizerState(s);
+		for(int i=0; i<params.length; i++)
+			assertArrayEquals(params[i], p[i], 0);
+		for(int i=0; i<state.length; i++)
+			assertArrayEquals(state[i], s[i], 0);
+	}
+}
@@ -0,0 +1,55 @@
+package kricket.neural.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SVDTest {
+
+	private static void checkDecomposition(Matrix a) {
+		SVD svd = new SVD(a);
+		int k = Math.min(a.rows, a.cols);
+		assertEquals(k, svd.getNumValues());
+		assertEquals(a.rows, svd.U.rows);
+		assertEquals(a.cols, svd.V.rows);
+		
+		for(int i=1; i<k; i++)
+			assertTrue(svd.S[i-1] >= svd.S[i]);
+		
+		// A = U * diag(S) * V^T
+		for(int r=0; r<a.rows; r++) for(int c=0; c<a.cols; c++) {
+			double sum = 0;
+			for(int i=0; i<k; i++)
+				sum += svd.U.at(r, i) * svd.S[i] * svd.V.at(c, i);
+			assertEquals(a.at(r, c), sum, 1e-12);
+		}
+		
+		// U and V have orthonormal columns
+		Matrix utu = svd.U.transposeTimes(svd.U), vtv = svd.V.transposeTimes(svd.V);
+		for(int i=0; i<k; i++) for(int j=0; j<k; j++) {
+			assertEquals(i == j ? 1 : 0, utu.at(i, j), 1e-12);
+			assertEquals(i == j ? 1 : 0, vtv.at(i, j), 1e-12);
+		}
+	}
+
+	@Test
+	public void tall() {
+		checkDecomposition(Matrix.random(12, 5));
+	}
+
+	@Test
+	public void wide() {
+		checkDecomposition(Matrix.random(4, 9));
+	}
+
+	@Test
+	public void lowRank() {
+		// An outer product has a single non-zero singular value
+		Matrix a = new Matrix(1., 2., 3.).timesTranspose(new Matrix(4., 5.));
+		SVD svd = new SVD(a);
+		assertEquals(Math.sqrt(14) * Math.sqrt(41), svd.S[0], 1e-12);
+		assertEquals(0, svd.S[1], 1e-12);
+		checkDecomposition(a);
+	}
+}
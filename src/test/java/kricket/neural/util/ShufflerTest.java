@@ -0,0 +1,97 @@
+package kricket.neural.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ShufflerTest {
+
+	/**
+	 * 10 classes, with (class+1)*12 data in each, sorted by class.
+	 */
+	private static List<SingleDatum> sortedData() {
+		List<SingleDatum> data = new ArrayList<>();
+		for(int c=0; c<10; c++)
+			for(int i=0; i<(c+1)*12; i++)
+				data.add(new SingleDatum(c, 0));
+		return data;
+	}
+
+	private static void assertPermutation(int[] order, int size) {
+		assertEquals(size, order.length);
+		boolean[] seen = new boolean[size];
+		for(int i : order) {
+			assertFalse("Duplicate " + i, seen[i]);
+			seen[i] = true;
+		}
+	}
+
+	@Test
+	public void allModesArePermutations() {
+		List<SingleDatum> data = sortedData();
+		for(Shuffler.Mode mode : Shuffler.Mode.values()) {
+			Shuffler s = new Shuffler(mode, 42, 50);
+			assertPermutation(s.order(data, 0), data.size());
+			assertPermutation(s.order(data, 1), data.size());
+		}
+	}
+
+	@Test
+	public void reproducibleButDifferentPerEpoch() {
+		List<SingleDatum> data = sortedData();
+		for(Shuffler.Mode mode : new Shuffler.Mode[] {Shuffler.Mode.RANDOM, Shuffler.Mode.STRATIFIED, Shuffler.Mode.LOCAL}) {
+			int[] a = new Shuffler(mode, 7, 50).order(data, 3);
+			int[] b = new Shuffler(mode, 7, 50).order(data, 3);
+			assertArrayEquals(mode.toString(), a, b);
+			assertFalse(mode.toString(), Arrays.equals(a, new Shuffler(mode, 7, 50).order(data, 4)));
+		}
+	}
+
+	@Test
+	public void stratifiedSpreadsClasses() {
+		List<SingleDatum> data = sortedData();
+		int[] order = new Shuffler(Shuffler.Mode.STRATIFIED, 1, 1).order(data, 0);
+		// Every class should show up in each third of the epoch, in about the right proportion
+		int third = order.length / 3;
+		for(int part=0; part<3; part++) {
+			int[] counts = new int[10];
+			for(int i=part*third; i<(part+1)*third; i++)
+				counts[data.get(order[i]).getAnswerClass()]++;
+			for(int c=0; c<10; c++)
+				assertEquals("class " + c + " in part " + part, (c+1)*4, counts[c], 1.01);
+		}
+	}
+
+	@Test
+	public void localKeepsBlocksTogether() {
+		List<SingleDatum> data = sortedData();
+		final int BLOCK = 50;
+		int[] order = new Shuffler(Shuffler.Mode.LOCAL, 1, BLOCK).order(data, 0);
+		// Each run of BLOCK indices (except the short last block) must come from a single block
+		int pos = 0;
+		while(pos < order.length) {
+			int block = order[pos] / BLOCK;
+			int blockLength = Math.min(BLOCK, data.size() - block*BLOCK);
+			for(int i=pos; i<pos+blockLength; i++)
+				assertEquals(block, order[i] / BLOCK);
+			pos += blockLength;
+		}
+	}
+
+	@Test
+	public void indexedListIsAView() {
+		List<SingleDatum> data = sortedData();
+		int[] order = {5, 100, 3, 7};
+		IndexedList<Datum> view = new IndexedList<Datum>(data, order, 1, 3);
+		assertEquals(2, view.size());
+		assertTrue(view.get(0) == data.get(100));
+		assertTrue(view.get(1) == data.get(3));
+	}
+}
@@ -0,0 +1,76 @@
+package kricket.neural.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SparseMatrixTest {
+
+	private static Matrix randomSparse(int rows, int cols, double density) {
+		Matrix m = Matrix.random(rows, cols);
+		for(int i=0; i<m.data.length; i++) {
+			if(Math.random() > density)
+				m.data[i] = 0;
+		}
+		return m;
+	}
+
+	@Test
+	public void sameAsDense() {
+		Matrix m = randomSparse(13, 17, 0.2);
+		SparseMatrix s = new SparseMatrix(m);
+		assertEquals(m, s.toDense());
+		assertEquals(SparseMatrix.density(m.data), s.getDensity(), 0);
+
+		Matrix x = Matrix.random(17, 5);
+		assertArrayEquals(m.times(x).data, s.times(x).data, 0);
+
+		Matrix v = Matrix.random(17, 1);
+		double[] y = new double[13];
+		s.times(v.data, y);
+		assertArrayEquals(m.times(v).data, y, 0);
+	}
+
+	@Test
+	public void batch() {
+		SparseMatrix s = new SparseMatrix(randomSparse(6, 4, 0.5));
+		double[][] x = new double[3][], y = new double[3][6];
+		for(int b=0; b<x.length; b++)
+			x[b] = Matrix.random(4, 1).data;
+		s.times(x, y, 3);
+
+		double[] single = new double[6];
+		for(int b=0; b<x.length; b++) {
+			s.times(x[b], single);
+			assertArrayEquals(single, y[b], 0);
+		}
+	}
+
+	@Test
+	public void emptyRows() {
+		SparseMatrix s = new SparseMatrix(new double[] {0, 0, 0, 2, 0, 0}, 3, 2);
+		assertEquals(1, s.getNonZeros());
+		double[] y = new double[3];
+		s.times(new double[] {1, 5}, y);
+		assertArrayEquals(new double[] {0, 10, 0}, y, 0);
+	}
+
+	@Test
+	public void pruning() {
+		double[] w = {0.5, -0.1, 0.3, -0.7, 0.2, 0.05};
+		boolean[] mask = Pruning.newMask(w.length);
+		assertEquals(3, Pruning.prune(w, mask, 0.5));
+		assertArrayEquals(new double[] {0.5, 0, 0.3, -0.7, 0, 0}, w, 0);
+
+		// Pruned weights stay pruned, even if they are changed
+		w[1] = 5;
+		Pruning.applyMask(w, mask);
+		assertEquals(0, w[1], 0);
+		assertEquals(4, Pruning.prune(w, mask, 0.7));
+		assertArrayEquals(new double[] {0.5, 0, 0, -0.7, 0, 0}, w, 0);
+
+		assertEquals(0, Pruning.schedule(0.9, 0, 10), 0);
+		assertEquals(0.9, Pruning.schedule(0.9, 10, 10), 1e-15);
+	}
+}
@@ -0,0 +1,121 @@
+package kricket.neural.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import kricket.neural.cnn.CNN;
+import kricket.neural.cnn.FlatteningLayer;
+import kricket.neural.cnn.FullyConnectedLayer;
+import kricket.neural.cnn.SigmaLayer;
+import kricket.neural.nn.NN;
+
+import org.junit.Test;
+
+public class SyntheticDataTest {
+
+	private NNOptions getOpts() {
+		NNOptions opts = new NNOptions();
+		opts.calcErrorsAfterEpochs = false;
+		opts.logEpochs = false;
+		opts.summarizeSGD = false;
+		opts.logDimensions = false;
+		return opts;
+	}
+
+	@Test
+	public void deterministic() {
+		SyntheticData a = new SyntheticData(50, 3, 100, 7).withDensity(0.3);
+		SyntheticData b = new SyntheticData(50, 3, 100, 7).withDensity(0.3);
+		for(int i=0; i<a.size(); i++) {
+			assertArrayEquals(a.get(i).getDataTensor().data, b.get(i).getDataTensor().data, 0);
+			assertEquals(i % 3, a.get(i).getAnswerClass());
+			assertEquals(1, a.get(i).getAnswer().data[i % 3], 0);
+		}
+		assertFalse(Arrays.equals(a.get(0).getDataTensor().data, a.get(3).getDataTensor().data));
+		assertFalse(Arrays.equals(a.get(0).getDataTensor().data, new SyntheticData(50, 3, 100, 8).get(0).getDataTensor().data));
+	}
+
+	@Test
+	public void density() {
+		SyntheticData data = new SyntheticData(new Dimension(10, 10, 2), 4, 200, 1).withDensity(0.2);
+		double total = 0;
+		for(Datum d : data)
+			total += SparseMatrix.density(d.getDataTensor().data);
+		assertEquals(0.2, total / data.size(), 0.02);
+		assertEquals(200, data.get(0).getData().data.length);
+	}
+
+	@Test
+	public void streamsWithoutStoring() {
+		SyntheticData data = new SyntheticData(784, 10, Integer.MAX_VALUE, 3);
+		Datum last = data.get(Integer.MAX_VALUE - 1);
+		assertEquals((Integer.MAX_VALUE - 1) % 10, last.getAnswerClass());
+		assertEquals(784, last.getDataTensor().data.length);
+	}
+
+	@Test
+	public void separableClassesCanBeLearned() throws IncompatibleLayerException {
+		// Train on the first 2000, test on the rest
+		SyntheticData vectors = new SyntheticData(30, 4, 3000, 11).withDensity(0.5).withSeparability(0.8);
+		NN nn = new NN(getOpts(), 30, 10, 4);
+		nn.SGD(vectors.subList(0, 2000), 10, 5, 1, 0);
+		assertTrue(nn.evaluate(vectors.subList(2000, 3000)).getAccuracy() > 0.8);
+
+		SyntheticData images = new SyntheticData(new Dimension(6, 5, 1), 4, 3000, 11).withDensity(0.5).withSeparability(0.8);
+		CNN cnn = new CNN(getOpts(), images.getDimension(), new FlatteningLayer(),
+				new FullyConnectedLayer(10), new SigmaLayer(), new FullyConnectedLayer(4));
+		cnn.SGD(images.subList(0, 2000), 10, 5, 0.5, 0);
+		assertTrue(cnn.evaluate(images.subList(2000, 3000)).getAccuracy() > 0.8);
+	}
+
+	@Test
+	public void strokesAreShiftedCopies() {
+		SyntheticData data = new SyntheticData(new Dimension(12, 10, 1), 3, 30, 5).withStrokes(2);
+		assertArrayEquals(data.get(4).getDataTensor().data,
+				new SyntheticData(new Dimension(12, 10, 1), 3, 30, 5).withStrokes(2).get(4).getDataTensor().data, 0);
+		for(int i=3; i<data.size(); i++) {
+			// The same stroke as the first of its class, moved by up to 2 pixels each
+			Tensor first = data.get(i % 3).getDataTensor(), d = data.get(i).getDataTensor();
+			boolean found = false;
+			for(int dr=-4; dr<=4 && !found; dr++)
+				for(int dc=-4; dc<=4 && !found; dc++)
+					found = shifted(first, d, dr, dc);
+			assertTrue("datum " + i, found);
+		}
+	}
+
+	/**
+	 * Whether b is a, moved by (dr, dc).
+	 */
+	private static boolean shifted(Tensor a, Tensor b, int dr, int dc) {
+		if(SparseMatrix.density(a.data) != SparseMatrix.density(b.data))
+			return false;
+		for(int r=0; r<a.rows; r++) {
+			for(int c=0; c<a.cols; c++) {
+				if(a.at(r, c, 0) == 0)
+					continue;
+				int r2 = r + dr, c2 = c + dc;
+				if(r2 < 0 || r2 >= b.rows || c2 < 0 || c2 >= b.cols || b.at(r2, c2, 0) != a.at(r, c, 0))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void strokesNeedRoomToShift() {
+		new SyntheticData(new Dimension(5, 10, 1), 3, 30, 5).withStrokes(2);
+	}
+
+	@Test
+	public void inseparableClassesCannotBeLearned() {
+		SyntheticData noise = new SyntheticData(30, 4, 2000, 11).withSeparability(0);
+		NN nn = new NN(getOpts(), 30, 10, 4);
+		nn.SGD(noise, 10, 3, 1, 0);
+		assertTrue(nn.evaluate(new SyntheticData(30, 4, 4000, 11).withSeparability(0).subList(2000, 4000)).getAccuracy() < 0.4);
+	}
+}
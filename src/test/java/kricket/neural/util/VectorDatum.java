@@ -0,0 +1,63 @@
+package kricket.neural.util;
+
+/**
+ * A datum whose input and answer are column vectors.
+ */
+public class VectorDatum implements Datum {
+	private final Matrix data, answer;
+	private final int answerClass;
+	
+	/**
+	 * @param in
+	 * @param answerClass The answer is 1 at this index, and 0 elsewhere.
+	 * @param outputs The size of the answer.
+	 */
+	public VectorDatum(double[] in, int answerClass, int outputs) {
+		data = new Matrix(in);
+		answer = new Matrix(outputs, 1);
+		answer.data[answerClass] = 1;
+		this.answerClass = answerClass;
+	}
+	
+	/**
+	 * A random input, where only about the given fraction of the values are non-zero.
+	 * @param inputs
+	 * @param density
+	 * @param answerClass
+	 * @param outputs
+	 * @return
+	 */
+	public static VectorDatum sparse(int inputs, double density, int answerClass, int outputs) {
+		double[] in = new double[inputs];
+		for(int i=0; i<inputs; i++) {
+			if(Math.random() < density)
+				in[i] = Math.random();
+		}
+		return new VectorDatum(in, answerClass, outputs);
+	}
+	
+	@Override
+	public Matrix getData() {
+		return data;
+	}
+	
+	@Override
+	public Matrix getAnswer() {
+		return answer;
+	}
+
+	@Override
+	public Tensor getDataTensor() {
+		return new Tensor(data.data);
+	}
+
+	@Override
+	public Tensor getAnswerTensor() {
+		return new Tensor(answer.data);
+	}
+
+	@Override
+	public int getAnswerClass() {
+		return answerClass;
+	}
+}